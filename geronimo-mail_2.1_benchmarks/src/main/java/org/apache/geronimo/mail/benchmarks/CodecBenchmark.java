@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.geronimo.mail.util.Base64Encoder;
+import org.apache.geronimo.mail.util.QuotedPrintableEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The base64 and quoted-printable transfer encodings.  Base64 runs over
+ * binary data, quoted-printable over the text of the corpus messages,
+ * which is mostly printable with occasional 8-bit characters.
+ *
+ * @version $Rev$ $Date$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+    @Param({"1024", "65536"})
+    public int size;
+
+    private final Base64Encoder base64 = new Base64Encoder();
+    private final QuotedPrintableEncoder quotedPrintable = new QuotedPrintableEncoder();
+
+    private byte[] binary;
+    private byte[] base64Encoded;
+    private byte[] text;
+    private byte[] quotedPrintableEncoded;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setUp() throws Exception {
+        binary = new byte[size];
+        new Random(42).nextBytes(binary);
+
+        // build the text from the corpus, adding some 8-bit characters
+        final String source = new String(Corpus.load(Corpus.SIMPLE_TEXT), "ISO8859-1") + "café naïve résumé\r\n";
+        final StringBuilder buffer = new StringBuilder(size);
+        while (buffer.length() < size) {
+            buffer.append(source);
+        }
+        text = buffer.substring(0, size).getBytes("UTF-8");
+
+        out = new ByteArrayOutputStream(size * 3);
+        base64.encode(binary, 0, binary.length, out);
+        base64Encoded = out.toByteArray();
+        out.reset();
+        quotedPrintable.encode(text, 0, text.length, out);
+        quotedPrintableEncoded = out.toByteArray();
+    }
+
+    @Benchmark
+    public int base64Encode() throws Exception {
+        out.reset();
+        return base64.encode(binary, 0, binary.length, out);
+    }
+
+    @Benchmark
+    public int base64Decode() throws Exception {
+        out.reset();
+        return base64.decode(base64Encoded, 0, base64Encoded.length, out);
+    }
+
+    @Benchmark
+    public int quotedPrintableEncode() throws Exception {
+        out.reset();
+        return quotedPrintable.encode(text, 0, text.length, out);
+    }
+
+    @Benchmark
+    public int quotedPrintableDecode() throws Exception {
+        out.reset();
+        return quotedPrintable.decode(quotedPrintableEncoded, 0, quotedPrintableEncoded.length, out);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Access to the benchmark corpus, the sample messages and server
+ * transcripts checked in under src/main/resources/corpus.
+ *
+ * The corpus files are stored with plain LF line ends so they survive
+ * any checkout line-end conversion.  They are converted to the CRLF form
+ * used on the wire when loaded; the literal sizes in the IMAP transcripts
+ * are given for the CRLF form.
+ *
+ * @version $Rev$ $Date$
+ */
+public final class Corpus {
+    // the messages of the corpus, as used for the @Param values
+    public static final String SIMPLE_TEXT = "simple-text.eml";
+    public static final String HTML_ALTERNATIVE = "html-alternative.eml";
+    public static final String ATTACHMENT = "attachment.eml";
+    public static final String NESTED = "nested.eml";
+    public static final String ENCODED_HEADERS = "encoded-headers.eml";
+
+    private Corpus() {
+    }
+
+    /**
+     * Load a corpus file with CRLF line ends.
+     *
+     * @param name   The file name relative to the corpus directory.
+     *
+     * @return The file content.
+     * @exception IOException
+     */
+    public static byte[] load(final String name) throws IOException {
+        final InputStream in = Corpus.class.getResourceAsStream("/corpus/" + name);
+        if (in == null) {
+            throw new IOException("Corpus file " + name + " not found");
+        }
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int previous = -1;
+            int ch;
+            while ((ch = in.read()) != -1) {
+                // expand any bare linefeed into a CRLF pair
+                if (ch == '\n' && previous != '\r') {
+                    out.write('\r');
+                }
+                out.write(ch);
+                previous = ch;
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.mail.MessagingException;
+
+import org.apache.geronimo.mail.store.imap.connection.IMAPResponseStream;
+import org.apache.geronimo.mail.store.imap.connection.IMAPResponseTokenizer;
+import org.apache.geronimo.mail.store.imap.connection.IMAPResponseTokenizer.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * IMAP response parsing over canned server transcripts: FETCH responses
+ * with ENVELOPE and BODYSTRUCTURE, FETCH responses carrying message
+ * literals, and the LIST/STATUS/SELECT responses of opening a mailbox.
+ *
+ * readResponses() runs the full IMAPResponseStream parse of a transcript;
+ * tokenize() runs just the IMAPResponseTokenizer over its response lines.
+ *
+ * @version $Rev$ $Date$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IMAPResponseBenchmark {
+
+    @Param({"fetch-envelope.txt", "fetch-body.txt", "mailbox.txt"})
+    public String transcript;
+
+    private byte[] data;
+    private int responseCount;
+    private List lines;
+
+    @Setup
+    public void setUp() throws Exception {
+        data = Corpus.load("imap/" + transcript);
+
+        // read the transcript once to find the number of responses and collect
+        // the response data for the tokenizer benchmark
+        lines = new ArrayList();
+        final IMAPResponseStream in = new IMAPResponseStream(new ByteArrayInputStream(data));
+        while (true) {
+            final byte[] line;
+            try {
+                line = in.readData();
+            } catch (final MessagingException e) {
+                // end of the transcript
+                break;
+            }
+            lines.add(line);
+        }
+        responseCount = lines.size();
+        if (responseCount == 0) {
+            throw new IllegalStateException("Transcript " + transcript + " contains no responses");
+        }
+    }
+
+    @Benchmark
+    public void readResponses(final Blackhole blackhole) throws Exception {
+        final IMAPResponseStream in = new IMAPResponseStream(new ByteArrayInputStream(data));
+        for (int i = 0; i < responseCount; i++) {
+            blackhole.consume(in.readResponse());
+        }
+    }
+
+    @Benchmark
+    public void tokenize(final Blackhole blackhole) throws Exception {
+        for (int i = 0; i < lines.size(); i++) {
+            final IMAPResponseTokenizer tokenizer = new IMAPResponseTokenizer((byte[]) lines.get(i));
+            Token token = tokenizer.next();
+            while (token.getType() != Token.EOF) {
+                blackhole.consume(token);
+                token = tokenizer.next();
+            }
+        }
+    }
+}
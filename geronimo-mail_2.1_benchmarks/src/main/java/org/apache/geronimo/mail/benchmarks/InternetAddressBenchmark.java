@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import jakarta.mail.internet.InternetAddress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * InternetAddress.parse() in strict and header parsing modes over
+ * typical recipient lists.
+ *
+ * @version $Rev$ $Date$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InternetAddressBenchmark {
+
+    @Param({"single", "list", "group"})
+    public String kind;
+
+    private String addresses;
+
+    @Setup
+    public void setUp() {
+        if (kind.equals("single")) {
+            addresses = "jane.doe@example.com";
+        }
+        else if (kind.equals("list")) {
+            addresses = "\"John Smith\" <john.smith@example.net>, Jane Doe <jane.doe@example.com>,\r\n"
+                    + " ops@example.com (Operations), =?ISO-8859-1?Q?Andr=E9_M=FCller?= <andre.mueller@example.de>,\r\n"
+                    + " \"Miller, Bob\" <bob.miller@example.org>, <news@lists.example.net>";
+        }
+        else {
+            addresses = "Team: john.smith@example.net, \"Jane Doe\" <jane.doe@example.com>, ops@example.com;, "
+                    + "undisclosed-recipients:;";
+        }
+    }
+
+    @Benchmark
+    public InternetAddress[] parse() throws Exception {
+        return InternetAddress.parse(addresses);
+    }
+
+    @Benchmark
+    public InternetAddress[] parseStrict() throws Exception {
+        return InternetAddress.parse(addresses, true);
+    }
+
+    @Benchmark
+    public InternetAddress[] parseHeader() throws Exception {
+        return InternetAddress.parseHeader(addresses, false);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.benchmarks;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.mail.internet.MailDateFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * MailDateFormat parsing of the date forms found in Date headers,
+ * and formatting.  MailDateFormat is not thread safe, so each thread
+ * uses its own instance.
+ *
+ * @version $Rev$ $Date$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MailDateFormatBenchmark {
+
+    private final String[] dates = {
+        "Tue, 11 Jun 2024 09:14:02 +0200",
+        "11 Jun 2024 07:14:03 GMT",
+        "Tue, 11 Jun 2024 16:14:02 +0900 (JST)",
+        "Mon, 3 Feb 2020 8:05:09 -0500",
+        "Fri, 29 Dec 23 23:59:59 EST",
+    };
+
+    private final MailDateFormat format = new MailDateFormat();
+    private final Date date = new Date(1718089442000L);
+
+    @Benchmark
+    public void parse(final Blackhole blackhole) throws Exception {
+        for (int i = 0; i < dates.length; i++) {
+            blackhole.consume(format.parse(dates[i]));
+        }
+    }
+
+    @Benchmark
+    public String format() {
+        return format.format(date);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.activation.DataHandler;
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.util.ByteArrayDataSource;
+import jakarta.mail.util.SharedByteArrayInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MimeMessage parsing and serialization.  The parse benchmarks build a
+ * message from a plain stream and from a SharedInputStream; writeTo
+ * serializes a parsed message (raw content pass through) and a message
+ * built through the API (content encoded through the data handlers).
+ *
+ * @version $Rev$ $Date$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MimeMessageBenchmark {
+
+    @Param({Corpus.SIMPLE_TEXT, Corpus.HTML_ALTERNATIVE, Corpus.ATTACHMENT, Corpus.NESTED, Corpus.ENCODED_HEADERS})
+    public String message;
+
+    private Session session;
+    private byte[] data;
+    private MimeMessage parsed;
+    private MimeMessage built;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setUp() throws Exception {
+        session = Session.getInstance(new Properties());
+        data = Corpus.load(message);
+        parsed = new MimeMessage(session, new ByteArrayInputStream(data));
+        built = buildMessage(session, data);
+        out = new ByteArrayOutputStream(data.length * 2);
+    }
+
+    /**
+     * Build a message with a text body and the corpus message
+     * attached as binary data.
+     */
+    private static MimeMessage buildMessage(final Session session, final byte[] attachment) throws Exception {
+        final MimeMessage msg = new MimeMessage(session);
+        msg.setFrom(new InternetAddress("John Smith <john.smith@example.net>"));
+        msg.setRecipients(Message.RecipientType.TO, InternetAddress.parse("Jane Doe <jane.doe@example.com>, ops@example.com"));
+        msg.setSubject("Benchmark message – café", "UTF-8");
+
+        final MimeBodyPart text = new MimeBodyPart();
+        text.setText("Please find the message attached.\r\n\r\nRegards,\r\nJohn\r\n", "UTF-8");
+        final MimeBodyPart file = new MimeBodyPart();
+        file.setDataHandler(new DataHandler(new ByteArrayDataSource(attachment, "application/octet-stream")));
+        file.setFileName("message.bin");
+
+        final MimeMultipart mp = new MimeMultipart();
+        mp.addBodyPart(text);
+        mp.addBodyPart(file);
+        msg.setContent(mp);
+        msg.saveChanges();
+        return msg;
+    }
+
+    @Benchmark
+    public MimeMessage parse() throws Exception {
+        return new MimeMessage(session, new ByteArrayInputStream(data));
+    }
+
+    @Benchmark
+    public MimeMessage parseShared() throws Exception {
+        return new MimeMessage(session, new SharedByteArrayInputStream(data));
+    }
+
+    @Benchmark
+    public int writeToParsed() throws Exception {
+        out.reset();
+        parsed.writeTo(out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int writeToBuilt() throws Exception {
+        out.reset();
+        built.writeTo(out);
+        return out.size();
+    }
+}
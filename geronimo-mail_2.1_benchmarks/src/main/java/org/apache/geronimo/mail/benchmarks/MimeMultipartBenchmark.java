@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.activation.DataSource;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.util.ByteArrayDataSource;
+import jakarta.mail.util.SharedByteArrayInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MimeMultipart.parse() over the multipart messages of the corpus,
+ * reading from a plain stream and from a SharedInputStream.
+ *
+ * @version $Rev$ $Date$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MimeMultipartBenchmark {
+
+    @Param({Corpus.HTML_ALTERNATIVE, Corpus.ATTACHMENT, Corpus.NESTED})
+    public String message;
+
+    private String contentType;
+    private byte[] body;
+
+    @Setup
+    public void setUp() throws Exception {
+        final MimeMessage msg = new MimeMessage(Session.getInstance(new Properties()),
+                new ByteArrayInputStream(Corpus.load(message)));
+        contentType = msg.getContentType();
+        final InputStream in = msg.getRawInputStream();
+        body = in.readAllBytes();
+        in.close();
+    }
+
+    @Benchmark
+    public int parse() throws Exception {
+        final MimeMultipart mp = new MimeMultipart(new ByteArrayDataSource(body, contentType));
+        return mp.getCount();
+    }
+
+    @Benchmark
+    public int parseShared() throws Exception {
+        final MimeMultipart mp = new MimeMultipart(new SharedDataSource(body, contentType));
+        return mp.getCount();
+    }
+
+    /**
+     * A DataSource handing out SharedInputStreams, as the
+     * stores do for message content.
+     */
+    private static class SharedDataSource implements DataSource {
+        private final byte[] data;
+        private final String type;
+
+        SharedDataSource(final byte[] data, final String type) {
+            this.data = data;
+            this.type = type;
+        }
+
+        public InputStream getInputStream() {
+            return new SharedByteArrayInputStream(data);
+        }
+
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("read only");
+        }
+
+        public String getContentType() {
+            return type;
+        }
+
+        public String getName() {
+            return "shared";
+        }
+    }
+}
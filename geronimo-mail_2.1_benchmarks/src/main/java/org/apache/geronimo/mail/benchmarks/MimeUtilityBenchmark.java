@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import jakarta.mail.internet.MimeUtility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * RFC 2047 encoded word handling in MimeUtility.decodeText()
+ * and encodeText(), using typical header values.
+ *
+ * @version $Rev$ $Date$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MimeUtilityBenchmark {
+
+    // header values as they appear on the wire
+    private final String[] encoded = {
+        "Quarterly report figures",
+        "=?UTF-8?Q?Your_weekly_digest_=E2=80=93_caf=C3=A9_edition?=",
+        "=?UTF-8?B?5Lya6K2w44Gu6K2w5LqL6Yyy44Gr44Gk44GE44Gm?= =?UTF-8?B?77yI56K66KqN44GK6aGY44GE44GX44G+44GZ77yJ?=",
+        "=?ISO-8859-1?Q?R=E9union_de_l'=E9quipe?=",
+        "Re: =?ISO-8859-1?Q?Andr=E9?= and the \"planning\" meeting",
+    };
+
+    // header values as they are set by applications
+    private final String[] decoded = {
+        "Quarterly report figures",
+        "Your weekly digest – café edition",
+        "会議の議事録について（確認お願いします）",
+        "Réunion de l'équipe",
+        "Re: André and the \"planning\" meeting",
+    };
+
+    @Benchmark
+    public void decodeText(final Blackhole blackhole) throws Exception {
+        for (int i = 0; i < encoded.length; i++) {
+            blackhole.consume(MimeUtility.decodeText(encoded[i]));
+        }
+    }
+
+    @Benchmark
+    public void encodeText(final Blackhole blackhole) throws Exception {
+        for (int i = 0; i < decoded.length; i++) {
+            blackhole.consume(MimeUtility.encodeText(decoded[i], "UTF-8", null));
+        }
+    }
+}
@@ -48,7 +48,7 @@ public class IMAPAttachedMessage extends IMAPMessage {
      *                 The Body structure element that describes this part.
      */
     public IMAPAttachedMessage(IMAPMessage parent, String section, IMAPEnvelope envelope, IMAPBodyStructure bodyStructure) {
-        super((IMAPFolder)parent.getFolder(), parent.store, parent.getMessageNumber(), parent.sequenceNumber);
+        super((IMAPFolder)parent.getFolder(), parent.store, parent.getMessageNumber(), parent.getSequenceNumber());
         this.parent = parent;
         // sets the subset we're looking for 
         this.section = section;
@@ -67,6 +67,16 @@ public class IMAPAttachedMessage extends IMAPMessage {
         parent.checkValidity();
     }
 
+    /**
+     * Get the sequence number of the outer-most message, which
+     * is the message we're fetched through.
+     *
+     * @return The current sequence number of the parent message.
+     */
+    int getSequenceNumber() {
+        return parent.getSequenceNumber();
+    }
+
     /**
      * Check if the outer-most message has been expunged.
      * 
@@ -0,0 +1,42 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.geronimo.mail.store.imap;
+
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+
+/**
+ * A callback for IMAPFolder.fetch() that is notified as each chunk
+ * of a chunked fetch completes, allowing very large fetches to be
+ * processed as they stream in rather than after the last message
+ * has arrived.  The folder is not locked while the listener runs,
+ * so it is free to use the folder and its messages.
+ *
+ * @version $Rev$ $Date$
+ */
+public interface IMAPFetchListener {
+    /**
+     * Called once the items requested for a chunk of messages
+     * have been retrieved and applied to the messages.
+     *
+     * @param messages The messages in the completed chunk.
+     *
+     * @exception MessagingException Thrown to abandon the remainder of the fetch.
+     */
+    public void messagesFetched(Message[] messages) throws MessagingException;
+}
@@ -0,0 +1,395 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.geronimo.mail.store.imap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import jakarta.mail.MessagingException;
+
+/**
+ * An IMAPHeaderCache that keeps one compact file per mailbox in a cache
+ * directory.  Each file starts with a small header carrying the
+ * mailbox UIDVALIDITY, followed by a sequence of records appended as
+ * messages are cached:
+ *
+ * <pre>
+ *    header:  int magic, long uidValidity
+ *    record:  long uid, int length, byte[length] data
+ * </pre>
+ *
+ * Only an index of record positions is held in memory; the data is read
+ * from the file on demand.  Replacing a message's entry appends a new
+ * record, and the file is compacted when it is next opened if the
+ * replaced records take up more space than the live ones.  A record
+ * truncated by a crash is dropped when the file is opened.  A change of
+ * UIDVALIDITY empties the file.
+ *
+ * The directory should only be used by a single store at a time.
+ *
+ * @version $Rev$ $Date$
+ */
+public class IMAPFileHeaderCache implements IMAPHeaderCache {
+    // identifies a cache file ("GHC" plus a format version)
+    protected static final int MAGIC = 0x47484301;
+    // the size of the file header
+    protected static final int HEADER_SIZE = 12;
+    // the size of the fixed part of a record
+    protected static final int RECORD_HEADER_SIZE = 12;
+    // the file extension used for the mailbox files
+    protected static final String EXTENSION = ".hcache";
+
+    // the directory holding the cache files
+    protected File directory;
+    // the open mailbox files, keyed by folder name
+    protected Map mailboxes = new HashMap();
+
+    /**
+     * The cache file for a single mailbox.
+     */
+    protected static class MailboxFile {
+        // the file and the channel we do our I/O through
+        protected File file;
+        protected RandomAccessFile access;
+        protected FileChannel channel;
+        // the UIDVALIDITY the entries belong to
+        protected long uidValidity;
+        // the data position of the current record for each uid (Long uid -> long[] { position, length })
+        protected Map index = new HashMap();
+        // the end of the valid data, where the next record is written
+        protected long end;
+        // space taken up by records that have since been replaced
+        protected long wasted;
+
+        protected MailboxFile(File file) throws IOException {
+            this.file = file;
+            access = new RandomAccessFile(file, "rw");
+            channel = access.getChannel();
+            if (!load()) {
+                reset(0);
+            }
+            // more dead space than live?  Write out just the current records.
+            else if (wasted > HEADER_SIZE && wasted > end - wasted) {
+                compact();
+            }
+        }
+
+        /**
+         * Read the file header and build the record index.
+         *
+         * @return false if the file is empty or not a valid cache file.
+         */
+        protected boolean load() throws IOException {
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                return false;
+            }
+            ByteBuffer header = read(0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                return false;
+            }
+            uidValidity = header.getLong();
+
+            long position = HEADER_SIZE;
+            while (position + RECORD_HEADER_SIZE <= length) {
+                ByteBuffer record = read(position, RECORD_HEADER_SIZE);
+                long uid = record.getLong();
+                int size = record.getInt();
+                // a partially written record ends the valid data
+                if (size < 0 || position + RECORD_HEADER_SIZE + size > length) {
+                    break;
+                }
+                long[] previous = (long[])index.put(Long.valueOf(uid), new long[] { position + RECORD_HEADER_SIZE, size });
+                if (previous != null) {
+                    wasted += RECORD_HEADER_SIZE + previous[1];
+                }
+                position += RECORD_HEADER_SIZE + size;
+            }
+            end = position;
+            // chop off anything following the last complete record
+            if (end < length) {
+                channel.truncate(end);
+            }
+            return true;
+        }
+
+        /**
+         * Discard all of the entries and start over with a new UIDVALIDITY.
+         *
+         * @param uidValidity The new UIDVALIDITY value.
+         */
+        protected void reset(long uidValidity) throws IOException {
+            this.uidValidity = uidValidity;
+            index.clear();
+            wasted = 0;
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putLong(uidValidity);
+            header.flip();
+            write(0, header);
+            end = HEADER_SIZE;
+        }
+
+        /**
+         * Rewrite the file with only the current records.  The records
+         * are written to a temporary file that is then moved over the
+         * original in a single step, so a crash leaves either the old
+         * file or the new one.
+         */
+        protected void compact() throws IOException {
+            File temp = new File(file.getPath() + ".tmp");
+            temp.delete();
+            try {
+                MailboxFile target = new MailboxFile(temp);
+                try {
+                    target.reset(uidValidity);
+                    Iterator i = index.entrySet().iterator();
+                    while (i.hasNext()) {
+                        Map.Entry entry = (Map.Entry)i.next();
+                        target.put(((Long)entry.getKey()).longValue(), get(((Long)entry.getKey()).longValue()));
+                    }
+                    // the new file must be on disk before it replaces the old one
+                    target.channel.force(true);
+                } finally {
+                    target.close();
+                }
+            } catch (IOException e) {
+                temp.delete();
+                throw e;
+            }
+
+            close();
+            IOException failure = null;
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                temp.delete();
+                failure = new IOException("Unable to replace header cache file " + file, e);
+            }
+            // whichever file is in place now is complete, so carry on with that one
+            access = new RandomAccessFile(file, "rw");
+            channel = access.getChannel();
+            index.clear();
+            wasted = 0;
+            load();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        /**
+         * Retrieve the data for a message.
+         *
+         * @param uid    The message UID.
+         *
+         * @return The cached data, or null if the message isn't cached.
+         */
+        protected byte[] get(long uid) throws IOException {
+            long[] entry = (long[])index.get(Long.valueOf(uid));
+            if (entry == null) {
+                return null;
+            }
+            return read(entry[0], (int)entry[1]).array();
+        }
+
+        /**
+         * Append a record for a message.
+         *
+         * @param uid    The message UID.
+         * @param data   The data to store.
+         */
+        protected void put(long uid, byte[] data) throws IOException {
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + data.length);
+            record.putLong(uid);
+            record.putInt(data.length);
+            record.put(data);
+            record.flip();
+            write(end, record);
+
+            long[] previous = (long[])index.put(Long.valueOf(uid), new long[] { end + RECORD_HEADER_SIZE, data.length });
+            if (previous != null) {
+                wasted += RECORD_HEADER_SIZE + previous[1];
+            }
+            end += RECORD_HEADER_SIZE + data.length;
+        }
+
+        protected ByteBuffer read(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of header cache file " + file);
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        protected void write(long position, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        }
+
+        protected void close() throws IOException {
+            access.close();
+        }
+    }
+
+
+    /**
+     * Create a cache keeping its files in the given directory.  The
+     * directory is created if it doesn't exist.
+     *
+     * @param directory The cache directory.
+     *
+     * @exception MessagingException
+     */
+    public IMAPFileHeaderCache(File directory) throws MessagingException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new MessagingException("Unable to create header cache directory " + directory);
+        }
+        this.directory = directory;
+    }
+
+
+    /**
+     * Retrieve the cached information for a message.
+     *
+     * @param folder      The full name of the folder.
+     * @param uidValidity The folder's current UIDVALIDITY.
+     * @param uid         The message UID.
+     *
+     * @return The cached data, or null if nothing is cached for the message.
+     * @exception MessagingException
+     */
+    public synchronized byte[] get(String folder, long uidValidity, long uid) throws MessagingException {
+        try {
+            MailboxFile mailbox = getMailbox(folder, uidValidity);
+            return mailbox.get(uid);
+        } catch (IOException e) {
+            throw new MessagingException("Unable to read header cache for " + folder, e);
+        }
+    }
+
+
+    /**
+     * Store the information for a message.
+     *
+     * @param folder      The full name of the folder.
+     * @param uidValidity The folder's current UIDVALIDITY.
+     * @param uid         The message UID.
+     * @param data        The data to cache.
+     *
+     * @exception MessagingException
+     */
+    public synchronized void put(String folder, long uidValidity, long uid, byte[] data) throws MessagingException {
+        try {
+            MailboxFile mailbox = getMailbox(folder, uidValidity);
+            mailbox.put(uid, data);
+        } catch (IOException e) {
+            throw new MessagingException("Unable to update header cache for " + folder, e);
+        }
+    }
+
+
+    /**
+     * Close all of the mailbox files.
+     *
+     * @exception MessagingException
+     */
+    public synchronized void close() throws MessagingException {
+        IOException failure = null;
+        Iterator i = mailboxes.values().iterator();
+        while (i.hasNext()) {
+            try {
+                ((MailboxFile)i.next()).close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        mailboxes.clear();
+        if (failure != null) {
+            throw new MessagingException("Error closing header cache", failure);
+        }
+    }
+
+
+    /**
+     * Locate (opening if necessary) the file for a mailbox, discarding
+     * its contents if they were stored under a different UIDVALIDITY.
+     *
+     * @param folder      The full name of the folder.
+     * @param uidValidity The folder's current UIDVALIDITY.
+     *
+     * @return The MailboxFile for the folder.
+     * @exception IOException
+     */
+    protected MailboxFile getMailbox(String folder, long uidValidity) throws IOException {
+        MailboxFile mailbox = (MailboxFile)mailboxes.get(folder);
+        if (mailbox == null) {
+            mailbox = new MailboxFile(new File(directory, getFileName(folder)));
+            mailboxes.put(folder, mailbox);
+        }
+        if (mailbox.uidValidity != uidValidity) {
+            mailbox.reset(uidValidity);
+        }
+        return mailbox;
+    }
+
+
+    /**
+     * Map a folder name onto the name of its cache file.
+     *
+     * @param folder The full folder name.
+     *
+     * @return The cache file name for the folder.
+     */
+    protected static String getFileName(String folder) {
+        return encodeName(folder) + EXTENSION;
+    }
+
+
+    /**
+     * Encode a name so that it is safe to use as a file name.
+     *
+     * @param name   The name to encode.
+     *
+     * @return The encoded name.
+     */
+    public static String encodeName(String name) {
+        try {
+            // URL encoding takes care of the hierarchy separators and anything outside
+            // of ASCII.  '*' is left alone by the encoder, but isn't usable everywhere.
+            return URLEncoder.encode(name, "UTF-8").replace("*", "%2A");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always available
+            throw new IllegalStateException(e.toString());
+        }
+    }
+}
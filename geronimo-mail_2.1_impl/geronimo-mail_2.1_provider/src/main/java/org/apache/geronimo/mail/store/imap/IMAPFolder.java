@@ -20,12 +20,15 @@ package org.apache.geronimo.mail.store.imap;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import jakarta.mail.*;
 import jakarta.mail.event.ConnectionEvent;
@@ -68,9 +71,9 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
 
     // our attached session
     protected Session session;
-    // retrieved messages, mapped by sequence number.
-    protected Map messageCache;
-    // mappings of UIDs to retrieved messages.
+    // retrieved messages, indexed by sequence number.
+    protected IMAPMessageCache messageCache;
+    // mappings of UIDs to retrieved messages, in UID order.
     protected Map uidCache;
 
     // the separator the server indicates is used as the hierarchy separator
@@ -99,6 +102,8 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
     protected long uidValidity = 0;
     // the uidNext value reported back from the server
     protected long uidNext = 0;
+    // the highest modification sequence reported by the server (CONDSTORE)
+    protected long highestModSeq = -1;
     // the persistent flags we save in the store
     protected Flags permanentFlags;
     // the settable flags the server reports back to us
@@ -635,6 +640,151 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
      * @throws MessagingException if there was a problem accessing the store
      */
 	public synchronized void open(int mode) throws MessagingException {
+        openFolder(mode, null);
+    }
+
+
+    /**
+     * Open this folder with CONDSTORE/QRESYNC (RFC 7162) resynchronization.
+     * Rather than refetching the state of every message, only the changes
+     * since the given synchronization point are retrieved.  With a QRESYNC
+     * server, the changed messages and the UIDs of removed messages are
+     * all reported in the response to the open.  With a CONDSTORE-only
+     * server, the changed messages are retrieved with FETCH CHANGEDSINCE
+     * and removed messages are not reported.
+     *
+     * @param mode   READ_ONLY or READ_WRITE.
+     * @param resync The UIDVALIDITY and modification sequence of the last synchronization.
+     *
+     * @return The changes since the synchronization point.
+     * @exception MessagingException
+     */
+    public synchronized IMAPResyncResult open(int mode, IMAPResyncData resync) throws MessagingException {
+        IMAPMailboxStatus status = openFolder(mode, resync);
+
+        // a UIDVALIDITY change means the server has ignored our synchronization point
+        if (status.uidValidity != resync.getUIDValidity()) {
+            return new IMAPResyncResult(true, new Message[0], null);
+        }
+
+        // with QRESYNC, everything has already been delivered
+        if (currentConnection.isQResyncEnabled()) {
+            List removed = new ArrayList();
+            for (int i = 0; i < status.vanished.size(); i++) {
+                long[] uids = ((IMAPVanishedResponse)status.vanished.get(i)).getUids();
+                for (int j = 0; j < uids.length; j++) {
+                    removed.add(Long.valueOf(uids[j]));
+                }
+            }
+            long[] vanished = new long[removed.size()];
+            for (int i = 0; i < vanished.length; i++) {
+                vanished[i] = ((Long)removed.get(i)).longValue();
+            }
+            return new IMAPResyncResult(false, applyChanges(status.changes), vanished);
+        }
+        // otherwise, ask for the changes
+        return new IMAPResyncResult(false, getChangedSince(resync.getModSeq()), null);
+    }
+
+
+    /**
+     * Retrieve the messages in this folder whose flags have changed since a
+     * given modification sequence, using FETCH with CHANGEDSINCE (RFC 7162).
+     * The UID, flags, and modification sequence of each returned message
+     * are updated from the response.
+     *
+     * @param modSeq The modification sequence to check against.
+     *
+     * @return The changed messages.
+     * @exception MessagingException
+     */
+    public synchronized Message[] getChangedSince(long modSeq) throws MessagingException {
+        checkOpen();
+        // nothing to ask about in an empty folder
+        if (maxSequenceNumber == 0) {
+            return new Message[0];
+        }
+        IMAPConnection connection = getConnection();
+        try {
+            return applyChanges(connection.fetchChangedSince("1:*", modSeq));
+        } finally {
+            releaseConnection(connection);
+        }
+    }
+
+
+    /**
+     * Apply a set of resynchronization FETCH responses to the
+     * messages they refer to.
+     *
+     * @param responses The list of IMAPFetchResponse items.
+     *
+     * @return The updated messages.
+     * @exception MessagingException
+     */
+    protected synchronized Message[] applyChanges(List responses) throws MessagingException {
+        List changed = new ArrayList(responses.size());
+        for (int i = 0; i < responses.size(); i++) {
+            IMAPFetchResponse response = (IMAPFetchResponse)responses.get(i);
+            // an update for a message we don't know about yet (the EXISTS
+            // is still on the way) would have us pinging the server.
+            int sequenceNumber = response.getSequenceNumber();
+            if (sequenceNumber < 1 || sequenceNumber > maxSequenceNumber) {
+                continue;
+            }
+            IMAPMessage message = (IMAPMessage)getMessage(sequenceNumber);
+            message.updateMessageInformation(response);
+            updateHighestModSeq(message.modSeq);
+            changed.add(message);
+        }
+        return (Message[])changed.toArray(new Message[changed.size()]);
+    }
+
+
+    /**
+     * Get the highest modification sequence of this folder (RFC 7162).
+     * For an open folder, this tracks the changes reported by the server.
+     * Saving this value along with the UIDVALIDITY gives the
+     * synchronization point for a later open(int, IMAPResyncData).
+     *
+     * @return The highest modification sequence, 0 if the folder doesn't support
+     *         modification sequences, or -1 if the server doesn't report them.
+     * @exception MessagingException
+     */
+    public synchronized long getHighestModSeq() throws MessagingException {
+        if (folderOpen) {
+            return highestModSeq;
+        }
+        // get the latest status to make sure we have the
+        // most current.
+        refreshStatus(true);
+        return cachedStatus.highestModSeq;
+    }
+
+
+    /**
+     * Track the highest modification sequence from an
+     * update sent by the server.
+     *
+     * @param modSeq The reported modification sequence.
+     */
+    protected void updateHighestModSeq(long modSeq) {
+        if (modSeq > highestModSeq) {
+            highestModSeq = modSeq;
+        }
+    }
+
+
+    /**
+     * Open the folder, with optional resynchronization.
+     *
+     * @param mode   READ_ONLY or READ_WRITE
+     * @param resync The resynchronization point, or null for a normal open.
+     *
+     * @return The mailbox status returned from the open.
+     * @exception MessagingException
+     */
+    protected IMAPMailboxStatus openFolder(int mode, IMAPResyncData resync) throws MessagingException {
 
         // we use a synchronized block rather than use a synchronized method so that we
         // can notify the event listeners while not holding the lock.
@@ -659,7 +809,13 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
                 IMAPMailboxStatus status;
                 try {
                     // try to open, which gives us a lot of initial mailbox state.
-                    status = currentConnection.openMailbox(fullname, mode == Folder.READ_ONLY);
+                    if (resync == null) {
+                        status = currentConnection.openMailbox(fullname, mode == Folder.READ_ONLY);
+                    }
+                    else {
+                        status = currentConnection.openMailbox(fullname, mode == Folder.READ_ONLY,
+                            resync.getUIDValidity(), resync.getModSeq());
+                    }
                 } catch (CommandFailedException e) {
                     // The SELECT/EXAMINE was answered with a tagged NO.  The most likely
                     // reason is that the mailbox does not exist (or is not selectable),
@@ -699,13 +855,14 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
                 recentMessages = status.recentMessages;
                 uidValidity = status.uidValidity;
                 uidNext = status.uidNext;
+                highestModSeq = status.highestModSeq;
 
                 availableFlags = status.availableFlags;
                 permanentFlags = status.permanentFlags;
 
                 // create a our caches.  These are empty initially
-                messageCache = new HashMap();
-                uidCache = new HashMap();
+                messageCache = new IMAPMessageCache();
+                uidCache = new TreeMap();
 
                 // we're open for business folks!
                 folderOpen = true;
@@ -754,6 +911,7 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
                 }
             }
         }
+        return cachedStatus;
 	}
 
 
@@ -789,6 +947,10 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
     protected void cleanupFolder(boolean expunge, boolean disconnected) throws MessagingException {
 		folderOpen = false;
         uidCache = null;
+        // the messages we've handed out keep their last known sequence numbers
+        if (messageCache != null) {
+            messageCache.detach();
+        }
         messageCache = null;
         // if we have a connection active at the moment
         if (currentConnection != null) {
@@ -797,6 +959,8 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
                 currentConnection.setClosed();
             }
             else {
+                // another thread may have this connection parked in an IDLE.
+                currentConnection.abortIdle();
                 // The CLOSE operation depends on what mode was used to select the mailbox.
                 // If we're open in READ-WRITE mode, we used a SELECT operation.  When CLOSE
                 // is issued, any deleted messages will be expunged.  If we've been asked not
@@ -1006,16 +1170,16 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
         // Check the validity of the message number.  This may require pinging the server to
         // see if there are new messages in the folder.
         checkMessageValidity(msgNum);
-        // create the mapping key for this
-        Integer messageKey = Integer.valueOf(msgNum);
+        // slots are only assigned in the cache as messages get requested
+        messageCache.extend(msgNum);
         // ok, if the message number is within range, we should have this in the
         // messages list.  Just return the element.
-        Message message = (Message)messageCache.get(messageKey);
+        IMAPMessage message = messageCache.get(msgNum);
         // if not in the cache, create a dummy add it in.  The message body will be
         // retrieved on demand
         if (message == null) {
             message = new IMAPMessage(this, ((IMAPStore)store), nextMessageID++, msgNum);
-            messageCache.put(messageKey, message);
+            messageCache.put(msgNum, message);
         }
         return message;
     }
@@ -1077,6 +1241,31 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
      * @see FetchProfile
      */
     public void fetch(Message[] messages, FetchProfile profile) throws MessagingException {
+        fetch(messages, profile, null);
+    }
+
+
+    /**
+     * Fetch information on the supplied messages, with notification
+     * as the information arrives.  If the store is configured with a
+     * fetch chunk size (mail.imap.fetchchunksize), the messages are
+     * fetched in chunks of that many messages.  The folder is only
+     * locked while each chunk is being fetched, and the listener is
+     * called once each chunk completes.  Responses are applied to the
+     * messages as they're parsed rather than being collected first.
+     *
+     * @param messages The messages for which information should be fetched.
+     * @param profile  The information to fetch.
+     * @param listener The listener notified as each chunk completes.  This can be null.
+     *
+     * @exception MessagingException
+     */
+    public void fetch(Message[] messages, FetchProfile profile, IMAPFetchListener listener) throws MessagingException {
+
+        // the header cache might be able to fill in much of this without a trip to the server
+        if (((IMAPStore)store).getHeaderCache() != null && isCacheable(profile)) {
+            profile = loadCachedInformation(messages, profile);
+        }
 
         // we might already have the information being requested, so ask each of the
         // messages in the list to evaluate itself against the profile.  We'll only ask
@@ -1096,6 +1285,92 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
         if (fetchSet.isEmpty()) {
             return;
         }
+
+        int chunkSize = ((IMAPStore)store).getFetchChunkSize();
+        // not chunking?  Then everything goes in one request
+        if (chunkSize <= 0) {
+            chunkSize = fetchSet.size();
+        }
+
+        for (int start = 0; start < fetchSet.size(); start += chunkSize) {
+            List chunk = fetchSet.subList(start, Math.min(fetchSet.size(), start + chunkSize));
+            fetchChunk(chunk, profile);
+            // the folder is unlocked again, so the listener is free to work with the messages
+            if (listener != null) {
+                listener.messagesFetched((Message[])chunk.toArray(new Message[chunk.size()]));
+            }
+        }
+    }
+
+
+    /**
+     * Test if a fetch profile asks for any of the information kept
+     * in the header cache.
+     *
+     * @param profile The FetchProfile.
+     *
+     * @return true if some of the requested items may be cached.
+     */
+    protected boolean isCacheable(FetchProfile profile) {
+        return profile.contains(FetchProfile.Item.ENVELOPE) || profile.contains(FetchProfile.Item.CONTENT_INFO)
+            || profile.contains(FetchProfileItem.SIZE)
+            || profile.contains(FetchProfileItem.HEADERS);
+    }
+
+
+    /**
+     * Fill in a set of messages from the header cache before a fetch.
+     * The cache is keyed by UID, so the UIDs of any messages that don't
+     * have one yet are fetched first (as a single command).
+     *
+     * @param messages The messages being fetched.
+     * @param profile  The requested profile.
+     *
+     * @return The profile to fetch the remaining information with.  This
+     *         also asks for UIDs, so the fetched information can be cached.
+     * @exception MessagingException
+     */
+    protected FetchProfile loadCachedInformation(Message[] messages, FetchProfile profile) throws MessagingException {
+        FetchProfile uidProfile = new FetchProfile();
+        uidProfile.add(UIDFolder.FetchProfileItem.UID);
+        fetch(messages, uidProfile, null);
+
+        for (int i = 0; i < messages.length; i++) {
+            IMAPMessage msg = (IMAPMessage)messages[i];
+            synchronized (this) {
+                msg.loadCachedInformation();
+            }
+        }
+
+        // make sure anything we do fetch can be added to the cache
+        if (profile.contains(UIDFolder.FetchProfileItem.UID)) {
+            return profile;
+        }
+        FetchProfile cacheProfile = new FetchProfile();
+        FetchProfile.Item[] items = profile.getItems();
+        for (int i = 0; i < items.length; i++) {
+            cacheProfile.add(items[i]);
+        }
+        String[] headers = profile.getHeaderNames();
+        for (int i = 0; i < headers.length; i++) {
+            cacheProfile.add(headers[i]);
+        }
+        cacheProfile.add(UIDFolder.FetchProfileItem.UID);
+        return cacheProfile;
+    }
+
+
+    /**
+     * Fetch the profile information for one chunk of a fetch request.
+     * Each FETCH response is applied to its message as soon as it
+     * has been parsed.
+     *
+     * @param chunk   The list of messages to fetch.
+     * @param profile The information to fetch.
+     *
+     * @exception MessagingException
+     */
+    protected void fetchChunk(List chunk, FetchProfile profile) throws MessagingException {
         // ask the store to kindly hook us up with a connection.
         IMAPConnection connection = getConnection();
         try {
@@ -1103,28 +1378,37 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
             // message cache.  A single processed EXPUNGE could make for a very bad day
             synchronized(this) {
                 // get the message set for this
-                String messageSet = generateMessageSet(fetchSet);
-                // fetch all of the responses
-                List responses = connection.fetch(messageSet, profile);
-
+                String messageSet = generateMessageSet(chunk);
+                // everything might have been expunged in the meantime
+                if (messageSet.length() == 0) {
+                    return;
+                }
                 // IMPORTANT:  We must do our updates while synchronized to keep the
                 // cache from getting updated underneath us.   This includes
                 // not releasing the connection until we're done to delay processing any
                 // pending expunge responses.
-                for (int i = 0; i < responses.size(); i++) {
-                    IMAPFetchResponse response = (IMAPFetchResponse)responses.get(i);
-                    Message msg = getMessage(response.getSequenceNumber());
-                    // Belt and Braces.  This should never be false.
-                    if (msg != null) {
-                        // have the message apply this to itself.
-                        ((IMAPMessage)msg).updateMessageInformation(response);
+                connection.fetch(messageSet, profile, new IMAPUntaggedResponseHandler() {
+                    public boolean handleResponse(IMAPUntaggedResponse response) {
+                        IMAPFetchResponse fetch = (IMAPFetchResponse)response;
+                        // a message we don't know about yet can't be resolved without talking to
+                        // the server, which we can't do mid-response.  Leave that for the
+                        // unsolicited response processing.
+                        if (fetch.getSequenceNumber() > maxSequenceNumber) {
+                            return false;
+                        }
+                        try {
+                            // have the message apply this to itself.
+                            ((IMAPMessage)getMessage(fetch.getSequenceNumber())).updateMessageInformation(fetch);
+                        } catch (MessagingException e) {
+                            return false;
+                        }
+                        return true;
                     }
-                }
+                });
             }
         } finally {
             releaseConnection(connection);
         }
-        return;
     }
 
     /**
@@ -1298,6 +1582,7 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
         // ask the store to kindly hook us up with a connection.
         IMAPConnection connection = getConnection();
         List expunges = null;
+        List vanished = null;
 
         try {
             // send the expunge notification.  This operation results in "nn EXPUNGE" responses getting returned
@@ -1305,6 +1590,8 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
             // the expunge operation.  We could process this directly, but we may have received asynchronous
             // expunge messages that also marked messages as expunged.
             expunges = connection.expungeMailbox();
+            // with QRESYNC enabled, the server reports these as VANISHED instead
+            vanished = connection.extractResponses("VANISHED");
         } finally {
             releaseConnection(connection);
         }
@@ -1313,16 +1600,15 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
         // order, as the message sequence numbers represent a relative position that takes into account
         // previous expunge operations.  For example, if message sequence numbers 5, 6, and 7 are
         // expunged, we receive 3 expunge messages, all indicating that message 5 has been expunged.
-        Message[] messages = new Message[expunges.size()];
-
-        // now we need to protect the internal structures
-        synchronized (this) {
-            // expunge all of the messages from the message cache.  This keeps the sequence
-            // numbers up to-date.
-            for (int i = 0; i < expunges.size(); i++) {
-                IMAPSizeResponse response = (IMAPSizeResponse)expunges.get(i);
-                messages[i] = expungeMessage(response.getSize());
-            }
+        // expunge all of the messages from the message cache.  This keeps the sequence
+        // numbers up to-date.
+        Message[] messages = expungeMessages(expunges);
+        for (int i = 0; i < vanished.size(); i++) {
+            Message[] removed = removeVanishedMessages((IMAPVanishedResponse)vanished.get(i));
+            Message[] merged = new Message[messages.length + removed.length];
+            System.arraycopy(messages, 0, merged, 0, messages.length);
+            System.arraycopy(removed, 0, merged, messages.length, removed.length);
+            messages = merged;
         }
         // if we have messages that have been removed, broadcast the notification.
         if (messages.length > 0) {
@@ -1403,6 +1689,146 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
         }
     }
 
+    /**
+     * Search this folder, asking the server for just the listed result
+     * items (RFC 4731 ESEARCH).  This avoids transferring the number of
+     * every matching message when only a count or the first or last
+     * match is needed, and the ALL result is a compact sequence set.
+     * If the server doesn't support ESEARCH, the items are computed from
+     * a regular search.
+     *
+     * @param term   The search criteria (null matches all messages).
+     * @param returnOptions
+     *               The result items, any of "MIN", "MAX", "COUNT", and "ALL".
+     *
+     * @return The search result.
+     * @exception MessagingException
+     */
+    public synchronized IMAPESearchResponse searchExtended(SearchTerm term, String[] returnOptions) throws MessagingException {
+        // only allowed on open folders
+        checkOpen();
+
+        IMAPConnection connection = getConnection();
+        try {
+            return connection.extendedSearchMailbox(term, returnOptions);
+        } finally {
+            releaseConnection(connection);
+        }
+    }
+
+
+    /**
+     * Sort the messages of this folder on the server (RFC 5256 SORT).
+     *
+     * @param sortCriteria
+     *               The sort keys, most significant first.  Each key is one
+     *               of ARRIVAL, CC, DATE, FROM, SIZE, SUBJECT, or TO, optionally
+     *               preceded by "REVERSE " (e.g. "REVERSE DATE").
+     * @param term   The search criteria selecting the messages (null sorts all messages).
+     *
+     * @return The matching messages, in sort order.
+     * @exception MessagingException
+     */
+    public synchronized Message[] sort(String[] sortCriteria, SearchTerm term) throws MessagingException {
+        // only allowed on open folders
+        checkOpen();
+
+        IMAPConnection connection = getConnection();
+        try {
+            return resolveMessages(connection.sortMailbox(sortCriteria, term));
+        } finally {
+            releaseConnection(connection);
+        }
+    }
+
+
+    /**
+     * Retrieve a single page of the sorted messages of this folder.  If
+     * the server supports ESORT and CONTEXT=SORT (RFC 5267), only the
+     * requested page is returned by the server.  Otherwise, the server
+     * sorts the entire folder and the page is taken from the result, but
+     * only the messages of the page are returned.
+     *
+     * @param sortCriteria
+     *               The sort keys, most significant first.
+     * @param term   The search criteria selecting the messages (null sorts all messages).
+     * @param start  The position of the first message of the page within the
+     *               sorted messages (starting with 1).
+     * @param count  The number of messages on the page.
+     *
+     * @return The messages of the page, in sort order.  This is shorter than count
+     *         for the last page.
+     * @exception MessagingException
+     */
+    public synchronized Message[] sort(String[] sortCriteria, SearchTerm term, int start, int count) throws MessagingException {
+        // only allowed on open folders
+        checkOpen();
+        if (start < 1 || count < 1) {
+            throw new IllegalArgumentException("Invalid page range");
+        }
+
+        IMAPConnection connection = getConnection();
+        try {
+            if (connection.hasCapability("ESORT") && connection.hasCapability("CONTEXT=SORT")) {
+                String range = "PARTIAL " + start + ":" + (start + count - 1);
+                IMAPESearchResponse page = connection.sortMailbox(sortCriteria, term, new String[] { range });
+                return resolveMessages(page.getPartialMessageNumbers());
+            }
+
+            int[] sorted = connection.sortMailbox(sortCriteria, term);
+            if (start > sorted.length) {
+                return new Message[0];
+            }
+            int[] page = new int[Math.min(count, sorted.length - start + 1)];
+            System.arraycopy(sorted, start - 1, page, 0, page.length);
+            return resolveMessages(page);
+        } finally {
+            releaseConnection(connection);
+        }
+    }
+
+
+    /**
+     * Thread the messages of this folder on the server (RFC 5256 THREAD).
+     *
+     * @param algorithm The threading algorithm (e.g. "ORDEREDSUBJECT" or "REFERENCES").
+     *                  The server must advertise the THREAD=algorithm capability.
+     * @param term      The search criteria selecting the messages (null threads all messages).
+     *
+     * @return The top-level threads.
+     * @exception MessagingException
+     */
+    public synchronized IMAPMessageThread[] thread(String algorithm, SearchTerm term) throws MessagingException {
+        // only allowed on open folders
+        checkOpen();
+
+        IMAPConnection connection = getConnection();
+        try {
+            return resolveThreads(connection.threadMailbox(algorithm, term));
+        } finally {
+            releaseConnection(connection);
+        }
+    }
+
+
+    /**
+     * Convert a list of parsed THREAD nodes into message threads.
+     *
+     * @param nodes  The List of IMAPThreadResponse.IMAPThreadNode items.
+     *
+     * @return The message threads.
+     * @exception MessagingException
+     */
+    protected IMAPMessageThread[] resolveThreads(List nodes) throws MessagingException {
+        IMAPMessageThread[] threads = new IMAPMessageThread[nodes.size()];
+        for (int i = 0; i < threads.length; i++) {
+            IMAPThreadResponse.IMAPThreadNode node = (IMAPThreadResponse.IMAPThreadNode)nodes.get(i);
+            Message message = node.messageNumber == 0 ? null : getMessage(node.messageNumber);
+            threads[i] = new IMAPMessageThread(message, resolveThreads(node.children));
+        }
+        return threads;
+    }
+
     /**
      * Get the UID validity value for this Folder.
      *
@@ -1854,7 +2280,9 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
             connection.addResponseHandler(this);
             return connection;
         }
-        // we have a connection for our use.  Just return it.
+        // we have a connection for our use.  If another thread has this
+        // in an IDLE, we need to break that so our command can go through.
+        currentConnection.abortIdle();
         return currentConnection;
     }
 
@@ -1907,6 +2335,7 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
         // connection between the Folder and the Message (and potentially, other messages).  The
         // command operations on the connection are synchronized so only a single command can be
         // issued at one time.
+        currentConnection.abortIdle();
         return currentConnection;
     }
 
@@ -1947,15 +2376,43 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
             cachedStatus = null;
         }
 
+        IMAPMailboxStatus status;
         IMAPConnection connection = getConnection();
         try {
             // ping the server for the list information for this folder
-            cachedStatus = connection.getMailboxStatus(fullname);
-            // mark when we got this
-            lastStatusTimeStamp = System.currentTimeMillis();
+            status = connection.getMailboxStatus(fullname);
         } finally {
             releaseConnection(connection);
         }
+        applyStatus(status);
+    }
+
+
+    /**
+     * Update the cached status information for this folder with status
+     * retrieved elsewhere (for example, a bulk status request issued
+     * by the store).  An open folder tracks its own state from the
+     * untagged responses, so the information is ignored in that case.
+     *
+     * @param status The retrieved mailbox status.
+     */
+    synchronized void updateStatus(IMAPMailboxStatus status) {
+        if (isOpen()) {
+            return;
+        }
+        applyStatus(status);
+    }
+
+
+    /**
+     * Make a retrieved mailbox status the cached status for this folder.
+     *
+     * @param status The retrieved mailbox status.
+     */
+    protected void applyStatus(IMAPMailboxStatus status) {
+        cachedStatus = status;
+        // mark when we got this
+        lastStatusTimeStamp = System.currentTimeMillis();
 
         // refresh the internal state from the message information
         maxSequenceNumber = cachedStatus.messages;
@@ -1977,51 +2434,246 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
      * @exception MessagingException
      */
     protected synchronized Message expungeMessage(int sequenceNumber) throws MessagingException {
+        Message message = removeExpungedMessage(sequenceNumber);
+        // reclaim cache space if the expunged slots are building up
+        messageCache.trim();
+        return message;
+    }
+
+
+    /**
+     * Process a run of EXPUNGE responses, such as the set returned
+     * from an EXPUNGE command.  The responses are applied in order,
+     * since each sequence number is relative to the previous removals.
+     *
+     * @param expunges The list of IMAPSizeResponse EXPUNGE responses.
+     *
+     * @return The Message objects for the expunged messages, in response order.
+     * @exception MessagingException
+     */
+    protected synchronized Message[] expungeMessages(List expunges) throws MessagingException {
+        Message[] messages = new Message[expunges.size()];
+        for (int i = 0; i < expunges.size(); i++) {
+            IMAPSizeResponse response = (IMAPSizeResponse)expunges.get(i);
+            messages[i] = removeExpungedMessage(response.getSize());
+        }
+        // the cache only needs tidying once the whole run has been applied
+        messageCache.trim();
+        return messages;
+    }
+
+
+    /**
+     * Process a VANISHED response (RFC 7162), which reports expunged
+     * messages by UID rather than by sequence number.
+     *
+     * @param response The VANISHED response.
+     *
+     * @return The Message objects for the removed messages.
+     * @exception MessagingException
+     */
+    protected synchronized Message[] removeVanishedMessages(IMAPVanishedResponse response) throws MessagingException {
+        long[] uids = response.getUids();
+        Arrays.sort(uids);
+        List removed = new ArrayList();
+        for (int i = 0; i < uids.length; i++) {
+            int sequenceNumber = locateVanishedMessage(uids, i);
+            // not something that's in our view of the folder
+            if (sequenceNumber < 0) {
+                continue;
+            }
+            // we've lost track of the folder, so rebuild our view from the server.
+            // That picks up the rest of these UIDs too.
+            if (sequenceNumber == 0) {
+                removed.addAll(resynchronize());
+                break;
+            }
+            IMAPMessage message = (IMAPMessage)removeExpungedMessage(sequenceNumber);
+            message.setUID(uids[i]);
+            removed.add(message);
+        }
+        messageCache.trim();
+        return (Message[])removed.toArray(new Message[removed.size()]);
+    }
+
+
+    /**
+     * Work out the sequence number of a message reported by a
+     * VANISHED response.  This is exact if we've seen the message's
+     * UID.  Otherwise, since UIDs ascend with the sequence numbers, the
+     * message must lie between the closest messages with known UIDs.
+     * If none of the messages in that range have been retrieved, they
+     * are indistinguishable and any of them will do.  If some have been
+     * retrieved, the UIDs still on the server in that range are fetched
+     * so every message in the range can be matched up with its UID.
+     *
+     * @param uids   The sorted UIDs from the VANISHED response.
+     * @param index  The index of the UID to locate.  The UIDs that follow
+     *               it have not been removed yet.
+     *
+     * @return The sequence number to expunge, -1 if the message isn't in our
+     *         view of the folder, or 0 if it can't be placed exactly and the
+     *         folder needs to be resynchronized.
+     * @exception MessagingException
+     */
+    protected int locateVanishedMessage(long[] uids, int index) throws MessagingException {
+        long uid = uids[index];
+        TreeMap uidMap = (TreeMap)uidCache;
+        Long key = Long.valueOf(uid);
+        IMAPMessage known = (IMAPMessage)uidMap.get(key);
+        if (known != null) {
+            return known.getSequenceNumber();
+        }
+
+        Map.Entry lower = uidMap.lowerEntry(key);
+        Map.Entry higher = uidMap.higherEntry(key);
+        int low = lower == null ? 0 : ((IMAPMessage)lower.getValue()).getSequenceNumber();
+        int high = higher == null ? maxSequenceNumber + 1 : ((IMAPMessage)higher.getValue()).getSequenceNumber();
+        if (high - low <= 1) {
+            return -1;
+        }
+        messageCache.extend(high - 1);
+
+        // any retrieved message in this range has an unknown UID (otherwise it
+        // would be one of the bounds).  If there aren't any, nobody can tell
+        // the messages apart, so the first one is as good as the right one.
+        boolean retrieved = false;
+        for (int sequenceNumber = low + 1; sequenceNumber < high && !retrieved; sequenceNumber++) {
+            retrieved = messageCache.get(sequenceNumber) != null;
+        }
+        if (!retrieved) {
+            return low + 1;
+        }
+
+        long lowUid = lower == null ? 0 : ((Long)lower.getKey()).longValue();
+        long highUid = higher == null ? Long.MAX_VALUE : ((Long)higher.getKey()).longValue();
+
+        // the UIDs in the range are the ones still on the server plus the
+        // ones that have vanished and not been removed from our view yet.
+        TreeSet rangeUids = new TreeSet();
+        if (lowUid + 1 <= highUid - 1) {
+            List items = currentConnection.getSequenceNumbersForUids(lowUid + 1, higher == null ? UIDFolder.LASTUID : highUid - 1);
+            for (int i = 0; i < items.size(); i++) {
+                long item = ((IMAPUid)items.get(i)).uid;
+                // "n:*" always includes the last message, even if it's out of range
+                if (item > lowUid && item < highUid) {
+                    rangeUids.add(Long.valueOf(item));
+                }
+            }
+        }
+        for (int i = index; i < uids.length && uids[i] < highUid; i++) {
+            rangeUids.add(Long.valueOf(uids[i]));
+        }
+        // anything else going on (more messages vanished or arrived since)
+        // and the UIDs can't be matched up with our messages.
+        if (rangeUids.size() != high - low - 1) {
+            return 0;
+        }
+
+        // now every message in the range can be given its UID
+        int sequenceNumber = low + 1;
+        int target = -1;
+        for (Iterator i = rangeUids.iterator(); i.hasNext(); sequenceNumber++) {
+            Long rangeUid = (Long)i.next();
+            IMAPMessage message = messageCache.get(sequenceNumber);
+            if (message != null) {
+                addToUidCache(rangeUid, message);
+            }
+            if (rangeUid.longValue() == uid) {
+                target = sequenceNumber;
+            }
+        }
+        return target;
+    }
 
+
+    /**
+     * Rebuild our view of an open folder from the UIDs on the server.
+     * This is the fallback when the messages removed by a VANISHED
+     * response can't be identified.  Retrieved messages that are still
+     * on the server keep their identity; the ones that aren't (or whose
+     * UIDs were never known) are marked expunged.
+     *
+     * @return The list of messages removed from the folder.
+     * @exception MessagingException
+     */
+    protected List resynchronize() throws MessagingException {
+        List items = currentConnection.getSequenceNumbersForUids(1, UIDFolder.LASTUID);
+        Map serverSequence = new HashMap();
+        int serverCount = 0;
+        for (int i = 0; i < items.size(); i++) {
+            IMAPUid item = (IMAPUid)items.get(i);
+            serverSequence.put(Long.valueOf(item.uid), Integer.valueOf(item.messageNumber));
+            serverCount = Math.max(serverCount, item.messageNumber);
+        }
+
+        // anything beyond the last message of our view has arrived since, but we can
+        // only tell where that is if we know which message was last.
+        int arrivals = serverCount;
+        IMAPMessage last = messageCache.get(maxSequenceNumber);
+        if (last != null && last.getUID() >= 0 && serverSequence.containsKey(Long.valueOf(last.getUID()))) {
+            arrivals = ((Integer)serverSequence.get(Long.valueOf(last.getUID()))).intValue();
+        }
+
+        List removed = new ArrayList();
+        IMAPMessageCache rebuilt = new IMAPMessageCache();
+        rebuilt.extend(serverCount);
+        Map rebuiltUids = new TreeMap();
+
+        for (int sequenceNumber = 1; sequenceNumber <= messageCache.size(); sequenceNumber++) {
+            IMAPMessage message = messageCache.get(sequenceNumber);
+            if (message == null) {
+                continue;
+            }
+            Long uid = Long.valueOf(message.getUID());
+            Integer position = (Integer)serverSequence.get(uid);
+            if (message.getUID() >= 0 && position != null) {
+                rebuilt.put(position.intValue(), message);
+                rebuiltUids.put(uid, message);
+            }
+            else {
+                message.setExpunged(true);
+                removed.add(message);
+            }
+        }
+
+        messageCache = rebuilt;
+        uidCache = rebuiltUids;
+        maxSequenceNumber = serverCount;
+
+        if (arrivals < serverCount) {
+            notifyMessageAddedListeners(getMessages(arrivals + 1, serverCount));
+        }
+        return removed;
+    }
+
+
+    /**
+     * Remove an expunged message from the message cache.  The
+     * sequence numbers of the following messages are adjusted by the
+     * cache without any work per message.
+     *
+     * @param sequenceNumber
+     *               The sequence number for the expunged message.
+     *
+     * @return The Message object corresponding to this expunged
+     *         message.
+     * @exception MessagingException
+     */
+    protected Message removeExpungedMessage(int sequenceNumber) throws MessagingException {
         // first process the expunged message.  We need to return a Message instance, so
         // force this to be added to the cache
         IMAPMessage expungedMessage = (IMAPMessage)getMessage(sequenceNumber);
+        // pull this out of the cache, which shifts everything following down one position
+        messageCache.expunge(sequenceNumber);
         // mark the message as expunged.
         expungedMessage.setExpunged(true);
         // have we retrieved a UID for this message?  If we have, then it's in the UID cache and
         // needs removal from there also
-        long uid = ((IMAPMessage)expungedMessage).getUID();
+        long uid = expungedMessage.getUID();
         if (uid >= 0) {
             uidCache.remove(Long.valueOf(uid));
         }
-        // because we need to jigger the keys of some of these, we had better have a working
-        // copy.
-        Map newCache = new HashMap();
-
-        // now process each message in the cache, making adjustments as necessary
-        Iterator i = messageCache.keySet().iterator();
-
-        while (i.hasNext()) {
-            Integer key = (Integer)i.next();
-            int index = key.intValue();
-            // if before the expunged message, just copy over to the
-            // new cache
-            if (index < sequenceNumber) {
-                newCache.put(key, messageCache.get(key));
-            }
-            // after the expunged message...we need to adjust this
-            else if (index > sequenceNumber) {
-                // retrieve the message using the current position,
-                // adjust the message sequence number, and add to the new
-                // message cache under the new key value
-                IMAPMessage message = (IMAPMessage)messageCache.get(key);
-                message.setSequenceNumber(index - 1);
-                newCache.put(Integer.valueOf(index - 1), message);
-            }
-            else {
-                // the expunged message.  We don't move this over to the new
-                // cache, and we've already done all processing of that message that's
-                // required
-            }
-        }
-
-        // replace the old cache now that everything has been adjusted
-        messageCache = newCache;
 
         // adjust the message count downward
         maxSequenceNumber--;
@@ -2270,6 +2922,30 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
             // we handled this one.
             return true;
         }
+        // with QRESYNC enabled, expunges are reported by UID.  The EARLIER form only
+        // shows up when a folder is opened, and is handled there.
+        else if (response.isKeyword("VANISHED")) {
+            IMAPVanishedResponse vanished = (IMAPVanishedResponse)response;
+            if (!vanished.earlier) {
+                try {
+                    Message[] messages = removeVanishedMessages(vanished);
+                    if (messages.length > 0) {
+                        notifyMessageRemovedListeners(false, messages);
+                    }
+                } catch (MessagingException e) {
+                }
+            }
+            return true;
+        }
+        // a new modification sequence for the folder
+        else if (response.isKeyword("HIGHESTMODSEQ")) {
+            try {
+                List arguments = ((IMAPOkResponse)response).getStatus();
+                updateHighestModSeq(((IMAPResponseTokenizer.Token)arguments.get(0)).getLong());
+            } catch (MessagingException e) {
+            }
+            return true;
+        }
         // just an update of recently arrived stuff?  Just update the field.
         else if (response.isKeyword("RECENT")) {
             recentMessages = ((IMAPSizeResponse)response).getSize();
@@ -2290,6 +2966,7 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
                     // this shouldn't happen, but it might have been expunged too.
                     if (message != null) {
                         message.updateMessageInformation(fetch);
+                        updateHighestModSeq(message.modSeq);
                     }
                     notifyMessageChangedListeners(MessageChangedEvent.FLAGS_CHANGED, message);
                 } catch (MessagingException e) {
@@ -2318,6 +2995,68 @@ public class IMAPFolder extends Folder implements UIDFolder, IMAPUntaggedRespons
 // uses com.sun.* class instances as opposed to the org.apache.geronimo.* classes.
 
 
+    /**
+     * Use the IMAP IDLE command (RFC 2177) to wait for the server to
+     * push status changes for this folder.  This blocks the calling
+     * thread.  Updates received while idling are processed as they
+     * arrive, so MessageCountListeners and MessageChangedListeners are
+     * notified of new, expunged, and changed messages without polling.
+     * The IDLE is terminated when another thread uses the folder.
+     *
+     * @exception MessagingException
+     */
+    public void idle() throws MessagingException {
+        idle(false);
+    }
+
+
+    /**
+     * Use the IMAP IDLE command (RFC 2177) to wait for the server to
+     * push status changes for this folder.
+     *
+     * @param once   If true, the IDLE is terminated after the first update
+     *               is received.  If false, this returns only when the IDLE
+     *               is terminated by another use of the folder or by the
+     *               server.
+     *
+     * @exception MessagingException
+     */
+    public void idle(boolean once) throws MessagingException {
+        IMAPConnection connection;
+        // we only hold the folder lock while starting the IDLE.  Other threads
+        // need to get in to terminate it.
+        synchronized (this) {
+            checkOpen();
+            connection = currentConnection;
+            connection.startIdle();
+        }
+
+        try {
+            // the connection isn't locked while we wait, so other threads can get in.
+            while (connection.readIdleResponse()) {
+                // dispatch the update now.  This is where the events get fired, and like
+                // any other response, it's applied to the folder state under the folder lock.
+                synchronized (this) {
+                    if (connection == currentConnection) {
+                        connection.processPendingResponses();
+                    }
+                }
+                if (once) {
+                    connection.abortIdle();
+                }
+            }
+        } finally {
+            // the IDLE completion may have arrived with other updates.  If the folder
+            // was closed meanwhile, the connection is no longer ours to process.
+            synchronized (this) {
+                if (connection == currentConnection) {
+                    connection.processPendingResponses();
+                }
+            }
+        }
+    }
+
+
 
     /**
      *   Remove an entry from the access control list for this folder.
@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.geronimo.mail.store.imap;
+
+import jakarta.mail.MessagingException;
+
+/**
+ * A local cache of the immutable information about messages
+ * (envelope, body structure, internal date, size and optionally the
+ * complete header).  A message never changes for a given UIDVALIDITY
+ * and UID pair, so anything held in the cache can be used in place of
+ * a FETCH, even across restarts.  The cached data is an opaque block
+ * of FETCH response items, which the IMAPMessage parses again when it
+ * is retrieved.
+ *
+ * An IMAPStore uses the cache configured with mail.imap.headercache.dir
+ * (an IMAPFileHeaderCache) or mail.imap.headercache.class (the name of
+ * an implementation with a public no-argument constructor), or one set
+ * directly with IMAPStore.setHeaderCache().
+ *
+ * @version $Rev$ $Date$
+ */
+public interface IMAPHeaderCache {
+    /**
+     * Retrieve the cached information for a message.  If the
+     * UIDVALIDITY does not match the value the folder's entries were
+     * stored under, the entries are stale and must be discarded.
+     *
+     * @param folder      The full name of the folder.
+     * @param uidValidity The folder's current UIDVALIDITY.
+     * @param uid         The message UID.
+     *
+     * @return The cached data, or null if nothing is cached for the message.
+     * @exception MessagingException
+     */
+    public byte[] get(String folder, long uidValidity, long uid) throws MessagingException;
+
+    /**
+     * Store the information for a message, replacing anything previously
+     * held for it.  A change of UIDVALIDITY discards all of the folder's
+     * existing entries.
+     *
+     * @param folder      The full name of the folder.
+     * @param uidValidity The folder's current UIDVALIDITY.
+     * @param uid         The message UID.
+     * @param data        The data to cache.
+     *
+     * @exception MessagingException
+     */
+    public void put(String folder, long uidValidity, long uid, byte[] data) throws MessagingException;
+
+    /**
+     * Release any resources held by the cache.  This is called when
+     * the owning store is closed.
+     *
+     * @exception MessagingException
+     */
+    public void close() throws MessagingException;
+}
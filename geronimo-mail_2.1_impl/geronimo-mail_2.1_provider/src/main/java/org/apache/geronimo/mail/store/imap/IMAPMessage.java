@@ -17,10 +17,13 @@
 
 package org.apache.geronimo.mail.store.imap;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
@@ -50,11 +53,15 @@ import jakarta.mail.internet.MimeUtility;
 import org.apache.geronimo.mail.store.imap.connection.IMAPBodyStructure;
 import org.apache.geronimo.mail.store.imap.connection.IMAPConnection;
 import org.apache.geronimo.mail.store.imap.connection.IMAPEnvelope;
+import org.apache.geronimo.mail.store.imap.connection.IMAPFetchBodyPart;
 import org.apache.geronimo.mail.store.imap.connection.IMAPFetchDataItem;
 import org.apache.geronimo.mail.store.imap.connection.IMAPFetchResponse;
+import org.apache.geronimo.mail.store.imap.connection.IMAPFlags;
 import org.apache.geronimo.mail.store.imap.connection.IMAPInternalDate;
 import org.apache.geronimo.mail.store.imap.connection.IMAPInternetHeader;
 import org.apache.geronimo.mail.store.imap.connection.IMAPMessageSize;
+import org.apache.geronimo.mail.store.imap.connection.IMAPModSeq;
+import org.apache.geronimo.mail.store.imap.connection.IMAPResponseTokenizer;
 import org.apache.geronimo.mail.store.imap.connection.IMAPUid;
 
 /**
@@ -79,8 +86,12 @@ public class IMAPMessage extends MimeMessage {
 
     // the IMAP server sequence number (potentially updated during the life of this message object).
     protected int sequenceNumber;
+    // our slot in the folder's message cache, which tracks our sequence number while the folder is open.
+    protected int cacheSlot = -1;
     // the IMAP uid value;
     protected long uid = -1;
+    // the CONDSTORE modification sequence (-1 until retrieved)
+    protected long modSeq = -1;
     // the section identifier.  This is only really used for nested messages.  The toplevel version
     // will be null, and each nested message will set the appropriate part identifier
     protected String section;
@@ -95,6 +106,8 @@ public class IMAPMessage extends MimeMessage {
     protected int size;
     // turned on once we've requested the entire header set.
     protected boolean allHeadersRetrieved = false;
+    // turned on once the store's header cache has been checked for this message.
+    protected boolean cacheChecked = false;
     // singleton date formatter for this class.
     static protected MailDateFormat dateFormat = new MailDateFormat();
 
@@ -139,6 +152,7 @@ public class IMAPMessage extends MimeMessage {
         // we need to invalidate the sequence number.
         if (isExpunged()) {
             sequenceNumber = -1;
+            cacheSlot = -1;
         }
     }
 
@@ -194,7 +208,7 @@ public class IMAPMessage extends MimeMessage {
                 // set the flags for this item and update the
                 // internal state with the new values returned from the
                 // server.
-                flags = connection.setFlags(sequenceNumber, flag, set);
+                flags = connection.setFlags(getSequenceNumber(), flag, set);
             } finally {
                 releaseConnection(connection);
             }
@@ -223,8 +237,12 @@ public class IMAPMessage extends MimeMessage {
         if (content == null) {
             // make sure we're still valid
             checkValidity();
-            // make sure the content is fully loaded
-            loadContent();
+            // if the connection is spooling large literals, the content is streamed
+            // rather than loaded.
+            InputStream stream = loadContentStream();
+            if (stream != null) {
+                return stream;
+            }
         }
 
         // allow the super class to handle creating it from the loaded content.
@@ -241,12 +259,13 @@ public class IMAPMessage extends MimeMessage {
      * @exception MessagingException
      */
     public void writeTo(OutputStream out) throws IOException, MessagingException {
+        InputStream stream = null;
         // no content loaded yet?
         if (content == null) {
             // make sure we're still valid
             checkValidity();
-            // make sure the content is fully loaded
-            loadContent();
+            // a spooled body is copied straight from the spool file.
+            stream = loadContentStream();
         }
 
         loadHeaders();
@@ -259,7 +278,19 @@ public class IMAPMessage extends MimeMessage {
         }
         out.write(CRLF);
         out.write(CRLF);
-        out.write(content);
+        if (stream == null) {
+            out.write(content);
+            return;
+        }
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            stream.close();
+        }
     }
 
 	/******************************************************************
@@ -813,7 +844,7 @@ public class IMAPMessage extends MimeMessage {
 
             try {
                 // fetch the flags for this item.
-                flags = connection.fetchFlags(sequenceNumber);
+                flags = connection.fetchFlags(getSequenceNumber());
             } finally {
                 releaseConnection(connection);
             }
@@ -840,13 +871,19 @@ public class IMAPMessage extends MimeMessage {
         // untagged responses are processed before the next time the folder connection is
         // used.
         synchronized (folder) {
+            // we might have these stored locally
+            if (loadCachedInformation() && allHeadersRetrieved) {
+                return;
+            }
             IMAPConnection connection = getConnection();
 
             try {
                 // get the headers and set
-                headers = connection.fetchHeaders(sequenceNumber, section);
+                IMAPInternetHeader header = connection.fetchHeader(getSequenceNumber(), section);
+                headers = header.headers;
                 // we have the entire header set, not just a subset.
                 allHeadersRetrieved = true;
+                cacheMessageInformation(Collections.singletonList(header));
             } finally {
                 releaseConnection(connection);
             }
@@ -874,10 +911,14 @@ public class IMAPMessage extends MimeMessage {
         // untagged responses are processed before the next time the folder connection is
         // used.
         synchronized (folder) {
+            // we might have this stored locally
+            if (loadCachedInformation() && envelope != null) {
+                return;
+            }
             IMAPConnection connection = getConnection();
             try {
                 // fetch the envelope information for this
-                List fetches = connection.fetchEnvelope(sequenceNumber);
+                List fetches = connection.fetchEnvelope(getSequenceNumber());
                 // now process all of the fetch responses before releasing the folder lock.
                 // it's possible that an unsolicited update on another thread might try to
                 // make an update, causing a potential deadlock.
@@ -940,10 +981,14 @@ public class IMAPMessage extends MimeMessage {
         // untagged responses are processed before the next time the folder connection is
         // used.
         synchronized (folder) {
+            // we might have this stored locally
+            if (loadCachedInformation() && bodyStructure != null) {
+                return;
+            }
             IMAPConnection connection = getConnection();
             try {
                 // fetch the envelope information for this
-                bodyStructure = connection.fetchBodyStructure(sequenceNumber);
+                bodyStructure = connection.fetchBodyStructure(getSequenceNumber());
                 // go update all of the information
             } finally {
                 releaseConnection(connection);
@@ -952,6 +997,7 @@ public class IMAPMessage extends MimeMessage {
             // update this before we release the folder lock so we can avoid
             // deadlock.
             updateBodyStructure(bodyStructure);
+            cacheMessageInformation(Collections.singletonList(bodyStructure));
         }
     }
 
@@ -1029,6 +1075,63 @@ public class IMAPMessage extends MimeMessage {
     }
 
 
+    /**
+     * Retrieve the message content as a stream.  When the connection
+     * has spooled the content to disk, the returned stream reads
+     * from the spool file and the content is not retained by this
+     * message.  Otherwise, the content is loaded as normal and null
+     * is returned.
+     *
+     * @return A stream for the content, or null if the content has been loaded.
+     * @exception MessagingException
+     */
+    protected InputStream loadContentStream() throws MessagingException {
+        // with partial fetches, the content is fetched in chunks as it is read.
+        if (store.isPartialFetchEnabled()) {
+            return new IMAPPartialInputStream(this, section, store.getFetchSize());
+        }
+        synchronized (folder) {
+            IMAPConnection connection = getConnection();
+            try {
+                IMAPFetchBodyPart part = connection.fetchContentPart(getSequenceNumber(), section);
+                // only content too large to buffer is streamed; anything else is kept.
+                if (part.isSpooled()) {
+                    return part.getInputStream();
+                }
+                content = part.getContent();
+                return null;
+            } finally {
+                releaseConnection(connection);
+            }
+        }
+    }
+
+
+    /**
+     * Fetch a range of the content of this message or one of
+     * its parts using a partial FETCH.
+     *
+     * @param partSection The section to fetch, or null for the message text.
+     * @param start       The offset of the first byte to fetch.
+     * @param length      The maximum number of bytes to fetch.
+     *
+     * @return The fetched bytes.  This is shorter than length at the end of the content.
+     * @exception MessagingException
+     */
+    byte[] fetchContentChunk(String partSection, int start, int length) throws MessagingException {
+        synchronized (folder) {
+            // make sure we're still valid
+            checkValidity();
+            IMAPConnection connection = getConnection();
+            try {
+                return connection.fetchContent(getSequenceNumber(), partSection, start, length);
+            } finally {
+                releaseConnection(connection);
+            }
+        }
+    }
+
+
     /**
      * Retrieve the sequence number assigned to this message.
      *
@@ -1036,18 +1139,39 @@ public class IMAPMessage extends MimeMessage {
      * this message.
      */
     int getSequenceNumber() {
+        // while we're held in the folder's message cache, the cache tracks
+        // our position as other messages get expunged.
+        if (cacheSlot >= 0) {
+            return ((IMAPFolder)folder).messageCache.getSequenceNumber(cacheSlot);
+        }
         return sequenceNumber;
     }
 
+
     /**
-     * Set the sequence number for the message.  This
-     * is updated whenever messages get expunged from
-     * the folder.
+     * Get the modification sequence of this message (RFC 7162).  This
+     * changes every time the message's metadata, such as its flags, is
+     * changed.  The value is fetched from the server if it's not already
+     * known.  This requires a server that supports CONDSTORE.
      *
-     * @param s      The new sequence number.
+     * @return The modification sequence.
+     * @exception MessagingException
      */
-    void setSequenceNumber(int s) {
-        sequenceNumber = s;
+    public synchronized long getModSeq() throws MessagingException {
+        // make sure this is in a valid state.
+        checkValidity();
+        if (modSeq != -1) {
+            return modSeq;
+        }
+        synchronized (folder) {
+            IMAPConnection connection = getConnection();
+            try {
+                modSeq = connection.fetchModSeq(getSequenceNumber());
+            } finally {
+                releaseConnection(connection);
+            }
+        }
+        return modSeq;
     }
 
 
@@ -1210,6 +1334,20 @@ public class IMAPMessage extends MimeMessage {
      * @exception MessagingException
      */
     void updateMessageInformation(IMAPFetchResponse response) throws MessagingException {
+        applyMessageInformation(response);
+        // hang on to anything we'll never need to fetch again
+        cacheMessageInformation(response.getDataItems());
+    }
+
+
+    /**
+     * Apply the data items of a FETCH response to this message.
+     *
+     * @param response The response line, which may contain multiple data items.
+     *
+     * @exception MessagingException
+     */
+    protected void applyMessageInformation(IMAPFetchResponse response) throws MessagingException {
         // get the list of data items associated with this response.  We can have
         // a large number of items returned in a single update.
         List items = response.getDataItems();
@@ -1237,6 +1375,12 @@ public class IMAPMessage extends MimeMessage {
                 case IMAPFetchDataItem.BODYSTRUCTURE:
                     updateBodyStructure((IMAPBodyStructure)item);
                     break;
+                case IMAPFetchDataItem.FLAGS:
+                    flags = ((IMAPFlags)item).flags;
+                    break;
+                case IMAPFetchDataItem.MODSEQ:
+                    modSeq = ((IMAPModSeq)item).modSeq;
+                    break;
                     // a partial or full header update
                 case IMAPFetchDataItem.HEADER:
                 {
@@ -1260,6 +1404,144 @@ public class IMAPMessage extends MimeMessage {
     }
 
 
+    /**
+     * Fill in this message from the store's header cache.  The cache is
+     * only consulted once per message, and only for top-level messages
+     * (nested messages are described by the parent's body structure).
+     * This may need to ask the server for our UID.
+     *
+     * @return true if cached information was applied to the message.
+     * @exception MessagingException
+     */
+    protected boolean loadCachedInformation() throws MessagingException {
+        IMAPHeaderCache cache = store.getHeaderCache();
+        if (cache == null || section != null || cacheChecked) {
+            return false;
+        }
+        cacheChecked = true;
+
+        IMAPFolder imapFolder = (IMAPFolder)folder;
+        // the cache is keyed by UID, so we need to know ours.
+        long messageUid = imapFolder.getUID(this);
+        if (messageUid == -1) {
+            return false;
+        }
+
+        byte[] data;
+        try {
+            data = cache.get(folder.getFullName(), imapFolder.uidValidity, messageUid);
+        } catch (MessagingException e) {
+            // a broken cache just means talking to the server
+            if (store.debug) {
+                store.debugOut("Unable to read header cache", e);
+            }
+            return false;
+        }
+        if (data == null) {
+            return false;
+        }
+        applyMessageInformation(parseCachedInformation(data));
+        return true;
+    }
+
+
+    /**
+     * Add any of the immutable message information from a set of
+     * FETCH data items to the store's header cache.  Items already
+     * cached for this message are kept unless the new set replaces them.
+     *
+     * @param items  The list of IMAPFetchDataItems received from the server.
+     *
+     * @exception MessagingException
+     */
+    protected void cacheMessageInformation(List items) throws MessagingException {
+        IMAPHeaderCache cache = store.getHeaderCache();
+        if (cache == null || section != null || uid == -1) {
+            return;
+        }
+
+        // pick out the items that can be cached
+        List cacheable = new ArrayList();
+        for (int i = 0; i < items.size(); i++) {
+            IMAPFetchDataItem item = (IMAPFetchDataItem)items.get(i);
+            if (item.getRawData() != null && (!item.isType(IMAPFetchDataItem.HEADER) || store.isHeaderCacheHeaders())) {
+                cacheable.add(item);
+            }
+        }
+        if (cacheable.isEmpty()) {
+            return;
+        }
+
+        String name = folder.getFullName();
+        long uidValidity = ((IMAPFolder)folder).uidValidity;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            // merge in the existing entry, leaving out whatever we've just received
+            byte[] existing = cache.get(name, uidValidity, uid);
+            if (existing != null) {
+                List cached = parseCachedInformation(existing).getDataItems();
+                for (int i = 0; i < cached.size(); i++) {
+                    IMAPFetchDataItem item = (IMAPFetchDataItem)cached.get(i);
+                    if (!containsType(cacheable, item.getType())) {
+                        appendRawData(out, item);
+                    }
+                }
+            }
+            for (int i = 0; i < cacheable.size(); i++) {
+                appendRawData(out, (IMAPFetchDataItem)cacheable.get(i));
+            }
+            cache.put(name, uidValidity, uid, out.toByteArray());
+        } catch (MessagingException e) {
+            // failing to cache doesn't affect the message itself
+            if (store.debug) {
+                store.debugOut("Unable to update header cache", e);
+            }
+        }
+    }
+
+
+    /**
+     * Parse a header cache entry back into FETCH data items.
+     *
+     * @param data   The cached data (a sequence of FETCH response items).
+     *
+     * @return An IMAPFetchResponse containing the cached items.
+     * @exception MessagingException
+     */
+    protected IMAPFetchResponse parseCachedInformation(byte[] data) throws MessagingException {
+        byte[] response = new byte[data.length + 2];
+        response[0] = '(';
+        System.arraycopy(data, 0, response, 1, data.length);
+        response[response.length - 1] = ')';
+        return new IMAPFetchResponse(getSequenceNumber(), response, new IMAPResponseTokenizer(response));
+    }
+
+
+    /**
+     * Test if a list of data items contains an item of a given type.
+     */
+    private static boolean containsType(List items, int type) {
+        for (int i = 0; i < items.size(); i++) {
+            if (((IMAPFetchDataItem)items.get(i)).isType(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Append the raw form of a data item to a cache entry.
+     */
+    private static void appendRawData(ByteArrayOutputStream out, IMAPFetchDataItem item) {
+        if (out.size() > 0) {
+            out.write(' ');
+        }
+        byte[] raw = item.getRawData();
+        out.write(raw, 0, raw.length);
+    }
+
+
     /**
      * Merge a subset of the requested headers with our existing partial set.
      * The new set will contain all headers requested from the server, plus
@@ -0,0 +1,284 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.geronimo.mail.store.imap;
+
+/**
+ * The message cache for an open IMAPFolder.  IMAP sequence numbers
+ * shift every time a message is expunged, so rather than keying
+ * messages by sequence number (and renumbering every later message on
+ * each EXPUNGE), messages are kept in fixed slots assigned in arrival
+ * order.  A Fenwick tree over the live slots translates between
+ * sequence numbers and slots, giving logarithmic lookup and expunge
+ * regardless of folder size.
+ *
+ * A cached IMAPMessage remembers its slot and asks the cache for its
+ * current sequence number, so expunging a message never has to touch
+ * the messages that follow it.  Slots freed by expunged messages are
+ * reclaimed by trim() once they make up the bulk of the cache.
+ *
+ * All access is expected to be synchronized on the owning folder.
+ *
+ * @version $Rev$ $Date$
+ */
+public class IMAPMessageCache {
+    // initial number of slots allocated
+    protected static final int INITIAL_CAPACITY = 64;
+
+    // the retrieved messages, indexed by slot.  Slots are null until a message is requested.
+    protected IMAPMessage[] messages;
+    // flags for which slots still hold a message on the server
+    protected boolean[] live;
+    // Fenwick tree of live slot counts (1-based)
+    protected int[] tree;
+    // the number of slots in use, live and expunged
+    protected int slots;
+    // the number of live slots.  This is the highest sequence number the cache covers.
+    protected int count;
+
+    public IMAPMessageCache() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Get the number of sequence numbers covered by the cache.
+     *
+     * @return The highest sequence number that has a slot assigned.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Make sure the cache covers a given sequence number.  Sequence
+     * numbers beyond the current size always refer to messages that
+     * arrived after all of the existing ones, so new slots are appended.
+     *
+     * @param sequenceNumber
+     *               The sequence number that must have a slot.
+     */
+    public void extend(int sequenceNumber) {
+        if (sequenceNumber <= count) {
+            return;
+        }
+        int added = sequenceNumber - count;
+        if (slots + added > messages.length) {
+            // either reclaim the expunged slots or grow the tables
+            resize(Math.max(messages.length * 2, count + added));
+        }
+        for (int i = 0; i < added; i++) {
+            live[slots] = true;
+            update(slots, 1);
+            slots++;
+        }
+        count += added;
+    }
+
+    /**
+     * Retrieve a cached message by sequence number.
+     *
+     * @param sequenceNumber
+     *               The message sequence number.
+     *
+     * @return The cached message, or null if this message has not been retrieved.
+     */
+    public IMAPMessage get(int sequenceNumber) {
+        if (sequenceNumber < 1 || sequenceNumber > count) {
+            return null;
+        }
+        return messages[slotOf(sequenceNumber)];
+    }
+
+    /**
+     * Add a message to the cache.  The sequence number must already
+     * be covered by the cache.
+     *
+     * @param sequenceNumber
+     *                The sequence number of the message.
+     * @param message The message to cache.
+     */
+    public void put(int sequenceNumber, IMAPMessage message) {
+        int slot = slotOf(sequenceNumber);
+        messages[slot] = message;
+        message.cacheSlot = slot;
+    }
+
+    /**
+     * Get the current sequence number for a slot.
+     *
+     * @param slot   The slot assigned to a message.
+     *
+     * @return The sequence number, or -1 if the slot's message has been expunged.
+     */
+    public int getSequenceNumber(int slot) {
+        if (slot < 0 || slot >= slots || !live[slot]) {
+            return -1;
+        }
+        return prefix(slot);
+    }
+
+    /**
+     * Remove a message from the sequence.  All following messages move
+     * down one position.  The caller is responsible for calling trim()
+     * once it has finished processing a run of expunges.
+     *
+     * @param sequenceNumber
+     *               The sequence number of the expunged message.
+     *
+     * @return The cached message that was removed, or null if the message was never retrieved.
+     */
+    public IMAPMessage expunge(int sequenceNumber) {
+        int slot = slotOf(sequenceNumber);
+        live[slot] = false;
+        update(slot, -1);
+        count--;
+
+        IMAPMessage message = messages[slot];
+        messages[slot] = null;
+        if (message != null) {
+            // it no longer has a position in the folder
+            message.cacheSlot = -1;
+        }
+        return message;
+    }
+
+    /**
+     * Reclaim the slots of expunged messages once they outnumber
+     * the live ones.
+     */
+    public void trim() {
+        if (slots > INITIAL_CAPACITY && slots - count > count) {
+            resize(count * 2);
+        }
+    }
+
+    /**
+     * Release all of the cached messages.  Each message is left with a
+     * fixed copy of its final sequence number, since there is no longer
+     * a cache to resolve it from.
+     */
+    public void detach() {
+        int sequenceNumber = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            if (live[slot]) {
+                sequenceNumber++;
+                IMAPMessage message = messages[slot];
+                if (message != null) {
+                    message.sequenceNumber = sequenceNumber;
+                    message.cacheSlot = -1;
+                }
+            }
+        }
+        allocate(INITIAL_CAPACITY);
+        slots = 0;
+        count = 0;
+    }
+
+    /**
+     * Locate the slot for a sequence number.  This is a search down
+     * the Fenwick tree for the k-th live slot.
+     *
+     * @param sequenceNumber
+     *               The target sequence number (1 to size()).
+     *
+     * @return The slot index.
+     */
+    protected int slotOf(int sequenceNumber) {
+        if (sequenceNumber < 1 || sequenceNumber > count) {
+            throw new IndexOutOfBoundsException("Message sequence number " + sequenceNumber + " not in cache");
+        }
+        int position = 0;
+        int remaining = sequenceNumber;
+        for (int step = Integer.highestOneBit(messages.length); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next <= messages.length && tree[next] < remaining) {
+                position = next;
+                remaining -= tree[next];
+            }
+        }
+        // position is the 1-based index just before the target, which is the 0-based slot
+        return position;
+    }
+
+    /**
+     * Count the live slots up to and including a slot.
+     */
+    protected int prefix(int slot) {
+        int sum = 0;
+        for (int i = slot + 1; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Adjust the live count for a slot.
+     */
+    protected void update(int slot, int delta) {
+        for (int i = slot + 1; i <= messages.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * Allocate empty tables of a given capacity.
+     */
+    protected void allocate(int capacity) {
+        messages = new IMAPMessage[capacity];
+        live = new boolean[capacity];
+        tree = new int[capacity + 1];
+    }
+
+    /**
+     * Rebuild the tables with a new capacity, dropping the slots
+     * of expunged messages and renumbering the cached messages'
+     * slots.  This is linear in the number of slots, and is only
+     * done when the tables double or halve, so the cost is spread
+     * across the operations that triggered it.
+     *
+     * @param capacity The minimum new capacity.
+     */
+    protected void resize(int capacity) {
+        IMAPMessage[] oldMessages = messages;
+        boolean[] oldLive = live;
+        int oldSlots = slots;
+
+        allocate(Math.max(INITIAL_CAPACITY, capacity));
+        slots = 0;
+        for (int slot = 0; slot < oldSlots; slot++) {
+            if (oldLive[slot]) {
+                IMAPMessage message = oldMessages[slot];
+                messages[slots] = message;
+                if (message != null) {
+                    message.cacheSlot = slots;
+                }
+                live[slots] = true;
+                slots++;
+            }
+        }
+        // linear Fenwick tree construction
+        for (int i = 1; i <= messages.length; i++) {
+            if (i <= slots) {
+                tree[i]++;
+            }
+            int parent = i + (i & -i);
+            if (parent <= messages.length) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+}
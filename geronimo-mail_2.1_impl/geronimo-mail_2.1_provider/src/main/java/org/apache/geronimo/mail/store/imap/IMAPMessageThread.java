@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.geronimo.mail.store.imap;
+
+import jakarta.mail.Message;
+
+/**
+ * A message thread computed by the server, as returned by
+ * IMAPFolder.thread().  Each node holds a message and the
+ * replies to it.
+ *
+ * @version $Rev$ $Date$
+ */
+public class IMAPMessageThread {
+    // the message at this point of the thread (null if the server doesn't have it)
+    protected Message message;
+    // the replies to the message
+    protected IMAPMessageThread[] children;
+
+    IMAPMessageThread(Message message, IMAPMessageThread[] children) {
+        this.message = message;
+        this.children = children;
+    }
+
+    /**
+     * Get the message at this point of the thread.  A thread whose
+     * first message is missing from the folder (or didn't match the
+     * search criteria) has a null message at the root, with the
+     * known messages as its children.
+     *
+     * @return The message, or null.
+     */
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Get the replies to this message.
+     *
+     * @return The child threads (an empty array if there are no replies).
+     */
+    public IMAPMessageThread[] getChildren() {
+        return children;
+    }
+}
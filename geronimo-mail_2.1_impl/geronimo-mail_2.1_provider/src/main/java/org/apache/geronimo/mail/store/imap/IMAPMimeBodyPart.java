@@ -30,6 +30,7 @@ import jakarta.mail.internet.MimeUtility;
 
 import org.apache.geronimo.mail.store.imap.connection.IMAPBodyStructure;
 import org.apache.geronimo.mail.store.imap.connection.IMAPConnection;
+import org.apache.geronimo.mail.store.imap.connection.IMAPFetchBodyPart;
 import org.apache.geronimo.mail.util.SessionUtil;
 
 
@@ -201,8 +202,22 @@ public class IMAPMimeBodyPart extends MimeBodyPart {
         if (content == null) {
             // make sure we're still valid
             message.checkValidity();
-            // make sure the content is fully loaded
-            loadContent();
+            // with partial fetches, the part is fetched in chunks as it is read.
+            if (message.store.isPartialFetchEnabled()) {
+                return new IMAPPartialInputStream(message, section, message.store.getFetchSize());
+            }
+            // parts too large to buffer are streamed from the spool file, while
+            // anything smaller is kept.
+            IMAPConnection connection = message.getConnection();
+            try {
+                IMAPFetchBodyPart part = connection.fetchContentPart(message.getSequenceNumber(), section);
+                if (part.isSpooled()) {
+                    return part.getInputStream();
+                }
+                content = part.getContent();
+            } finally {
+                message.releaseConnection(connection);
+            }
         }
 
         // allow the super class to handle creating it from the loaded content.
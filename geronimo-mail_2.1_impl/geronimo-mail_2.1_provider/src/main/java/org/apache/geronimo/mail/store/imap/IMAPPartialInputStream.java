@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.geronimo.mail.store.imap;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import jakarta.mail.MessagingException;
+
+/**
+ * An InputStream over message or body part content that is retrieved
+ * from the server with successive partial FETCH commands
+ * (BODY.PEEK[section]<start.length>).  Only one chunk of the content is
+ * held at a time, and the next chunk is only requested once the current
+ * one has been consumed, so a reader that stops early never downloads
+ * the rest of the content.
+ *
+ * @version $Rev$ $Date$
+ */
+public class IMAPPartialInputStream extends InputStream {
+    // the message the content belongs to
+    protected IMAPMessage message;
+    // the section being read (null for the message text)
+    protected String section;
+    // the number of bytes requested with each fetch
+    protected int chunkSize;
+    // the current chunk of data
+    protected byte[] buffer = new byte[0];
+    // our position within the current chunk
+    protected int position;
+    // the content offset of the next chunk to fetch
+    protected int offset;
+    // set once the server has returned a short chunk, or the stream is closed
+    protected boolean eof;
+
+    /**
+     * Create a stream over a piece of message content.
+     *
+     * @param message   The message the content belongs to.
+     * @param section   The section identifier of the content, or null for the message text.
+     * @param chunkSize The number of bytes to request with each FETCH.
+     */
+    IMAPPartialInputStream(IMAPMessage message, String section, int chunkSize) {
+        this.message = message;
+        this.section = section;
+        this.chunkSize = chunkSize;
+    }
+
+    public int read() throws IOException {
+        if (position >= buffer.length && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= buffer.length && !fill()) {
+            return -1;
+        }
+        // only hand out what we have buffered rather than fetching more
+        int count = Math.min(len, buffer.length - position);
+        System.arraycopy(buffer, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Skip over content.  Content beyond the current chunk is
+     * skipped without being fetched.
+     */
+    public long skip(long n) throws IOException {
+        if (n <= 0 || eof && position >= buffer.length) {
+            return 0;
+        }
+        int buffered = buffer.length - position;
+        if (n <= buffered) {
+            position += (int)n;
+            return n;
+        }
+        // discard the current chunk and move the fetch offset ahead.  If this
+        // skips past the end, the next fetch just returns no data.
+        position = buffer.length;
+        long remaining = Math.min(n - buffered, Integer.MAX_VALUE - (long)offset);
+        offset += (int)remaining;
+        return buffered + remaining;
+    }
+
+    public int available() throws IOException {
+        return buffer.length - position;
+    }
+
+    public void close() throws IOException {
+        // release the buffered data, nothing more will be fetched
+        eof = true;
+        buffer = new byte[0];
+        position = 0;
+    }
+
+    /**
+     * Fetch the next chunk of content from the server.
+     *
+     * @return true if more data is available, false at the end of the content.
+     * @exception IOException
+     */
+    protected boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        try {
+            buffer = message.fetchContentChunk(section, offset, chunkSize);
+        } catch (MessagingException e) {
+            throw new IOException("Unable to fetch message content: " + e.getMessage(), e);
+        }
+        position = 0;
+        offset += buffer.length;
+        // a short chunk means we've reached the end
+        if (buffer.length < chunkSize) {
+            eof = true;
+        }
+        return buffer.length > 0;
+    }
+}
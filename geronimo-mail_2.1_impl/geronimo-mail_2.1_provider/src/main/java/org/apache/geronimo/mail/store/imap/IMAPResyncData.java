@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.geronimo.mail.store.imap;
+
+/**
+ * The state of a folder at a client's last synchronization, used to
+ * open the folder with CONDSTORE/QRESYNC (RFC 7162) resynchronization.
+ * Both values are available from the folder once it's open, through
+ * IMAPFolder.getUIDValidity() and IMAPFolder.getHighestModSeq().
+ *
+ * @version $Rev$ $Date$
+ */
+public class IMAPResyncData {
+    // the UIDVALIDITY at the last synchronization
+    protected long uidValidity;
+    // the highest modification sequence seen at the last synchronization
+    protected long modSeq;
+
+    /**
+     * Create a resynchronization point.
+     *
+     * @param uidValidity The folder UIDVALIDITY value.
+     * @param modSeq      The folder's highest modification sequence.
+     */
+    public IMAPResyncData(long uidValidity, long modSeq) {
+        this.uidValidity = uidValidity;
+        this.modSeq = modSeq;
+    }
+
+    /**
+     * Get the UIDVALIDITY value.
+     *
+     * @return The UIDVALIDITY at the last synchronization.
+     */
+    public long getUIDValidity() {
+        return uidValidity;
+    }
+
+    /**
+     * Get the modification sequence.
+     *
+     * @return The highest modification sequence seen at the last synchronization.
+     */
+    public long getModSeq() {
+        return modSeq;
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.geronimo.mail.store.imap;
+
+import jakarta.mail.Message;
+
+/**
+ * The changes reported when a folder is opened with
+ * IMAPFolder.open(int, IMAPResyncData).
+ *
+ * @version $Rev$ $Date$
+ */
+public class IMAPResyncResult {
+    // true if UIDVALIDITY changed, which invalidates everything the client knows
+    protected boolean uidValidityChanged;
+    // the messages with flag changes since the synchronization point
+    protected Message[] changedMessages;
+    // the UIDs of removed messages, or null if the server can't report them
+    protected long[] vanishedUids;
+
+    IMAPResyncResult(boolean uidValidityChanged, Message[] changedMessages, long[] vanishedUids) {
+        this.uidValidityChanged = uidValidityChanged;
+        this.changedMessages = changedMessages;
+        this.vanishedUids = vanishedUids;
+    }
+
+    /**
+     * Test if the folder's UIDVALIDITY has changed since the
+     * synchronization point.  If it has, no changes are reported
+     * and the client must discard its state and synchronize the
+     * folder from scratch.
+     *
+     * @return true if UIDVALIDITY no longer matches.
+     */
+    public boolean isUIDValidityChanged() {
+        return uidValidityChanged;
+    }
+
+    /**
+     * Get the messages changed since the synchronization point.  The
+     * UID, flags, and modification sequence of these messages have
+     * already been retrieved.
+     *
+     * @return The changed messages.
+     */
+    public Message[] getChangedMessages() {
+        return changedMessages;
+    }
+
+    /**
+     * Get the UIDs of the messages removed since the synchronization
+     * point.  Only servers supporting QRESYNC report these.  With a
+     * CONDSTORE-only server, this returns null and the client has to
+     * compare UID lists to find removed messages.
+     *
+     * @return The vanished UIDs, or null if unknown.
+     */
+    public long[] getVanishedUIDs() {
+        return vanishedUids;
+    }
+}
@@ -18,9 +18,12 @@
 
 package org.apache.geronimo.mail.store.imap;
 
+import java.io.File;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import jakarta.mail.AuthenticationFailedException;
 import jakarta.mail.Folder;
@@ -34,6 +37,7 @@ import jakarta.mail.event.StoreEvent;
 
 import org.apache.geronimo.mail.store.imap.connection.IMAPConnection;
 import org.apache.geronimo.mail.store.imap.connection.IMAPConnectionPool;
+import org.apache.geronimo.mail.store.imap.connection.IMAPMailboxStatus;
 import org.apache.geronimo.mail.store.imap.connection.IMAPOkResponse;
 import org.apache.geronimo.mail.store.imap.connection.IMAPNamespaceResponse;
 import org.apache.geronimo.mail.store.imap.connection.IMAPNamespace;
@@ -54,9 +58,24 @@ public class IMAPStore extends Store implements QuotaAwareStore, IMAPUntaggedRes
     // the default connection ports for secure and non-secure variations
     protected static final int DEFAULT_IMAP_PORT = 143;
     protected static final int DEFAULT_IMAP_SSL_PORT = 993;
+    // the configured connection port
+    protected static final String MAIL_PORT = "port";
     
     protected static final String MAIL_STATUS_TIMEOUT = "statuscacheimeout";
     protected static final int DEFAULT_STATUS_TIMEOUT = 1000; 
+    // message content is streamed using successive partial FETCH commands
+    protected static final String MAIL_PARTIAL_FETCH = "partialfetch";
+    // the size of each partial FETCH
+    protected static final String MAIL_FETCH_SIZE = "fetchsize";
+    protected static final int DEFAULT_FETCH_SIZE = 16384;
+    // the number of messages handled by each FETCH command issued by Folder.fetch()
+    protected static final String MAIL_FETCH_CHUNK_SIZE = "fetchchunksize";
+    // the directory for an IMAPFileHeaderCache (each account gets its own subdirectory)
+    protected static final String MAIL_HEADER_CACHE_DIR = "headercache.dir";
+    // the class name of an IMAPHeaderCache implementation
+    protected static final String MAIL_HEADER_CACHE_CLASS = "headercache.class";
+    // also keep the complete message headers in the header cache
+    protected static final String MAIL_HEADER_CACHE_HEADERS = "headercache.headers";
     
     // our accessor for protocol properties and the holder of 
     // protocol-specific information 
@@ -79,6 +98,16 @@ public class IMAPStore extends Store implements QuotaAwareStore, IMAPUntaggedRes
     boolean closedForBusiness = true; 
     // The timeout value for our status cache 
     long statusCacheTimeout = 0; 
+    // stream message content in chunks using partial fetches
+    boolean partialFetch = false;
+    // the partial fetch chunk size
+    int fetchSize = DEFAULT_FETCH_SIZE;
+    // the message count for each Folder.fetch() chunk (0 fetches everything at once)
+    int fetchChunkSize = 0;
+    // the local cache of immutable message information (null if not caching)
+    protected IMAPHeaderCache headerCache;
+    // true if complete message headers are added to the header cache
+    boolean cacheHeaders = false;
 
     /**
      * Construct an IMAPStore item.
@@ -112,6 +141,14 @@ public class IMAPStore extends Store implements QuotaAwareStore, IMAPUntaggedRes
         
         // get the status timeout value for the folders. 
         statusCacheTimeout = props.getIntProperty(MAIL_STATUS_TIMEOUT, DEFAULT_STATUS_TIMEOUT);
+        // and the content streaming options
+        partialFetch = props.getBooleanProperty(MAIL_PARTIAL_FETCH, false);
+        fetchSize = props.getIntProperty(MAIL_FETCH_SIZE, DEFAULT_FETCH_SIZE);
+        if (fetchSize <= 0) {
+            partialFetch = false;
+        }
+        fetchChunkSize = props.getIntProperty(MAIL_FETCH_CHUNK_SIZE, 0);
+        cacheHeaders = props.getBooleanProperty(MAIL_HEADER_CACHE_HEADERS, false);
 
         // get our debug settings
         debugStream = session.getDebugOut();
@@ -153,12 +190,57 @@ public class IMAPStore extends Store implements QuotaAwareStore, IMAPUntaggedRes
         {
             // the store is now open 
             closedForBusiness = false; 
+            // now that we know the account, we can locate its header cache
+            if (headerCache == null) {
+                headerCache = createHeaderCache(host, port, username);
+            }
             return true; 
         }
         return false; 
 	}
 
 
+    /**
+     * Create the header cache configured for this store, if any.  The
+     * mail.imap.headercache.class property names an IMAPHeaderCache
+     * implementation to instantiate.  Otherwise, if
+     * mail.imap.headercache.dir is set, an IMAPFileHeaderCache is used
+     * with a subdirectory of that directory for this account (user name,
+     * host and port).
+     *
+     * @param host     The server host.
+     * @param port     The server port.
+     * @param username The account user name.
+     *
+     * @return The IMAPHeaderCache instance, or null if caching isn't configured.
+     * @exception MessagingException
+     */
+    protected IMAPHeaderCache createHeaderCache(String host, int port, String username) throws MessagingException {
+        String className = props.getProperty(MAIL_HEADER_CACHE_CLASS);
+        if (className != null) {
+            try {
+                ClassLoader loader = Thread.currentThread().getContextClassLoader();
+                Class cacheClass = loader == null ? Class.forName(className) : Class.forName(className, true, loader);
+                return (IMAPHeaderCache)cacheClass.getConstructor().newInstance();
+            } catch (Exception e) {
+                throw new MessagingException("Unable to create header cache " + className, e);
+            }
+        }
+
+        String directory = props.getProperty(MAIL_HEADER_CACHE_DIR);
+        if (directory != null) {
+            // UIDs are only meaningful for a single account, so keep the accounts apart.  Different
+            // ports on the same host can be different servers, so the port is part of the account.
+            if (port == -1) {
+                port = props.getIntProperty(MAIL_PORT, props.getDefaultPort());
+            }
+            String account = IMAPFileHeaderCache.encodeName(username + "@" + host + ":" + port);
+            return new IMAPFileHeaderCache(new File(directory, account));
+        }
+        return null;
+    }
+
+
     /**
      * Close this service and terminate its physical connection.
      * The default implementation simply calls setConnected(false) and then
@@ -177,6 +259,16 @@ public class IMAPStore extends Store implements QuotaAwareStore, IMAPUntaggedRes
         
         // close the folders first, then shut down the Store. 
         closeOpenFolders();
+
+        if (headerCache != null) {
+            try {
+                headerCache.close();
+            } catch (MessagingException e) {
+                if (debug) {
+                    debugOut("Error closing header cache", e);
+                }
+            }
+        }
         
         connectionPool.close(); 
         connectionPool = null; 
@@ -317,6 +409,55 @@ public class IMAPStore extends Store implements QuotaAwareStore, IMAPUntaggedRes
         }
     }
 
+    /**
+     * Retrieve the status of a set of folders with as few round trips
+     * as possible.  If the server supports LIST-STATUS (RFC 5819) the
+     * status comes back on the LIST responses, otherwise the STATUS
+     * commands are pipelined.  The retrieved information is also cached
+     * in each closed folder, so subsequent getMessageCount(),
+     * getUnreadMessageCount(), etc. calls are answered without going
+     * back to the server until the status cache timeout expires.
+     *
+     * @param folders The folders to query.  These must all belong to this store.
+     *
+     * @return An array of status information matching the folders array.  An
+     *         entry is null if the status for that folder is unavailable
+     *         (for example, the folder doesn't exist).
+     * @throws MessagingException if the status cannot be retrieved
+     */
+    public IMAPMailboxStatus[] getMailboxStatus(Folder[] folders) throws MessagingException {
+        checkConnectionStatus();
+
+        List names = new ArrayList();
+        for (int i = 0; i < folders.length; i++) {
+            if (!(folders[i] instanceof IMAPFolder) || folders[i].getStore() != this) {
+                throw new MessagingException("Folder " + folders[i] + " does not belong to this store");
+            }
+            String name = folders[i].getFullName();
+            if (!names.contains(name)) {
+                names.add(name);
+            }
+        }
+
+        Map statuses;
+        // get our private connection for access
+        IMAPConnection connection = getStoreConnection();
+        try {
+            statuses = connection.getMailboxStatus(names);
+        } finally {
+            releaseStoreConnection(connection);
+        }
+
+        IMAPMailboxStatus[] result = new IMAPMailboxStatus[folders.length];
+        for (int i = 0; i < folders.length; i++) {
+            result[i] = (IMAPMailboxStatus)statuses.get(folders[i].getFullName());
+            if (result[i] != null) {
+                ((IMAPFolder)folders[i]).updateStatus(result[i]);
+            }
+        }
+        return result;
+    }
+
     /**
      * Set a quota item.  The root contained in the Quota item identifies
      * the quota target.
@@ -407,7 +548,10 @@ public class IMAPStore extends Store implements QuotaAwareStore, IMAPUntaggedRes
      * @return The active connection object.
      */
     protected IMAPConnection getStoreConnection() throws MessagingException {
-        return connectionPool.getStoreConnection(); 
+        IMAPConnection connection = connectionPool.getStoreConnection(); 
+        // a dedicated store connection may be parked in an IDLE by another thread. 
+        connection.abortIdle(); 
+        return connection; 
     }
     
     protected void releaseStoreConnection(IMAPConnection connection) throws MessagingException {
@@ -427,15 +571,23 @@ public class IMAPStore extends Store implements QuotaAwareStore, IMAPUntaggedRes
         connectionPool.releaseStoreConnection(connection); 
     }
     
-    synchronized IMAPConnection getFolderConnection(IMAPFolder folder) throws MessagingException {
-        IMAPConnection connection = connectionPool.getFolderConnection(); 
-        openFolders.add(folder);
+    IMAPConnection getFolderConnection(IMAPFolder folder) throws MessagingException {
+        // prefer a connection that already had this folder's mailbox selected.  This may 
+        // wait for another folder to give up its connection, so we must not be holding 
+        // the store lock here. 
+        IMAPConnection connection = connectionPool.getFolderConnection(folder.getFullName()); 
+        // the open folder list shares the lock closeOpenFolders() uses 
+        synchronized(connectionPool) {
+            openFolders.add(folder);
+        }
         return connection; 
     }
     
     
-    synchronized void releaseFolderConnection(IMAPFolder folder, IMAPConnection connection) throws MessagingException {
-        openFolders.remove(folder); 
+    void releaseFolderConnection(IMAPFolder folder, IMAPConnection connection) throws MessagingException {
+        synchronized(connectionPool) {
+            openFolders.remove(folder); 
+        }
         // return this to the connectin pool 
         // NB:  It is assumed that the Folder has already triggered handling of 
         // unsolicited responses on this connection before returning it. 
@@ -592,6 +744,28 @@ public class IMAPStore extends Store implements QuotaAwareStore, IMAPUntaggedRes
         return false; 
     }
     
+    /**
+     * Use the IMAP IDLE command (RFC 2177) on a Store connection to wait 
+     * for the server to push notifications.  This blocks the calling thread. 
+     * ALERT and other notices received while idling are broadcast to the 
+     * StoreListeners.  The IDLE is terminated when another thread needs the 
+     * Store connection. 
+     * 
+     * @exception MessagingException
+     */
+    public void idle() throws MessagingException {
+        checkConnectionStatus(); 
+        IMAPConnection connection = getStoreConnection(); 
+        try {
+            connection.startIdle(); 
+            while (connection.readIdleResponse()) {
+                connection.processPendingResponses(); 
+            }
+        } finally {
+            releaseStoreConnection(connection); 
+        }
+    }
+    
     /**
      * Finalizer to perform IMAPStore() cleanup when 
      * no longer in use. 
@@ -611,4 +785,71 @@ public class IMAPStore extends Store implements QuotaAwareStore, IMAPUntaggedRes
     ProtocolProperties getProperties() {
         return props; 
     }
+
+    /**
+     * Test if message content is streamed using partial fetches.
+     *
+     * @return true if content streams issue partial FETCH commands on demand.
+     */
+    boolean isPartialFetchEnabled() {
+        return partialFetch;
+    }
+
+    /**
+     * Get the number of bytes requested by each partial fetch.
+     *
+     * @return The partial fetch chunk size.
+     */
+    int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Get the number of messages fetched by each FETCH command
+     * issued for a Folder.fetch() request.
+     *
+     * @return The chunk size.  Zero or less means the messages are fetched with a single command.
+     */
+    int getFetchChunkSize() {
+        return fetchChunkSize;
+    }
+
+    /**
+     * Get the pool managing the server connections of this store.  The
+     * pool exposes usage statistics (borrowed, idle, created, and evicted
+     * connections, and the time spent waiting for a connection).
+     *
+     * @return The IMAPConnectionPool, or null if the store has been closed.
+     */
+    public IMAPConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Get the cache of immutable message information used by this store.
+     *
+     * @return The IMAPHeaderCache, or null if message information isn't cached.
+     */
+    public IMAPHeaderCache getHeaderCache() {
+        return headerCache;
+    }
+
+    /**
+     * Set the cache of immutable message information used by this store,
+     * replacing any cache configured through the session properties.
+     *
+     * @param cache  The new header cache (null disables caching).
+     */
+    public synchronized void setHeaderCache(IMAPHeaderCache cache) {
+        headerCache = cache;
+    }
+
+    /**
+     * Test if the complete message headers are kept in the header cache.
+     *
+     * @return true if fetched message headers are cached along with the envelope.
+     */
+    boolean isHeaderCacheHeaders() {
+        return cacheHeaders;
+    }
 }
@@ -29,6 +29,8 @@ import jakarta.mail.MessagingException;
 public class IMAPBody extends IMAPFetchBodyPart {
     // the body content data
     byte[] content = null;
+    // the spooled content, if the body was too large to buffer
+    IMAPSpooledLiteral spooled = null;
 
     /**
      * Construct a top-level MessageText data item. 
@@ -58,21 +60,70 @@ public class IMAPBody extends IMAPFetchBodyPart {
 
 
     /**
-     * Get the part content as a byte array.
+     * Create a Message Text instance for content that was spooled
+     * to a temporary file.
+     *
+     * @param section The section information.
+     * @param spooled The spooled content data.
+     *
+     * @exception MessagingException
+     */
+    public IMAPBody(IMAPBodySection section, IMAPSpooledLiteral spooled) throws MessagingException {
+        super(BODY, section);
+        this.spooled = spooled;
+    }
+
+
+    /**
+     * Test if the body content was spooled to a temporary file.
+     *
+     * @return true if the content is held in a spool file, false if it is in memory.
+     */
+    public boolean isSpooled() {
+        return spooled != null;
+    }
+
+    /**
+     * Get the part content as a byte array.  Spooled content
+     * is read into memory.
      *
      * @return The part content as a byte array.
+     * @exception MessagingException
      */
-    public byte[] getContent() {
+    public byte[] getContent() throws MessagingException {
+        if (content == null && spooled != null) {
+            content = spooled.getContent();
+            spooled = null;
+        }
         return content;
     }
 
     /**
-     * Get an input stream for reading the part content.
+     * Get an input stream for reading the part content.  For
+     * spooled content, this reads directly from the spool file,
+     * which is removed when the stream is closed.
      *
-     * @return An ByteArrayInputStream sourced to the part content.
+     * @return An InputStream sourced to the part content.
+     * @exception MessagingException
      */
-    public InputStream getInputStream() {
+    public InputStream getInputStream() throws MessagingException {
+        if (spooled != null) {
+            InputStream in = spooled.getInputStream();
+            spooled = null;
+            return in;
+        }
         return new ByteArrayInputStream(content);
     }
-}
 
+
+    /**
+     * Delete the spool file if the content was spooled and
+     * has not been consumed.
+     */
+    public void dispose() {
+        if (spooled != null) {
+            spooled.dispose();
+            spooled = null;
+        }
+    }
+}
@@ -246,7 +246,8 @@ public class IMAPBodySection {
     
     /**
      * Parse off the substring values following the section identifier, if 
-     * any.  If present, they will be in the format "<start.len>".  
+     * any.  If present, they will be in the format "<start.len>".  The
+     * FETCH response to a partial request only carries the origin, "<start>".
      * 
      * @param source The source tokenizer.
      * 
@@ -261,10 +262,13 @@ public class IMAPBodySection {
         source.next(false, true); 
         // pull out the start information 
         start = source.next(false, true).getInteger(); 
-        // step over the period 
-        source.next(false, true);         
-        // now the length bit                  
-        length = source.next(false, true).getInteger(); 
+        // the length is optional
+        if (source.peek(false, true).isType('.')) {
+            // step over the period 
+            source.next(false, true);         
+            // now the length bit                  
+            length = source.next(false, true).getInteger(); 
+        }
         // and consume the closing angle bracket 
         source.next(false, true); 
     }
@@ -130,13 +130,27 @@ public class IMAPCommand {
 
     public String getTag() {
         if (tag == null) {
-            // the tag needs to be non-numeric, so tack a convenient alpha character on the front.
-            tag = "a" + tagCounter++;
+            // pipelined responses are matched up by tag, so these must never repeat.
+            synchronized (IMAPCommand.class) {
+                // the tag needs to be non-numeric, so tack a convenient alpha character on the front.
+                tag = "a" + tagCounter++;
+            }
         }
         return tag;
     }
 
 
+    /**
+     * Test if this command contains literals that must wait for a
+     * continuation response from the server before they can be sent.
+     *
+     * @return true if sending the command requires a conversation with the server.
+     */
+    public boolean hasContinuations() {
+        return segments != null;
+    }
+
+
     /**
      * Save the current segment of the command we've accumulated.  This
      * generally occurs because we have a literal element in the command
@@ -704,6 +718,26 @@ public class IMAPCommand {
     }
 
 
+    /**
+     * Append a partial range specification to a command string.  This
+     * immediately follows a body section and is of the form "<start.length>".
+     *
+     * @param start  The starting offset of the range.
+     * @param length The maximum number of bytes to return.
+     */
+    public void appendPartial(int start, int length) {
+        try {
+            out.writeByte('<');
+            out.writeBytes(Integer.toString(start));
+            out.writeByte('.');
+            out.writeBytes(Integer.toString(length));
+            out.writeByte('>');
+            needWhiteSpace = true;
+        } catch (IOException e) {
+        }
+    }
+
+
     /**
      * Append a set of flags to a command buffer.
      *
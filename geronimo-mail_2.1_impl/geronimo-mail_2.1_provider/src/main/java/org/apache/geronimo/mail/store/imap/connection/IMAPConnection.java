@@ -17,13 +17,20 @@
 
 package org.apache.geronimo.mail.store.imap.connection;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import jakarta.mail.Address;
 import jakarta.mail.AuthenticationFailedException;
@@ -54,6 +61,8 @@ import org.apache.geronimo.mail.util.InvalidCommandException;
 import org.apache.geronimo.mail.util.MailConnection;
 import org.apache.geronimo.mail.util.ProtocolProperties;
 import org.apache.geronimo.mail.util.Base64;
+import org.apache.geronimo.mail.util.TraceInputStream;
+import org.apache.geronimo.mail.util.TraceOutputStream;
 
 /**
  * Simple implementation of IMAP transport.  Just does plain RFC977-ish
@@ -70,6 +79,23 @@ public class IMAPConnection extends MailConnection {
 
     protected static final String CAPABILITY_LOGIN_DISABLED = "LOGINDISABLED";
 
+    // literals larger than this size are spooled to a temporary file rather than buffered in memory.
+    protected static final String MAIL_LITERAL_SPOOL_THRESHOLD = "literalspoolthreshold";
+    // request COMPRESS=DEFLATE (RFC 4978) once the connection has been authenticated
+    protected static final String MAIL_COMPRESS_ENABLE = "compress.enable";
+    // the Deflater compression level used for the client side of a compressed connection
+    protected static final String MAIL_COMPRESS_LEVEL = "compress.level";
+    // the Deflater strategy used for the client side of a compressed connection
+    protected static final String MAIL_COMPRESS_STRATEGY = "compress.strategy";
+
+    protected static final String CAPABILITY_COMPRESS_DEFLATE = "COMPRESS=DEFLATE";
+    protected static final String CAPABILITY_LIST_STATUS = "LIST-STATUS";
+    // the number of mailboxes named on a single LIST-STATUS command, which keeps the command line a sane length
+    protected static final int MAX_LIST_STATUS_MAILBOXES = 100;
+
+    // the line terminating an IDLE command
+    protected static final byte[] DONE = new byte[] { 'D', 'O', 'N', 'E', '\r', '\n' };
+
     // The connection pool we're a member of.  This keeps holds most of the
     // connnection parameter information for us.
     protected IMAPConnectionPool pool;
@@ -86,6 +112,28 @@ public class IMAPConnection extends MailConnection {
     // this is set on if we had a forced disconnect situation from
     // the server.
     protected boolean closed = false;
+    // the literal size above which response literals are spooled (-1 disables spooling)
+    protected int literalSpoolThreshold = -1;
+    // the tag of an active IDLE command (null if the connection is not idling)
+    protected String idleTag;
+    // set once the DONE terminating the active IDLE command has been sent
+    protected boolean idleDone = false;
+    // guards the IDLE state so the IDLE can be terminated without the connection lock
+    protected final Object idleLock = new Object();
+    // held while reading an IDLE response.  A thread waiting for IDLE updates holds this
+    // rather than the connection lock, so other threads can still get at the connection.
+    protected final Object idleReadLock = new Object();
+    // untagged responses read during an IDLE that have not been moved to the pending queue yet
+    protected List idleResponses = new LinkedList();
+    // set once QRESYNC has been enabled, after which the server reports expunges with VANISHED
+    protected boolean qresyncEnabled = false;
+    // pipelined commands that are still waiting for their tagged response (oldest first)
+    protected LinkedList pipelinedCommands = new LinkedList();
+    // the compression streams state once COMPRESS=DEFLATE is active (null for an uncompressed connection)
+    protected Inflater inflater;
+    protected Deflater deflater;
+    // the last mailbox selected on this connection (used by the pool to match folders with connections)
+    protected String lastMailbox;
 
     /**
      * Normal constructor for an IMAPConnection() object.
@@ -97,6 +145,7 @@ public class IMAPConnection extends MailConnection {
     public IMAPConnection(ProtocolProperties props, IMAPConnectionPool pool) {
         super(props);
         this.pool = pool;
+        literalSpoolThreshold = props.getIntProperty(MAIL_LITERAL_SPOOL_THRESHOLD, -1);
     }
 
 
@@ -150,7 +199,7 @@ public class IMAPConnection extends MailConnection {
                     getConnectedTLSSocket();
     
                     // create the special reader for pulling the responses.
-                    reader = new IMAPResponseStream(inputStream);
+                    reader = new IMAPResponseStream(inputStream, literalSpoolThreshold);
     
                     // the IMAP spec states that the capability response is independent of login state or
                     // user, but I'm not sure I believe that to be the case.  It doesn't hurt to refresh
@@ -168,13 +217,16 @@ public class IMAPConnection extends MailConnection {
                 
             }
 
-            // damn, no login required.
-            if (preAuthorized) {
-                return true;
+            // go login with the server, unless we've been preauthorized
+            if (!preAuthorized && !login()) {
+                return false;
             }
 
-            // go login with the server
-            return login();
+            // compression is negotiated once we're authenticated
+            if (props.getBooleanProperty(MAIL_COMPRESS_ENABLE, false)) {
+                startCompression();
+            }
+            return true;
         } catch (IOException e) {
             if (debug) {
                 debugOut("I/O exception establishing connection", e);
@@ -244,7 +296,7 @@ public class IMAPConnection extends MailConnection {
         // and ready use.
         super.getConnection();
         // create the special reader for pulling the responses.
-        reader = new IMAPResponseStream(inputStream);
+        reader = new IMAPResponseStream(inputStream, literalSpoolThreshold);
 
         // set the initial access time stamp
         updateLastAccess();
@@ -313,8 +365,30 @@ public class IMAPConnection extends MailConnection {
      * @exception MessagingException
      */
     public synchronized IMAPTaggedResponse sendCommand(IMAPCommand data) throws MessagingException {
+        return sendCommand(data, null);
+    }
+
+
+    /**
+     * Sends a command down the socket, giving each untagged response
+     * to a handler as soon as it has been parsed.  Responses the handler
+     * does not take care of are queued as normal.
+     *
+     * @param data    An IMAPCommand object with the prepared command information.
+     * @param handler The handler for the command's untagged responses.  If null,
+     *                all untagged responses are queued.
+     *
+     * @return The tagged (or continuation) response information that terminates the
+     *         command response sequence.
+     * @exception MessagingException
+     */
+    public synchronized IMAPTaggedResponse sendCommand(IMAPCommand data, IMAPUntaggedResponseHandler handler) throws MessagingException {
         // check first
         checkConnected();
+        // an IDLE must be terminated before anything else can be sent
+        finishIdle();
+        // as must any pipelined commands still waiting on responses
+        finishPipelinedCommands();
         try {
             // have the command write the command data.  This also prepends a tag.
             data.writeTo(outputStream, this);
@@ -322,7 +396,7 @@ public class IMAPConnection extends MailConnection {
             // update the activity timestamp
             updateLastAccess();
             // get the received response
-            return receiveResponse();
+            return receiveResponse(handler);
         } catch (IOException e) {
             throw new MessagingException(e.toString(), e);
         }
@@ -376,6 +450,10 @@ public class IMAPConnection extends MailConnection {
     public synchronized IMAPTaggedResponse sendLine(byte[] data, int offset, int length) throws MessagingException {
         // check first
         checkConnected();
+        // an IDLE must be terminated before anything else can be sent
+        finishIdle();
+        // as must any pipelined commands still waiting on responses
+        finishPipelinedCommands();
 
         try {
             outputStream.write(data, offset, length);
@@ -397,6 +475,20 @@ public class IMAPConnection extends MailConnection {
      * @return An IMAP reply object from the stream.
      */
     public IMAPTaggedResponse receiveResponse() throws MessagingException {
+        return receiveResponse(null);
+    }
+
+
+    /**
+     * Get a reply line for an IMAP command, passing the untagged
+     * responses to a handler as they arrive.
+     *
+     * @param handler The handler given first refusal on each untagged response.  If null,
+     *                all untagged responses are queued.
+     *
+     * @return An IMAP reply object from the stream.
+     */
+    public IMAPTaggedResponse receiveResponse(IMAPUntaggedResponseHandler handler) throws MessagingException {
         while (true) {
             // read and parse a response from the server.
             IMAPResponse response;
@@ -432,9 +524,392 @@ public class IMAPConnection extends MailConnection {
                 // additional elements of a command we just sent.  These will be processed
                 // either during processing of the command response, or at the end of the
                 // current command processing.
-                queuePendingResponse((IMAPUntaggedResponse)response);
+                IMAPUntaggedResponse untagged = (IMAPUntaggedResponse)response;
+                if (handler == null || !handler.handleResponse(untagged)) {
+                    queuePendingResponse(untagged);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Send a command without waiting for the commands already in flight
+     * to complete.  The returned IMAPPipelinedCommand is completed as the
+     * responses are read.
+     *
+     * @param command The command to send.
+     * @param handler The handler claiming the untagged responses that belong to this
+     *                command (can be null).
+     *
+     * @return The IMAPPipelinedCommand tracking the command.
+     * @exception MessagingException
+     */
+    public IMAPPipelinedCommand sendPipelined(IMAPCommand command, IMAPUntaggedResponseHandler handler) throws MessagingException {
+        IMAPPipelinedCommand pipelined = new IMAPPipelinedCommand(command, handler);
+        List commands = new ArrayList(1);
+        commands.add(pipelined);
+        sendPipelined(commands);
+        return pipelined;
+    }
+
+
+    /**
+     * Send a batch of commands back-to-back, without waiting for any of
+     * the responses.  The commands are written with a single flush, so
+     * the whole batch normally costs one round trip.  A command with
+     * literal data needs continuation responses from the server, so the
+     * responses to the commands ahead of it are read before it is written.
+     *
+     * @param commands The list of IMAPPipelinedCommand items to send.
+     *
+     * @exception MessagingException
+     */
+    public synchronized void sendPipelined(List commands) throws MessagingException {
+        // every command in the batch gets tied to this connection up front, so
+        // a failure part way through can be reported on all of them.
+        for (int i = 0; i < commands.size(); i++) {
+            ((IMAPPipelinedCommand)commands.get(i)).connection = this;
+        }
+        try {
+            // check first
+            checkConnected();
+            // an IDLE must be terminated before anything else can be sent
+            finishIdle();
+            for (int i = 0; i < commands.size(); i++) {
+                IMAPPipelinedCommand pipelined = (IMAPPipelinedCommand)commands.get(i);
+                IMAPCommand command = pipelined.getCommand();
+                // the continuation responses must not get mixed up with the pipelined responses
+                if (command.hasContinuations()) {
+                    outputStream.flush();
+                    finishPipelinedCommands();
+                }
+                command.writeTo(outputStream, this);
+                pipelinedCommands.add(pipelined);
+            }
+            outputStream.flush();
+            // update the activity timestamp
+            updateLastAccess();
+        } catch (IOException e) {
+            MessagingException failure = new MessagingException(e.toString(), e);
+            failPipelinedBatch(commands, failure);
+            throw failure;
+        } catch (MessagingException e) {
+            failPipelinedBatch(commands, e);
+            throw e;
+        }
+    }
+
+
+    /**
+     * Fail a batch of pipelined commands that could not be sent.  This
+     * covers the outstanding commands as well as the ones from the batch
+     * that were never written, so nobody waits on a response that won't
+     * arrive.
+     *
+     * @param commands The list of IMAPPipelinedCommand items in the batch.
+     * @param e        The reason for the failure.
+     */
+    protected void failPipelinedBatch(List commands, MessagingException e) {
+        failPipelinedCommands(e);
+        for (int i = 0; i < commands.size(); i++) {
+            IMAPPipelinedCommand pipelined = (IMAPPipelinedCommand)commands.get(i);
+            if (!pipelined.isDone()) {
+                pipelined.fail(e);
+            }
+        }
+    }
+
+
+    /**
+     * Read responses until a pipelined command has completed.  Any
+     * commands ahead of it are completed too.
+     *
+     * @param target The command we're waiting on.
+     *
+     * @exception MessagingException
+     */
+    synchronized void receivePipelinedResponses(IMAPPipelinedCommand target) throws MessagingException {
+        while (!target.isDone()) {
+            receivePipelinedResponse();
+        }
+    }
+
+
+    /**
+     * Read the responses for all outstanding pipelined commands.  This
+     * must be called while holding the connection lock, before anything
+     * else is sent.  Commands failing with NO or BAD responses don't
+     * raise an exception here; the failure is reported to whoever
+     * waits on the command.
+     *
+     * @exception MessagingException
+     */
+    protected void finishPipelinedCommands() throws MessagingException {
+        while (!pipelinedCommands.isEmpty()) {
+            receivePipelinedResponse();
+        }
+    }
+
+
+    /**
+     * Read and dispatch a single response for the pipelined commands.
+     *
+     * @exception MessagingException
+     */
+    protected void receivePipelinedResponse() throws MessagingException {
+        IMAPResponse response;
+        try {
+            response = reader.readResponse();
+        } catch (MessagingException e) {
+            // just like receiveResponse(), the connection is no good after this
+            failPipelinedCommands(e);
+            setClosed();
+            closeServerConnection();
+            throw e;
+        }
+
+        if (response instanceof IMAPTaggedResponse) {
+            updateLastAccess();
+            IMAPTaggedResponse tagged = (IMAPTaggedResponse)response;
+            // a command can only be pipelined if it doesn't need a continuation
+            if (tagged.isContinuation()) {
+                MessagingException e = new MessagingException("Unexpected continuation response for a pipelined command");
+                failPipelinedCommands(e);
+                setClosed();
+                closeServerConnection();
+                throw e;
+            }
+            // servers may complete commands out of order, so match on the tag.
+            for (Iterator i = pipelinedCommands.iterator(); i.hasNext();) {
+                IMAPPipelinedCommand pipelined = (IMAPPipelinedCommand)i.next();
+                if (pipelined.getTag().equals(tagged.getTag())) {
+                    i.remove();
+                    pipelined.complete(tagged);
+                    return;
+                }
+            }
+            // a response to a command we know nothing about gets ignored
+            if (debug) {
+                debugOut("Unexpected tagged response " + tagged.getTag());
+            }
+        }
+        else {
+            IMAPUntaggedResponse untagged = (IMAPUntaggedResponse)response;
+            // give the commands a chance to claim this, oldest first.
+            for (Iterator i = pipelinedCommands.iterator(); i.hasNext();) {
+                if (((IMAPPipelinedCommand)i.next()).handleResponse(untagged)) {
+                    return;
+                }
+            }
+            queuePendingResponse(untagged);
+        }
+    }
+
+
+    /**
+     * Fail all of the outstanding pipelined commands.
+     *
+     * @param e      The reason for the failure.
+     */
+    protected void failPipelinedCommands(MessagingException e) {
+        while (!pipelinedCommands.isEmpty()) {
+            ((IMAPPipelinedCommand)pipelinedCommands.removeFirst()).fail(e);
+        }
+    }
+
+
+    /**
+     * Start an IDLE command (RFC 2177) on this connection.  On return,
+     * the server has accepted the IDLE and will push untagged status
+     * updates until the IDLE is terminated.  The updates are retrieved
+     * with readIdleResponse().  Any command sent on the connection
+     * while it is idling terminates the IDLE first.
+     *
+     * @exception MessagingException
+     */
+    public synchronized void startIdle() throws MessagingException {
+        checkConnected();
+        // make sure we're not stacking up IDLE commands.
+        finishIdle();
+        finishPipelinedCommands();
+
+        if (!hasCapability("IDLE")) {
+            throw new MethodNotSupportedException("IDLE not supported by server");
+        }
+
+        IMAPCommand command = new IMAPCommand("IDLE");
+        try {
+            command.writeTo(outputStream, this);
+            outputStream.flush();
+            updateLastAccess();
+        } catch (IOException e) {
+            throw new MessagingException(e.toString(), e);
+        }
+
+        // the server acknowledges with a continuation response.  Anything else
+        // means the IDLE was rejected (receiveResponse() turns a BAD or NO into an
+        // exception for us).
+        IMAPTaggedResponse response = receiveResponse();
+        if (!response.isContinuation()) {
+            throw new CommandFailedException("Unexpected response to IDLE command: " + response);
+        }
+
+        synchronized (idleLock) {
+            idleTag = command.getTag();
+            idleDone = false;
+        }
+    }
+
+
+    /**
+     * Wait for the next response from an idling connection.  Untagged
+     * responses are queued for processing with processPendingResponses().
+     * The connection lock is not held while waiting, so other threads
+     * can terminate the IDLE and use the connection.
+     *
+     * @return true if an untagged response was received and the connection
+     *         is still idling.  false once the IDLE has completed.
+     * @exception MessagingException
+     */
+    public boolean readIdleResponse() throws MessagingException {
+        IMAPResponse response;
+        try {
+            response = readIdle();
+        } catch (MessagingException e) {
+            // same as receiveResponse(), we've lost sync with the server.
+            setClosed();
+            closeServerConnection();
+            throw e;
+        }
+        // already terminated by another thread?
+        if (response == null) {
+            return false;
+        }
+        // the only tagged response we can see is the IDLE completion.
+        if (response instanceof IMAPTaggedResponse && !(response instanceof IMAPContinuationResponse)) {
+            IMAPTaggedResponse tagged = (IMAPTaggedResponse)response;
+            if (tagged.isBAD()) {
+                throw new InvalidCommandException("Unexpected command IMAP command error");
+            }
+            else if (tagged.isNO()) {
+                throw new CommandFailedException("Unexpected error executing IMAP command");
+            }
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Read a single response for an active IDLE.  Updates pushed by the
+     * server are added to the IDLE response queue, and the IDLE state is
+     * cleared once the tagged completion arrives.  Only the IDLE read
+     * lock is held while reading, and no other lock may be requested
+     * while holding it.
+     *
+     * @return The response read, or null if the connection is no longer idling.
+     * @exception MessagingException
+     */
+    protected IMAPResponse readIdle() throws MessagingException {
+        synchronized (idleReadLock) {
+            if (!isIdling()) {
+                return null;
+            }
+            IMAPResponse response;
+            try {
+                response = reader.readResponse();
+            } catch (MessagingException e) {
+                synchronized (idleLock) {
+                    idleTag = null;
+                }
+                throw e;
+            }
+            updateLastAccess();
+            synchronized (idleLock) {
+                // a stray continuation carries no information for us.
+                if (response instanceof IMAPContinuationResponse) {
+                    return response;
+                }
+                if (response instanceof IMAPTaggedResponse) {
+                    idleTag = null;
+                }
+                else {
+                    // an update pushed by the server
+                    idleResponses.add(response);
+                }
+            }
+            return response;
+        }
+    }
+
+
+    /**
+     * Move the untagged responses read during an IDLE to the pending
+     * response queue.  Must be called while holding the connection lock.
+     */
+    protected void queueIdleResponses() {
+        synchronized (idleLock) {
+            queuedResponses.addAll(idleResponses);
+            idleResponses.clear();
+        }
+    }
+
+
+    /**
+     * Test if this connection currently has an active IDLE command.
+     *
+     * @return true if the connection is idling.
+     */
+    public boolean isIdling() {
+        synchronized (idleLock) {
+            return idleTag != null;
+        }
+    }
+
+
+    /**
+     * Request termination of an active IDLE command.  This sends the
+     * DONE line without waiting for the connection lock, since the lock
+     * is held by the thread waiting for IDLE responses.  The IDLE
+     * completes once the server's tagged response has been read, either
+     * by the idling thread or by the next command sent on the connection.
+     *
+     * @exception MessagingException
+     */
+    public void abortIdle() throws MessagingException {
+        synchronized (idleLock) {
+            if (idleTag == null || idleDone) {
+                return;
+            }
+            try {
+                outputStream.write(DONE);
+                outputStream.flush();
+            } catch (IOException e) {
+                throw new MessagingException(e.toString(), e);
             }
+            idleDone = true;
+        }
+    }
+
+
+    /**
+     * Complete an active IDLE command, reading the remaining IDLE
+     * responses.  Must be called while holding the connection lock.
+     *
+     * @exception MessagingException
+     */
+    protected void finishIdle() throws MessagingException {
+        if (!isIdling()) {
+            return;
         }
+        abortIdle();
+        // the idling thread may be blocked in a read or may be busy dispatching.  Either
+        // way, whoever gets the read lock first consumes the rest of the IDLE exchange.
+        while (readIdleResponse()) {
+        }
+        // the updates received during the IDLE come ahead of the responses to our command.
+        queueIdleResponses();
     }
 
 
@@ -449,6 +924,105 @@ public class IMAPConnection extends MailConnection {
         authentications = response.getAuthentications();
     }
 
+    /**
+     * Negotiate COMPRESS=DEFLATE (RFC 4978) with the server.  Once the
+     * server accepts the command, everything following its tagged response
+     * is raw deflate data in both directions, so the socket streams are
+     * replaced with Inflater/Deflater streams.  The compression layer sits
+     * directly on the socket, beneath the trace streams, so the debug
+     * output still shows the protocol exchange in clear text.  The output
+     * side uses sync-flush, which means every command flush pushes a
+     * complete deflate block to the server.
+     *
+     * @return true if compression is now active, false if the server
+     *         does not support (or refused) the request.
+     * @exception MessagingException
+     */
+    public synchronized boolean startCompression() throws MessagingException {
+        // already done?
+        if (inflater != null) {
+            return true;
+        }
+        // servers frequently only advertise COMPRESS once we've been authenticated,
+        // so refresh our capabilities before giving up on it.
+        if (!hasCapability(CAPABILITY_COMPRESS_DEFLATE)) {
+            getCapability();
+            if (!hasCapability(CAPABILITY_COMPRESS_DEFLATE)) {
+                if (debug) {
+                    debugOut("COMPRESS is enabled but the server does not support COMPRESS=DEFLATE");
+                }
+                return false;
+            }
+        }
+
+        try {
+            sendCommand("COMPRESS DEFLATE");
+        } catch (CommandFailedException e) {
+            // a NO response (compression already active through some other layer, for example)
+            // just leaves us with an uncompressed connection.
+            if (debug) {
+                debugOut("COMPRESS DEFLATE rejected by the server", e);
+            }
+            return false;
+        }
+
+        int level = props.getIntProperty(MAIL_COMPRESS_LEVEL, Deflater.DEFAULT_COMPRESSION);
+        int strategy = props.getIntProperty(MAIL_COMPRESS_STRATEGY, Deflater.DEFAULT_STRATEGY);
+
+        try {
+            boolean encode = props.getBooleanProperty(MAIL_ENCODE_TRACE, false);
+            // RFC 4978 uses raw deflate data, without the zlib header and checksum
+            inflater = new Inflater(true);
+            deflater = new Deflater(level, true);
+            deflater.setStrategy(strategy);
+
+            inputStream = new TraceInputStream(new InflaterInputStream(socket.getInputStream(), inflater), debugStream, debug, encode);
+            // the syncFlush setting turns every flush of a command into a SYNC_FLUSH deflate
+            // block, so the server is never left waiting on data held back by the compressor.
+            outputStream = new BufferedOutputStream(new TraceOutputStream(new DeflaterOutputStream(socket.getOutputStream(), deflater, true), debugStream, debug, encode));
+        } catch (IOException e) {
+            throw new MessagingException("Unable to establish compressed connection", e);
+        }
+        // the response reader needs to switch to the inflated stream
+        reader = new IMAPResponseStream(inputStream, literalSpoolThreshold);
+        return true;
+    }
+
+
+    /**
+     * Test if COMPRESS=DEFLATE is active on this connection.
+     *
+     * @return true if the connection traffic is being compressed.
+     */
+    public boolean isCompressed() {
+        return inflater != null;
+    }
+
+
+    /**
+     * Close the server connection, releasing the native compression
+     * state if the connection was compressed and failing any pipelined
+     * commands that are still outstanding.
+     */
+    public void closeServerConnection() {
+        try {
+            super.closeServerConnection();
+        } finally {
+            // nothing more will arrive for any commands still in flight
+            failPipelinedCommands(new MessagingException("Connection closed"));
+            // and nothing is going to retrieve content still sitting in the queue
+            disposeQueuedResponses();
+            if (inflater != null) {
+                inflater.end();
+                inflater = null;
+            }
+            if (deflater != null) {
+                deflater.end();
+                deflater = null;
+            }
+        }
+    }
+
     /**
      * Logs out from the server.
      */
@@ -727,6 +1301,7 @@ public class IMAPConnection extends MailConnection {
         List handlerList = null;
 
         synchronized(this) {
+            queueIdleResponses();
             if (queuedResponses.isEmpty()) {
                 return;
             }
@@ -748,6 +1323,20 @@ public class IMAPConnection extends MailConnection {
                     break;
                 }
             }
+            // the handlers only look at status information, so any content
+            // spooled for the response can go.
+            response.dispose();
+        }
+    }
+
+    /**
+     * Release the spooled content of every queued response.  The
+     * responses stay queued, since their status information may
+     * still be needed by the response handlers.
+     */
+    protected synchronized void disposeQueuedResponses() {
+        for (int i = 0; i < queuedResponses.size(); i++) {
+            ((IMAPResponse)queuedResponses.get(i)).dispose();
         }
     }
 
@@ -853,8 +1442,9 @@ public class IMAPConnection extends MailConnection {
                     IMAPFetchDataItem item = fetch.getDataItem(type);
                     if (item != null) {
                         // remove this from the pending queue and return the
-                        // located item
+                        // located item.  The rest of the response is dropped.
                         i.remove();
+                        fetch.disposeExcept(item);
                         return item;
                     }
                 }
@@ -995,9 +1585,24 @@ public class IMAPConnection extends MailConnection {
      *         All other untagged responses are queued for processing.
      */
     public synchronized InternetHeaders fetchHeaders(int sequenceNumber, String part) throws MessagingException {
-        IMAPCommand command = new IMAPCommand("FETCH");
-        command.appendInteger(sequenceNumber);
-        command.startList();
+        return fetchHeader(sequenceNumber, part).headers;
+    }
+
+
+    /**
+     * Issue a FETCH command to retrieve the message headers (using PEEK),
+     * returning the complete HEADER data item.
+     *
+     * @param sequenceNumber The sequence number of the message.
+     * @param part           The part identifier (null for the message itself).
+     *
+     * @return The IMAPInternetHeader item for the message.
+     *         All other untagged responses are queued for processing.
+     */
+    public synchronized IMAPInternetHeader fetchHeader(int sequenceNumber, String part) throws MessagingException {
+        IMAPCommand command = new IMAPCommand("FETCH");
+        command.appendInteger(sequenceNumber);
+        command.startList();
         command.appendAtom("BODY.PEEK");
         command.appendBodySection(part, "HEADER");
         command.endList();
@@ -1009,8 +1614,7 @@ public class IMAPConnection extends MailConnection {
         if (header == null) {
             throw new MessagingException("No HEADER information received from IMAP server");
         }
-        // and return the body structure directly.
-        return header.headers;
+        return header;
     }
 
 
@@ -1143,6 +1747,90 @@ public class IMAPConnection extends MailConnection {
     }
 
 
+    /**
+     * Fetch the message content, leaving content that was spooled to
+     * a temporary file in place.  The returned item is either an
+     * IMAPMessageText or an IMAPBody, and the caller is responsible
+     * for consuming or disposing of any spooled data.
+     *
+     * @param sequenceNumber
+     *                The sequence number of the target message.
+     * @param section The section number to fetch.  If null, the message text is retrieved.
+     *
+     * @return The IMAPFetchBodyPart holding the content.
+     * @exception MessagingException
+     */
+    public IMAPFetchBodyPart fetchContentPart(int sequenceNumber, String section) throws MessagingException {
+        if (section == null) {
+            return fetchText(sequenceNumber);
+        } else {
+            return fetchBody(sequenceNumber, section);
+        }
+    }
+
+
+    /**
+     * Fetch a range of the message content using a partial FETCH.  The
+     * server returns fewer bytes than requested (possibly none) once the
+     * end of the content is reached.
+     *
+     * @param sequenceNumber
+     *                The sequence number of the target message.
+     * @param section The section number to fetch.  If null, the message text is retrieved.
+     * @param start   The offset of the first byte to retrieve.
+     * @param length  The maximum number of bytes to retrieve.
+     *
+     * @return The content bytes in the requested range.
+     * @exception MessagingException
+     */
+    public synchronized byte[] fetchContent(int sequenceNumber, String section, int start, int length) throws MessagingException {
+        IMAPCommand command = new IMAPCommand("FETCH");
+        command.appendInteger(sequenceNumber);
+        command.startList();
+        command.appendAtom("BODY.PEEK");
+        // the same sections fetchContent() retrieves as a whole
+        if (section == null) {
+            command.appendBodySection("TEXT");
+        }
+        else {
+            command.appendBodySection(section, null);
+        }
+        command.appendPartial(start, length);
+        command.endList();
+
+        sendCommand(command);
+
+        byte[] data;
+        if (section == null) {
+            IMAPMessageText text = (IMAPMessageText)extractFetchDataItem(sequenceNumber, IMAPFetchDataItem.TEXT);
+            if (text == null) {
+                throw new MessagingException("No TEXT information received from IMAP server");
+            }
+            data = text.getContent();
+        }
+        else {
+            IMAPBody body = (IMAPBody)extractFetchDataItem(sequenceNumber, IMAPFetchDataItem.BODY);
+            if (body == null) {
+                throw new MessagingException("No BODY information received from IMAP server");
+            }
+            data = body.getContent();
+        }
+        // a NIL response is the same as no more data
+        return data == null ? new byte[0] : data;
+    }
+
+
+    /**
+     * Test if large response literals are being spooled to disk
+     * by this connection.
+     *
+     * @return true if literal spooling is enabled.
+     */
+    public boolean isLiteralSpoolingEnabled() {
+        return literalSpoolThreshold > 0;
+    }
+
+
     /**
      * Send an LIST command to the IMAP server, returning all LIST
      * response information.
@@ -1288,7 +1976,7 @@ public class IMAPConnection extends MailConnection {
         // construct the command, encoding the tokens as required by the content.
         command.appendEncodedString(mailbox);
         // request all of the status items
-        command.append(" (MESSAGES RECENT UIDNEXT UIDVALIDITY UNSEEN)");
+        command.append(" (" + getStatusItems() + ")");
 
         sendCommand(command);
 
@@ -1306,6 +1994,115 @@ public class IMAPConnection extends MailConnection {
     }
 
 
+    /**
+     * Retrieve the status of a set of mailboxes.  If the server
+     * supports LIST-STATUS (RFC 5819), the status is returned by LIST
+     * commands covering up to MAX_LIST_STATUS_MAILBOXES mailboxes each.
+     * Otherwise a STATUS command for each mailbox is pipelined, so the
+     * whole set still only costs a single round trip.  A mailbox that
+     * doesn't exist (or can't be selected) is left out of the result.
+     * Mailboxes should not include the selected mailbox, whose status is
+     * best tracked through the untagged responses.
+     *
+     * @param mailboxes The list of mailbox names.
+     *
+     * @return A Map of mailbox name to IMAPMailboxStatus.
+     * @exception MessagingException
+     */
+    public synchronized Map getMailboxStatus(List mailboxes) throws MessagingException {
+        Map statuses = new HashMap();
+        if (mailboxes.isEmpty()) {
+            return statuses;
+        }
+
+        if (hasCapability(CAPABILITY_LIST_STATUS)) {
+            for (int start = 0; start < mailboxes.size(); start += MAX_LIST_STATUS_MAILBOXES) {
+                List batch = mailboxes.subList(start, Math.min(mailboxes.size(), start + MAX_LIST_STATUS_MAILBOXES));
+                // LIST "" (mailbox mailbox ...) RETURN (STATUS (items))
+                IMAPCommand command = new IMAPCommand("LIST");
+                command.appendEncodedString("");
+                command.startList();
+                for (int i = 0; i < batch.size(); i++) {
+                    command.appendEncodedString((String)batch.get(i));
+                }
+                command.endList();
+                command.appendAtom("RETURN");
+                command.append(" (STATUS (" + getStatusItems() + "))");
+
+                sendCommand(command);
+                // we're only after the status, not the mailbox list.
+                extractResponses("LIST");
+                mergeMailboxStatus(statuses, batch, extractResponses("STATUS"));
+            }
+            return statuses;
+        }
+
+        List commands = new ArrayList();
+        for (int i = 0; i < mailboxes.size(); i++) {
+            final String mailbox = (String)mailboxes.get(i);
+            IMAPCommand command = new IMAPCommand("STATUS");
+            command.appendEncodedString(mailbox);
+            command.append(" (" + getStatusItems() + ")");
+            // each command claims the STATUS response for its own mailbox.
+            commands.add(new IMAPPipelinedCommand(command, new IMAPUntaggedResponseHandler() {
+                public boolean handleResponse(IMAPUntaggedResponse response) {
+                    return response instanceof IMAPStatusResponse && ((IMAPStatusResponse)response).mailbox.equals(mailbox);
+                }
+            }));
+        }
+        sendPipelined(commands);
+
+        for (int i = 0; i < commands.size(); i++) {
+            IMAPPipelinedCommand pipelined = (IMAPPipelinedCommand)commands.get(i);
+            try {
+                mergeMailboxStatus(statuses, mailboxes, pipelined.getUntaggedResponses());
+            } catch (CommandFailedException e) {
+                // a NO response for a mailbox that doesn't exist.  Just leave it out.
+            }
+        }
+        return statuses;
+    }
+
+
+    /**
+     * Merge a list of STATUS responses into a status map, ignoring any
+     * for mailboxes that weren't requested.
+     *
+     * @param statuses  The Map of mailbox name to IMAPMailboxStatus.
+     * @param mailboxes The requested mailbox names.
+     * @param responses The list of IMAPStatusResponse items.
+     *
+     * @exception MessagingException
+     */
+    protected void mergeMailboxStatus(Map statuses, List mailboxes, List responses) throws MessagingException {
+        for (int i = 0; i < responses.size(); i++) {
+            IMAPStatusResponse response = (IMAPStatusResponse)responses.get(i);
+            if (!mailboxes.contains(response.mailbox)) {
+                continue;
+            }
+            IMAPMailboxStatus status = (IMAPMailboxStatus)statuses.get(response.mailbox);
+            if (status == null) {
+                status = new IMAPMailboxStatus();
+                statuses.put(response.mailbox, status);
+            }
+            status.mergeStatus(response);
+        }
+    }
+
+
+    /**
+     * Get the list of items requested on a STATUS command.
+     *
+     * @return The space-separated item names.
+     */
+    protected String getStatusItems() {
+        if (hasCapability("CONDSTORE")) {
+            return "MESSAGES RECENT UIDNEXT UIDVALIDITY UNSEEN HIGHESTMODSEQ";
+        }
+        return "MESSAGES RECENT UIDNEXT UIDVALIDITY UNSEEN";
+    }
+
+
     /**
      * Select a mailbox, returning the accumulated status information
      * about the mailbox returned with the response.
@@ -1318,6 +2115,39 @@ public class IMAPConnection extends MailConnection {
      * @exception MessagingException
      */
     public synchronized IMAPMailboxStatus openMailbox(String mailbox, boolean readOnly) throws MessagingException {
+        return openMailbox(mailbox, readOnly, -1L, -1L);
+    }
+
+
+    /**
+     * Select a mailbox with CONDSTORE/QRESYNC (RFC 7162) resynchronization.
+     * If the server supports QRESYNC, the mailbox is selected with the
+     * QRESYNC parameter and the returned status holds the VANISHED (EARLIER)
+     * and FETCH responses for everything that changed since modSeq.  If the
+     * server only supports CONDSTORE, the mailbox is selected with CONDSTORE
+     * enabled and the caller needs to retrieve the changes itself.
+     *
+     * @param mailbox  The desired mailbox name.
+     * @param readOnly The open mode.  If readOnly is true, the mailbox is opened
+     *                 using EXAMINE rather than SELECT.
+     * @param uidValidity
+     *                 The UIDVALIDITY of the mailbox at the last synchronization.
+     * @param modSeq   The highest modification sequence seen at the last synchronization.
+     *                 If less than zero, the mailbox is selected without resynchronization.
+     *
+     * @return The mailbox status information.
+     * @exception MessagingException
+     */
+    public synchronized IMAPMailboxStatus openMailbox(String mailbox, boolean readOnly, long uidValidity, long modSeq) throws MessagingException {
+        boolean resync = modSeq >= 0;
+        boolean qresync = false;
+        if (resync) {
+            if (!hasCapability("CONDSTORE")) {
+                throw new MessagingException("Server does not support CONDSTORE extension");
+            }
+            qresync = enableQResync();
+        }
+
         IMAPCommand command = new IMAPCommand();
 
         // if readOnly is required, we use EXAMINE to switch to the mailbox rather than SELECT.
@@ -1331,9 +2161,16 @@ public class IMAPConnection extends MailConnection {
 
         // construct the command, encoding the tokens as required by the content.
         command.appendEncodedString(mailbox);
+        if (qresync) {
+            command.append(" (QRESYNC (" + uidValidity + " " + modSeq + "))");
+        }
+        else if (resync) {
+            command.append(" (CONDSTORE)");
+        }
 
         // issue the select
         IMAPTaggedResponse response = sendCommand(command);
+        lastMailbox = mailbox;
 
         IMAPMailboxStatus status = new IMAPMailboxStatus();
         // set the mode to the requested open mode.
@@ -1352,11 +2189,112 @@ public class IMAPConnection extends MailConnection {
         status.mergeStatus((IMAPOkResponse)extractResponse("UIDVALIDITY"));
         status.mergeStatus((IMAPOkResponse)extractResponse("UNSEEN"));
         status.mergeStatus((IMAPPermanentFlagsResponse)extractResponse("PERMANENTFLAGS"));
+        status.mergeStatus((IMAPOkResponse)extractResponse("HIGHESTMODSEQ"));
+        status.mergeStatus((IMAPOkResponse)extractResponse("NOMODSEQ"));
+        if (qresync) {
+            // everything that happened since the last synchronization
+            status.vanished = extractResponses("VANISHED");
+            status.changes = extractResponses("FETCH");
+        }
         // mine the response for status information about the selected mailbox.
         return status;
     }
 
 
+    /**
+     * Get the name of the last mailbox selected on this connection.  The
+     * mailbox may since have been closed.
+     *
+     * @return The mailbox name, or null if no mailbox has been selected.
+     */
+    public String getLastMailbox() {
+        return lastMailbox;
+    }
+
+
+    /**
+     * Enable the QRESYNC extension (RFC 7162) on this connection, if the
+     * server supports it.  Once enabled, the server reports expunged
+     * messages with VANISHED responses rather than EXPUNGE responses for
+     * the rest of the session.
+     *
+     * @return true if QRESYNC is enabled, false if the server doesn't support it.
+     * @exception MessagingException
+     */
+    public synchronized boolean enableQResync() throws MessagingException {
+        if (!hasCapability("QRESYNC") || !hasCapability("ENABLE")) {
+            return false;
+        }
+        if (!qresyncEnabled) {
+            sendSimpleCommand("ENABLE QRESYNC");
+            extractResponses("ENABLED");
+            qresyncEnabled = true;
+        }
+        return true;
+    }
+
+
+    /**
+     * Test if QRESYNC has been enabled on this connection.
+     *
+     * @return true if the server reports expunges with VANISHED responses.
+     */
+    public boolean isQResyncEnabled() {
+        return qresyncEnabled;
+    }
+
+
+    /**
+     * Retrieve the flags of the messages in a set that have changed since
+     * a given modification sequence, using FETCH with the CHANGEDSINCE
+     * modifier (RFC 7162).
+     *
+     * @param messageSet The set of message numbers to check.
+     * @param modSeq     The modification sequence of the last synchronization.
+     *
+     * @return A list of the FETCH responses (UID, FLAGS and MODSEQ) for the changed messages.
+     * @exception MessagingException
+     */
+    public synchronized List fetchChangedSince(String messageSet, long modSeq) throws MessagingException {
+        if (!hasCapability("CONDSTORE")) {
+            throw new MessagingException("Server does not support CONDSTORE extension");
+        }
+        IMAPCommand command = new IMAPCommand("FETCH");
+        command.appendAtom(messageSet);
+        command.append(" (UID FLAGS MODSEQ) (CHANGEDSINCE " + modSeq + ")");
+
+        sendCommand(command);
+        return extractResponses("FETCH");
+    }
+
+
+    /**
+     * Retrieve the modification sequence of a message.
+     *
+     * @param sequenceNumber The sequence number of the message.
+     *
+     * @return The message's modification sequence.
+     * @exception MessagingException
+     */
+    public synchronized long fetchModSeq(int sequenceNumber) throws MessagingException {
+        if (!hasCapability("CONDSTORE")) {
+            throw new MessagingException("Server does not support CONDSTORE extension");
+        }
+        IMAPCommand command = new IMAPCommand("FETCH");
+        command.appendInteger(sequenceNumber);
+        command.startList();
+        command.appendAtom("MODSEQ");
+        command.endList();
+
+        sendCommand(command);
+        IMAPModSeq modSeq = (IMAPModSeq)extractFetchDataItem(sequenceNumber, IMAPFetchDataItem.MODSEQ);
+        if (modSeq == null) {
+            throw new MessagingException("No MODSEQ information received from IMAP server");
+        }
+        return modSeq.modSeq;
+    }
+
+
     /**
      * Tells the IMAP server to expunge messages marked for deletion.
      * The server will send us an untagged EXPUNGE message back for
@@ -1388,7 +2326,7 @@ public class IMAPConnection extends MailConnection {
      * to do with CHARSET on the SEARCH command.
      *
      * @param messages The list of messages (comma-separated numbers or "ALL").
-     * @param term     The desired search criteria
+     * @param term     The desired search criteria (null matches every message in the list).
      *
      * @return Returns an int[] array of message numbers for all matched messages.
      * @exception MessagingException
@@ -1397,7 +2335,7 @@ public class IMAPConnection extends MailConnection {
         // don't use a charset by default, but we need to look at the data to see if we have a problem.
         String charset = null;
 
-        if (IMAPCommand.checkSearchEncoding(term)) {
+        if (term != null && IMAPCommand.checkSearchEncoding(term)) {
             // not sure exactly how to decide what to use here.  Two immediate possibilities come to mind,
             // UTF-8 or the MimeUtility.getDefaultJavaCharset() value.  Running a small test against the
             // Sun impl shows them sending a CHARSET value of UTF-8, so that sounds like the winner.  I don't
@@ -1432,7 +2370,9 @@ public class IMAPConnection extends MailConnection {
         // now go through the process of translating the mail SearchTerm objects into
         // the IMAP command sequence.  The SearchTerm sequence may be a complex tree of comparison terms,
         // so this is not a simple process.
-        command.appendSearchTerm(term, charset);
+        if (term != null) {
+            command.appendSearchTerm(term, charset);
+        }
         // need to append the message set
         command.appendAtom(messages);
 
@@ -1446,6 +2386,220 @@ public class IMAPConnection extends MailConnection {
     }
 
 
+    /**
+     * Send a search to the IMAP server, asking for just the listed result
+     * items with the ESEARCH extension (RFC 4731).  The MIN, MAX, COUNT, and
+     * ALL items are supported, where ALL is returned as a compact sequence
+     * set rather than a list of every matching message.  If the server
+     * doesn't support ESEARCH, a plain SEARCH is issued and the requested
+     * items are computed from its result.
+     *
+     * @param term     The desired search criteria (null searches all messages).
+     * @param returnOptions
+     *                 The requested result items.  An empty array is the same as ALL.
+     *
+     * @return The search result items.
+     * @exception MessagingException
+     */
+    public synchronized IMAPESearchResponse extendedSearchMailbox(SearchTerm term, String[] returnOptions) throws MessagingException {
+        if (returnOptions.length == 0) {
+            returnOptions = new String[] { "ALL" };
+        }
+        if (!hasCapability("ESEARCH")) {
+            return new IMAPESearchResponse(searchMailbox("ALL", term), returnOptions);
+        }
+
+        String charset = getSearchCharset(term);
+        IMAPCommand command = new IMAPCommand("SEARCH");
+        appendReturnOptions(command, returnOptions);
+        // if we have an explicit charset to use, append that.
+        if (charset != null) {
+            command.appendAtom("CHARSET");
+            command.appendAtom(charset);
+        }
+        appendSearchCriteria(command, term, charset);
+
+        sendCommand(command);
+        return getESearchResponse();
+    }
+
+
+    /**
+     * Sort the messages of the selected mailbox on the server using
+     * the SORT extension (RFC 5256).
+     *
+     * @param sortCriteria
+     *               The sort keys, most significant first.  Each key is one
+     *               of ARRIVAL, CC, DATE, FROM, SIZE, SUBJECT, or TO, optionally
+     *               preceded by "REVERSE " (e.g. "REVERSE DATE").
+     * @param term   The search criteria selecting the messages to sort (null sorts all messages).
+     *
+     * @return The message numbers of the matching messages, in sort order.
+     * @exception MessagingException
+     */
+    public synchronized int[] sortMailbox(String[] sortCriteria, SearchTerm term) throws MessagingException {
+        if (!hasCapability("SORT")) {
+            throw new MessagingException("Server does not support SORT extension");
+        }
+        IMAPCommand command = new IMAPCommand("SORT");
+        appendSortCriteria(command, sortCriteria, term);
+
+        sendCommand(command);
+        IMAPSearchResponse hits = (IMAPSearchResponse)extractResponse("SORT");
+        // a server is supposed to send an empty SORT response for no matches, but be forgiving
+        return hits == null ? new int[0] : hits.messageNumbers;
+    }
+
+
+    /**
+     * Sort the messages of the selected mailbox on the server, asking for
+     * just the listed result items with the ESORT extension (RFC 5267).
+     * Along with the ESEARCH items, a "PARTIAL first:last" item returns
+     * just one page of the sorted messages if the server supports
+     * CONTEXT=SORT.  The ALL and PARTIAL sets are in sort order.
+     *
+     * @param sortCriteria
+     *                 The sort keys, most significant first.
+     * @param term     The search criteria selecting the messages to sort (null sorts all messages).
+     * @param returnOptions
+     *                 The requested result items.
+     *
+     * @return The sort result items.
+     * @exception MessagingException
+     */
+    public synchronized IMAPESearchResponse sortMailbox(String[] sortCriteria, SearchTerm term, String[] returnOptions) throws MessagingException {
+        if (!hasCapability("ESORT")) {
+            throw new MessagingException("Server does not support ESORT extension");
+        }
+        IMAPCommand command = new IMAPCommand("SORT");
+        appendReturnOptions(command, returnOptions);
+        appendSortCriteria(command, sortCriteria, term);
+
+        sendCommand(command);
+        return getESearchResponse();
+    }
+
+
+    /**
+     * Retrieve the threads of the selected mailbox from the server using
+     * the THREAD extension (RFC 5256).
+     *
+     * @param algorithm The threading algorithm (e.g. ORDEREDSUBJECT or REFERENCES).
+     * @param term      The search criteria selecting the messages to thread (null threads all messages).
+     *
+     * @return The List of threads, as IMAPThreadResponse.IMAPThreadNode items.
+     * @exception MessagingException
+     */
+    public synchronized List threadMailbox(String algorithm, SearchTerm term) throws MessagingException {
+        if (!hasCapability("THREAD=" + algorithm.toUpperCase())) {
+            throw new MessagingException("Server does not support THREAD=" + algorithm + " extension");
+        }
+        IMAPCommand command = new IMAPCommand("THREAD");
+        command.appendAtom(algorithm);
+        String charset = getSearchCharset(term);
+        // the charset is required for THREAD
+        command.appendAtom(charset == null ? "US-ASCII" : charset);
+        appendSearchCriteria(command, term, charset);
+
+        sendCommand(command);
+        IMAPThreadResponse threads = (IMAPThreadResponse)extractResponse("THREAD");
+        return threads == null ? new ArrayList() : threads.threads;
+    }
+
+
+    /**
+     * Pick the charset to use for a search term.
+     *
+     * @param term   The search term (can be null).
+     *
+     * @return "UTF-8" if the term contains non-ASCII strings, null otherwise.
+     */
+    protected String getSearchCharset(SearchTerm term) {
+        // see searchMailbox(String, SearchTerm) for the reasoning on UTF-8
+        if (term != null && IMAPCommand.checkSearchEncoding(term)) {
+            return "UTF-8";
+        }
+        return null;
+    }
+
+
+    /**
+     * Append the search criteria for a search term to a command.
+     *
+     * @param command The command being built.
+     * @param term    The search term.  A null term matches all messages.
+     * @param charset The charset used for the search strings.
+     *
+     * @exception MessagingException
+     */
+    protected void appendSearchCriteria(IMAPCommand command, SearchTerm term, String charset) throws MessagingException {
+        if (term == null) {
+            command.appendAtom("ALL");
+        }
+        else {
+            command.appendSearchTerm(term, charset);
+        }
+    }
+
+
+    /**
+     * Append the sort keys, charset, and search criteria of a SORT
+     * command.
+     *
+     * @param command The command being built.
+     * @param sortCriteria
+     *                The sort keys.
+     * @param term    The search term (can be null).
+     *
+     * @exception MessagingException
+     */
+    protected void appendSortCriteria(IMAPCommand command, String[] sortCriteria, SearchTerm term) throws MessagingException {
+        command.startList();
+        for (int i = 0; i < sortCriteria.length; i++) {
+            command.appendAtom(sortCriteria[i]);
+        }
+        command.endList();
+        String charset = getSearchCharset(term);
+        // the charset is required for SORT
+        command.appendAtom(charset == null ? "US-ASCII" : charset);
+        appendSearchCriteria(command, term, charset);
+    }
+
+
+    /**
+     * Append a RETURN option list to a SEARCH or SORT command.
+     *
+     * @param command The command being built.
+     * @param returnOptions
+     *                The return options.
+     */
+    protected void appendReturnOptions(IMAPCommand command, String[] returnOptions) {
+        command.appendAtom("RETURN");
+        command.startList();
+        for (int i = 0; i < returnOptions.length; i++) {
+            command.appendAtom(returnOptions[i]);
+        }
+        command.endList();
+    }
+
+
+    /**
+     * Extract the ESEARCH response for the command just completed.
+     *
+     * @return The ESEARCH response.  If the server didn't send one, the
+     *         result is empty.
+     * @exception MessagingException
+     */
+    protected IMAPESearchResponse getESearchResponse() throws MessagingException {
+        IMAPESearchResponse result = (IMAPESearchResponse)extractResponse("ESEARCH");
+        // servers can leave out the response when nothing matched
+        if (result == null) {
+            result = new IMAPESearchResponse(new int[0], new String[0]);
+        }
+        return result;
+    }
+
+
     /**
      * Append a message to a mailbox, given the direct message data.
      *
@@ -1664,7 +2818,7 @@ public class IMAPConnection extends MailConnection {
         // ok, now we need to search through these looking for a FETCH response with a UID element.
         List responses = extractResponses("FETCH");
 
-        List uids = new ArrayList((int)(end - start + 1));
+        List uids = new ArrayList(responses.size());
 
         // we're looking for a fetch response with a UID data item with the UID information
         // inside of it.
@@ -1757,6 +2911,33 @@ public class IMAPConnection extends MailConnection {
     }
 
 
+    /**
+     * Issue a FETCH command, handing each FETCH response to a handler
+     * as it is parsed rather than collecting them all.  This keeps the
+     * memory used by a large fetch down to a single response.
+     *
+     * @param messageSet The set of message numbers to fetch.
+     * @param profile    The items to retrieve.
+     * @param handler    The handler for the FETCH responses.  Any response it
+     *                   does not handle is queued as an unsolicited response.
+     *
+     * @exception MessagingException
+     */
+    public synchronized void fetch(String messageSet, FetchProfile profile, final IMAPUntaggedResponseHandler handler) throws MessagingException {
+        IMAPCommand command = new IMAPCommand("FETCH");
+        command.appendAtom(messageSet);
+        // this is the set of items to append
+        command.appendFetchProfile(profile);
+
+        sendCommand(command, new IMAPUntaggedResponseHandler() {
+            public boolean handleResponse(IMAPUntaggedResponse response) {
+                // everything other than FETCH responses gets queued for normal processing
+                return response.isKeyword("FETCH") && handler.handleResponse(response);
+            }
+        });
+    }
+
+
     /**
      * Set the ACL rights for a mailbox.  This replaces
      * any existing ACLs defined.
@@ -19,8 +19,11 @@ package org.apache.geronimo.mail.store.imap.connection;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 
 import jakarta.mail.MessagingException; 
 import jakarta.mail.Session;
@@ -37,6 +40,9 @@ public class IMAPConnectionPool {
     protected static final String MAIL_POOL_SIZE = "connectionpoolsize";
     protected static final String MAIL_POOL_TIMEOUT = "connectionpooltimeout";
     protected static final String MAIL_SEPARATE_STORE_CONNECTION = "separatestoreconnection";
+    protected static final String MAIL_POOL_WAIT_TIMEOUT = "connectionpool.waittimeout";
+    protected static final String MAIL_POOL_MAX_WAITERS = "connectionpool.maxwaiters";
+    protected static final String MAIL_POOL_VALIDATION_INTERVAL = "connectionpool.validationinterval";
     
     protected static final String MAIL_SASL_REALM = "sasl.realm"; 
     protected static final String MAIL_AUTHORIZATIONID = "sasl.authorizationid"; 
@@ -55,8 +61,16 @@ public class IMAPConnectionPool {
     protected ProtocolProperties props; 
     // our list of created connections
     protected List poolConnections = new ArrayList();
-    // our list of available connections 
-    protected List availableConnections = new ArrayList();
+    // our list of available connections, in the order they were returned
+    protected LinkedList availableConnections = new LinkedList();
+    // the threads waiting for a connection, oldest first
+    protected LinkedList waiters = new LinkedList();
+    // the number of connections being created outside of the pool lock
+    protected int pendingCreates;
+    // the number of idle connections taken out of the pool for validation
+    protected int validatingConnections;
+    // the timer driving the background validation (null if not enabled)
+    protected Timer validationTimer;
     
     // the dedicated Store connection (if we're configured that way)
     protected IMAPConnection storeConnection = null;
@@ -67,6 +81,12 @@ public class IMAPConnectionPool {
     protected int poolSize = 1;
     // the connection timeout property
     protected long poolTimeout;
+    // how long a thread waits for a connection before failing (0 means fall back to an overflow connection)
+    protected long waitTimeout;
+    // the maximum number of threads allowed to wait for a connection (0 is unlimited)
+    protected int maxWaiters;
+    // the interval between background validations of idle connections (0 disables it)
+    protected long validationInterval;
     // our debug flag
     protected boolean debug;
 
@@ -88,6 +108,13 @@ public class IMAPConnectionPool {
     // the connection capabilities map
     protected Map capabilities; 
 
+    // pool statistics
+    protected long createdCount;
+    protected long evictedCount;
+    protected long waitCount;
+    protected long totalWaitTime;
+    protected long maxWaitTime;
+
     /**
      * Create a connection pool associated with a give IMAPStore instance.  The
      * connection pool manages handing out connections for both the Store and
@@ -121,6 +148,14 @@ public class IMAPConnectionPool {
         if (dedicatedStoreConnection) {
             poolSize++; 
         }
+        // an exhausted pool makes callers wait in line for a returned connection.  By default, 
+        // a caller that has waited for a while gets an extra connection over the pool limit; 
+        // with a wait timeout, it gets an exception instead. 
+        waitTimeout = props.getIntProperty(MAIL_POOL_WAIT_TIMEOUT, 0);
+        maxWaiters = props.getIntProperty(MAIL_POOL_MAX_WAITERS, 0);
+        // idle connections can be pinged from a background thread, so that dead 
+        // connections are weeded out before anybody tries to use them. 
+        validationInterval = props.getIntProperty(MAIL_POOL_VALIDATION_INTERVAL, 0);
     }
 
 
@@ -193,16 +228,18 @@ public class IMAPConnectionPool {
                 availableConnections.add(connection); 
             }
         }
+        if (validationInterval > 0) {
+            startValidation(); 
+        }
         // we're connection, authenticated, and ready to go. 
         return true; 
     }
 
     /**
      * Creates an authenticated pool connection and adds it to
-     * the connection pool.  If there is an existing connection
-     * already in the pool, this returns without creating a new
-     * connection.
+     * the connection pool.
      *
+     * @return The new connection, or null if the connection could not be authenticated.
      * @exception MessagingException
      */
     protected IMAPConnection createPoolConnection() throws MessagingException {
@@ -225,6 +262,7 @@ public class IMAPConnectionPool {
             }
             
             poolConnections.add(connection);
+            createdCount++; 
         }
         // return that connection 
         return connection; 
@@ -232,32 +270,50 @@ public class IMAPConnectionPool {
 
 
     /**
-     * Get a connection from the pool.  We try to retrieve a live
-     * connection, but we test the connection's liveness before
-     * returning one.  If we don't have a viable connection in
-     * the pool, we'll create a new one.  The returned connection
-     * will be in the authenticated state already.
+     * Get a connection from the pool.  The connection's liveness
+     * is tested before it is returned, outside of the pool lock.  If we
+     * don't have a viable connection in the pool, we'll create a new one.
+     * The returned connection will be in the authenticated state already.
+     *
+     * @param mailbox The mailbox the connection will be used for.  A connection
+     *                that last had this mailbox selected is preferred.  This
+     *                may be null.
      *
      * @return An IMAPConnection object that is connected to the server.
      */
-    protected IMAPConnection getConnection() throws MessagingException {
+    protected IMAPConnection getConnection(String mailbox) throws MessagingException {
         int retryCount = 0; 
         
         // To keep us from falling into a futile failure loop, we'll only allow 
         // a set number of connection failures. 
         while (retryCount < MAX_CONNECTION_RETRIES) {
             // first try for an already created one.  If this returns 
-            // null, then we'll probably have to make a new one. 
-            IMAPConnection connection = getPoolConnection(); 
-            // cool, we got one, the hard part is done.  
+            // null, then we've been given the go ahead to make a new one. 
+            IMAPConnection connection = getPoolConnection(mailbox); 
             if (connection != null) {
-                return connection; 
+                // make sure this is still usable.  A dead connection shrinks the 
+                // pool, so this can't go on forever. 
+                if (connection.isAlive(poolTimeout)) {
+                    return connection; 
+                }
+                evictConnection(connection); 
+                continue; 
             }
             // ok, create a new one.  This *should* work, but the server might 
             // have gone down, or other problem may occur. If we have a problem, 
             // retry the entire process...but only for a bit.  No sense 
             // being stubborn about it. 
-            connection = createPoolConnection(); 
+            try {
+                connection = createPoolConnection(); 
+            } finally {
+                synchronized(this) {
+                    pendingCreates--; 
+                    // a failed creation frees up the slot for somebody else 
+                    if (connection == null) {
+                        releaseSlot(); 
+                    }
+                }
+            }
             if (connection != null) {
                 return connection; 
             }
@@ -270,76 +326,125 @@ public class IMAPConnectionPool {
     
     /**
      * Obtain a connection from the existing connection pool.  If none are 
-     * available, and we've reached the connection pool limit, we'll wait for 
-     * some other thread to return one.  It generally doesn't take too long, as 
-     * they're usually only held for the time required to execute a single 
-     * command.   If we're not at the pool limit, return null, which will signal 
-     * the caller to go ahead and create a new connection outside of the 
-     * lock. 
+     * available, and we've reached the connection pool limit, we'll wait in 
+     * line for some other thread to return one.  Waiting threads are served 
+     * in the order they arrived, and a returned connection is handed directly 
+     * to the longest waiting thread.  If we're not at the pool limit, return 
+     * null, which will signal the caller to go ahead and create a new 
+     * connection outside of the lock.  The slot for the new connection is 
+     * reserved before returning. 
+     * 
+     * @param mailbox The mailbox the connection will be used for (can be null).
      * 
-     * @return Either an active connection instance, or null if the caller should go 
+     * @return Either a pooled connection instance, or null if the caller should go 
      *         ahead and try to create a new connection.
      * @exception MessagingException
      */
-    protected synchronized IMAPConnection getPoolConnection() throws MessagingException {
-        // if the pool is closed, we can't process this 
-        if (closed) {
-            throw new StoreClosedException(store, "No Store connections available"); 
-        }
-        
-        // we'll retry this a few times if the connection pool is full, but 
-        // after that, we'll just create a new connection. 
-        for (int i = 0; i < MAX_CONNECTION_RETRIES; i++) {
-            Iterator it = availableConnections.iterator(); 
-            while (it.hasNext()) {
-                IMAPConnection connection = (IMAPConnection)it.next(); 
-                // live or dead, we're going to remove this from the 
-                // available list. 
-                it.remove(); 
-                if (connection.isAlive(poolTimeout)) {
-                    // return the connection to the requestor 
-                    return connection; 
-                }
-                else {
-                    // remove this from the pool...it's toast. 
-                    poolConnections.remove(connection); 
-                    // make sure this cleans up after itself. 
-                    connection.closeServerConnection(); 
-                }
+    protected IMAPConnection getPoolConnection(String mailbox) throws MessagingException {
+        PoolWaiter waiter; 
+        synchronized(this) {
+            // if the pool is closed, we can't process this 
+            checkClosed(); 
+            IMAPConnection connection = takeAvailableConnection(mailbox); 
+            if (connection != null) {
+                return connection; 
             }
-
             // we've not found something usable in the pool.  Now see if 
             // we're allowed to add another connection, or must just wait for 
             // someone else to return one. 
+            if (poolConnections.size() + pendingCreates < poolSize) {
+                pendingCreates++; 
+                return null; 
+            }
+            if (maxWaiters > 0 && waiters.size() >= maxWaiters) {
+                throw new MessagingException("Too many threads waiting for an IMAP connection"); 
+            }
+            waiter = new PoolWaiter(); 
+            waiters.add(waiter); 
+            waitCount++; 
+        }
 
-            if (poolConnections.size() >= poolSize) {
-                // check to see if we've been told to shutdown before waiting
-                if (closed) {
-                    throw new StoreClosedException(store, "No Store connections available"); 
-                }
-                // we need to wait for somebody to return a connection 
-                // once woken up, we'll spin around and try to snag one from 
-                // the pool again.
+        long start = System.currentTimeMillis(); 
+        // without a wait timeout, we give up after a short wait and go over the pool limit 
+        long timeout = waitTimeout > 0 ? waitTimeout : MAX_CONNECTION_RETRIES * MAX_POOL_WAIT; 
+        synchronized(waiter) {
+            long remaining = timeout; 
+            while (!waiter.served && remaining > 0) {
                 try {
-                    wait(MAX_POOL_WAIT);
+                    waiter.wait(remaining);
                 } catch (InterruptedException e) {
+                    // stop waiting, but leave the interrupt for the caller to see 
+                    Thread.currentThread().interrupt(); 
+                    break; 
                 }
-                
-                // check to see if we've been told to shutdown while we waited
-                if (closed) {
-                    throw new StoreClosedException(store, "No Store connections available"); 
+                remaining = timeout - (System.currentTimeMillis() - start); 
+            }
+        }
+
+        boolean timedOut = false; 
+        synchronized(this) {
+            long waited = System.currentTimeMillis() - start; 
+            totalWaitTime += waited; 
+            maxWaitTime = Math.max(maxWaitTime, waited); 
+            synchronized(waiter) {
+                // if nobody got around to us, take ourselves out of line. 
+                if (!waiter.served) {
+                    waiter.served = true; 
+                    waiters.remove(waiter); 
+                    timedOut = true; 
                 }
             }
-            else {
-                // exit out and create a new connection.  Since 
-                // we're going to be outside the synchronized block, it's possible 
-                // we'll go over our pool limit.  We'll take care of that when connections start 
-                // getting returned. 
+            checkClosed(); 
+            if (timedOut) {
+                if (waitTimeout > 0) {
+                    throw new MessagingException("Timed out waiting for an IMAP connection"); 
+                }
+                // exit out and create a new connection over our pool limit.  We'll take 
+                // care of that when connections start getting returned. 
+                pendingCreates++; 
                 return null; 
             }
         }
-        // we've hit the maximum number of retries...just create a new connection. 
-        return null; 
+        // either a connection, or null if we've been handed a free slot 
+        return waiter.connection; 
+    }
+
+    /**
+     * Take a connection from the available list, preferring one that
+     * last had the requested mailbox selected.  Otherwise, the most
+     * recently returned connection is used.  The pool lock must be held.
+     *
+     * @param mailbox The mailbox the connection will be used for (can be null).
+     *
+     * @return A connection, or null if none are available.
+     */
+    protected IMAPConnection takeAvailableConnection(String mailbox) {
+        if (availableConnections.isEmpty()) {
+            return null; 
+        }
+        if (mailbox != null) {
+            Iterator it = availableConnections.iterator(); 
+            while (it.hasNext()) {
+                IMAPConnection connection = (IMAPConnection)it.next(); 
+                if (mailbox.equals(connection.getLastMailbox())) {
+                    it.remove(); 
+                    return connection; 
+                }
+            }
+        }
+        return (IMAPConnection)availableConnections.removeLast(); 
+    }
+
+    /**
+     * Hand a free pool slot to the longest waiting thread, which will
+     * then create a new connection.  The pool lock must be held.
+     */
+    protected void releaseSlot() {
+        if (!waiters.isEmpty() && poolConnections.size() + pendingCreates < poolSize) {
+            PoolWaiter waiter = (PoolWaiter)waiters.removeFirst(); 
+            pendingCreates++; 
+            waiter.serve(null); 
+        }
     }
     
     /**
@@ -352,13 +457,19 @@ public class IMAPConnectionPool {
     protected void returnPoolConnection(IMAPConnection connection) throws MessagingException
     {
         synchronized(this) {
-            // If we're still within the bounds of our connection pool, 
-            // just add this to the active list and send out a notification 
-            // in case somebody else is waiting for the connection. 
-            if (availableConnections.size() < poolSize) {
-                availableConnections.add(connection); 
-                notify(); 
-                return; 
+            if (!closed) {
+                // if somebody is waiting, this goes straight to the head of the line. 
+                if (!waiters.isEmpty()) {
+                    ((PoolWaiter)waiters.removeFirst()).serve(connection); 
+                    return; 
+                }
+                // If we're still within the bounds of our connection pool, 
+                // just add this to the active list. 
+                if (poolConnections.size() <= poolSize) {
+                    availableConnections.add(connection); 
+                    return; 
+                }
+                evictedCount++; 
             }
             // remove this from the connection pool...we have too many. 
             poolConnections.remove(connection); 
@@ -378,12 +489,30 @@ public class IMAPConnectionPool {
     {
         synchronized(this) {
             // remove this from the connection pool...it's no longer usable. 
-            poolConnections.remove(connection); 
+            if (poolConnections.remove(connection)) {
+                releaseSlot(); 
+            }
         }
         // the additional cleanup occurs outside the synchronized block 
         connection.close(); 
     }
 
+    /**
+     * Throw away a connection that failed its liveness check.
+     * 
+     * @param connection The dead connection.
+     */
+    protected void evictConnection(IMAPConnection connection) {
+        synchronized(this) {
+            if (poolConnections.remove(connection)) {
+                evictedCount++; 
+                releaseSlot(); 
+            }
+        }
+        // make sure this cleans up after itself. 
+        connection.closeServerConnection(); 
+    }
+
 
     /**
      * Get a connection for the Store.  This will be either a
@@ -392,20 +521,18 @@ public class IMAPConnectionPool {
      *
      * @return An authenticated connection object.
      */
-    public synchronized IMAPConnection getStoreConnection() throws MessagingException {  
-        if (closed) {
-            throw new StoreClosedException(store, "No Store connections available"); 
-        }
-        // if we have a dedicated connection created, return it.
-        if (storeConnection != null) {
-            return storeConnection;
-        }
-        else {
-            IMAPConnection connection = getConnection();
-            // add the store as a response handler while it has it. 
-            connection.addResponseHandler(store); 
-            return connection; 
+    public IMAPConnection getStoreConnection() throws MessagingException {  
+        synchronized(this) {
+            checkClosed(); 
+            // if we have a dedicated connection created, return it.
+            if (storeConnection != null) {
+                return storeConnection;
+            }
         }
+        IMAPConnection connection = getConnection(null);
+        // add the store as a response handler while it has it. 
+        connection.addResponseHandler(store); 
+        return connection; 
     }
 
 
@@ -416,23 +543,26 @@ public class IMAPConnectionPool {
      * 
      * @param connection The connection getting returned.
      */
-    public synchronized void releaseStoreConnection(IMAPConnection connection) throws MessagingException {
-        // have a server disconnect situation?
+    public void releaseStoreConnection(IMAPConnection connection) throws MessagingException {
+        boolean dedicated; 
+        synchronized(this) {
+            dedicated = connection == storeConnection; 
+            // have a server disconnect situation?  We no longer have a dedicated 
+            // store connection, we need to return to the pool from now on. 
+            if (dedicated && connection.isClosed()) {
+                storeConnection = null; 
+            }
+        }
         if (connection.isClosed()) {
-            // we no longer have a dedicated store connection.  
-            // we need to return to the pool from now on. 
-            storeConnection = null; 
             // throw this away. 
             releasePoolConnection(connection); 
         }
-        else {
-            // if we have a dedicated connection, nothing to do really.  Otherwise, 
-            // return this connection to the pool. 
-            if (storeConnection == null) {
-                // unhook the store from the connection. 
-                connection.removeResponseHandler(store); 
-                returnPoolConnection(connection); 
-            }
+        // if we have a dedicated connection, nothing to do really.  Otherwise, 
+        // return this connection to the pool. 
+        else if (!dedicated) {
+            // unhook the store from the connection. 
+            connection.removeResponseHandler(store); 
+            returnPoolConnection(connection); 
         }
     }
 
@@ -443,8 +573,21 @@ public class IMAPConnectionPool {
      * @return An authenticated connection object.
      */
     public IMAPConnection getFolderConnection() throws MessagingException {  
+        return getFolderConnection(null); 
+    }
+
+
+    /**
+     * Get a connection for a Folder.  If a pooled connection last had 
+     * the folder's mailbox selected, that connection is handed out.  
+     *
+     * @param mailbox The full name of the folder's mailbox.
+     *
+     * @return An authenticated connection object.
+     */
+    public IMAPConnection getFolderConnection(String mailbox) throws MessagingException {  
         // just get a connection from the pool 
-        return getConnection(); 
+        return getConnection(mailbox); 
     }
 
 
@@ -473,100 +616,179 @@ public class IMAPConnectionPool {
      * 
      * @exception MessagingException
      */
-    public synchronized void close() throws MessagingException {
-        // first close each of the connections.  This also closes the 
+    public void close() throws MessagingException {
+        List connections; 
+        synchronized(this) {
+            // turn out the lights, hang the closed sign on the wall. 
+            closed = true; 
+            if (validationTimer != null) {
+                validationTimer.cancel(); 
+                validationTimer = null; 
+            }
+            // anybody waiting in line gets sent home 
+            while (!waiters.isEmpty()) {
+                ((PoolWaiter)waiters.removeFirst()).serve(null); 
+            }
+            connections = new ArrayList(poolConnections); 
+            // clear the pool 
+            poolConnections.clear(); 
+            availableConnections.clear(); 
+            storeConnection = null; 
+        }
+        // now close each of the connections.  This also closes the 
         // store connection. 
-        for (int i = 0; i < poolConnections.size(); i++) {
-            IMAPConnection connection = (IMAPConnection)poolConnections.get(i);
+        for (int i = 0; i < connections.size(); i++) {
+            IMAPConnection connection = (IMAPConnection)connections.get(i);
             connection.close(); 
         }
-        // clear the pool 
-        poolConnections.clear(); 
-        availableConnections.clear(); 
-        storeConnection = null; 
-        // turn out the lights, hang the closed sign on the wall. 
-        closed = true; 
     }
 
 
     /**
-     * Flush any connections from the pool that have not been used
-     * for at least the connection pool timeout interval.
+     * Start the background validation of idle connections.
      */
-    protected synchronized void closeStaleConnections() {
-        Iterator i = poolConnections.iterator();
-
-        while (i.hasNext()) {
-            IMAPConnection connection = (IMAPConnection)i.next();
-            // if this connection is a stale one, remove it from the pool
-            // and close it out.
-            if (connection.isStale(poolTimeout)) {
-                i.remove();
+    protected synchronized void startValidation() {
+        if (validationTimer != null || closed) {
+            return; 
+        }
+        validationTimer = new Timer("IMAP connection pool validator", true); 
+        validationTimer.schedule(new TimerTask() {
+            public void run() {
+                validateIdleConnections(); 
+            }
+        }, validationInterval, validationInterval); 
+    }
+
+
+    /**
+     * Ping any idle connections that have not been used for at least the
+     * connection pool timeout interval, evicting the ones that have died.
+     * The connections are taken out of the pool while they're checked,
+     * so the pool lock is not held while talking to the server.
+     */
+    protected void validateIdleConnections() {
+        List candidates = new ArrayList(); 
+        synchronized(this) {
+            Iterator it = availableConnections.iterator(); 
+            while (it.hasNext()) {
+                IMAPConnection connection = (IMAPConnection)it.next(); 
+                if (connection.isStale(poolTimeout)) {
+                    it.remove(); 
+                    candidates.add(connection); 
+                }
+            }
+            validatingConnections += candidates.size(); 
+        }
+
+        for (int i = 0; i < candidates.size(); i++) {
+            IMAPConnection connection = (IMAPConnection)candidates.get(i);
+            boolean alive = connection.isAlive(poolTimeout); 
+            synchronized(this) {
+                validatingConnections--; 
+            }
+            if (alive) {
                 try {
-                    connection.close();
+                    returnPoolConnection(connection); 
                 } catch (MessagingException e) {
-                    // ignored.  we're just closing connections that are probably timed out anyway, so errors
-                    // on those shouldn't have an effect on the real operation we're dealing with.
+                    // ignored.  The connection was being thrown away anyway. 
                 }
             }
+            else {
+                evictConnection(connection); 
+            }
         }
     }
 
 
     /**
-     * Return a connection back to the connection pool.  If we're not
-     * over our limit, the connection is kept around.  Otherwise, it's
-     * given a nice burial.
+     * Check that the pool is still open for business.  The pool lock
+     * must be held.
      *
-     * @param connection The returned connection.
+     * @exception StoreClosedException if the pool has been closed.
      */
-    protected synchronized void releaseConnection(IMAPConnection connection) {
-        // before adding this to the pool, close any stale connections we may
-        // have.  The connection we're adding is quite likely to be a fresh one,
-        // so we should cache that one if we can.
-        closeStaleConnections();
-        // still over the limit?
-        if (poolConnections.size() + 1 > poolSize) {
-            try {
-                // close this out and forget we ever saw it.
-                connection.close();
-            } catch (MessagingException e) {
-                // ignore....this is a non-critical problem if this fails now.
-            }
-        }
-        else {
-            // listen to alerts on this connection, and put it back in the pool.
-            poolConnections.add(connection);
+    protected void checkClosed() throws StoreClosedException {
+        if (closed) {
+            throw new StoreClosedException(store, "No Store connections available"); 
         }
     }
 
+
     /**
-     * Cleanup time.  Sever and cleanup all of the pool connection
-     * objects, including the special Store connection, if we have one.
+     * Get the number of connections currently handed out by the pool.
+     * A dedicated Store connection is not counted.
+     *
+     * @return The count of borrowed connections.
      */
-    protected synchronized void freeAllConnections() {
-        for (int i = 0; i < poolConnections.size(); i++) {
-            IMAPConnection connection = (IMAPConnection)poolConnections.get(i);
-            try {
-                // close this out and forget we ever saw it.
-                connection.close();
-            } catch (MessagingException e) {
-                // ignore....this is a non-critical problem if this fails now.
-            }
-        }
-        // everybody, out of the pool!
-        poolConnections.clear();
-
-        // don't forget the special store connection, if we have one.
+    public synchronized int getBorrowedCount() {
+        int count = poolConnections.size() - availableConnections.size() - validatingConnections; 
         if (storeConnection != null) {
-            try {
-                // close this out and forget we ever saw it.
-                storeConnection.close();
-            } catch (MessagingException e) {
-                // ignore....this is a non-critical problem if this fails now.
-            }
-            storeConnection = null;
+            count--; 
         }
+        return count; 
+    }
+
+    /**
+     * Get the number of idle connections waiting in the pool.
+     *
+     * @return The count of idle connections.
+     */
+    public synchronized int getIdleCount() {
+        return availableConnections.size(); 
+    }
+
+    /**
+     * Get the number of connections created since the pool was opened.
+     *
+     * @return The count of created connections.
+     */
+    public synchronized long getCreatedCount() {
+        return createdCount; 
+    }
+
+    /**
+     * Get the number of connections thrown away, either because they
+     * failed a liveness check or because the pool was over its limit.
+     *
+     * @return The count of evicted connections.
+     */
+    public synchronized long getEvictedCount() {
+        return evictedCount; 
+    }
+
+    /**
+     * Get the number of threads currently waiting for a connection.
+     *
+     * @return The count of waiting threads.
+     */
+    public synchronized int getWaitingCount() {
+        return waiters.size(); 
+    }
+
+    /**
+     * Get the number of times a thread had to wait for a connection.
+     *
+     * @return The count of waits.
+     */
+    public synchronized long getWaitCount() {
+        return waitCount; 
+    }
+
+    /**
+     * Get the total time threads have spent waiting for a connection.
+     *
+     * @return The accumulated wait time in milliseconds.
+     */
+    public synchronized long getTotalWaitTime() {
+        return totalWaitTime; 
+    }
+
+    /**
+     * Get the longest time a thread has waited for a connection.
+     *
+     * @return The maximum wait time in milliseconds.
+     */
+    public synchronized long getMaxWaitTime() {
+        return maxWaitTime; 
     }
     
     
@@ -583,6 +805,28 @@ public class IMAPConnectionPool {
         }
         return capabilities.containsKey(capability); 
     }
-}
 
 
+    /**
+     * A thread waiting in line for a pool connection.  The thread
+     * waiting is woken up once it's been handed either a connection or
+     * a free slot to create one in.
+     */
+    protected static class PoolWaiter {
+        // the connection handed over (null means a free slot, or the pool is closing)
+        IMAPConnection connection;
+        // set once the waiter has been dealt with
+        boolean served;
+
+        /**
+         * Hand the waiter a connection and wake it up.
+         *
+         * @param connection The connection, or null for a free slot.
+         */
+        synchronized void serve(IMAPConnection connection) {
+            this.connection = connection;
+            served = true;
+            notify();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.geronimo.mail.store.imap.connection;
+
+import java.util.List;
+
+import jakarta.mail.MessagingException;
+
+import org.apache.geronimo.mail.store.imap.connection.IMAPResponseTokenizer.Token;
+
+/**
+ * An ESEARCH response (RFC 4731), returned for a SEARCH or SORT command
+ * with a RETURN option.  Rather than listing every matching message, the
+ * server returns just the requested result items:
+ *
+ * "* ESEARCH (TAG "A282") MIN 2 MAX 47 COUNT 12 ALL 2,10:15,21:25,47"
+ *
+ * With ESORT (RFC 5267), the ALL and PARTIAL sets are in sort order.
+ */
+public class IMAPESearchResponse extends IMAPUntaggedResponse {
+    // the tag of the command this is the result of (null if not given)
+    public String correlator;
+    // true if the results are UIDs rather than message sequence numbers
+    public boolean uid = false;
+    // the lowest matching message (-1 if not returned)
+    public long min = -1;
+    // the highest matching message (-1 if not returned)
+    public long max = -1;
+    // the number of matching messages (-1 if not returned)
+    public long count = -1;
+    // all of the matching messages (null if not returned or nothing matched)
+    public IMAPSequenceSet all;
+    // the requested range for a PARTIAL (RFC 5267) result (null if not returned)
+    public String partialRange;
+    // the matching messages within the PARTIAL range (null if not returned or nothing matched)
+    public IMAPSequenceSet partial;
+
+    public IMAPESearchResponse(byte[] data, IMAPResponseTokenizer source) throws MessagingException {
+        super("ESEARCH", data);
+
+        // the optional search correlator
+        if (source.peek().getType() == '(') {
+            List items = source.readStringList();
+            if (items.size() == 2 && ((String)items.get(0)).equalsIgnoreCase("TAG")) {
+                correlator = (String)items.get(1);
+            }
+        }
+
+        while (source.hasMore()) {
+            String name = source.readAtom().toUpperCase();
+            if (name.equals("UID")) {
+                uid = true;
+            }
+            else if (name.equals("MIN")) {
+                min = source.next().getLong();
+            }
+            else if (name.equals("MAX")) {
+                max = source.next().getLong();
+            }
+            else if (name.equals("COUNT")) {
+                count = source.next().getLong();
+            }
+            else if (name.equals("ALL")) {
+                all = new IMAPSequenceSet(source.next().getValue());
+            }
+            else if (name.equals("PARTIAL")) {
+                // PARTIAL (first:last set), where the set is NIL if nothing matched
+                source.checkLeftParen();
+                partialRange = source.next().getValue();
+                Token token = source.next(true);
+                if (token.getType() != Token.NIL) {
+                    partial = new IMAPSequenceSet(token.getValue());
+                }
+                source.checkRightParen();
+            }
+            else {
+                // an extension result we don't know about (e.g. MODSEQ)
+                source.skipExtensionItem();
+            }
+        }
+    }
+
+    /**
+     * Create the equivalent of an ESEARCH response from the result of a
+     * plain SEARCH, for servers without ESEARCH support.  Only the
+     * requested items are set.
+     *
+     * @param messageNumbers
+     *               The matching messages.
+     * @param returnOptions
+     *               The requested result items (MIN, MAX, COUNT, and ALL).
+     */
+    public IMAPESearchResponse(int[] messageNumbers, String[] returnOptions) {
+        super("ESEARCH", null);
+
+        for (int i = 0; i < returnOptions.length; i++) {
+            String option = returnOptions[i].toUpperCase();
+            if (option.equals("COUNT")) {
+                count = messageNumbers.length;
+            }
+            // everything else is omitted for an empty result
+            else if (messageNumbers.length == 0) {
+                continue;
+            }
+            else if (option.equals("ALL")) {
+                all = new IMAPSequenceSet(messageNumbers);
+            }
+            else if (option.equals("MIN") || option.equals("MAX")) {
+                long low = Long.MAX_VALUE;
+                long high = Long.MIN_VALUE;
+                for (int j = 0; j < messageNumbers.length; j++) {
+                    low = Math.min(low, messageNumbers[j]);
+                    high = Math.max(high, messageNumbers[j]);
+                }
+                if (option.equals("MIN")) {
+                    min = low;
+                }
+                else {
+                    max = high;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the matching message numbers from the ALL result.
+     *
+     * @return The message numbers (an empty array if nothing matched).
+     */
+    public int[] getMessageNumbers() {
+        return all == null ? new int[0] : all.getMessageNumbers();
+    }
+
+    /**
+     * Get the matching message numbers from the PARTIAL result.
+     *
+     * @return The message numbers (an empty array if nothing matched).
+     */
+    public int[] getPartialMessageNumbers() {
+        return partial == null ? new int[0] : partial.getMessageNumbers();
+    }
+}
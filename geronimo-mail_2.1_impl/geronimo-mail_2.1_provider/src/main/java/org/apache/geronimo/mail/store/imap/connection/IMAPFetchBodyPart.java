@@ -17,6 +17,10 @@
 
 package org.apache.geronimo.mail.store.imap.connection;
 
+import java.io.InputStream;
+
+import jakarta.mail.MessagingException;
+
 public class IMAPFetchBodyPart extends IMAPFetchDataItem {
     // the parse body section information. 
     protected IMAPBodySection section; 
@@ -73,4 +77,36 @@ public class IMAPFetchBodyPart extends IMAPFetchDataItem {
     public int getSubstringLength() {
         return section.length; 
     }
+
+    /**
+     * Test if the content of this part was spooled to a temporary
+     * file rather than held in memory.
+     *
+     * @return true if the content is held in a spool file.
+     */
+    public boolean isSpooled() {
+        return false;
+    }
+
+    /**
+     * Get the part content as a byte array.  Parts that don't carry
+     * raw content return null.
+     *
+     * @return The part content.
+     * @exception MessagingException
+     */
+    public byte[] getContent() throws MessagingException {
+        return null;
+    }
+
+    /**
+     * Get an input stream for reading the part content.  Parts that
+     * don't carry raw content return null.
+     *
+     * @return An InputStream for the part content.
+     * @exception MessagingException
+     */
+    public InputStream getInputStream() throws MessagingException {
+        return null;
+    }
 }
@@ -30,9 +30,12 @@ public class IMAPFetchDataItem {
     public static final int TEXT = 7;
     public static final int HEADER = 8;
     public static final int FLAGS = 9;
+    public static final int MODSEQ = 10;
 
     // the type of the FETCH response item.
     protected int type;
+    // the item exactly as the server sent it, for items that can be kept in a header cache (null otherwise)
+    protected byte[] rawData;
 
     public IMAPFetchDataItem(int type) {
         this.type = type;
@@ -57,5 +60,25 @@ public class IMAPFetchDataItem {
     public boolean isType(int t) {
         return type == t;
     }
+
+    /**
+     * Get the raw response data for this item.  This is only retained
+     * for the items describing immutable message information (ENVELOPE,
+     * BODYSTRUCTURE, INTERNALDATE, RFC822.SIZE and the complete message
+     * header), so they can be stored and later parsed again from a
+     * header cache.
+     *
+     * @return The item name and value as received from the server, or null.
+     */
+    public byte[] getRawData() {
+        return rawData;
+    }
+
+    /**
+     * Release any resources held by this item.  Only items with
+     * content spooled to disk hold anything that needs releasing.
+     */
+    public void dispose() {
+    }
 }
 
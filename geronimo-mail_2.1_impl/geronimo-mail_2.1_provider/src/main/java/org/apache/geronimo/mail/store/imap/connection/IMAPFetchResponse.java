@@ -41,8 +41,33 @@ public class IMAPFetchResponse extends IMAPUntaggedResponse {
         // fetch responses are a list, even if there is just a single member.
         source.checkLeftParen();
 
+        // the raw item data is only usable if all of the literal data is in the buffer.
+        boolean retainRawData = !source.hasSpooledLiterals();
+
+        try {
+            parseDataItems(source, retainRawData);
+        } catch (MessagingException e) {
+            // nobody else will ever see the items parsed so far, so release them here.
+            dispose();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Parse the data items of the FETCH response, up to and including
+     * the closing paren of the item list.
+     *
+     * @param source        The tokenizer positioned at the first data item.
+     * @param retainRawData true if the raw form of cacheable items should be kept.
+     *
+     * @exception MessagingException
+     */
+    protected void parseDataItems(IMAPResponseTokenizer source, boolean retainRawData) throws MessagingException {
         // loop until we find the list end.
         while (source.notListEnd()) {
+            int itemStart = source.getPosition();
+            int itemCount = dataItems.size();
             // the response names are coded as ATOMS.  The BODY one's use a special 
             // syntax, so we need to use the expanded delimiter set to pull this out. 
             String itemName = source.readAtom(true).toUpperCase();
@@ -62,6 +87,9 @@ public class IMAPFetchResponse extends IMAPUntaggedResponse {
             else if (itemName.equals("UID")) {
                 dataItems.add(new IMAPUid(sequenceNumber, source));
             }
+            else if (itemName.equals("MODSEQ")) {
+                dataItems.add(new IMAPModSeq(source));
+            }
             else if (itemName.equals("RFC822")) {
                 // all of the RFC822 items are of form 
                 // "RFC822.name".  We used the expanded parse above because 
@@ -76,7 +104,13 @@ public class IMAPFetchResponse extends IMAPUntaggedResponse {
                     dataItems.add(new IMAPInternetHeader(source.readByteArray()));
                 }
                 else if (itemName.equals(".TEXT")) {
-                    dataItems.add(new IMAPMessageText(source.readByteArray()));
+                    IMAPSpooledLiteral spooled = source.readSpooledLiteral();
+                    if (spooled != null) {
+                        dataItems.add(new IMAPMessageText(new IMAPBodySection(IMAPBodySection.TEXT), spooled));
+                    }
+                    else {
+                        dataItems.add(new IMAPMessageText(source.readByteArray()));
+                    }
                 }
             }
             // this is just the body alone. Specific body segments 
@@ -86,11 +120,19 @@ public class IMAPFetchResponse extends IMAPUntaggedResponse {
                 // time to go parse out the section information from the 
                 // name.  
                 IMAPBodySection section = new IMAPBodySection(source); 
+                // large content may have been spooled rather than buffered. 
+                IMAPSpooledLiteral spooled = null; 
                 
                 switch (section.section) {
                     case IMAPBodySection.BODY:
                         // a "full body cast".  Just grab the binary data 
-                        dataItems.add(new IMAPBody(section, source.readByteArray())); 
+                        spooled = source.readSpooledLiteral(); 
+                        if (spooled != null) {
+                            dataItems.add(new IMAPBody(section, spooled)); 
+                        }
+                        else {
+                            dataItems.add(new IMAPBody(section, source.readByteArray())); 
+                        }
                         break; 
                         
                     case IMAPBodySection.HEADERS:
@@ -103,14 +145,75 @@ public class IMAPFetchResponse extends IMAPUntaggedResponse {
                     case IMAPBodySection.TEXT:
                         // just the text portion of the body 
                         // a "full body cast".  Just grab the binary data 
-                        dataItems.add(new IMAPMessageText(section, source.readByteArray())); 
+                        spooled = source.readSpooledLiteral(); 
+                        if (spooled != null) {
+                            dataItems.add(new IMAPMessageText(section, spooled)); 
+                        }
+                        else {
+                            dataItems.add(new IMAPMessageText(section, source.readByteArray())); 
+                        }
                         break; 
                 }
             }
+            // hang on to the original form of the immutable items so they can be cached.
+            if (retainRawData && dataItems.size() > itemCount) {
+                retainRawData(source, itemStart, (IMAPFetchDataItem)dataItems.get(itemCount));
+            }
         }
         // swallow the terminating right paren
         source.checkRightParen(); 
     }
+
+
+    /**
+     * Save the raw form of a data item if it describes immutable message
+     * information that can be stored in a header cache.
+     *
+     * @param source    The tokenizer the item was parsed from.
+     * @param itemStart The response offset where the item started.
+     * @param item      The parsed item.
+     */
+    protected void retainRawData(IMAPResponseTokenizer source, int itemStart, IMAPFetchDataItem item) {
+        switch (item.getType()) {
+            case IMAPFetchDataItem.ENVELOPE:
+            case IMAPFetchDataItem.BODYSTRUCTURE:
+            case IMAPFetchDataItem.INTERNALDATE:
+            case IMAPFetchDataItem.SIZE:
+                item.rawData = source.getRawData(itemStart, source.getPosition());
+                break;
+            case IMAPFetchDataItem.HEADER:
+            {
+                byte[] data = source.getRawData(itemStart, source.getPosition());
+                // only the complete header of the message itself qualifies, not those of nested parts
+                if (startsWith(data, "BODY[HEADER]") || startsWith(data, "RFC822.HEADER")) {
+                    item.rawData = data;
+                }
+                break;
+            }
+            default:
+        }
+    }
+
+
+    /**
+     * Test if raw item data begins with an item name (case insensitive).
+     *
+     * @param data   The raw item data.
+     * @param prefix The expected item name.
+     *
+     * @return true if the data starts with the name.
+     */
+    private static boolean startsWith(byte[] data, String prefix) {
+        if (data.length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toUpperCase((char)data[i]) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
     
     /**
      * Retrieve the sequence number for the FETCH item. 
@@ -156,6 +259,32 @@ public class IMAPFetchResponse extends IMAPUntaggedResponse {
         }
         return null;
     }
-    
+
+
+    /**
+     * Release the spooled content of any data items that were
+     * never consumed.
+     */
+    public void dispose() {
+        for (int i = 0; i < dataItems.size(); i++) {
+            ((IMAPFetchDataItem)dataItems.get(i)).dispose();
+        }
+    }
+
+
+    /**
+     * Release the spooled content of all data items other than
+     * one the caller is taking ownership of.
+     *
+     * @param keep   The item to retain.
+     */
+    public void disposeExcept(IMAPFetchDataItem keep) {
+        for (int i = 0; i < dataItems.size(); i++) {
+            IMAPFetchDataItem item = (IMAPFetchDataItem)dataItems.get(i);
+            if (item != keep) {
+                item.dispose();
+            }
+        }
+    }
 }
 
@@ -17,6 +17,7 @@
 
 package org.apache.geronimo.mail.store.imap.connection;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import jakarta.mail.Flags;
@@ -48,6 +49,14 @@ public class IMAPMailboxStatus {
     public long uidNext = -1L;
     // the UID validity item
     public long uidValidity = -1L;
+    // the highest modification sequence.  This is 0 for a mailbox that
+    // doesn't support modification sequences, and -1 if unknown.
+    public long highestModSeq = -1L;
+
+    // for a QRESYNC open, the VANISHED (EARLIER) responses...
+    public List vanished = new ArrayList();
+    // ...and the FETCH responses for messages changed since the given modification sequence
+    public List changes = new ArrayList();
 
     public IMAPMailboxStatus() {
     }
@@ -79,6 +88,9 @@ public class IMAPMailboxStatus {
         if (source.unseenMessages != -1) {
             unseenMessages = source.unseenMessages; 
         }
+        if (source.highestModSeq != -1L) {
+            highestModSeq = source.highestModSeq;
+        }
     }
     
     /**
@@ -166,6 +178,15 @@ public class IMAPMailboxStatus {
                 List arguments = source.getStatus();
                 unseenMessages = ((Token)arguments.get(0)).getInteger();
             }
+            // modification sequences are supported
+            else if (source.isKeyword("HIGHESTMODSEQ")) {
+                List arguments = source.getStatus();
+                highestModSeq = ((Token)arguments.get(0)).getLong();
+            }
+            // and not supported
+            else if (source.isKeyword("NOMODSEQ")) {
+                highestModSeq = 0;
+            }
         }
     }
 
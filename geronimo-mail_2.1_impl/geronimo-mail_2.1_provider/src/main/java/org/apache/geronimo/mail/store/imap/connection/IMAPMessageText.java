@@ -17,11 +17,16 @@
 
 package org.apache.geronimo.mail.store.imap.connection;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
 import jakarta.mail.MessagingException;
 
 public class IMAPMessageText extends IMAPFetchBodyPart {
     // the header data
     protected byte[] data;
+    // the spooled text, if it was too large to buffer
+    protected IMAPSpooledLiteral spooled;
 
     /**
      * Construct a top-level TEXT data item. 
@@ -40,13 +45,60 @@ public class IMAPMessageText extends IMAPFetchBodyPart {
         this.data = data; 
     }
     
+    public IMAPMessageText(IMAPBodySection section, IMAPSpooledLiteral spooled) throws MessagingException {
+        super(TEXT, section);
+        this.spooled = spooled; 
+    }
+    
     /**
-     * Retrieved the header data.
+     * Test if the text was spooled to a temporary file.
+     *
+     * @return true if the text is held in a spool file, false if it is in memory.
+     */
+    public boolean isSpooled() {
+        return spooled != null;
+    }
+
+    /**
+     * Retrieved the header data.  Spooled text is read into memory.
      *
      * @return The header data.
+     * @exception MessagingException
      */
-    public byte[] getContent() {
+    public byte[] getContent() throws MessagingException {
+        if (data == null && spooled != null) {
+            data = spooled.getContent();
+            spooled = null;
+        }
         return data;
     }
-}
 
+    /**
+     * Get an input stream for reading the text.  For spooled text,
+     * this reads directly from the spool file, which is removed when
+     * the stream is closed.
+     *
+     * @return An InputStream sourced to the text data.
+     * @exception MessagingException
+     */
+    public InputStream getInputStream() throws MessagingException {
+        if (spooled != null) {
+            InputStream in = spooled.getInputStream();
+            spooled = null;
+            return in;
+        }
+        return new ByteArrayInputStream(data);
+    }
+
+
+    /**
+     * Delete the spool file if the content was spooled and
+     * has not been consumed.
+     */
+    public void dispose() {
+        if (spooled != null) {
+            spooled.dispose();
+            spooled = null;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.geronimo.mail.store.imap.connection;
+
+import jakarta.mail.MessagingException;
+
+/**
+ * The MODSEQ FETCH item (RFC 7162), giving the modification
+ * sequence of the last change to a message's metadata.
+ */
+public class IMAPModSeq extends IMAPFetchDataItem {
+    // the returned modification sequence
+    public long modSeq;
+
+    public IMAPModSeq(IMAPResponseTokenizer source) throws MessagingException {
+        super(MODSEQ);
+        // the value is always a single element list, "MODSEQ (nnn)"
+        source.checkLeftParen();
+        modSeq = source.next().getLong();
+        source.checkRightParen();
+    }
+}
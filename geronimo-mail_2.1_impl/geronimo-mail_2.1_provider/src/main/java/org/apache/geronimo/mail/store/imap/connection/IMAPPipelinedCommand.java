@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.geronimo.mail.store.imap.connection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jakarta.mail.MessagingException;
+
+import org.apache.geronimo.mail.util.CommandFailedException;
+import org.apache.geronimo.mail.util.InvalidCommandException;
+
+/**
+ * A command issued through IMAPConnection.sendPipelined().  A pipelined
+ * command is written to the server without waiting for the completion
+ * of the commands ahead of it, so a batch of commands costs a single
+ * round trip rather than one each.
+ *
+ * The connection has no reader thread of its own, so responses are read
+ * on demand:  getResponse() reads from the server until this command's
+ * tagged response arrives, completing any earlier commands along the way.
+ * Any other use of the connection first reads the responses for all of
+ * the outstanding pipelined commands.
+ *
+ * IMAP does not tag untagged responses, so they are offered to the
+ * handlers of the outstanding commands, oldest first.  A handler claims
+ * a response by returning true (a STATUS handler would claim the STATUS
+ * response naming its mailbox, for example), and claimed responses are
+ * collected with the command.  Unclaimed responses are queued on the
+ * connection as usual.
+ *
+ * @version $Rev$ $Date$
+ */
+public class IMAPPipelinedCommand {
+    // the command we're sending
+    protected IMAPCommand command;
+    // the handler deciding which untagged responses belong to us (can be null)
+    protected IMAPUntaggedResponseHandler handler;
+    // the connection the command was sent on
+    protected IMAPConnection connection;
+    // the untagged responses claimed by the handler
+    protected List responses = new ArrayList();
+    // the tagged completion response, once received
+    protected IMAPTaggedResponse response;
+    // the failure for a command that did not complete successfully
+    protected MessagingException failure;
+
+    /**
+     * Create a pipelined command.
+     *
+     * @param command The command to send.
+     * @param handler The handler that claims the untagged responses belonging to this
+     *                command.  If null, the command claims none of them.
+     */
+    public IMAPPipelinedCommand(IMAPCommand command, IMAPUntaggedResponseHandler handler) {
+        this.command = command;
+        this.handler = handler;
+    }
+
+    /**
+     * Get the command being sent.
+     *
+     * @return The IMAPCommand.
+     */
+    public IMAPCommand getCommand() {
+        return command;
+    }
+
+    /**
+     * Get the tag identifying the command's completion response.
+     *
+     * @return The command tag.
+     */
+    public String getTag() {
+        return command.getTag();
+    }
+
+    /**
+     * Test if the command has completed (successfully or not).
+     *
+     * @return true once the tagged response has been received or the command has failed.
+     */
+    public synchronized boolean isDone() {
+        return response != null || failure != null;
+    }
+
+    /**
+     * Wait for the command to complete, reading responses from the
+     * server as required.
+     *
+     * @return The tagged OK response for the command.
+     * @exception MessagingException
+     *                   A NO or BAD completion, or a failure reading the responses.
+     */
+    public IMAPTaggedResponse getResponse() throws MessagingException {
+        if (!isDone()) {
+            connection.receivePipelinedResponses(this);
+        }
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+            return response;
+        }
+    }
+
+    /**
+     * Get the untagged responses claimed by this command's handler.
+     * This waits for the command to complete first.
+     *
+     * @return The list of IMAPUntaggedResponse items, in the order received.
+     * @exception MessagingException
+     */
+    public List getUntaggedResponses() throws MessagingException {
+        getResponse();
+        return responses;
+    }
+
+    /**
+     * Offer an untagged response to this command.
+     *
+     * @param untagged The untagged response.
+     *
+     * @return true if the response belongs to this command.
+     */
+    boolean handleResponse(IMAPUntaggedResponse untagged) {
+        if (handler != null && handler.handleResponse(untagged)) {
+            responses.add(untagged);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record the tagged response completing this command.
+     *
+     * @param tagged The completion response.
+     */
+    synchronized void complete(IMAPTaggedResponse tagged) {
+        // turn error completions into the same exceptions a normal command would raise
+        if (tagged.isBAD()) {
+            failure = new InvalidCommandException("Unexpected command IMAP command error: " + tagged.getMessage());
+        }
+        else if (tagged.isNO()) {
+            failure = new CommandFailedException("Unexpected error executing IMAP command: " + tagged.getMessage());
+        }
+        else {
+            response = tagged;
+        }
+    }
+
+    /**
+     * Fail this command without a completion response.
+     *
+     * @param e      The reason for the failure.
+     */
+    synchronized void fail(MessagingException e) {
+        failure = e;
+    }
+}
@@ -68,5 +68,12 @@ public class IMAPResponse {
         }
         return new String(response);
     }
+
+    /**
+     * Release any resources held by this response.  This is called
+     * by whoever discards a response without consuming its data.
+     */
+    public void dispose() {
+    }
 }
 
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.List;
 
 import jakarta.mail.MessagingException;
 import jakarta.mail.event.FolderEvent;
@@ -40,9 +41,27 @@ public class IMAPResponseStream {
     int position;
     // the current buffer read length
     int length;
+    // literals larger than this are spooled to disk rather than buffered (-1 disables spooling)
+    protected int literalThreshold = -1;
+    // the literals spooled while reading the current response
+    protected List spooledLiterals = new ArrayList();
 
     public IMAPResponseStream(InputStream in) {
+        this(in, -1);
+    }
+
+    /**
+     * Create a response stream that spools large literal values.
+     *
+     * @param in        The source server stream.
+     * @param literalThreshold
+     *                  The literal size above which the literal data is spooled to
+     *                  a temporary file instead of accumulated in the response buffer.
+     *                  A value <= 0 disables spooling.
+     */
+    public IMAPResponseStream(InputStream in, int literalThreshold) {
         this.in = in;
+        this.literalThreshold = literalThreshold;
         out = new IMAPResponseBuffer();
     }
 
@@ -90,8 +109,29 @@ public class IMAPResponseStream {
         // now read a buffer of data
         byte[] data = readData();
 
-        // and create a tokenizer for parsing this down.
-        IMAPResponseTokenizer tokenizer = new IMAPResponseTokenizer(data);
+        // and create a tokenizer for parsing this down.  Any literals spooled
+        // while reading the response are handed over to the tokenizer.
+        IMAPResponseTokenizer tokenizer = new IMAPResponseTokenizer(data, spooledLiterals);
+        spooledLiterals = new ArrayList();
+        try {
+            return parseResponse(data, tokenizer);
+        } finally {
+            // the spool files of any literals the response didn't claim are no longer needed.
+            tokenizer.discardSpooledLiterals();
+        }
+    }
+
+
+    /**
+     * Parse a response read from the server.
+     *
+     * @param data      The raw response data.
+     * @param tokenizer The tokenizer for the response data.
+     *
+     * @return A parsed IMAPResponse item using the response data.
+     * @exception MessagingException
+     */
+    protected IMAPResponse parseResponse(byte[] data, IMAPResponseTokenizer tokenizer) throws MessagingException {
         // get the first token.
         Token token = tokenizer.next();
 
@@ -180,6 +220,18 @@ public class IMAPResponseStream {
             else if (keyword.equals("SEARCH")) {
                 return new IMAPSearchResponse(data, tokenizer);
             }
+            // extended SEARCH and SORT results only return the requested result items.
+            else if (keyword.equals("ESEARCH")) {
+                return new IMAPESearchResponse(data, tokenizer);
+            }
+            // SORT responses are a list of message numbers, in sort order
+            else if (keyword.equals("SORT")) {
+                return new IMAPSearchResponse("SORT", data, tokenizer);
+            }
+            // THREAD responses are nested lists of message numbers
+            else if (keyword.equals("THREAD")) {
+                return new IMAPThreadResponse(data, tokenizer);
+            }
             // ACL requests return an variable length list of ACL values .
             else if (keyword.equals("ACL")) {
                 return new IMAPACLResponse(data, tokenizer);
@@ -203,6 +255,14 @@ public class IMAPResponseStream {
             else if (keyword.equals("NAMESPACE")) {
                 return new IMAPNamespaceResponse(data, tokenizer);
             }
+            // QRESYNC reports of removed messages
+            else if (keyword.equals("VANISHED")) {
+                return new IMAPVanishedResponse(data, tokenizer);
+            }
+            // the reply to an ENABLE command.  Nothing needs to be parsed from this.
+            else if (keyword.equals("ENABLED")) {
+                return new IMAPUntaggedResponse("ENABLED", data);
+            }
         }
         // begins with a word, this should be the tagged response from the last command.
         else if (type == Token.ATOM) {
@@ -284,6 +344,8 @@ public class IMAPResponseStream {
     public byte[] readData() throws MessagingException {
         // reset out buffer accumulator
         out.reset();
+        // any literals spooled for a previous response that was never parsed are abandoned.
+        discardSpooledLiterals();
         // read until the end of the response into our buffer.
         readBuffer();
         // get the accumulated data.
@@ -354,8 +416,13 @@ public class IMAPResponseStream {
             out.write('\r');
             out.write('\n');
 
+            // large literals are copied to a spool file.  Only the length marker
+            // stays in the response buffer.
+            if (literalThreshold > 0 && length > literalThreshold) {
+                spooledLiterals.add(new IMAPSpooledLiteral(in, length, out.size()));
+            }
             // have something we're supposed to read for the literal?
-            if (length > 0) {
+            else if (length > 0) {
                 byte[] bytes = new byte[length];
 
                 int offset = 0;
@@ -390,6 +457,18 @@ public class IMAPResponseStream {
     }
 
 
+    /**
+     * Delete any spooled literal data that was not passed on to
+     * a tokenizer.
+     */
+    protected void discardSpooledLiterals() {
+        for (int i = 0; i < spooledLiterals.size(); i++) {
+            ((IMAPSpooledLiteral)spooledLiterals.get(i)).dispose();
+        }
+        spooledLiterals.clear();
+    }
+
+
     /**
      * Get the next byte from the input stream, handling read errors
      * and EOF conditions as MessagingExceptions.
@@ -170,9 +170,27 @@ public class IMAPResponseTokenizer {
     private byte[] response;
     // current parsing position
     private int pos;
+    // literals that were spooled to disk rather than included in the response data
+    private List spooledLiterals;
+    // set while peeking, so spooled literals are not pulled into memory just to be discarded
+    private boolean peeking;
 
     public IMAPResponseTokenizer(byte [] response) {
+        this(response, null);
+    }
+
+    /**
+     * Create a tokenizer for a response that may contain spooled
+     * literals.  The response data for a spooled literal contains the
+     * "{length}" marker, but none of the literal bytes.
+     *
+     * @param response The response data.
+     * @param spooledLiterals
+     *                 The list of IMAPSpooledLiteral items for the response (may be null).
+     */
+    public IMAPResponseTokenizer(byte [] response, List spooledLiterals) {
         this.response = response;
+        this.spooledLiterals = spooledLiterals;
     }
 
     /**
@@ -194,6 +212,56 @@ public class IMAPResponseTokenizer {
     }
 
 
+    /**
+     * Get the current parsing position within the response data.
+     *
+     * @return The offset of the next unparsed byte.
+     */
+    public int getPosition() {
+        return pos;
+    }
+
+    /**
+     * Test if any of the literals in this response were spooled to
+     * disk rather than being included in the response data.
+     *
+     * @return true if the response data is missing spooled literal bytes.
+     */
+    public boolean hasSpooledLiterals() {
+        return spooledLiterals != null && !spooledLiterals.isEmpty();
+    }
+
+    /**
+     * Delete any spooled literals that were not claimed while
+     * parsing the response.
+     */
+    public void discardSpooledLiterals() {
+        if (spooledLiterals == null) {
+            return;
+        }
+        for (int i = 0; i < spooledLiterals.size(); i++) {
+            ((IMAPSpooledLiteral)spooledLiterals.get(i)).dispose();
+        }
+        spooledLiterals.clear();
+    }
+
+    /**
+     * Extract a section of the raw response data, skipping any
+     * leading whitespace.
+     *
+     * @param start  The starting offset.
+     * @param end    The end offset (+ 1).
+     *
+     * @return The bytes between the two offsets.
+     */
+    public byte[] getRawData(int start, int end) {
+        while (start < end && WHITE.indexOf(response[start]) != -1) {
+            start++;
+        }
+        return subarray(start, end);
+    }
+
+
     public Token next() throws MessagingException {
         return next(false);
     }
@@ -216,10 +284,13 @@ public class IMAPResponseTokenizer {
 
     public Token peek(boolean nilAllowed, boolean expandedDelimiters) throws MessagingException {
         int start = pos;
+        boolean wasPeeking = peeking;
+        peeking = true;
         try {
             return readToken(nilAllowed, expandedDelimiters);
         } finally {
             pos = start;
+            peeking = wasPeeking;
         }
     }
 
@@ -476,6 +547,18 @@ public class IMAPResponseTokenizer {
         // step over the length
         pos = lengthEnd + 3;
 
+        // if this literal was spooled, the data is not in the buffer.  Something is
+        // asking for it as a byte array, so we need to pull it in from the spool file.
+        IMAPSpooledLiteral spooled = findSpooledLiteral(pos);
+        if (spooled != null) {
+            // a peek only needs the token type, so leave the data where it is.
+            if (peeking) {
+                return new byte[0];
+            }
+            spooledLiterals.remove(spooled);
+            return spooled.getContent();
+        }
+
         // too long?
         if (pos + count > response.length) {
             throw new ResponseFormatException("Invalid literal length: " + count);
@@ -488,6 +571,61 @@ public class IMAPResponseTokenizer {
     }
 
 
+    /**
+     * Locate a spooled literal attached to a given buffer position.
+     *
+     * @param position The buffer position following the literal length marker.
+     *
+     * @return The matching IMAPSpooledLiteral, or null if the literal was not spooled.
+     */
+    private IMAPSpooledLiteral findSpooledLiteral(int position) {
+        if (spooledLiterals == null) {
+            return null;
+        }
+        for (int i = 0; i < spooledLiterals.size(); i++) {
+            IMAPSpooledLiteral literal = (IMAPSpooledLiteral)spooledLiterals.get(i);
+            if (literal.getPosition() == position) {
+                return literal;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Read the next token as a spooled literal.  If the next token
+     * is a literal whose data was spooled to disk, the token is consumed
+     * and the spooled literal returned.  Otherwise, the position is left
+     * unchanged and null is returned, so the caller can fall back to
+     * readByteArray().
+     *
+     * @return The IMAPSpooledLiteral for the next token, or null.
+     * @exception MessagingException
+     */
+    public IMAPSpooledLiteral readSpooledLiteral() throws MessagingException {
+        if (spooledLiterals == null || spooledLiterals.isEmpty()) {
+            return null;
+        }
+        int start = pos;
+        if (pos < response.length && WHITE.indexOf(response[pos]) != -1) {
+            eatWhiteSpace();
+        }
+        if (pos < response.length && response[pos] == '{') {
+            int lengthEnd = indexOf("}\r\n", pos + 1);
+            if (lengthEnd != -1) {
+                IMAPSpooledLiteral literal = findSpooledLiteral(lengthEnd + 3);
+                if (literal != null) {
+                    spooledLiterals.remove(literal);
+                    pos = lengthEnd + 3;
+                    return literal;
+                }
+            }
+        }
+        pos = start;
+        return null;
+    }
+
+
     /**
      * Extract a substring from the response buffer.
      *
@@ -31,7 +31,16 @@ public class IMAPSearchResponse extends IMAPUntaggedResponse {
     public int[] messageNumbers; 
     
     public IMAPSearchResponse(byte[] data, IMAPResponseTokenizer source) throws MessagingException {
-        super("SEARCH",  data); 
+        this("SEARCH", data, source); 
+    }
+    
+    /**
+     * Parse a response that is a list of message numbers.  A SORT
+     * response (RFC 5256) has the same form as a SEARCH response, with the 
+     * message numbers in sort order. 
+     */
+    public IMAPSearchResponse(String keyword, byte[] data, IMAPResponseTokenizer source) throws MessagingException {
+        super(keyword,  data); 
         
         Token token = source.next(); 
         List tokens = new ArrayList();
@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.geronimo.mail.store.imap.connection;
+
+import org.apache.geronimo.mail.util.ResponseFormatException;
+
+/**
+ * A compact set of message numbers or UIDs, in the "1:5,7,10:12" form
+ * used for sequence sets in commands and ESEARCH (RFC 4731) results.
+ * The order of the set is preserved, since the ALL result of an ESORT
+ * (RFC 5267) is given in sort order, and a "10:8" range is read as
+ * 10, 9, 8.
+ */
+public class IMAPSequenceSet {
+    // the set elements, as pairs of first and last values
+    public long[] ranges;
+
+    /**
+     * Parse a sequence set.
+     *
+     * @param set    The set in "n,n:m" form.
+     *
+     * @exception ResponseFormatException
+     */
+    public IMAPSequenceSet(String set) throws ResponseFormatException {
+        String[] elements = set.split(",");
+        ranges = new long[elements.length * 2];
+        for (int i = 0; i < elements.length; i++) {
+            String element = elements[i];
+            int colon = element.indexOf(':');
+            try {
+                if (colon == -1) {
+                    ranges[i * 2] = ranges[i * 2 + 1] = Long.parseLong(element);
+                }
+                else {
+                    ranges[i * 2] = Long.parseLong(element.substring(0, colon));
+                    ranges[i * 2 + 1] = Long.parseLong(element.substring(colon + 1));
+                }
+            } catch (NumberFormatException e) {
+                throw new ResponseFormatException("Invalid sequence set: " + set);
+            }
+        }
+    }
+
+    /**
+     * Create a sequence set from a list of numbers, collapsing runs of
+     * consecutive numbers into ranges.
+     *
+     * @param numbers The set members, in order.
+     */
+    public IMAPSequenceSet(int[] numbers) {
+        long[] work = new long[numbers.length * 2];
+        int count = 0;
+        for (int i = 0; i < numbers.length; i++) {
+            // extend the current range if this follows on from it
+            if (count > 0 && work[count - 1] + 1 == numbers[i] && work[count - 2] <= work[count - 1]) {
+                work[count - 1] = numbers[i];
+            }
+            else {
+                work[count++] = numbers[i];
+                work[count++] = numbers[i];
+            }
+        }
+        ranges = new long[count];
+        System.arraycopy(work, 0, ranges, 0, count);
+    }
+
+    /**
+     * Get the number of members in the set.
+     *
+     * @return The total count of the set ranges.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            count += Math.abs(ranges[i + 1] - ranges[i]) + 1;
+        }
+        return count;
+    }
+
+    /**
+     * Get the set members as an expanded array.
+     *
+     * @return The set members, in the set order.
+     */
+    public long[] toArray() {
+        long[] values = new long[(int)getCount()];
+        int index = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            long step = ranges[i + 1] >= ranges[i] ? 1 : -1;
+            for (long value = ranges[i]; value != ranges[i + 1] + step; value += step) {
+                values[index++] = value;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Get the set members as message sequence numbers.
+     *
+     * @return The set members, in the set order.
+     */
+    public int[] getMessageNumbers() {
+        long[] values = toArray();
+        int[] numbers = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            numbers[i] = (int)values[i];
+        }
+        return numbers;
+    }
+
+    /**
+     * Format the set in its compact "n,n:m" form.
+     *
+     * @return The string form of the set.
+     */
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (i > 0) {
+                buffer.append(',');
+            }
+            buffer.append(ranges[i]);
+            if (ranges[i + 1] != ranges[i]) {
+                buffer.append(':');
+                buffer.append(ranges[i + 1]);
+            }
+        }
+        return buffer.toString();
+    }
+}
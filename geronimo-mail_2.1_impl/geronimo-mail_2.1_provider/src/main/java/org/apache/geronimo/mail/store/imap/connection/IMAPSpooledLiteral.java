@@ -0,0 +1,197 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.geronimo.mail.store.imap.connection;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import jakarta.mail.MessagingException;
+
+/**
+ * A literal value from a server response that was too large to be
+ * accumulated in the response buffer.  The literal data is copied
+ * from the server stream into a temporary file, and the response
+ * buffer only retains the "{length}" marker.  The tokenizer hands these
+ * back to the FETCH parsing code so that message bodies can be
+ * consumed as a stream without ever being held in memory.
+ *
+ * The spool file is deleted once the data has been consumed, either by
+ * closing the stream returned from getInputStream() or by retrieving
+ * the data with getContent().  Whoever discards a literal (or the
+ * response holding it) without consuming it must call dispose().
+ *
+ * @version $Rev$ $Date$
+ */
+public class IMAPSpooledLiteral {
+    // size of the copy buffer used when spooling
+    protected static final int SPOOL_BUFFER_SIZE = 8192;
+
+    // the temporary file holding the literal data
+    protected File file;
+    // the length of the literal data
+    protected int length;
+    // the offset within the response buffer where the literal data would have appeared
+    protected int position;
+
+    /**
+     * Copy a literal from the server stream into a new spool file.
+     *
+     * @param in       The server input stream, positioned at the start of the literal data.
+     * @param length   The length of the literal.
+     * @param position The position in the response buffer the literal is attached to.
+     *
+     * @exception MessagingException
+     */
+    public IMAPSpooledLiteral(InputStream in, int length, int position) throws MessagingException {
+        this.length = length;
+        this.position = position;
+
+        OutputStream out = null;
+        try {
+            file = File.createTempFile("imap", ".literal");
+            out = new BufferedOutputStream(new FileOutputStream(file), SPOOL_BUFFER_SIZE);
+
+            byte[] buffer = new byte[SPOOL_BUFFER_SIZE];
+            int remaining = length;
+            // The InputStream can return less than the requested length if it needs to block,
+            // so keep reading until we've got the entire literal.
+            while (remaining > 0) {
+                int read = -1;
+                try {
+                    read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                } catch (IOException e) {
+                    throw new MessagingException("Unexpected read error on server connection", e);
+                }
+                // premature EOF we can't ignore.
+                if (read == -1) {
+                    throw new MessagingException("Unexpected end of stream");
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            dispose();
+            throw new MessagingException("Unable to spool literal data", e);
+        } catch (MessagingException e) {
+            dispose();
+            throw e;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the length of the spooled literal.
+     *
+     * @return The literal length in bytes.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Get the position within the response buffer where this
+     * literal's data belongs.
+     *
+     * @return The response buffer offset.
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Get a stream for reading the literal data.  The spool file is
+     * removed when the returned stream is closed.
+     *
+     * @return An InputStream positioned at the start of the literal data.
+     * @exception MessagingException
+     */
+    public InputStream getInputStream() throws MessagingException {
+        if (file == null) {
+            throw new MessagingException("Spooled literal data has already been consumed");
+        }
+        try {
+            final File source = file;
+            // ownership of the file passes to the stream
+            file = null;
+            return new FileInputStream(source) {
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        source.delete();
+                    }
+                }
+            };
+        } catch (IOException e) {
+            throw new MessagingException("Unable to open spooled literal data", e);
+        }
+    }
+
+    /**
+     * Read the literal data into memory.  This is used when a spooled
+     * literal appears somewhere that requires the data as a byte array.
+     *
+     * @return The literal data.
+     * @exception MessagingException
+     */
+    public byte[] getContent() throws MessagingException {
+        InputStream in = getInputStream();
+        try {
+            byte[] data = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int read = in.read(data, offset, length - offset);
+                if (read == -1) {
+                    throw new MessagingException("Spooled literal data is truncated");
+                }
+                offset += read;
+            }
+            return data;
+        } catch (IOException e) {
+            throw new MessagingException("Unable to read spooled literal data", e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Discard the spooled data without reading it.
+     */
+    public void dispose() {
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+    }
+}
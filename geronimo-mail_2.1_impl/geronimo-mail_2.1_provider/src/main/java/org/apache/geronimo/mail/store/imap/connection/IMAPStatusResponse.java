@@ -37,6 +37,8 @@ public class IMAPStatusResponse extends IMAPUntaggedResponse {
     public long uidNext = -1L;
     // the UID validity item
     public long uidValidity = -1L;
+    // the highest modification sequence (RFC 7162)
+    public long highestModSeq = -1L;
 
     public IMAPStatusResponse(byte[] data, IMAPResponseTokenizer source) throws MessagingException {
         super("STATUS",  data); 
@@ -76,6 +78,9 @@ public class IMAPStatusResponse extends IMAPUntaggedResponse {
             else if (field.equals("UNSEEN")) {
                 unseenMessages = (int)value; 
             }
+            else if (field.equals("HIGHESTMODSEQ")) {
+                highestModSeq = value;
+            }
         }
     }
 }
@@ -93,6 +93,15 @@ public class IMAPTaggedResponse extends IMAPResponse {
         return status.equals("NO"); 
     }
     
+    /**
+     * Get the tag of the command this response completes.
+     *
+     * @return The command tag ("" for a continuation response).
+     */
+    public String getTag() {
+        return tag;
+    }
+
     /**
      * Get the message included on the tagged response. 
      * 
@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.geronimo.mail.store.imap.connection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jakarta.mail.MessagingException;
+
+import org.apache.geronimo.mail.store.imap.connection.IMAPResponseTokenizer.Token;
+import org.apache.geronimo.mail.util.ResponseFormatException;
+
+/**
+ * A THREAD response (RFC 5256).  Each thread is a parenthesized list
+ * of message numbers, where each number is the parent of the one that
+ * follows it, and nested lists are the branches below the last number:
+ *
+ * "* THREAD (2)(3 6 (4 23)(44 7 96))"
+ *
+ * A thread that starts with nested lists has a missing (or unmatched)
+ * root message, which is represented by a node with message number 0.
+ */
+public class IMAPThreadResponse extends IMAPUntaggedResponse {
+    // the top-level threads, as IMAPThreadNode items
+    public List threads = new ArrayList();
+
+    /**
+     * A single message within a thread.
+     */
+    public static class IMAPThreadNode {
+        // the message sequence number (0 for a missing message)
+        public int messageNumber;
+        // the replies to this message, as IMAPThreadNode items
+        public List children = new ArrayList();
+
+        public IMAPThreadNode(int messageNumber) {
+            this.messageNumber = messageNumber;
+        }
+    }
+
+    public IMAPThreadResponse(byte[] data, IMAPResponseTokenizer source) throws MessagingException {
+        super("THREAD", data);
+
+        while (source.peek().getType() == '(') {
+            threads.add(parseThread(source));
+        }
+    }
+
+    /**
+     * Parse a single parenthesized thread list.
+     *
+     * @param source The response tokenizer, positioned at the list start.
+     *
+     * @return The root node of the thread.
+     * @exception MessagingException
+     */
+    protected IMAPThreadNode parseThread(IMAPResponseTokenizer source) throws MessagingException {
+        source.checkLeftParen();
+
+        IMAPThreadNode root = null;
+        IMAPThreadNode last = null;
+        // the chain of message numbers, each the parent of the next
+        while (source.peek().getType() == Token.NUMERIC) {
+            IMAPThreadNode node = new IMAPThreadNode(source.next().getInteger());
+            if (root == null) {
+                root = node;
+            }
+            else {
+                last.children.add(node);
+            }
+            last = node;
+        }
+        // a thread without a root message
+        if (root == null) {
+            root = last = new IMAPThreadNode(0);
+        }
+        // and the branches below the last message
+        while (source.peek().getType() == '(') {
+            last.children.add(parseThread(source));
+        }
+
+        if (source.next().getType() != ')') {
+            throw new ResponseFormatException("Missing ')' in THREAD response");
+        }
+        return root;
+    }
+}
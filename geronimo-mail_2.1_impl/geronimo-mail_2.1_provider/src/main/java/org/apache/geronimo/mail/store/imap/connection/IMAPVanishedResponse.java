@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.geronimo.mail.store.imap.connection;
+
+import java.util.List;
+
+import jakarta.mail.MessagingException;
+
+import org.apache.geronimo.mail.util.ResponseFormatException;
+
+/**
+ * A VANISHED response (RFC 7162).  Once QRESYNC has been enabled,
+ * servers report removed messages by UID with "* VANISHED uid-set"
+ * instead of "* nn EXPUNGE".  When a mailbox is selected with QRESYNC
+ * data, the messages removed since the client's last synchronization
+ * are reported with "* VANISHED (EARLIER) uid-set".
+ */
+public class IMAPVanishedResponse extends IMAPUntaggedResponse {
+    // true for the "(EARLIER)" form, which doesn't affect the current message sequence
+    public boolean earlier = false;
+    // the UID set, as pairs of first and last UIDs
+    public long[] ranges;
+
+    public IMAPVanishedResponse(byte[] data, IMAPResponseTokenizer source) throws MessagingException {
+        super("VANISHED", data);
+
+        // check for the optional tag list
+        if (source.peek().getType() == '(') {
+            List tags = source.readStringList();
+            for (int i = 0; i < tags.size(); i++) {
+                if (((String)tags.get(i)).equalsIgnoreCase("EARLIER")) {
+                    earlier = true;
+                }
+            }
+        }
+
+        // the set is a comma-separated list of single UIDs and "first:last" ranges
+        String[] elements = source.next().getValue().split(",");
+        ranges = new long[elements.length * 2];
+        for (int i = 0; i < elements.length; i++) {
+            String element = elements[i];
+            int colon = element.indexOf(':');
+            try {
+                if (colon == -1) {
+                    ranges[i * 2] = ranges[i * 2 + 1] = Long.parseLong(element);
+                }
+                else {
+                    long first = Long.parseLong(element.substring(0, colon));
+                    long last = Long.parseLong(element.substring(colon + 1));
+                    // a range can be given in either order
+                    ranges[i * 2] = Math.min(first, last);
+                    ranges[i * 2 + 1] = Math.max(first, last);
+                }
+            } catch (NumberFormatException e) {
+                throw new ResponseFormatException("Invalid UID set in VANISHED response: " + element);
+            }
+        }
+    }
+
+    /**
+     * Get the number of UIDs in the response.
+     *
+     * @return The total UID count of the UID set.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            count += ranges[i + 1] - ranges[i] + 1;
+        }
+        return count;
+    }
+
+    /**
+     * Get the vanished UIDs as an expanded array.
+     *
+     * @return The UIDs in the set, in the order given by the server.
+     */
+    public long[] getUids() {
+        long[] uids = new long[(int)getCount()];
+        int index = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            for (long uid = ranges[i]; uid <= ranges[i + 1]; uid++) {
+                uids[index++] = uid;
+            }
+        }
+        return uids;
+    }
+}
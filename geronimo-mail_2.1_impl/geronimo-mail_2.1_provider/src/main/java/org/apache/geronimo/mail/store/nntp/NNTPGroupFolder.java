@@ -19,19 +19,24 @@
 
 package org.apache.geronimo.mail.store.nntp;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
 
 import jakarta.mail.FetchProfile;
 import jakarta.mail.FolderNotFoundException;
 import jakarta.mail.Message;
 import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetHeaders;
 
 import org.apache.geronimo.mail.store.nntp.newsrc.NNTPNewsrcGroup;
 import org.apache.geronimo.mail.transport.nntp.NNTPReply;
+import org.apache.geronimo.mail.transport.nntp.StringListInputStream;
 
 /**
  * The NNTP implementation of the javax.mail.Folder Note that only INBOX is
@@ -46,6 +51,9 @@ import org.apache.geronimo.mail.transport.nntp.NNTPReply;
  */
 public class NNTPGroupFolder extends NNTPFolder {
 
+    // the largest run of unrequested articles an overview range will span
+    protected static final int OVERVIEW_RANGE_GAP = 100;
+
     // holders for status information returned by the GROUP command.
     protected int firstArticle = -1;
 
@@ -317,6 +325,11 @@ public class NNTPGroupFolder extends NNTPFolder {
         // Can only be performed on an Open folder
         checkOpen();
 
+        // headers only?  These can all be retrieved in one go from the overview database.
+        if (fp.contains(FetchProfile.Item.ENVELOPE) && !fp.contains(FetchProfile.Item.CONTENT_INFO)) {
+            loadOverview(msgs);
+        }
+
         for (int i = 0; i < msgs.length; i++) {
             Message msg = msgs[i];
             // we can only perform this operation for NNTPMessages.
@@ -333,13 +346,175 @@ public class NNTPGroupFolder extends NNTPFolder {
             }
             // headers only?
             else if (fp.contains(FetchProfile.Item.ENVELOPE)) {
-                ((NNTPMessage) msg).loadHeaders();
+                // anything the overview didn't cover gets its headers the slow way.
+                if (!((NNTPMessage) msg).hasEnvelope()) {
+                    ((NNTPMessage) msg).loadHeaders();
+                }
             } else if (fp.contains(FetchProfile.Item.CONTENT_INFO)) {
                 ((NNTPMessage) msg).loadContent();
             }
         }
     }
 
+    /**
+     * Load the envelope information for a set of messages from the
+     * group overview database, using OVER (or XOVER on older servers)
+     * over the article ranges covered by the messages.  If the server
+     * doesn't support overviews, the headers are retrieved with
+     * pipelined HEAD commands instead.
+     *
+     * @param msgs
+     *            The messages being fetched.
+     *
+     * @exception MessagingException
+     */
+    protected void loadOverview(Message[] msgs) throws MessagingException {
+        // collect the articles that still need their envelope, keyed by article number.
+        Map pending = new TreeMap();
+        for (int i = 0; i < msgs.length; i++) {
+            if (msgs[i] instanceof NNTPMessage && !((NNTPMessage) msgs[i]).hasEnvelope()) {
+                pending.put(Integer.valueOf(msgs[i].getMessageNumber()), msgs[i]);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        String command = connection.supportsExtension("OVER") ? "OVER " : "XOVER ";
+
+        // build article ranges, allowing small gaps so a sparse selection doesn't turn
+        // into a large number of commands.
+        List ranges = new ArrayList();
+        int first = -1;
+        int last = -1;
+        Iterator keys = pending.keySet().iterator();
+        while (keys.hasNext()) {
+            int article = ((Integer) keys.next()).intValue();
+            if (first == -1) {
+                first = article;
+            } else if (article - last > OVERVIEW_RANGE_GAP) {
+                ranges.add(command + first + "-" + last);
+                first = article;
+            }
+            last = article;
+        }
+        ranges.add(command + first + "-" + last);
+
+        String[] commands = (String[]) ranges.toArray(new String[ranges.size()]);
+        NNTPReply[] replies = connection.sendPipelinedCommands(commands, NNTPReply.OVERVIEW_FOLLOWS);
+        for (int i = 0; i < replies.length; i++) {
+            // no overview support, so do this the hard way.
+            if (replies[i].getCode() != NNTPReply.OVERVIEW_FOLLOWS) {
+                loadHeaders(pending);
+                return;
+            }
+            List lines = replies[i].getData();
+            for (int j = 0; j < lines.size(); j++) {
+                updateOverview((String) lines.get(j), pending);
+            }
+        }
+    }
+
+    /**
+     * Apply a single overview line to the matching article.  The
+     * line holds tab-separated fields in the RFC 3977 order: article
+     * number, Subject, From, Date, Message-ID, References, :bytes and
+     * :lines, possibly followed by additional fields.
+     *
+     * @param line
+     *            The overview line.
+     * @param pending
+     *            The articles being fetched, keyed by article number.
+     */
+    protected void updateOverview(String line, Map pending) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length < 6) {
+            // not something we understand
+            return;
+        }
+
+        NNTPMessage message;
+        try {
+            message = (NNTPMessage) pending.get(Integer.valueOf(fields[0].trim()));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        // not one we asked about
+        if (message == null) {
+            return;
+        }
+
+        InternetHeaders overview = new InternetHeaders();
+        for (int i = 0; i < NNTPMessage.OVERVIEW_HEADERS.length; i++) {
+            String value = fields[i + 1];
+            // empty fields mean the article doesn't have that header.
+            if (value.length() > 0) {
+                overview.addHeader(NNTPMessage.OVERVIEW_HEADERS[i], value);
+            }
+        }
+        message.updateOverview(overview, parseOverviewNumber(fields, 6), parseOverviewNumber(fields, 7));
+    }
+
+    /**
+     * Parse one of the numeric overview fields.
+     *
+     * @param fields
+     *            The overview fields.
+     * @param index
+     *            The field index.
+     *
+     * @return The field value, or -1 if missing or unparseable.
+     */
+    protected int parseOverviewNumber(String[] fields, int index) {
+        if (index < fields.length) {
+            try {
+                return Integer.parseInt(fields[index].trim());
+            } catch (NumberFormatException e) {
+                // ignore
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Retrieve the full headers for a set of articles with pipelined
+     * HEAD commands.
+     *
+     * @param pending
+     *            The articles being fetched, keyed by article number.
+     *
+     * @exception MessagingException
+     */
+    protected void loadHeaders(Map pending) throws MessagingException {
+        // an overview range might have succeeded before another failed
+        List remaining = new ArrayList();
+        Iterator values = pending.values().iterator();
+        while (values.hasNext()) {
+            NNTPMessage message = (NNTPMessage) values.next();
+            if (!message.hasEnvelope()) {
+                remaining.add(message);
+            }
+        }
+        NNTPMessage[] messages = (NNTPMessage[]) remaining.toArray(new NNTPMessage[remaining.size()]);
+        String[] commands = new String[messages.length];
+        for (int i = 0; i < messages.length; i++) {
+            commands[i] = "HEAD " + messages[i].getMessageId();
+        }
+
+        NNTPReply[] replies = connection.sendPipelinedCommands(commands, NNTPReply.HEAD_FOLLOWS);
+        for (int i = 0; i < replies.length; i++) {
+            if (replies[i].getCode() != NNTPReply.HEAD_FOLLOWS) {
+                throw new MessagingException("Error retrieving article headers from server: " + replies[i]);
+            }
+            try {
+                // wrap a stream around the reply data and read as headers.
+                messages[i].updateHeaders(new StringListInputStream(replies[i].getData()));
+            } catch (IOException e) {
+                throw new MessagingException("Error retrieving article headers from server", e);
+            }
+        }
+    }
+
     /**
      * Return the subscription status of this folder.
      * 
@@ -68,6 +68,19 @@ public class NNTPMessage extends MimeMessage {
     // use to force content loading
     protected boolean contentLoaded = false;
 
+    // the header fields available from the group overview (OVER/XOVER).  These
+    // are used until the full header set is retrieved.
+    protected InternetHeaders overview;
+
+    // the article size (headers included) from the overview, or -1 if not known
+    protected int overviewBytes = -1;
+
+    // the article line count from the overview, or -1 if not known
+    protected int overviewLines = -1;
+
+    // the headers that can be answered from the overview information
+    protected static final String[] OVERVIEW_HEADERS = { "Subject", "From", "Date", "Message-ID", "References" };
+
     /**
      * Contruct an NNTPMessage instance.
      * 
@@ -115,6 +128,18 @@ public class NNTPMessage extends MimeMessage {
         return super.getSize();
     }
 
+    /**
+     * Get the size of the whole article (headers and body) as reported
+     * by the group overview.  Unlike getSize(), this doesn't retrieve
+     * anything from the server.
+     *
+     * @return The article size in bytes, or -1 if the overview hasn't been
+     *         fetched or didn't include the size.
+     */
+    public int getArticleSize() {
+        return overviewBytes;
+    }
+
     /**
      * Get a line count for the NNTP message. This is potentially stored in the
      * Lines article header. If not there, we return a default of -1.
@@ -123,6 +148,9 @@ public class NNTPMessage extends MimeMessage {
      * @exception MessagingException
      */
     public int getLineCount() throws MessagingException {
+        if (!headersLoaded && overviewLines >= 0) {
+            return overviewLines;
+        }
         String[] headers = getHeader("Lines");
 
         // hopefully, there's only a single one of these. No sensible way of
@@ -156,15 +184,69 @@ public class NNTPMessage extends MimeMessage {
      **************************************************************************/
 
     public String[] getHeader(String name) throws MessagingException {
+        // the overview might be able to answer this without the full headers.
+        if (isOverviewHeader(name)) {
+            return overview.getHeader(name);
+        }
         loadHeaders();
         return headers.getHeader(name);
     }
 
     public String getHeader(String name, String delimiter) throws MessagingException {
+        // the overview might be able to answer this without the full headers.
+        if (isOverviewHeader(name)) {
+            return overview.getHeader(name, delimiter);
+        }
         loadHeaders();
         return headers.getHeader(name, delimiter);
     }
 
+    /**
+     * Test if a header request can be satisfied from the overview
+     * information.
+     *
+     * @param name   The header name.
+     *
+     * @return true if the overview holds this header and the full headers haven't been loaded.
+     */
+    protected boolean isOverviewHeader(String name) {
+        if (headersLoaded || overview == null) {
+            return false;
+        }
+        for (int i = 0; i < OVERVIEW_HEADERS.length; i++) {
+            if (OVERVIEW_HEADERS[i].equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Update the message from the group overview information.
+     *
+     * @param overview
+     *            The overview header fields (Subject, From, Date, Message-ID and References).
+     * @param bytes
+     *            The article size, or -1 if not known.
+     * @param lines
+     *            The article line count, or -1 if not known.
+     */
+    public void updateOverview(InternetHeaders overview, int bytes, int lines) {
+        this.overview = overview;
+        this.overviewBytes = bytes;
+        this.overviewLines = lines;
+    }
+
+    /**
+     * Test if the overview information or the full headers
+     * are available for this message.
+     *
+     * @return true if the envelope information can be obtained without a server request.
+     */
+    public boolean hasEnvelope() {
+        return headersLoaded || overview != null;
+    }
+
     public Enumeration getAllHeaders() throws MessagingException {
         loadHeaders();
         return headers.getAllHeaders();
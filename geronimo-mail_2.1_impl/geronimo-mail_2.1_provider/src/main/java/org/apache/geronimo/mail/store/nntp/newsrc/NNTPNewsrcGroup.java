@@ -167,6 +167,36 @@ public class NNTPNewsrcGroup {
         }
     }
 
+    /**
+     * Mark a span of articles as seen.
+     * 
+     * @param first
+     *            The first article number.
+     * @param last
+     *            The last article number.
+     */
+    public void markArticlesSeen(int first, int last) {
+        ranges.setMarked(first, last);
+        if (ranges.isDirty()) {
+            newsrc.setDirty();
+        }
+    }
+
+    /**
+     * Mark a span of articles as unseen.
+     * 
+     * @param first
+     *            The first article number.
+     * @param last
+     *            The last article number.
+     */
+    public void markArticlesUnseen(int first, int last) {
+        ranges.setUnmarked(first, last);
+        if (ranges.isDirty()) {
+            newsrc.setDirty();
+        }
+    }
+
     /**
      * Save this group definition to a .newsrc file.
      * 
@@ -21,16 +21,31 @@ package org.apache.geronimo.mail.store.nntp.newsrc;
 
 import java.io.IOException;
 import java.io.Writer;
-import java.util.ArrayList;
 import java.util.StringTokenizer;
 
 /**
  * Manage a list of ranges values from a newsrc file.
+ *
+ * The ranges are held as a pair of sorted int arrays of range start and
+ * end points.  The ranges never overlap or abutt, so both arrays are in
+ * ascending order and a marked article can be located with a binary
+ * search.  Marking or unmarking a span of articles replaces the affected
+ * ranges in a single array shift, rather than merging ranges one at a
+ * time.
  */
 public class RangeList {
+    // the initial capacity of the range arrays
+    protected static final int INITIAL_CAPACITY = 8;
+
     boolean dirty = false;
 
-    ArrayList ranges = new ArrayList();
+    // the start and end article numbers of each range
+    int[] starts = new int[INITIAL_CAPACITY];
+
+    int[] ends = new int[INITIAL_CAPACITY];
+
+    // the number of ranges in use
+    int count = 0;
 
     /**
      * Create a RangeList instance from a newsrc range line. Values are saved as
@@ -71,43 +86,7 @@ public class RangeList {
      *            The new range item.
      */
     public void insert(Range newRange) {
-        // first find the insertion point
-        for (int i = 0; i < ranges.size(); i++) {
-            Range range = (Range) ranges.get(i);
-            // does an existing range fully contain the new range, we don't need
-            // to insert anything.
-            if (range.contains(newRange)) {
-                return;
-            }
-
-            // does the current one abutt or overlap with the inserted range?
-            if (range.abutts(newRange) || range.overlaps(newRange)) {
-                // rats, we have an overlap...and it is possible that we could
-                // overlap with
-                // the next range after this one too. Therefore, we merge these
-                // two ranges together,
-                // remove the place where we're at, and then recursively insert
-                // the larger range into
-                // the list.
-                dirty = true;
-                newRange.merge(range);
-                ranges.remove(i);
-                insert(newRange);
-                return;
-            }
-
-            // ok, we don't touch the current one at all. If it is completely
-            // above
-            // range we're adding, we can just poke this into the list here.
-            if (newRange.lessThan(range)) {
-                dirty = true;
-                ranges.add(i, newRange);
-                return;
-            }
-        }
-        dirty = true;
-        // this is easy (and fairly common)...we just tack this on to the end.
-        ranges.add(newRange);
+        setMarked(newRange.getStart(), newRange.getEnd());
     }
 
     /**
@@ -120,17 +99,9 @@ public class RangeList {
      *         otherwise.
      */
     public boolean isMarked(int article) {
-        for (int i = 0; i < ranges.size(); i++) {
-            Range range = (Range) ranges.get(i);
-            if (range.contains(article)) {
-                return true;
-            }
-            // we've passed the point where a match is possible.
-            if (range.greaterThan(article)) {
-                return false;
-            }
-        }
-        return false;
+        // the last range starting at or before the article is the only candidate
+        int index = lastStartingAtOrBefore(article);
+        return index >= 0 && ends[index] >= article;
     }
 
     /**
@@ -140,8 +111,45 @@ public class RangeList {
      *            The target article number.
      */
     public void setMarked(int article) {
-        // go through the insertion logic.
-        insert(new Range(article, article));
+        setMarked(article, article);
+    }
+
+    /**
+     * Mark a span of articles as having been seen.
+     * 
+     * @param start
+     *            The first article number.
+     * @param end
+     *            The last article number.
+     */
+    public void setMarked(int start, int end) {
+        if (start > end) {
+            return;
+        }
+        // the ranges from first to last overlap or abutt the new range, so they
+        // all get merged together.  Long arithmetic keeps the edge cases from overflowing.
+        int first = firstEndingAtOrAfter((long) start - 1);
+        int last = lastStartingAtOrBefore((long) end + 1);
+
+        // nothing touched?  This just gets inserted in the gap.
+        if (first > last) {
+            replace(first, first, 1);
+            starts[first] = start;
+            ends[first] = end;
+            dirty = true;
+            return;
+        }
+
+        int mergedStart = Math.min(start, starts[first]);
+        int mergedEnd = Math.max(end, ends[last]);
+        // already completely covered by an existing range?
+        if (first == last && mergedStart == starts[first] && mergedEnd == ends[first]) {
+            return;
+        }
+        replace(first, last + 1, 1);
+        starts[first] = mergedStart;
+        ends[first] = mergedEnd;
+        dirty = true;
     }
 
     /**
@@ -151,44 +159,130 @@ public class RangeList {
      *            The target article number.
      */
     public void setUnmarked(int article) {
-        for (int i = 0; i < ranges.size(); i++) {
-            Range range = (Range) ranges.get(i);
-            // does this fall within an existing range? We don't need to do
-            // anything here.
-            if (range.contains(article)) {
-                // ok, we've found where to insert, now to figure out how to
-                // insert
-                // article is at the beginning of the range. We can just
-                // increment the lower
-                // bound, or if this is a single element range, we can remove it
-                // entirely.
-                if (range.getStart() == article) {
-                    if (range.getEnd() == article) {
-                        // piece of cake!
-                        ranges.remove(i);
-                    } else {
-                        // still pretty easy.
-                        range.setStart(article + 1);
-                    }
-                } else if (range.getEnd() == article) {
-                    // pretty easy also
-                    range.setEnd(article - 1);
-                } else {
-                    // split this into two ranges and insert the trailing piece
-                    // after this.
-                    Range section = range.split(article);
-                    ranges.add(i + 1, section);
-                }
-                dirty = true;
-                return;
+        setUnmarked(article, article);
+    }
+
+    /**
+     * Clear the seen mark for a span of articles.
+     * 
+     * @param start
+     *            The first article number.
+     * @param end
+     *            The last article number.
+     */
+    public void setUnmarked(int start, int end) {
+        if (start > end) {
+            return;
+        }
+        // the ranges from first to last overlap the span being cleared.
+        int first = firstEndingAtOrAfter(start);
+        int last = lastStartingAtOrBefore(end);
+        // didn't find it at all. That was easy!
+        if (first > last) {
+            return;
+        }
+
+        // the ranges at either end might extend beyond the span, leaving pieces
+        // that remain marked.
+        boolean leading = starts[first] < start;
+        boolean trailing = ends[last] > end;
+        int leadingStart = starts[first];
+        int trailingEnd = ends[last];
+
+        int index = first;
+        replace(first, last + 1, (leading ? 1 : 0) + (trailing ? 1 : 0));
+        if (leading) {
+            starts[index] = leadingStart;
+            ends[index] = start - 1;
+            index++;
+        }
+        if (trailing) {
+            starts[index] = end + 1;
+            ends[index] = trailingEnd;
+        }
+        dirty = true;
+    }
+
+    /**
+     * Locate the last range that starts at or before an article number.
+     * 
+     * @param article
+     *            The target article number.
+     * 
+     * @return The range index, or -1 if all ranges start after the article.
+     */
+    protected int lastStartingAtOrBefore(long article) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] <= article) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
             }
-            // did we find a point where any articles are greater?
-            if (range.greaterThan(article)) {
-                // nothing to do
-                return;
+        }
+        return high;
+    }
+
+    /**
+     * Locate the first range that ends at or after an article number.
+     * 
+     * @param article
+     *            The target article number.
+     * 
+     * @return The range index, or the range count if all ranges end before the article.
+     */
+    protected int firstEndingAtOrAfter(long article) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (ends[middle] < article) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
             }
         }
-        // didn't find it at all. That was easy!
+        return low;
+    }
+
+    /**
+     * Replace the ranges from index from (inclusive) to index to
+     * (exclusive) with a number of new slots, shifting the following
+     * ranges up or down as needed.  The caller fills in the new slots.
+     * 
+     * @param from
+     *            The first range index replaced.
+     * @param to
+     *            The index following the last range replaced.
+     * @param slots
+     *            The number of new ranges.
+     */
+    protected void replace(int from, int to, int slots) {
+        int newCount = count - (to - from) + slots;
+        // grow the arrays if we need more space
+        if (newCount > starts.length) {
+            int capacity = Math.max(newCount, starts.length * 2);
+            int[] newStarts = new int[capacity];
+            int[] newEnds = new int[capacity];
+            System.arraycopy(starts, 0, newStarts, 0, count);
+            System.arraycopy(ends, 0, newEnds, 0, count);
+            starts = newStarts;
+            ends = newEnds;
+        }
+        System.arraycopy(starts, to, starts, from + slots, count - to);
+        System.arraycopy(ends, to, ends, from + slots, count - to);
+        count = newCount;
+    }
+
+    /**
+     * Get the number of distinct ranges in the list.
+     * 
+     * @return The range count.
+     */
+    public int getRangeCount() {
+        return count;
     }
 
     /**
@@ -201,18 +295,16 @@ public class RangeList {
      * @exception IOException
      */
     public void save(Writer out) throws IOException {
-        // we have an empty list
-        if (ranges.size() == 0) {
-            return;
-        }
-
-        Range range = (Range) ranges.get(0);
-        range.save(out);
-
-        for (int i = 1; i < ranges.size(); i++) {
-            out.write(",");
-            range = (Range) ranges.get(i);
-            range.save(out);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                out.write(",");
+            }
+            // a range is expressed either as a single number, or a hypenated pair of numbers.
+            out.write(Integer.toString(starts[i]));
+            if (ends[i] != starts[i]) {
+                out.write("-");
+                out.write(Integer.toString(ends[i]));
+            }
         }
     }
 
@@ -19,6 +19,10 @@
 
 package org.apache.geronimo.mail.store.pop3;
 
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
 import jakarta.mail.FetchProfile;
 import jakarta.mail.Flags;
 import jakarta.mail.Folder;
@@ -28,11 +32,13 @@ import jakarta.mail.MessagingException;
 import jakarta.mail.MethodNotSupportedException;
 import jakarta.mail.Session;
 import jakarta.mail.Store;
+import jakarta.mail.UIDFolder;
 import jakarta.mail.URLName;
 import jakarta.mail.event.ConnectionEvent;
 
 import org.apache.geronimo.mail.store.pop3.connection.POP3Connection;
 import org.apache.geronimo.mail.store.pop3.connection.POP3StatusResponse;
+import org.apache.geronimo.mail.util.CommandFailedException;
 
 /**
  * The POP3 implementation of the javax.mail.Folder Note that only INBOX is
@@ -54,6 +60,10 @@ public class POP3Folder extends Folder {
     protected int msgCount;
 
     private POP3Message[] messageCache; 
+    // the UIDs of all messages, retrieved with a single UIDL command 
+    protected String[] uidCache; 
+    // the sizes of all messages, retrieved with a single LIST command 
+    protected int[] sizeCache; 
     // The fully qualified name of the folder.  For a POP3 folder, this is either "" for the root or 
     // "INPUT" for the in-basket.  It is possible to create other folders, but they will report that 
     // they don't exist. 
@@ -291,7 +301,17 @@ public class POP3Folder extends Folder {
      * @exception MessagingException
      */
     protected void cleanupFolder(boolean disconnected) throws MessagingException {
+        // let go of any retrieved message data, closing the spool files
+        if (messageCache != null) {
+            for (int i = 0; i < messageCache.length; i++) {
+                if (messageCache[i] != null) {
+                    messageCache[i].releaseContent(); 
+                }
+            }
+        }
         messageCache = null;
+        uidCache = null; 
+        sizeCache = null; 
         isFolderOpen = false;
 		notifyConnectionListeners(ConnectionEvent.CLOSED);
     }
@@ -376,10 +396,17 @@ public class POP3Folder extends Folder {
             throw new MessagingException("Invalid Message number");
         }
 
-        Message msg = messageCache[msgNum - 1];
+        POP3Message msg = messageCache[msgNum - 1];
         if (msg == null) {
             msg = new POP3Message(this, msgNum); 
-            messageCache[msgNum - 1] = (POP3Message)msg; 
+            // fill in anything we've already retrieved in bulk 
+            if (uidCache != null && uidCache[msgNum - 1] != null) {
+                msg.setUID(uidCache[msgNum - 1]); 
+            }
+            if (sizeCache != null) {
+                msg.setRawSize(sizeCache[msgNum - 1]); 
+            }
+            messageCache[msgNum - 1] = msg; 
         }
 
         return msg;
@@ -410,6 +437,24 @@ public class POP3Folder extends Folder {
     public synchronized void fetch(Message[] msgs, FetchProfile fp) throws MessagingException {
         // Can only be performed on an Open folder
         checkOpen();
+
+        boolean envelope = fp.contains(FetchProfile.Item.ENVELOPE); 
+        boolean contentInfo = fp.contains(FetchProfile.Item.CONTENT_INFO); 
+        boolean headers = envelope || fp.getHeaderNames().length > 0; 
+
+        // Retrieve the information for all of the messages with a single 
+        // command each, rather than one command per message. 
+        if (fp.contains(UIDFolder.FetchProfileItem.UID)) {
+            loadUids(); 
+        }
+        if (envelope || contentInfo) {
+            loadSizes(); 
+        }
+        // the content retrieval loads the headers too, so only do this when we're not getting everything 
+        if (headers && !contentInfo) {
+            loadHeaders(msgs); 
+        }
+
         for (int i = 0; i < msgs.length; i++) {
             Message msg = msgs[i];
             
@@ -447,10 +492,146 @@ public class POP3Folder extends Folder {
      */
     public synchronized String getUID(Message msg) throws MessagingException {
         checkOpen(); 
+        // applications generally ask for the UIDs of every message, so grab 
+        // them all at once the first time around. 
+        loadUids(); 
         // the Message knows how to do this 
         return ((POP3Message)msg).getUID(); 
     }
     
+    
+    /**
+     * Get the messages that have not been recorded in a UID ledger. 
+     * The UIDs for the whole mail drop are retrieved with a single 
+     * UIDL command, and any UIDs in the ledger that are no longer in the 
+     * mail drop are dropped from the ledger.  The ledger is not updated 
+     * with the returned messages; add each UID to the ledger once the 
+     * message has been processed. 
+     * 
+     * @param ledger The ledger of previously seen messages.
+     * 
+     * @return The unseen messages, in mail drop order. 
+     * @exception MessagingException
+     */
+    public synchronized Message[] getUnseenMessages(POP3UidLedger ledger) throws MessagingException {
+        checkOpen(); 
+        loadUids(); 
+        
+        List current = new ArrayList(msgCount); 
+        List unseen = new ArrayList(); 
+        for (int i = 1; i <= msgCount; i++) {
+            POP3Message msg = (POP3Message)getMessage(i); 
+            // this only goes to the server if UIDL couldn't be used for the whole mail drop 
+            String uid = msg.getUID(); 
+            current.add(uid); 
+            if (!ledger.contains(uid)) {
+                unseen.add(msg); 
+            }
+        }
+        // forget about messages that have been removed from the server 
+        ledger.retain(current); 
+        return (Message[])unseen.toArray(new Message[unseen.size()]); 
+    }
+    
+    
+    /**
+     * Retrieve the UIDs of all messages with a single UIDL command, 
+     * and hand them to any messages we've already created.  If the 
+     * server rejects the command, the messages will request their UIDs 
+     * individually. 
+     * 
+     * @exception MessagingException
+     */
+    protected void loadUids() throws MessagingException {
+        if (uidCache != null) {
+            return; 
+        }
+        POP3Connection connection = getConnection(); 
+        try {
+            uidCache = connection.retrieveMessageUids(msgCount); 
+        } catch (CommandFailedException e) {
+            // UIDL is optional...leave this to the individual messages, but 
+            // don't keep asking for the full list. 
+            uidCache = new String[msgCount]; 
+            return; 
+        } finally {
+            // return the connection when finished 
+            releaseConnection(connection); 
+        }
+        
+        for (int i = 0; i < messageCache.length; i++) {
+            if (messageCache[i] != null && uidCache[i] != null) {
+                messageCache[i].setUID(uidCache[i]); 
+            }
+        }
+    }
+    
+    
+    /**
+     * Retrieve the sizes of all messages with a single LIST command, 
+     * and hand them to any messages we've already created. 
+     * 
+     * @exception MessagingException
+     */
+    protected void loadSizes() throws MessagingException {
+        if (sizeCache != null) {
+            return; 
+        }
+        POP3Connection connection = getConnection(); 
+        try {
+            sizeCache = connection.retrieveMessageSizes(msgCount); 
+        } finally {
+            // return the connection when finished 
+            releaseConnection(connection); 
+        }
+        
+        for (int i = 0; i < messageCache.length; i++) {
+            if (messageCache[i] != null && sizeCache[i] >= 0) {
+                messageCache[i].setRawSize(sizeCache[i]); 
+            }
+        }
+    }
+    
+    
+    /**
+     * Load the headers for a set of messages.  The connection 
+     * will pipeline the TOP commands if the server allows it. 
+     * 
+     * @param msgs   The messages being fetched.
+     * 
+     * @exception MessagingException
+     */
+    protected void loadHeaders(Message[] msgs) throws MessagingException {
+        // collect the messages that still need their headers 
+        POP3Message[] pending = new POP3Message[msgs.length]; 
+        int count = 0; 
+        for (int i = 0; i < msgs.length; i++) {
+            POP3Message msg = (POP3Message)msgs[i]; 
+            if (!msg.hasHeaders()) {
+                pending[count++] = msg; 
+            }
+        }
+        if (count == 0) {
+            return; 
+        }
+        
+        int[] sequenceNumbers = new int[count]; 
+        for (int i = 0; i < count; i++) {
+            sequenceNumbers[i] = pending[i].getMessageNumber(); 
+        }
+        
+        POP3Connection connection = getConnection(); 
+        try {
+            ByteArrayInputStream[] headers = connection.retrieveMessageHeaders(sequenceNumbers); 
+            for (int i = 0; i < count; i++) {
+                pending[i].loadHeaders(headers[i]); 
+            }
+        } finally {
+            // return the connection when finished 
+            releaseConnection(connection); 
+        }
+    }
+    
 
     /**
      * Below is a list of covinience methods that avoid repeated checking for a
@@ -19,7 +19,6 @@
 
 package org.apache.geronimo.mail.store.pop3;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -32,6 +31,7 @@ import jakarta.mail.MessagingException;
 import jakarta.mail.event.MessageChangedEvent;
 import jakarta.mail.internet.InternetHeaders;
 import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.SharedInputStream;
 
 import org.apache.geronimo.mail.store.pop3.connection.POP3Connection;
 
@@ -57,8 +57,11 @@ public class POP3Message extends MimeMessage {
     protected int headerSize = -1;
     // the UID value retrieved from the server 
     protected String uid; 
-    // the raw message data from loading the message
-    protected byte[] messageData; 
+    // the total size of the message (headers and content) reported by the server 
+    protected int rawSize = -1; 
+    // the raw message data from loading the message.  The headers and the content
+    // are both read from this single shared buffer (or spool file).
+    protected SharedInputStream messageData; 
 
     /**
      * Create a new POP3 message associated with a folder.
@@ -100,7 +103,16 @@ public class POP3Message extends MimeMessage {
         // make sure we have everything loaded 
         loadContent(); 
         // just write out the raw message data 
-        out.write(messageData); 
+        InputStream in = messageData.newStream(0, -1); 
+        try {
+            byte[] buffer = new byte[8192]; 
+            int count; 
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count); 
+            }
+        } finally {
+            in.close(); 
+        }
     }
     
 
@@ -137,10 +149,16 @@ public class POP3Message extends MimeMessage {
      */
     protected void loadHeaders(InputStream in) throws MessagingException {
         try {
-            headerSize = in.available(); 
-            // just load and replace the haders 
-            headers = new InternetHeaders(in);
-            headerSize -= in.available(); 
+            if (in instanceof SharedInputStream) {
+                // just load and replace the haders.  A shared stream knows its position directly. 
+                headers = new InternetHeaders(in);
+                headerSize = (int)((SharedInputStream)in).getPosition(); 
+            } else {
+                headerSize = in.available(); 
+                // just load and replace the haders 
+                headers = new InternetHeaders(in);
+                headerSize -= in.available(); 
+            }
         } catch (IOException e) {
             // reading from a ByteArrayInputStream...this should never happen. 
         }
@@ -152,50 +170,61 @@ public class POP3Message extends MimeMessage {
      * @exception MessagingException
      */
     protected void loadContent() throws MessagingException {
-        if (content == null) {
+        if (contentStream == null) {
             POP3Connection connection = getConnection(); 
             try {
                 // retrieve (and save the raw message data 
-                messageData = connection.retrieveMessageData(msgnum);
+                messageData = (SharedInputStream)connection.retrieveMessageStream(msgnum);
             } finally {
                 // done with the connection
                 releaseConnection(connection); 
             }
             // now create a input stream for splitting this into headers and 
             // content 
-            ByteArrayInputStream in = new ByteArrayInputStream(messageData); 
+            InputStream in = messageData.newStream(0, -1); 
             
             // the Sun implementation has an option that forces headers loaded using TOP 
             // should be forgotten when retrieving the message content.  This is because 
             // some POP3 servers return different results for TOP and RETR.  Since we need to 
             // retrieve the headers anyway, and this set should be the most complete, we'll 
             // just replace the headers unconditionally. 
-            loadHeaders(in);
+            try {
+                loadHeaders(in);
+            } finally {
+                // a spool file stays open until every stream sharing it is closed 
+                closeStream(in); 
+            }
             // load headers stops loading at the header terminator.  Everything 
-            // after that is content. 
-            loadContent(in);
+            // after that is content, which shares the same data rather than a copy. 
+            contentStream = messageData.newStream(headerSize, -1);
         }
     }
 
     /**
-     * Load the message content from the server.
-     * 
-     * @param stream A ByteArrayInputStream containing the message content.
-     *               We explicitly use ByteArrayInputStream because
-     *               there are some optimizations that can take advantage
-     *               of the fact it is such a stream.
+     * Release the retrieved message data.  For a message spooled to a 
+     * temporary file, this closes our hold on the file.  Any streams 
+     * already handed out keep working until they are closed. 
+     */
+    void releaseContent() {
+        if (messageData != null) {
+            closeStream(contentStream); 
+            closeStream((InputStream)messageData); 
+            contentStream = null; 
+            messageData = null; 
+        }
+    }
+
+    /**
+     * Close a stream, ignoring any errors. 
      * 
-     * @exception MessagingException
+     * @param in     The stream to close (can be null).
      */
-    protected void loadContent(ByteArrayInputStream stream) throws MessagingException {
-        // since this is a byte array input stream, available() returns reliable value. 
-        content = new byte[stream.available()];
-        try {
-            // just read everything in to the array 
-            stream.read(content); 
-        } catch (IOException e) {
-            // should never happen 
-            throw new MessagingException("Error loading content info", e);
+    private static void closeStream(InputStream in) {
+        if (in != null) {
+            try {
+                in.close(); 
+            } catch (IOException e) {
+            }
         }
     }
 
@@ -211,15 +240,19 @@ public class POP3Message extends MimeMessage {
             // content size without retrieving the content. 
             loadHeaders();  
             
-            POP3Connection connection = getConnection(); 
-            try {
-
-                // get the total message size, and adjust by size of the headers to get the content size. 
-                msgSize = connection.retrieveMessageSize(msgnum) - headerSize; 
-            } finally {
-                // done with the connection
-                releaseConnection(connection); 
+            // the total size might have been retrieved in bulk already 
+            if (rawSize < 0) {
+                POP3Connection connection = getConnection(); 
+                try {
+                    // get the total message size 
+                    rawSize = connection.retrieveMessageSize(msgnum); 
+                } finally {
+                    // done with the connection
+                    releaseConnection(connection); 
+                }
             }
+            // adjust by size of the headers to get the content size. 
+            msgSize = rawSize - headerSize; 
         }
         return msgSize;
     }
@@ -264,6 +297,34 @@ public class POP3Message extends MimeMessage {
         return uid; 
     }
     
+    /**
+     * Set the message UID from a bulk UIDL request. 
+     * 
+     * @param uid    The UID value.
+     */
+    void setUID(String uid) {
+        this.uid = uid; 
+    }
+    
+    /**
+     * Set the total message size from a bulk LIST request.  The 
+     * content size is calculated from this once the headers are known. 
+     * 
+     * @param size   The size of the headers and content, in bytes.
+     */
+    void setRawSize(int size) {
+        this.rawSize = size; 
+    }
+    
+    /**
+     * Test if the message headers have been loaded yet. 
+     * 
+     * @return true if the headers are available without a server request. 
+     */
+    boolean hasHeaders() {
+        return headers != null; 
+    }
+    
     // The following are methods that deal with all header accesses.  Most of the 
     // methods that retrieve information from the headers funnel through these, so we 
     // can lazy-retrieve the header information. 
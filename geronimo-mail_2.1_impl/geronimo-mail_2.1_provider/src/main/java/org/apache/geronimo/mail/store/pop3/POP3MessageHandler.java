@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.store.pop3;
+
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+
+/**
+ * A callback used by POP3Synchronizer to hand over each message that
+ * has not been seen before.  The handler is called on the
+ * synchronizer's worker threads, so a single handler used for several
+ * mail drops can be called concurrently.
+ *
+ * @version $Rev$ $Date$
+ */
+public interface POP3MessageHandler {
+    /**
+     * Process a newly arrived message.  The message is only recorded as
+     * seen (and deleted, if the synchronizer deletes retrieved messages)
+     * once this returns normally.
+     *
+     * @param message The new message.
+     * @param uid     The server UID for the message.
+     *
+     * @exception MessagingException Thrown to abandon the remainder of the mail drop.
+     */
+    public void messageRetrieved(Message message, String uid) throws MessagingException;
+}
@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.store.pop3;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import jakarta.mail.Flags;
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.URLName;
+
+/**
+ * Incrementally downloads new messages from any number of POP3 mail
+ * drops.  Each account has a POP3UidLedger in the ledger directory
+ * recording the UIDs already handed to the application, so each run
+ * only retrieves the messages that arrived since the last one.  If
+ * requested, the retrieved messages are also deleted from the server.
+ *
+ * Mail drops submitted with synchronize() are processed in parallel on
+ * a fixed size pool of worker threads shared by all of the mail drops.
+ *
+ * @version $Rev$ $Date$
+ */
+public class POP3Synchronizer {
+    // the configured connection port
+    protected static final String MAIL_PORT = "port";
+    // the directory holding the account ledgers
+    protected File directory;
+    // delete messages from the server once they've been handled
+    protected boolean deleteRetrieved;
+    // the worker threads
+    protected ExecutorService executor;
+    // the ledger files currently in use, so an account is never synchronized twice at once
+    protected Set activeLedgers = new HashSet();
+
+    /**
+     * Create a synchronizer.
+     *
+     * @param directory The directory for the UID ledgers.  This is created if it doesn't exist.
+     * @param threads   The maximum number of mail drops processed at the same time.
+     * @param deleteRetrieved
+     *                  If true, messages are deleted from the server once handled.
+     *
+     * @exception MessagingException
+     */
+    public POP3Synchronizer(File directory, int threads, boolean deleteRetrieved) throws MessagingException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new MessagingException("Unable to create UID ledger directory " + directory);
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one worker thread is required");
+        }
+        this.directory = directory;
+        this.deleteRetrieved = deleteRetrieved;
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "POP3Synchronizer-" + (++count));
+                // don't hold up application shutdown
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+
+    /**
+     * Queue a mail drop for synchronization on the worker threads.
+     *
+     * @param store   The store for the account.  If not already connected, it's
+     *                connected using its configured properties and closed again
+     *                once finished.
+     * @param handler The handler for the new messages.
+     *
+     * @return A Future whose result is the Integer number of new messages handled.
+     */
+    public Future synchronize(final POP3Store store, final POP3MessageHandler handler) {
+        return executor.submit(new Callable() {
+            public Object call() throws Exception {
+                return Integer.valueOf(synchronizeMailbox(store, handler));
+            }
+        });
+    }
+
+
+    /**
+     * Synchronize a single mail drop on the calling thread.  Each
+     * unseen message is passed to the handler, then recorded in the
+     * account's ledger (and flagged for deletion, if the synchronizer
+     * deletes retrieved messages).
+     *
+     * @param store   The store for the account.
+     * @param handler The handler for the new messages.
+     *
+     * @return The number of new messages handled.
+     * @exception MessagingException
+     */
+    public int synchronizeMailbox(POP3Store store, POP3MessageHandler handler) throws MessagingException {
+        boolean connected = false;
+        if (!store.isConnected()) {
+            store.connect();
+            connected = true;
+        }
+
+        try {
+            URLName url = store.getURLName();
+            int port = url.getPort();
+            if (port == -1) {
+                // a defaulted port is the one the store is configured to use
+                port = store.props.getIntProperty(MAIL_PORT, store.props.getDefaultPort());
+            }
+            File ledgerFile = POP3UidLedger.getLedgerFile(directory, url.getHost(), port, url.getUsername());
+            acquireLedger(ledgerFile);
+            try {
+                POP3UidLedger ledger = new POP3UidLedger(ledgerFile);
+                try {
+                    return synchronizeMailbox(store, ledger, handler);
+                } finally {
+                    ledger.close();
+                }
+            } finally {
+                releaseLedger(ledgerFile);
+            }
+        } finally {
+            if (connected) {
+                store.close();
+            }
+        }
+    }
+
+
+    /**
+     * Process the unseen messages of a connected store.
+     *
+     * @param store   The connected store.
+     * @param ledger  The account's ledger.
+     * @param handler The handler for the new messages.
+     *
+     * @return The number of new messages handled.
+     * @exception MessagingException
+     */
+    protected int synchronizeMailbox(POP3Store store, POP3UidLedger ledger, POP3MessageHandler handler) throws MessagingException {
+        POP3Folder folder = (POP3Folder)store.getFolder("INBOX");
+        folder.open(deleteRetrieved ? Folder.READ_WRITE : Folder.READ_ONLY);
+
+        int handled = 0;
+        try {
+            Message[] messages = folder.getUnseenMessages(ledger);
+            for (int i = 0; i < messages.length; i++) {
+                String uid = folder.getUID(messages[i]);
+                handler.messageRetrieved(messages[i], uid);
+                // only record this once the application has it
+                ledger.add(uid);
+                if (deleteRetrieved) {
+                    messages[i].setFlag(Flags.Flag.DELETED, true);
+                }
+                handled++;
+            }
+        } finally {
+            // messages are only removed on a clean close, so anything handled before a failure
+            // is still deleted from the server.
+            folder.close(deleteRetrieved);
+        }
+        return handled;
+    }
+
+
+    /**
+     * Mark a ledger file as in use.  If another worker is already
+     * synchronizing the same account, this waits for it to finish,
+     * so the messages it handles are recorded before we look for
+     * unseen ones.
+     *
+     * @param ledgerFile The ledger file.
+     *
+     * @exception MessagingException if interrupted while waiting for the ledger.
+     */
+    protected synchronized void acquireLedger(File ledgerFile) throws MessagingException {
+        while (activeLedgers.contains(ledgerFile)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // leave the interrupt for the caller to see
+                Thread.currentThread().interrupt();
+                throw new MessagingException("Interrupted waiting for mail drop " + ledgerFile.getName());
+            }
+        }
+        activeLedgers.add(ledgerFile);
+    }
+
+
+    /**
+     * Release a ledger file acquired with acquireLedger().
+     *
+     * @param ledgerFile The ledger file.
+     */
+    protected synchronized void releaseLedger(File ledgerFile) {
+        activeLedgers.remove(ledgerFile);
+        // wake up anybody waiting on the same account
+        notifyAll();
+    }
+
+
+    /**
+     * Stop the worker threads.  Mail drops already queued are
+     * still processed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.store.pop3;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import jakarta.mail.MessagingException;
+
+/**
+ * A persistent record of the UIDs of the POP3 messages that have already
+ * been retrieved from a mail drop.  POP3 has no notion of "seen"
+ * messages, so this is used to pick out the messages that arrived since
+ * the last time the mail drop was read (see POP3Folder.getUnseenMessages()).
+ *
+ * The ledger is a compact file holding a small header followed by
+ * one record per UID, appended as messages are marked seen:
+ *
+ * <pre>
+ *    header:  int magic
+ *    record:  unsigned short length, byte[length] modified UTF-8 uid
+ * </pre>
+ *
+ * The full set of UIDs is held in memory.  UIDs that are no longer on the
+ * server are dropped with retain(), which writes a replacement file and
+ * atomically renames it over the old one, so a crash leaves either the old
+ * or the new file.  A record truncated by a crash is dropped when the file
+ * is opened.
+ *
+ * A ledger file should only be used by one mail drop reader at a time.
+ *
+ * @version $Rev$ $Date$
+ */
+public class POP3UidLedger {
+    // identifies a ledger file ("PUL" plus a format version)
+    protected static final int MAGIC = 0x50554c01;
+    // the size of the file header
+    protected static final int HEADER_SIZE = 4;
+    // the file extension used for ledger files
+    protected static final String EXTENSION = ".uidl";
+
+    // the ledger file
+    protected File file;
+    // our access to the file
+    protected RandomAccessFile access;
+    // the UIDs recorded as seen
+    protected Set uids = new HashSet();
+
+    /**
+     * Open (or create) a ledger file.
+     *
+     * @param file   The ledger file.
+     *
+     * @exception MessagingException
+     */
+    public POP3UidLedger(File file) throws MessagingException {
+        this.file = file;
+        try {
+            access = new RandomAccessFile(file, "rw");
+            if (!load()) {
+                reset();
+            }
+        } catch (IOException e) {
+            throw new MessagingException("Unable to open UID ledger " + file, e);
+        }
+    }
+
+
+    /**
+     * Get the ledger file for an account within a ledger directory.
+     *
+     * @param directory The directory holding the ledger files.
+     * @param host      The POP3 server host.
+     * @param port      The POP3 server port.  Different ports on the same host can
+     *                  be different servers, so they get different ledgers.
+     * @param username  The account user name.
+     *
+     * @return The File for the account's ledger.
+     */
+    public static File getLedgerFile(File directory, String host, int port, String username) {
+        try {
+            // URL encoding takes care of anything that can't be used in a file name.
+            // '*' is left alone by the encoder, but isn't usable everywhere.
+            String name = URLEncoder.encode(username + "@" + host + ":" + port, "UTF-8").replace("*", "%2A");
+            return new File(directory, name + EXTENSION);
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always available
+            throw new IllegalStateException(e.toString());
+        }
+    }
+
+
+    /**
+     * Read the file header and the recorded UIDs.
+     *
+     * @return false if the file is empty or not a valid ledger file.
+     */
+    protected boolean load() throws IOException {
+        long length = access.length();
+        if (length < HEADER_SIZE) {
+            return false;
+        }
+        access.seek(0);
+        if (access.readInt() != MAGIC) {
+            return false;
+        }
+
+        long position = HEADER_SIZE;
+        try {
+            while (position < length) {
+                uids.add(access.readUTF());
+                position = access.getFilePointer();
+            }
+        } catch (EOFException e) {
+            // a partially written record ends the valid data
+        }
+        // chop off anything following the last complete record
+        if (position < length) {
+            access.setLength(position);
+        }
+        return true;
+    }
+
+
+    /**
+     * Discard all of the recorded UIDs.
+     */
+    protected void reset() throws IOException {
+        uids.clear();
+        access.setLength(0);
+        access.seek(0);
+        access.writeInt(MAGIC);
+    }
+
+
+    /**
+     * Test if a message has already been seen.
+     *
+     * @param uid    The message UID.
+     *
+     * @return true if the UID is recorded in the ledger.
+     */
+    public synchronized boolean contains(String uid) {
+        return uids.contains(uid);
+    }
+
+
+    /**
+     * Record a message as seen.  The record is written to the
+     * file immediately.
+     *
+     * @param uid    The message UID.  A null UID is ignored.
+     *
+     * @exception MessagingException
+     */
+    public synchronized void add(String uid) throws MessagingException {
+        checkOpen();
+        // a message without a UID can't be recognized again, so there's nothing to record
+        if (uid == null || !uids.add(uid)) {
+            return;
+        }
+        try {
+            access.seek(access.length());
+            access.writeUTF(uid);
+        } catch (IOException e) {
+            uids.remove(uid);
+            throw new MessagingException("Unable to update UID ledger " + file, e);
+        }
+    }
+
+
+    /**
+     * Drop any UIDs that are not in the given set.  This is
+     * used with the UIDs currently in the mail drop, so the
+     * ledger doesn't keep growing as messages are deleted from
+     * the server.
+     *
+     * @param current The UIDs to keep.
+     *
+     * @exception MessagingException
+     */
+    public synchronized void retain(Collection current) throws MessagingException {
+        checkOpen();
+        if (!uids.retainAll(current)) {
+            return;
+        }
+        // write the remaining UIDs to a new file, and swap it in once it's safely on disk
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream stream = new FileOutputStream(temp);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+                out.writeInt(MAGIC);
+                Iterator i = uids.iterator();
+                while (i.hasNext()) {
+                    out.writeUTF((String)i.next());
+                }
+                out.flush();
+                stream.getChannel().force(true);
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            temp.delete();
+            throw new MessagingException("Unable to update UID ledger " + file, e);
+        }
+
+        IOException failure = null;
+        try {
+            // not all platforms allow an open file to be replaced
+            access.close();
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // the old file is still intact, and is picked up again below
+            failure = e;
+            temp.delete();
+        }
+        try {
+            access = new RandomAccessFile(file, "rw");
+        } catch (IOException e) {
+            access = null;
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw new MessagingException("Unable to update UID ledger " + file, failure);
+        }
+    }
+
+
+    /**
+     * Get the number of UIDs recorded in the ledger.
+     *
+     * @return The UID count.
+     */
+    public synchronized int size() {
+        return uids.size();
+    }
+
+
+    /**
+     * Close the ledger file.
+     *
+     * @exception MessagingException
+     */
+    public synchronized void close() throws MessagingException {
+        if (access == null) {
+            return;
+        }
+        try {
+            access.close();
+        } catch (IOException e) {
+            throw new MessagingException("Error closing UID ledger " + file, e);
+        } finally {
+            access = null;
+        }
+    }
+
+
+    /**
+     * Ensure the ledger file is still open.
+     */
+    protected void checkOpen() throws MessagingException {
+        if (access == null) {
+            throw new MessagingException("UID ledger " + file + " is closed");
+        }
+    }
+}
@@ -20,16 +20,20 @@ package org.apache.geronimo.mail.store.pop3.connection;
 import java.io.*;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.StringTokenizer;
 
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.InternetHeaders;
+import jakarta.mail.util.SharedByteArrayInputStream;
+import jakarta.mail.util.SharedFileInputStream;
 
 import org.apache.geronimo.mail.authentication.AuthenticatorFactory;
 import org.apache.geronimo.mail.authentication.ClientAuthenticator;
 import org.apache.geronimo.mail.store.pop3.POP3Constants;
 import org.apache.geronimo.mail.util.CommandFailedException;
-import org.apache.geronimo.mail.util.MIMEInputReader;
+import org.apache.geronimo.mail.util.MIMEInputStream;
 import org.apache.geronimo.mail.util.MailConnection;
 import org.apache.geronimo.mail.util.ProtocolProperties;
 import org.apache.geronimo.mail.util.Base64;
@@ -46,6 +50,7 @@ public class POP3Connection extends MailConnection implements POP3Constants {
     static final protected String MAIL_AUTH_ENABLED = "auth.enable";
     static final protected String MAIL_RESET_QUIT = "rsetbeforequit";
     static final protected String MAIL_DISABLE_TOP = "disabletop";
+    static final protected String MAIL_SPOOL_THRESHOLD = "spoolthreshold";
     //static final protected String MAIL_FORGET_TOP = "forgettopheaders"; //TODO forgettopheaders
 
     // the initial greeting string, which might be required for APOP authentication.
@@ -54,8 +59,16 @@ public class POP3Connection extends MailConnection implements POP3Constants {
     protected boolean authEnabled;
     // is use of APOP command enabled
     protected boolean apopEnabled;
-    // input reader wrapped around the socket input stream
-    protected BufferedReader reader;
+    // size of the buffers used for reading multi-line responses
+    static final protected int BUFFER_SIZE = 8192;
+    // the maximum number of commands written ahead of their responses when pipelining
+    static final protected int PIPELINE_WINDOW = 50;
+
+    static final protected String CAPABILITY_PIPELINING = "PIPELINING";
+
+    // buffered stream wrapped around the socket input stream.  Responses are read
+    // as bytes, so message data is never decoded into characters.
+    protected BufferedInputStream responseStream;
     // output writer wrapped around the socket output stream.
     protected PrintWriter writer;
     // this connection was closed unexpectedly
@@ -70,6 +83,8 @@ public class POP3Connection extends MailConnection implements POP3Constants {
     protected boolean useTLS = false;
     // is TLS required on our part?
     protected boolean requireTLS = false;
+    // the message size above which retrieved messages are spooled to a file (-1 disables spooling)
+    protected int spoolThreshold = -1;
 
     /**
      * Normal constructor for an POP3Connection() object.
@@ -88,7 +103,8 @@ public class POP3Connection extends MailConnection implements POP3Constants {
         useTLS = props.getBooleanProperty(MAIL_STARTTLS_ENABLE, false);
         // and also check if TLS is required.
         requireTLS = props.getBooleanProperty(MAIL_STARTTLS_REQUIRED, false);
-       
+        // large messages can be kept in a temporary file rather than in memory
+        spoolThreshold = props.getIntProperty(MAIL_SPOOL_THRESHOLD, -1);
     }
 
 
@@ -171,11 +187,12 @@ public class POP3Connection extends MailConnection implements POP3Constants {
             throw new MessagingException("Unable to obtain a connection to the POP3 server", e);
         }
 
-        // The POP3 protocol is inherently a string-based protocol, so we get
-        // string readers/writers for the connection streams.  Note that we explicitly
-        // set the encoding to ensure that an inappropriate native encoding is not picked up.
+        // The POP3 commands are strings, so we use a string writer for the command stream.
+        // The responses are read as bytes, since message data is passed through untouched.
+        // Note that we explicitly set the encoding to ensure that an inappropriate native
+        // encoding is not picked up.
         try {
-            reader = new BufferedReader(new InputStreamReader(inputStream, "ISO8859-1"));
+            responseStream = new BufferedInputStream(inputStream, BUFFER_SIZE);
             writer = new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(outputStream), "ISO8859-1"));
         } catch (UnsupportedEncodingException e) {
         }
@@ -184,7 +201,35 @@ public class POP3Connection extends MailConnection implements POP3Constants {
     protected void getWelcome() throws IOException {
         // just read the line and consume it.  If debug is
         // enabled, there I/O stream will be traced
-        greeting = reader.readLine();
+        greeting = readLine();
+    }
+
+    /**
+     * Read a single response line from the server.
+     *
+     * @return The line, without the line terminator, or null at the end of the stream.
+     * @exception IOException
+     */
+    protected String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int ch;
+        while ((ch = responseStream.read()) != '\n') {
+            if (ch == -1) {
+                // nothing read at all is the end of the stream
+                if (line.size() == 0) {
+                    return null;
+                }
+                break;
+            }
+            line.write(ch);
+        }
+        int length = line.size();
+        byte[] data = line.toByteArray();
+        // drop the CR of the CRLF
+        if (length > 0 && data[length - 1] == '\r') {
+            length--;
+        }
+        return new String(data, 0, length, "ISO8859-1");
     }
 
     public String toString() {
@@ -211,7 +256,7 @@ public class POP3Connection extends MailConnection implements POP3Constants {
             // is shut down even if quit gets an error.
             closeServerConnection();
             // get rid of our response processor too.
-            reader = null;
+            responseStream = null;
             writer = null;
         }
     }
@@ -276,10 +321,9 @@ public class POP3Connection extends MailConnection implements POP3Constants {
         byte[] data = null;
 
         String line;
-        //MIMEInputReader source = new MIMEInputReader(reader); //TODO unused
 
         try {
-            line = reader.readLine();
+            line = readLine();
         } catch (IOException e) {
             throw new MessagingException("Error in receving response");
         }
@@ -314,32 +358,81 @@ public class POP3Connection extends MailConnection implements POP3Constants {
     }
 
     /**
-     * This could be a multiline response
+     * Read the data of a multi-line response.
+     *
+     * @return The response data, with the byte-stuffing and terminator removed.
+     * @exception MessagingException
      */
     private byte[] getMultiLineResponse() throws MessagingException {
+        // the MIMEInputStream takes care of the byte-stuffing and
+        // ".\r\n" input terminator for us.
+        MIMEInputStream source = new MIMEInputStream(responseStream);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            int count;
+            while ((count = source.read(buffer, 0, buffer.length)) != -1) {
+                out.write(buffer, 0, count);
+            }
+        } catch (IOException e) {
+            throw new MessagingException("Error processing a multi-line response", e);
+        }
+        return out.toByteArray();
+    }
 
-        MIMEInputReader source = new MIMEInputReader(reader);
 
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
+    /**
+     * Read the data of a multi-line response into a shared stream.  The
+     * data is accumulated in a single buffer that is shared by the
+     * returned stream, without further copies.  If the data grows beyond
+     * the spool threshold, it's moved to a temporary file instead.
+     *
+     * @return A SharedInputStream positioned at the start of the data.
+     * @exception MessagingException
+     */
+    protected InputStream getMultiLineStream() throws MessagingException {
+        MIMEInputStream source = new MIMEInputStream(responseStream);
+        SharedBuffer data = new SharedBuffer(BUFFER_SIZE);
+        OutputStream out = data;
+        File spoolFile = null;
 
-        // it's more efficient to do this a buffer at a time.
-        // the MIMEInputReader takes care of the byte-stuffing and
-        // ".\r\n" input terminator for us.
+        byte[] buffer = new byte[BUFFER_SIZE];
         try {
-            OutputStreamWriter outWriter = new OutputStreamWriter(out, "ISO8859-1");
-            char buffer[] = new char[500];
-            try {
-                int charsRead = -1;
-                while ((charsRead = source.read(buffer)) >= 0) {
-                    outWriter.write(buffer, 0, charsRead);
+            int count;
+            while ((count = source.read(buffer, 0, buffer.length)) != -1) {
+                out.write(buffer, 0, count);
+                // too big to hold in memory?  Switch over to a file.
+                if (spoolFile == null && spoolThreshold > 0 && data.size() > spoolThreshold) {
+                    spoolFile = File.createTempFile("pop3", ".msg");
+                    out = new BufferedOutputStream(new FileOutputStream(spoolFile), BUFFER_SIZE);
+                    data.writeTo(out);
+                    data = null;
                 }
-                outWriter.flush();
-            } catch (IOException e) {
-                throw new MessagingException("Error processing a multi-line response", e);
             }
-        } catch (UnsupportedEncodingException e) {
+            if (spoolFile == null) {
+                return data.getInputStream();
+            }
+            out.close();
+            SharedFileInputStream in = new SharedFileInputStream(spoolFile);
+            // the open stream keeps the data available.  Where the file can't be
+            // removed while it's open, it's removed on exit instead.
+            if (!spoolFile.delete()) {
+                spoolFile.deleteOnExit();
+            }
+            return in;
+        } catch (IOException e) {
+            if (spoolFile != null) {
+                try {
+                    out.close();
+                } catch (IOException e2) {
+                }
+                spoolFile.delete();
+            }
+            // we've lost our place in the response stream, so this connection is no longer usable.
+            setClosed();
+            throw new MessagingException("Error processing a multi-line response", e);
         }
-        return out.toByteArray();
     }
 
 
@@ -360,6 +453,26 @@ public class POP3Connection extends MailConnection implements POP3Constants {
         return msgResponse.getData();
     }
 
+
+    /**
+     * Retrieve the raw message content from the POP3 server as
+     * a shared stream.  This is all of the message data, including
+     * the header.  The data is read directly from the server into
+     * a single buffer (or a temporary file, for messages larger than
+     * the mail.pop3.spoolthreshold property).
+     *
+     * @param sequenceNumber
+     *               The message sequence number.
+     *
+     * @return A SharedInputStream containing all of the message data.
+     * @exception MessagingException
+     */
+    public synchronized InputStream retrieveMessageStream(int sequenceNumber) throws MessagingException {
+        // this only reads the status line...the data follows.
+        sendCommand("RETR " + sequenceNumber);
+        return getMultiLineStream();
+    }
+
     /**
      * Retrieve the message header information for a given
      * message, returned as an input stream suitable
@@ -390,6 +503,66 @@ public class POP3Connection extends MailConnection implements POP3Constants {
         return msgResponse.getContentStream();
     }
 
+    /**
+     * Retrieve the headers for a set of messages.  If the server
+     * advertises PIPELINING, the TOP commands are sent in batches
+     * without waiting for each response, otherwise they're sent one
+     * at a time.
+     *
+     * @param sequenceNumbers
+     *               The server sequence numbers for the messages.
+     *
+     * @return An array of header streams, one per requested message.
+     * @exception MessagingException
+     */
+    public synchronized ByteArrayInputStream[] retrieveMessageHeaders(int[] sequenceNumbers) throws MessagingException {
+        ByteArrayInputStream[] headers = new ByteArrayInputStream[sequenceNumbers.length];
+
+        // if TOP is disabled, we're retrieving entire messages, so there's little to gain
+        if (topDisabled || !hasCapability(CAPABILITY_PIPELINING)) {
+            for (int i = 0; i < sequenceNumbers.length; i++) {
+                headers[i] = retrieveMessageHeaders(sequenceNumbers[i]);
+            }
+            return headers;
+        }
+
+        if (!socket.isConnected()) {
+            throw new MessagingException("Connection to Mail Server is lost, connection " + this.toString());
+        }
+
+        int failed = -1;
+        // The commands are written a window at a time.  This keeps the command
+        // data small enough that neither side can block writing while the other is
+        // also blocked writing.
+        for (int start = 0; start < sequenceNumbers.length; start += PIPELINE_WINDOW) {
+            int end = Math.min(sequenceNumbers.length, start + PIPELINE_WINDOW);
+            for (int i = start; i < end; i++) {
+                writer.write("TOP " + sequenceNumbers[i] + " 0");
+                writer.write("\r\n");
+            }
+            writer.flush();
+
+            // now collect the responses in the same order.  We need to read all of
+            // them, even after a failure, to stay in step with the server.
+            for (int i = start; i < end; i++) {
+                POP3Response response = buildResponse(true);
+                if (response.isError()) {
+                    if (failed == -1) {
+                        failed = sequenceNumbers[i];
+                    }
+                }
+                else {
+                    headers[i] = response.getContentStream();
+                }
+            }
+        }
+
+        if (failed != -1) {
+            throw new CommandFailedException("Error issuing POP3 command: TOP " + failed + " 0");
+        }
+        return headers;
+    }
+
     /**
      * Retrieve the total message size from the mail
      * server.  This is the size of the headers plus
@@ -409,6 +582,33 @@ public class POP3Connection extends MailConnection implements POP3Constants {
         return list.getSize();
     }
 
+    /**
+     * Retrieve the sizes of all of the messages in the mail
+     * drop with a single LIST command.
+     *
+     * @param count  The number of messages in the mail drop.
+     *
+     * @return An array of message sizes, indexed by sequence number - 1.  Messages
+     *         that were not listed have a size of -1.
+     * @exception MessagingException
+     */
+    public int[] retrieveMessageSizes(int count) throws MessagingException {
+        String[] listing = parseMessageListing(sendMultiLineCommand("LIST"), count);
+
+        int[] sizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            sizes[i] = -1;
+            if (listing[i] != null) {
+                try {
+                    sizes[i] = Integer.parseInt(listing[i]);
+                } catch (NumberFormatException e) {
+                    throw new MessagingException("Invalid response for LIST command", e);
+                }
+            }
+        }
+        return sizes;
+    }
+
     /**
      * Retrieve the mail drop status information.
      *
@@ -441,6 +641,118 @@ public class POP3Connection extends MailConnection implements POP3Constants {
     }
 
 
+    /**
+     * Retrieve the UIDs of all of the messages in the mail
+     * drop with a single UIDL command.
+     *
+     * @param count  The number of messages in the mail drop.
+     *
+     * @return An array of UID strings, indexed by sequence number - 1.  Messages
+     *         that were not listed have a null UID.
+     * @exception MessagingException
+     */
+    public String[] retrieveMessageUids(int count) throws MessagingException {
+        return parseMessageListing(sendMultiLineCommand("UIDL"), count);
+    }
+
+    /**
+     * Parse the data lines of a multi-line LIST or UIDL response.
+     * Each line is a message number followed by the value for that
+     * message.
+     *
+     * @param response The command response.
+     * @param count    The number of messages in the mail drop.
+     *
+     * @return The line values, indexed by sequence number - 1.
+     * @exception MessagingException
+     */
+    protected String[] parseMessageListing(POP3Response response, int count) throws MessagingException {
+        String[] values = new String[count];
+        try {
+            BufferedReader lines = new BufferedReader(new InputStreamReader(response.getContentStream(), "ISO8859-1"));
+            String line;
+            while ((line = lines.readLine()) != null) {
+                line = line.trim();
+                int delimiter = line.indexOf(' ');
+                // skip anything we don't understand
+                if (delimiter == -1) {
+                    continue;
+                }
+                try {
+                    int sequenceNumber = Integer.parseInt(line.substring(0, delimiter));
+                    // the mail drop could have been listed with messages we don't know about.
+                    if (sequenceNumber >= 1 && sequenceNumber <= count) {
+                        values[sequenceNumber - 1] = line.substring(delimiter + 1).trim();
+                    }
+                } catch (NumberFormatException e) {
+                    throw new MessagingException("Invalid message listing: " + line, e);
+                }
+            }
+        } catch (IOException e) {
+            // reading from a ByteArrayInputStream...this should never happen.
+        }
+        return values;
+    }
+
+
+    /**
+     * Test if this connection has a given capability.  The
+     * capabilities are requested with the CAPA command the
+     * first time they're needed.
+     *
+     * @param capability The capability name.
+     *
+     * @return true if this capability is in the list, false for a mismatch.
+     */
+    public boolean hasCapability(String capability) {
+        if (capabilities == null) {
+            try {
+                retrieveCapabilities();
+            } catch (MessagingException e) {
+                // the server can't tell us, so assume it has nothing beyond the basics.
+                capabilities = new HashMap();
+            }
+        }
+        return super.hasCapability(capability);
+    }
+
+    /**
+     * Ask the server what capabilities it supports, using
+     * the CAPA command (RFC 2449).  Servers that don't
+     * support CAPA are treated as having no capabilities.
+     *
+     * @exception MessagingException
+     */
+    protected synchronized void retrieveCapabilities() throws MessagingException {
+        POP3Response response;
+        try {
+            response = sendMultiLineCommand("CAPA");
+        } catch (CommandFailedException e) {
+            capabilities = new HashMap();
+            return;
+        }
+
+        // get a fresh capability mapping table.
+        HashMap serverCapabilities = new HashMap();
+        try {
+            BufferedReader lines = new BufferedReader(new InputStreamReader(response.getContentStream(), "ISO8859-1"));
+            String line;
+            while ((line = lines.readLine()) != null) {
+                StringTokenizer tokenizer = new StringTokenizer(line);
+                if (tokenizer.hasMoreTokens()) {
+                    String name = tokenizer.nextToken().toUpperCase();
+                    // keep the arguments, in the same manner as the other protocols.
+                    String argument = line.trim().substring(name.length()).trim();
+                    serverCapabilities.put(name, argument);
+                }
+            }
+        } catch (IOException e) {
+            // reading from a ByteArrayInputStream...this should never happen.
+        }
+        capabilities = serverCapabilities;
+    }
+
+
     /**
      * Delete a single message from the mail server.
      *
@@ -677,5 +989,24 @@ public class POP3Connection extends MailConnection implements POP3Constants {
         // just return the set that have been explicity permitted
         return getSaslMechanisms();
     }
-}
 
+
+    /**
+     * A ByteArrayOutputStream that hands its buffer to a
+     * SharedByteArrayInputStream rather than copying it.
+     */
+    protected static class SharedBuffer extends ByteArrayOutputStream {
+        public SharedBuffer(int size) {
+            super(size);
+        }
+
+        /**
+         * Get a stream for reading the accumulated data.
+         *
+         * @return A SharedByteArrayInputStream sharing the buffer.
+         */
+        public SharedByteArrayInputStream getInputStream() {
+            return new SharedByteArrayInputStream(buf, 0, count);
+        }
+    }
+}
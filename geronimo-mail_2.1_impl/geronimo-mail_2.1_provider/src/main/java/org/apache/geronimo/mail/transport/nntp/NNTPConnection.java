@@ -61,6 +61,10 @@ public class NNTPConnection extends MailConnection {
      * property keys for protocol properties.
      */
     protected static final int DEFAULT_NNTP_PORT = 119;
+
+    // the maximum number of commands written ahead of their replies when pipelining
+    protected static final int PIPELINE_WINDOW = 50;
+
     // does the server support posting?
     protected boolean postingAllowed = true;
 
@@ -409,6 +413,63 @@ public class NNTPConnection extends MailConnection {
         return reply;
     }
 
+    /**
+     * Send a set of commands to the server without waiting for each
+     * reply before sending the next (RFC 3977 allows any command to be
+     * pipelined).  The commands are written in batches of
+     * PIPELINE_WINDOW, so neither side can block writing while the
+     * other is also blocked writing.  Any command rejected with an
+     * authentication request is reissued individually once we've
+     * authenticated.
+     *
+     * @param commands
+     *            The commands to issue.
+     * @param success
+     *            The command reply that indicates additional data should be
+     *            retrieved.
+     *
+     * @return The command replies, in the same order as the commands.
+     * @exception MessagingException
+     */
+    public synchronized NNTPReply[] sendPipelinedCommands(String[] commands, int success) throws MessagingException {
+        if (socket == null || !socket.isConnected()) {
+            throw new MessagingException("no connection");
+        }
+
+        NNTPReply[] replies = new NNTPReply[commands.length];
+        for (int start = 0; start < commands.length; start += PIPELINE_WINDOW) {
+            int end = Math.min(commands.length, start + PIPELINE_WINDOW);
+            try {
+                for (int i = start; i < end; i++) {
+                    outputStream.write(commands[i].getBytes("ISO8859-1"));
+                    outputStream.write(CR);
+                    outputStream.write(LF);
+                }
+                outputStream.flush();
+            } catch (IOException e) {
+                throw new MessagingException(e.toString(), e);
+            }
+
+            // now collect the replies in the same order
+            for (int i = start; i < end; i++) {
+                NNTPReply reply = getReply();
+                if (reply.getCode() == success) {
+                    reply.retrieveData(reader);
+                }
+                replies[i] = reply;
+            }
+        }
+
+        // anything that needs authentication first gets sent again on its own
+        for (int i = 0; i < replies.length; i++) {
+            int code = replies[i].getCode();
+            if (code == NNTPReply.AUTHINFO_REQUIRED || code == NNTPReply.AUTHINFO_SIMPLE_REQUIRED) {
+                replies[i] = sendCommand(commands[i], success);
+            }
+        }
+        return replies;
+    }
+
     /**
      * Send a command to the server, returning the first response line back as a
      * reply.
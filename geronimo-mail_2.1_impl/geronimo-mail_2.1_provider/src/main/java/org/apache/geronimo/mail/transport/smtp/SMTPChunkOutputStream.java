@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.transport.smtp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import jakarta.mail.MessagingException;
+
+/**
+ * An OutputStream that transmits message data to the server using
+ * the BDAT command from the CHUNKING extension (RFC 3030).  Data is
+ * collected into chunks and each chunk is sent with its byte count,
+ * so the content requires no byte-stuffing and no end-of-data marker.
+ *
+ * If the server supports PIPELINING, chunks are written without
+ * waiting for the individual replies, which are collected later.
+ *
+ * @version $Rev$ $Date$
+ */
+public class SMTPChunkOutputStream extends OutputStream {
+    // the limit on replies we'll allow to queue up before reading them back
+    protected static final int MAX_PENDING_REPLIES = 16;
+
+    // the connection we're sending on (used for reading replies)
+    protected SMTPConnection connection;
+    // the raw server output stream
+    protected OutputStream out;
+    // the buffer for the current chunk
+    protected byte[] buffer;
+    // the amount of data in the current chunk
+    protected int count = 0;
+    // can we write chunks without waiting for the replies?
+    protected boolean pipelined;
+    // the number of chunks waiting for a reply
+    protected int pendingReplies = 0;
+    // the first error reply received for a chunk
+    protected SMTPReply errorReply;
+    // the timeout used when reading chunk replies
+    protected int timeout;
+
+    /**
+     * Create a chunking stream for a connection.
+     *
+     * @param connection The connection used to read the replies.
+     * @param out        The server output stream.
+     * @param chunkSize  The size of the chunks we send.
+     * @param pipelined  true if the server allows pipelining of BDAT commands.
+     * @param timeout    The timeout for reading chunk replies.
+     */
+    public SMTPChunkOutputStream(SMTPConnection connection, OutputStream out, int chunkSize, boolean pipelined, int timeout) {
+        this.connection = connection;
+        this.out = out;
+        this.buffer = new byte[chunkSize];
+        this.pipelined = pipelined;
+        this.timeout = timeout;
+    }
+
+    public void write(int ch) throws IOException {
+        if (count == buffer.length) {
+            sendChunk(buffer, 0, count, false);
+            count = 0;
+        }
+        buffer[count++] = (byte)ch;
+    }
+
+    public void write(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            // large writes with nothing buffered can go straight out as a chunk
+            if (count == 0 && length >= buffer.length) {
+                sendChunk(data, offset, buffer.length, false);
+                offset += buffer.length;
+                length -= buffer.length;
+                continue;
+            }
+
+            int copy = Math.min(length, buffer.length - count);
+            System.arraycopy(data, offset, buffer, count, copy);
+            count += copy;
+            offset += copy;
+            length -= copy;
+
+            if (count == buffer.length) {
+                sendChunk(buffer, 0, count, false);
+                count = 0;
+            }
+        }
+    }
+
+    /**
+     * Send the remaining data as the last chunk and collect the
+     * outstanding replies.
+     *
+     * @return The server reply to the final BDAT command.
+     * @exception IOException
+     */
+    public SMTPReply finish() throws IOException {
+        sendChunk(buffer, 0, count, true);
+        count = 0;
+        return connection.getLastServerResponse();
+    }
+
+    /**
+     * Get the first error reply received for a chunk.
+     *
+     * @return The error reply, or null if all chunks have been accepted.
+     */
+    public SMTPReply getErrorReply() {
+        return errorReply;
+    }
+
+    /**
+     * Write a single chunk to the server.
+     *
+     * @param data   The chunk data.
+     * @param offset The offset of the chunk data.
+     * @param length The chunk length.
+     * @param last   true if this is the final chunk of the message.
+     *
+     * @exception IOException
+     */
+    protected void sendChunk(byte[] data, int offset, int length, boolean last) throws IOException {
+        String command = "BDAT " + length + (last ? " LAST" : "") + "\r\n";
+        out.write(command.getBytes("ISO8859-1"));
+        out.write(data, offset, length);
+        pendingReplies++;
+
+        // without pipelining, each chunk must be acknowledged before the next one
+        // is sent.  We also don't let too many replies queue up on the server side.
+        if (last || !pipelined || pendingReplies >= MAX_PENDING_REPLIES) {
+            out.flush();
+            readReplies(last);
+        }
+    }
+
+    /**
+     * Read the replies for all of the chunks sent so far.
+     *
+     * @param last   true if the final chunk has been sent.
+     *
+     * @exception IOException
+     */
+    protected void readReplies(boolean last) throws IOException {
+        try {
+            while (pendingReplies > 0) {
+                // the final chunk reply waits for the server to process the whole message.
+                SMTPReply line = connection.getReply(last && pendingReplies == 1 ? timeout * 2 : timeout);
+                pendingReplies--;
+                if (line.isError() && errorReply == null) {
+                    errorReply = line;
+                }
+            }
+        } catch (MessagingException e) {
+            throw new IOException(e.toString());
+        }
+
+        if (errorReply != null) {
+            throw new IOException("Error issuing SMTP 'BDAT' command: " + errorReply);
+        }
+    }
+}
@@ -21,13 +21,16 @@ package org.apache.geronimo.mail.transport.smtp;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.StringTokenizer;
 
+import jakarta.activation.DataHandler;
 import jakarta.mail.Address;
 import jakarta.mail.AuthenticationFailedException;
 import jakarta.mail.Message;
@@ -37,10 +40,10 @@ import jakarta.mail.internet.MimeMessage;
 import jakarta.mail.internet.MimeMultipart;
 import jakarta.mail.internet.MimePart;
 import jakarta.mail.Session;
+import jakarta.mail.util.ByteArrayDataSource;
 
 import org.apache.geronimo.mail.authentication.ClientAuthenticator;
 import org.apache.geronimo.mail.authentication.AuthenticatorFactory;
-import org.apache.geronimo.mail.util.CountingOutputStream;
 import org.apache.geronimo.mail.util.MailConnection;
 import org.apache.geronimo.mail.util.MIMEOutputStream;
 import org.apache.geronimo.mail.util.ProtocolProperties;
@@ -64,6 +67,16 @@ public class SMTPConnection extends MailConnection {
     protected static final String MAIL_SMTP_FROM = "from";
     protected static final String MAIL_SMTP_DSN_RET = "dsn.ret";
     protected static final String MAIL_SMTP_SUBMITTER = "submitter";
+    protected static final String MAIL_SMTP_SPOOL_THRESHOLD = "spoolthreshold";
+    protected static final String MAIL_SMTP_PIPELINING = "pipelining";
+    protected static final String MAIL_SMTP_CHUNKING = "chunking";
+    protected static final String MAIL_SMTP_CHUNK_SIZE = "chunksize";
+    protected static final String MAIL_SMTP_ALLOWBINARYMIME = "allowbinarymime";
+
+    // default amount of message data held in memory when spooling for the SIZE extension
+    protected static final int DEFAULT_SPOOL_THRESHOLD = 1024 * 1024;
+    // default size of the chunks sent with BDAT
+    protected static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
 
     /**
      * property keys for protocol properties.
@@ -83,6 +96,28 @@ public class SMTPConnection extends MailConnection {
     protected boolean requireTLS = false;
     // should we use 8BITMIME encoding if supported by the server?
     protected boolean use8bit = false;
+    // the in-memory limit for spooled message data
+    protected int spoolThreshold;
+    // the encoded message data captured while computing the SIZE value
+    protected SMTPMessageSpool dataSpool;
+    // the message the spooled data belongs to
+    protected Message spooledMessage;
+    // are we allowed to pipeline commands if the server supports it?
+    protected boolean usePipelining;
+    // the reply to a DATA command sent as part of a pipelined envelope
+    protected SMTPReply pipelinedDataReply;
+    // should we use BDAT if the server supports CHUNKING?
+    protected boolean useChunking;
+    // the size of the BDAT chunks
+    protected int chunkSize;
+    // should we use BINARYMIME encoding if supported by the server?
+    protected boolean useBinaryMime;
+    // is the current message being sent with BDAT?
+    protected boolean sendingChunked;
+    // is the current message being sent with BODY=BINARYMIME?
+    protected boolean sendingBinary;
+    // the number of messages sent over this connection
+    protected int messageCount = 0;
 
     /**
      * Normal constructor for an SMTPConnection() object.
@@ -92,14 +127,53 @@ public class SMTPConnection extends MailConnection {
     public SMTPConnection(ProtocolProperties props) {
         super(props);
 
-        // check to see if we need to throw an exception after a send operation.
-        reportSuccess = props.getBooleanProperty(MAIL_SMTP_REPORT_SUCCESS, false);
-        // and also check for TLS enablement.
+        // check for TLS enablement.
         useTLS = props.getBooleanProperty(MAIL_SMTP_STARTTLS_ENABLE, false);
         // and also check if TLS is required.
         requireTLS = props.getBooleanProperty(MAIL_SMTP_STARTTLS_REQUIRED, false);
+        // and the options that control how messages are sent.
+        initializeSendProperties();
+    }
+
+
+    /**
+     * Read the properties that control how messages are sent
+     * over an established connection.
+     */
+    protected void initializeSendProperties() {
+        // check to see if we need to throw an exception after a send operation.
+        reportSuccess = props.getBooleanProperty(MAIL_SMTP_REPORT_SUCCESS, false);
         // and also check for 8bitmime support
         use8bit = props.getBooleanProperty(MAIL_SMTP_ALLOW8BITMIME, false);
+        // and the amount of message data we'll hold in memory before spooling to disk
+        spoolThreshold = props.getIntProperty(MAIL_SMTP_SPOOL_THRESHOLD, DEFAULT_SPOOL_THRESHOLD);
+        // and whether command pipelining may be used
+        usePipelining = props.getBooleanProperty(MAIL_SMTP_PIPELINING, true);
+        // and how message content may be sent if the server supports CHUNKING
+        useChunking = props.getBooleanProperty(MAIL_SMTP_CHUNKING, true);
+        chunkSize = props.getIntProperty(MAIL_SMTP_CHUNK_SIZE, DEFAULT_CHUNK_SIZE);
+        if (chunkSize <= 0) {
+            chunkSize = DEFAULT_CHUNK_SIZE;
+        }
+        useBinaryMime = props.getBooleanProperty(MAIL_SMTP_ALLOWBINARYMIME, false);
+    }
+
+
+    /**
+     * Attach an established connection to a new set of protocol
+     * properties.  This is used when a pooled connection is handed
+     * to a different transport, so that messages are sent using the
+     * options of the session doing the sending.
+     *
+     * @param props  The property bundle of the new owner.
+     */
+    public void setProtocolProperties(ProtocolProperties props) {
+        this.props = props;
+        this.session = props.getSession();
+        // pick up the new session's debug settings
+        debug = session.getDebug();
+        debugStream = session.getDebugOut();
+        initializeSendProperties();
     }
 
 
@@ -192,6 +266,62 @@ public class SMTPConnection extends MailConnection {
     }
 
 
+    /**
+     * Copy the explicitly configurable settings from another
+     * connection.  Used when a transport replaces its connection
+     * object.
+     *
+     * @param source The connection to copy from.
+     */
+    protected void copySettings(SMTPConnection source) {
+        localHost = source.localHost;
+        realm = source.realm;
+        reportSuccess = source.reportSuccess;
+        useTLS = source.useTLS;
+        requireTLS = source.requireTLS;
+    }
+
+
+    /**
+     * Test if we still have a usable server connection.  This
+     * sends a RSET command, which also clears any transaction
+     * state left behind by an earlier send.
+     *
+     * @return true if the server accepted the RSET command.
+     */
+    public boolean isAlive() {
+        if (socket == null || !socket.isConnected()) {
+            return false;
+        }
+        try {
+            SMTPReply line = sendCommand("RSET");
+            return line.getCode() == SMTPReply.COMMAND_ACCEPTED;
+        } catch (MessagingException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Test if the connection has an open socket.
+     *
+     * @return true if the socket is connected.
+     */
+    public boolean isConnected() {
+        return socket != null && socket.isConnected() && !socket.isClosed();
+    }
+
+
+    /**
+     * Get the number of messages sent over this connection.
+     *
+     * @return The count of messages accepted by the server.
+     */
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+
     /**
      * Set the sender for this mail.
      *
@@ -202,6 +332,28 @@ public class SMTPConnection extends MailConnection {
      * @exception MessagingException
      */
     protected boolean sendMailFrom(Message message) throws MessagingException {
+        // and finally send the command
+        SMTPReply line = sendCommand(getMailFromCommand(message));
+
+        // 250 response indicates success.
+        return line.getCode() == SMTPReply.COMMAND_ACCEPTED;
+    }
+
+
+    /**
+     * Build the MAIL FROM command for a message, including any
+     * extension keywords supported by the server.
+     *
+     * @param message
+     *                   The message we're sending.
+     *
+     * @return The command string.
+     * @exception MessagingException
+     */
+    protected String getMailFromCommand(Message message) throws MessagingException {
+        // make sure we're not holding on to data from an earlier send
+        discardSpool();
+        pipelinedDataReply = null;
 
         // need to sort the from value out from a variety of sources.
         String from = null;
@@ -247,10 +399,31 @@ public class SMTPConnection extends MailConnection {
         command.append("MAIL FROM: ");
         command.append(fixEmailAddress(from));
 
+        // if the server supports CHUNKING, the content goes out with BDAT commands, which
+        // also allows binary content to be sent without any transfer encoding.
+        sendingChunked = useChunking && supportsExtension("CHUNKING");
+        sendingBinary = false;
+
+        // BINARYMIME content is sent without any line break canonicalization, which is
+        // only allowed inside binary parts.  Everything else must already be in canonical
+        // form before we can go down this route.
+        if (sendingChunked && useBinaryMime && supportsExtension("BINARYMIME") && isCanonical((MimePart)message)) {
+            // switch any encoded content over to binary so it is sent without the
+            // quoted-printable or base64 expansion.
+            if (convertBinaryTransferEncoding((MimePart)message)) {
+                message.saveChanges();
+            }
+            // a message without any binary parts gains nothing from BINARYMIME
+            sendingBinary = hasBinaryContent((MimePart)message);
+        }
+
+        if (sendingBinary) {
+            command.append(" BODY=BINARYMIME");
+        }
         // If the server supports the 8BITMIME extension, we might need to change the
         // transfer encoding for the content to allow for direct transmission of the
         // 8-bit codes.
-        if (supportsExtension("8BITMIME")) {
+        else if (supportsExtension("8BITMIME")) {
             // we only do this if the capability was enabled via a property option or
             // by explicitly setting the property on the message object.
             if (use8bit || (message instanceof SMTPMessage && ((SMTPMessage)message).getAllow8bitMIME())) {
@@ -267,11 +440,13 @@ public class SMTPConnection extends MailConnection {
             }
         }
 
-        // some servers ask for a size estimate on the initial send
+        // some servers ask for a size estimate on the initial send.  Rather than
+        // serializing the message once to count it and again for the DATA command,
+        // we spool the encoded data now and replay it when the data is sent.
         if (supportsExtension("SIZE")) {
-            int estimate = getSizeEstimate(message);
-            if (estimate > 0) {
-                command.append(" SIZE=" + estimate);
+            long size = spoolMessage(message);
+            if (size > 0) {
+                command.append(" SIZE=" + size);
             }
         }
 
@@ -359,11 +534,92 @@ public class SMTPConnection extends MailConnection {
             command.append(extension);
         }
 
-        // and finally send the command
-        SMTPReply line = sendCommand(command.toString());
+        return command.toString();
+    }
 
-        // 250 response indicates success.
-        return line.getCode() == SMTPReply.COMMAND_ACCEPTED;
+
+    /**
+     * Test if the envelope commands for a message can be
+     * pipelined (RFC 2920).
+     *
+     * @return true if the server advertises PIPELINING and it has not
+     *         been disabled.
+     */
+    public boolean supportsPipelining() {
+        return usePipelining && supportsExtension("PIPELINING");
+    }
+
+
+    /**
+     * Send the MAIL FROM command, all of the RCPT TO commands and,
+     * optionally, the DATA command as a single pipelined command group,
+     * then read the replies back in order.  This reduces the envelope
+     * to a single round trip, regardless of the number of recipients.
+     *
+     * If the DATA command is included and accepted, the reply is
+     * retained and sendData() will transmit the message content without
+     * issuing another DATA command.
+     *
+     * @param message   The message we're sending.
+     * @param addresses The recipient addresses.
+     * @param dsn       An optional DSN option appended to the RCPT TO commands.
+     * @param stats     The array that receives the status of each recipient.
+     * @param sendData  true if the DATA command should be part of the group.
+     *
+     * @return True if the MAIL FROM command was accepted, false otherwise.  On
+     *         failure, getLastServerResponse() returns the MAIL FROM reply.
+     * @exception MessagingException
+     */
+    public boolean sendPipelinedEnvelope(Message message, InternetAddress[] addresses, String dsn, SendStatus[] stats, boolean sendData) throws MessagingException {
+        String[] commands = new String[addresses.length];
+
+        // build the entire group before we write anything
+        StringBuffer group = new StringBuffer();
+        group.append(getMailFromCommand(message));
+        group.append("\r\n");
+        for (int i = 0; i < addresses.length; i++) {
+            commands[i] = getRcptToCommand(addresses[i], dsn);
+            group.append(commands[i]);
+            group.append("\r\n");
+        }
+        // content sent with BDAT doesn't use a DATA command
+        sendData = sendData && !sendingChunked;
+        if (sendData) {
+            group.append("DATA\r\n");
+        }
+
+        // this goes out as a single write
+        sendCommandData(group.toString());
+
+        // now read the replies back in the order the commands were issued.
+        SMTPReply mailFromReply = getReply();
+        boolean accepted = false;
+        for (int i = 0; i < addresses.length; i++) {
+            SMTPReply line = getReply();
+            stats[i] = getRcptToStatus(addresses[i], commands[i], line);
+            if (stats[i].getStatus() == SendStatus.SUCCESS) {
+                accepted = true;
+            }
+        }
+
+        if (sendData) {
+            SMTPReply line = getReply();
+            // RFC 2920 requires us to send an empty message if the server accepts
+            // the DATA command after rejecting the sender or all of the recipients.
+            if (!line.isError() && (mailFromReply.getCode() != SMTPReply.COMMAND_ACCEPTED || !accepted)) {
+                sendLine(".");
+                getReply(TIMEOUT * 2);
+            }
+            else {
+                // keep the reply even if DATA was rejected, so sendMessageData() reports
+                // it rather than issuing a second DATA command.
+                pipelinedDataReply = line;
+            }
+        }
+
+        // the caller reports the sender failure using the last response.
+        lastServerResponse = mailFromReply;
+        return mailFromReply.getCode() == SMTPReply.COMMAND_ACCEPTED;
     }
 
 
@@ -441,6 +697,191 @@ public class SMTPConnection extends MailConnection {
     }
 
 
+    /**
+     * Switch the transfer encoding of any quoted-printable or
+     * base64 encoded body parts to binary, for transmission
+     * with the BINARYMIME extension (RFC 3030).  Unlike 8bit
+     * content, binary content has no line length or character
+     * restrictions, so any encoded part can be converted.
+     *
+     * @param bodyPart The bodyPart to convert. Initially, this will be
+     *                 the message itself.
+     *
+     * @return true if any conversion was performed, false if
+     *         nothing was converted.
+     */
+    protected boolean convertBinaryTransferEncoding(MimePart bodyPart)
+    {
+        boolean converted = false;
+        try {
+            // if this is a multipart element, apply the conversion rules
+            // to each of the parts.
+            if (bodyPart.isMimeType("multipart/*")) {
+                MimeMultipart parts = (MimeMultipart)bodyPart.getContent();
+                for (int i = 0; i < parts.getCount(); i++) {
+                    // convert each body part, and accumulate the conversion result
+                    if (convertBinaryTransferEncoding((MimePart)parts.getBodyPart(i))) {
+                        converted = true;
+                    }
+                }
+            }
+            else {
+                // we only do this if the encoding is quoted-printable or base64
+                String encoding =  bodyPart.getEncoding();
+                if (encoding != null) {
+                    encoding = encoding.toLowerCase();
+                    if (encoding.equals("quoted-printable") || encoding.equals("base64")) {
+                        // replace the content with the decoded bytes.  As with the 8bit
+                        // conversion, just changing the header would send the encoded data
+                        // labelled as binary.
+                        String contentType = bodyPart.getContentType();
+                        bodyPart.setDataHandler(new DataHandler(new ByteArrayDataSource(bodyPart.getInputStream(), contentType)));
+                        bodyPart.setHeader("Content-Transfer-Encoding", "binary");
+                        converted = true;   // we've changed something
+                    }
+                }
+            }
+        } catch (MessagingException e) {
+        } catch (IOException e) {
+        }
+        return converted;
+    }
+
+
+    /**
+     * Test if a message part will be written with canonical CRLF
+     * line breaks everywhere outside of its binary parts.  The
+     * headers of every part are checked, along with the content of
+     * any part that is neither binary nor encoded (quoted-printable
+     * and base64 encoders always produce CRLF line breaks).
+     *
+     * @param part   The part to check.  Initially, this will be the message itself.
+     *
+     * @return true if the part can be sent without line break canonicalization.
+     */
+    protected boolean isCanonical(MimePart part)
+    {
+        try {
+            Enumeration e = part.getAllHeaderLines();
+            while (e.hasMoreElements()) {
+                if (!isCanonical(((String)e.nextElement()).getBytes("ISO8859-1"))) {
+                    return false;
+                }
+            }
+            if (part.isMimeType("multipart/*")) {
+                MimeMultipart parts = (MimeMultipart)part.getContent();
+                for (int i = 0; i < parts.getCount(); i++) {
+                    if (!isCanonical((MimePart)parts.getBodyPart(i))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            String encoding = part.getEncoding();
+            if (encoding != null) {
+                encoding = encoding.toLowerCase();
+                if (encoding.equals("binary") || encoding.equals("quoted-printable") || encoding.equals("base64")) {
+                    return true;
+                }
+            }
+            // 7bit and 8bit content goes out as is, so check the encoded form.
+            CanonicalCheckStream check = new CanonicalCheckStream();
+            InputStream in = part.getDataHandler().getInputStream();
+            try {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    check.write(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+            return check.isCanonical();
+        } catch (MessagingException e) {
+        } catch (IOException e) {
+        }
+        // if we can't tell, assume the worst
+        return false;
+    }
+
+
+    /**
+     * Test if a single header line uses CRLF line breaks.
+     *
+     * @param data   The header line bytes.
+     *
+     * @return true if all line breaks in the data are CRLF sequences.
+     */
+    private static boolean isCanonical(byte[] data) {
+        CanonicalCheckStream check = new CanonicalCheckStream();
+        check.write(data, 0, data.length);
+        return check.isCanonical();
+    }
+
+
+    /**
+     * Test if a message part contains any binary encoded parts.
+     *
+     * @param part   The part to check.  Initially, this will be the message itself.
+     *
+     * @return true if there is at least one part with a binary Content-Transfer-Encoding.
+     */
+    protected boolean hasBinaryContent(MimePart part)
+    {
+        try {
+            if (part.isMimeType("multipart/*")) {
+                MimeMultipart parts = (MimeMultipart)part.getContent();
+                for (int i = 0; i < parts.getCount(); i++) {
+                    if (hasBinaryContent((MimePart)parts.getBodyPart(i))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            String encoding = part.getEncoding();
+            return encoding != null && encoding.equalsIgnoreCase("binary");
+        } catch (MessagingException e) {
+        } catch (IOException e) {
+        }
+        return false;
+    }
+
+
+    /**
+     * An output sink that checks that every CR in the data is
+     * followed by an LF and every LF is preceded by a CR.
+     */
+    private static class CanonicalCheckStream extends OutputStream {
+        // the last byte written
+        private int last = -1;
+        // set once a bare CR or LF has been seen
+        private boolean bare = false;
+
+        public void write(int b) {
+            if (b == '\n') {
+                if (last != '\r') {
+                    bare = true;
+                }
+            }
+            else if (last == '\r') {
+                bare = true;
+            }
+            last = b;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len && !bare; i++) {
+                write(b[i] & 0xff);
+            }
+        }
+
+        boolean isCanonical() {
+            // a trailing CR is missing its LF
+            return !bare && last != '\r';
+        }
+    }
+
+
     /**
      * Get the server's welcome blob from the wire....
      */
@@ -453,49 +894,45 @@ public class SMTPConnection extends MailConnection {
 
 
     /**
-     * Get an estimate of the transmission size for this
-     * message.  This size is the complete message as it is
-     * encoded and transmitted on the DATA command, not counting
-     * the terminating ".CRLF".
+     * Write the message to a spool in the exact form it will be
+     * transmitted on the DATA or BDAT commands.  The spool is retained for
+     * sendData(), so the message only needs to be serialized once.
      *
      * @param msg    The message we're sending.
      *
-     * @return The count of bytes, if it can be calculated.
+     * @return The size of the encoded message, or 0 if it could not be
+     *         determined.
      */
-    protected int getSizeEstimate(Message msg) {
-        // now the data... I could look at the type, but
+    protected long spoolMessage(Message msg) {
+        SMTPMessageSpool spool = new SMTPMessageSpool(spoolThreshold);
         try {
-            CountingOutputStream outputStream = new CountingOutputStream();
-
-            // the data content has two requirements we need to meet by
-            // filtering the
-            // output stream. Requirement 1 is to conicalize any line breaks.
-            // All line
-            // breaks will be transformed into properly formed CRLF sequences.
-            //
-            // Requirement 2 is to perform byte-stuff for any line that begins
-            // with a "."
-            // so that data is not confused with the end-of-data marker (a
-            // "\r\n.\r\n" sequence.
-            //
-            // The MIME output stream performs those two functions on behalf of
-            // the content
-            // writer.
-            MIMEOutputStream mimeOut = new MIMEOutputStream(outputStream);
-
-            msg.writeTo(mimeOut);
-
-            // now to finish, we make sure there's a line break at the end.
-            mimeOut.forceTerminatingLineBreak();
-            // and flush the data to send it along
-            mimeOut.flush();
-
-            return outputStream.getCount();
+            // the spooled data gets the same filtering that's applied when
+            // writing directly to the socket.
+            writeMessage(msg, spool);
         } catch (IOException e) {
+            spool.dispose();
             return 0;     // can't get an estimate
         } catch (MessagingException e) {
+            spool.dispose();
             return 0;     // can't get an estimate
         }
+
+        dataSpool = spool;
+        spooledMessage = msg;
+        return spool.getSize();
+    }
+
+
+    /**
+     * Release any message data spooled by an earlier
+     * sendMailFrom() call.
+     */
+    protected void discardSpool() {
+        if (dataSpool != null) {
+            dataSpool.dispose();
+            dataSpool = null;
+        }
+        spooledMessage = null;
     }
 
 
@@ -505,16 +942,150 @@ public class SMTPConnection extends MailConnection {
      * right place in the sequence
      */
     protected void sendData(MimeMessage msg) throws MessagingException {
+        try {
+            sendMessageData(msg);
+            messageCount++;
+        } finally {
+            // the spooled data is only good for a single send
+            discardSpool();
+        }
+    }
+
+
+    /**
+     * Issue the DATA command and transmit the message content,
+     * using the spooled data if it was captured during sendMailFrom().
+     *
+     * @param msg    The message we're sending.
+     *
+     * @exception MessagingException
+     */
+    protected void sendMessageData(MimeMessage msg) throws MessagingException {
+        // the server accepts the data in counted chunks.
+        if (sendingChunked) {
+            sendChunkedData(msg);
+            return;
+        }
 
-        // send the DATA command
-        SMTPReply line = sendCommand("DATA");
+        SMTPReply line = pipelinedDataReply;
+        pipelinedDataReply = null;
+
+        // send the DATA command, unless it was already accepted as part of a pipelined envelope.
+        if (line == null) {
+            line = sendCommand("DATA");
+        }
 
         if (line.isError()) {
             throw new MessagingException("Error issuing SMTP 'DATA' command: " + line);
         }
 
+        // if we spooled this message to compute its size, just replay that.  The
+        // spooled data is already canonicalized, byte-stuffed, and ends with a line break.
+        if (dataSpool != null && spooledMessage == msg) {
+            try {
+                dataSpool.writeTo(outputStream);
+                outputStream.write('.');
+                outputStream.write('\r');
+                outputStream.write('\n');
+                outputStream.flush();
+            } catch (IOException e) {
+                throw new MessagingException(e.toString());
+            }
+        }
+        else {
+            writeData(msg);
+        }
+
+        // use a longer time out here to give the server time to process the
+        // data.
+        line = getReply(TIMEOUT * 2);
+
+        if (line.isError()) {
+            throw new MessagingException("Error issuing SMTP 'DATA' command: " + line);
+        }
+    }
+
+
+    /**
+     * Serialize the message directly to the server connection.
+     *
+     * @param msg    The message we're sending.
+     *
+     * @exception MessagingException
+     */
+    protected void writeData(MimeMessage msg) throws MessagingException {
         // now the data... I could look at the type, but
         try {
+            writeMessage(msg, outputStream);
+
+            // now to finish, we send the "." end-of-data marker.  The content
+            // has already been terminated with a line break.
+            outputStream.write('.');
+            outputStream.write('\r');
+            outputStream.write('\n');
+            // and flush the data to send it along
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new MessagingException(e.toString());
+        } catch (MessagingException e) {
+            throw new MessagingException(e.toString());
+        }
+    }
+
+
+    /**
+     * Transmit the message content using BDAT commands (RFC 3030),
+     * using the spooled data if it was captured during sendMailFrom().
+     *
+     * @param msg    The message we're sending.
+     *
+     * @exception MessagingException
+     */
+    protected void sendChunkedData(MimeMessage msg) throws MessagingException {
+        SMTPChunkOutputStream chunkOut = new SMTPChunkOutputStream(this, outputStream, chunkSize, supportsPipelining(), TIMEOUT);
+        SMTPReply line = null;
+        try {
+            if (dataSpool != null && spooledMessage == msg) {
+                dataSpool.writeTo(chunkOut);
+            }
+            else {
+                writeMessage(msg, chunkOut);
+            }
+            line = chunkOut.finish();
+        } catch (IOException e) {
+            // if the server rejected one of the chunks, the transaction needs
+            // to be reset before the connection can be used again.
+            if (chunkOut.getErrorReply() != null) {
+                resetConnection();
+            }
+            throw new MessagingException(e.toString());
+        } catch (MessagingException e) {
+            throw new MessagingException(e.toString());
+        }
+
+        if (line.isError()) {
+            throw new MessagingException("Error issuing SMTP 'BDAT' command: " + line);
+        }
+    }
+
+
+    /**
+     * Write the message content to an output stream, filtered
+     * as required by the transmission method used for the
+     * current message.
+     *
+     * @param msg    The message we're sending.
+     * @param out    The target stream.
+     *
+     * @exception IOException
+     * @exception MessagingException
+     */
+    protected void writeMessage(Message msg, OutputStream out) throws IOException, MessagingException {
+        MIMEOutputStream mimeOut = null;
+
+        // BINARYMIME is only used when everything outside of the binary parts
+        // is already canonical, so the content can go out exactly as written.
+        if (!sendingBinary) {
             // the data content has two requirements we need to meet by
             // filtering the
             // output stream. Requirement 1 is to conicalize any line breaks.
@@ -524,32 +1095,26 @@ public class SMTPConnection extends MailConnection {
             // Requirement 2 is to perform byte-stuff for any line that begins
             // with a "."
             // so that data is not confused with the end-of-data marker (a
-            // "\r\n.\r\n" sequence.
+            // "\r\n.\r\n" sequence.  This is not required when the data is
+            // sent using BDAT.
             //
             // The MIME output stream performs those two functions on behalf of
             // the content
             // writer.
-            MIMEOutputStream mimeOut = new MIMEOutputStream(outputStream);
-
-            msg.writeTo(mimeOut, new String[] {"Bcc", "Content-Length"});
-
-            // now to finish, we send a CRLF sequence, followed by a ".".
-            mimeOut.writeSMTPTerminator();
-            // and flush the data to send it along
-            mimeOut.flush();
-            this.outputStream.flush(); // most of the time MIMEOutputStream#flush does nothing so ensure we actually flush the data
-        } catch (IOException e) {
-            throw new MessagingException(e.toString());
-        } catch (MessagingException e) {
-            throw new MessagingException(e.toString());
+            mimeOut = new MIMEOutputStream(out, !sendingChunked);
+            out = mimeOut;
         }
 
-        // use a longer time out here to give the server time to process the
-        // data.
-        line = getReply(TIMEOUT * 2);
+        if (msg instanceof MimeMessage) {
+            ((MimeMessage)msg).writeTo(out, new String[] {"Bcc", "Content-Length"});
+        }
+        else {
+            msg.writeTo(out);
+        }
 
-        if (line.isError()) {
-            throw new MessagingException("Error issuing SMTP 'DATA' command: " + line);
+        // the DATA end-of-data marker must be preceded by a line break.
+        if (!sendingChunked) {
+            mimeOut.forceTerminatingLineBreak();
         }
     }
 
@@ -582,6 +1147,26 @@ public class SMTPConnection extends MailConnection {
      * @exception MessagingException
      */
     public SendStatus sendRcptTo(InternetAddress addr, String dsn) throws MessagingException {
+        // get a string version of this command.
+        String commandString = getRcptToCommand(addr, dsn);
+
+        SMTPReply line = sendCommand(commandString);
+
+        return getRcptToStatus(addr, commandString, line);
+    }
+
+
+    /**
+     * Build the RCPT TO command for a target address.
+     *
+     * @param addr
+     *            The target address.
+     * @param dsn
+     *            An optional DSN option appended to the RCPT TO command.
+     *
+     * @return The command string.
+     */
+    protected String getRcptToCommand(InternetAddress addr, String dsn) {
         // compose the command using the fixed up email address. Normally, this
         // involves adding
         // "<" and ">" around the address.
@@ -598,11 +1183,22 @@ public class SMTPConnection extends MailConnection {
             command.append(dsn);
         }
 
-        // get a string version of this command.
-        String commandString = command.toString();
+        return command.toString();
+    }
 
-        SMTPReply line = sendCommand(commandString);
 
+    /**
+     * Convert the server reply to a RCPT TO command into a
+     * SendStatus for the target address.
+     *
+     * @param addr    The target address.
+     * @param commandString
+     *                The command that was sent.
+     * @param line    The server reply.
+     *
+     * @return The status for this particular send operation.
+     */
+    protected SendStatus getRcptToStatus(InternetAddress addr, String commandString, SMTPReply line) {
         switch (line.getCode()) {
         // these two are both successful transmissions
         case SMTPReply.COMMAND_ACCEPTED:
@@ -654,11 +1250,20 @@ public class SMTPConnection extends MailConnection {
      * Sends a message down the socket and terminates with the appropriate CRLF
      */
     protected void sendLine(String data) throws MessagingException {
+        // don't write it in multiple times, ie build the data + "\r\n" string in memory to not get surprises on servers read() side
+        sendCommandData(data + "\r\n");
+    }
+
+    /**
+     * Write a block of command data down the socket in a single write.
+     * The data must already contain the CRLF line terminators.
+     */
+    protected void sendCommandData(String data) throws MessagingException {
         if (socket == null || !socket.isConnected()) {
             throw new MessagingException("no connection");
         }
-        try { // don't write it in multiple times, ie build the data + "\r\n" string in memory to not get surprises on servers read() side
-            outputStream.write((data + "\r\n").getBytes("ISO8859-1"));
+        try {
+            outputStream.write(data.getBytes("ISO8859-1"));
             outputStream.flush();
         } catch (IOException e) {
             throw new MessagingException(e.toString());
@@ -1331,6 +1936,10 @@ public class SMTPConnection extends MailConnection {
         // restore that info around the reset.
         SMTPReply last = lastServerResponse;
 
+        // any data spooled for the aborted send is no longer needed.
+        discardSpool();
+        pipelinedDataReply = null;
+
         // send a reset command.
         SMTPReply line = sendCommand("RSET");
 
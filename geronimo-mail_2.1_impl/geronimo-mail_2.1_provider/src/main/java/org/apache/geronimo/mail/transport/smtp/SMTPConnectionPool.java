@@ -0,0 +1,455 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.transport.smtp;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import jakarta.mail.MessagingException;
+
+import org.apache.geronimo.mail.util.ProtocolProperties;
+
+/**
+ * A pool of authenticated SMTP connections that can be reused
+ * across SMTPTransport instances.  Pooling is enabled with the
+ * mail.smtp.connectionpool property.  Once enabled, closing a
+ * transport returns its connection to the pool instead of sending
+ * QUIT, and the next transport that connects to the same server
+ * with the same credentials picks it up without going through the
+ * connection, TLS, EHLO and AUTH handshakes again.
+ *
+ * Connections are keyed by protocol, host, port, user and every
+ * property that changes how the connection is set up or authenticated
+ * (the EHLO name, SSL/TLS and socket factory settings, and the SASL and
+ * authentication mechanism settings).  Passwords are never held by the
+ * pool; connections are matched on a salted digest of the password.
+ * A pooled connection is checked with RSET before it is handed out,
+ * which also clears any leftover transaction state.  Idle connections
+ * are closed by a background timer once their pool timeout expires.
+ *
+ * @version $Rev$ $Date$
+ */
+public class SMTPConnectionPool {
+    protected static final String MAIL_PORT = "port";
+    protected static final String MAIL_SSL_ENABLE = "ssl.enable";
+    protected static final String MAIL_POOL_ENABLE = "connectionpool";
+    protected static final String MAIL_POOL_SIZE = "connectionpoolsize";
+    protected static final String MAIL_POOL_TIMEOUT = "connectionpooltimeout";
+    protected static final String MAIL_POOL_MAX_MESSAGES = "connectionpoolmaxmessages";
+    protected static final String MAIL_SSL_FACTORY = "ssl.socketFactory";
+    protected static final String MAIL_FACTORY = "socketFactory";
+
+    // the string valued properties that affect how a connection is set up or authenticated.
+    protected static final String[] KEY_PROPERTIES = {
+        "localhost", "localaddress", "localport", "ehlo",
+        "ssl.trust", "ssl.protocols", "ssl.ciphersuites", "ssl.checkserveridentity",
+        "ssl.socketFactory.class", "ssl.socketFactory.port",
+        "socketFactory.class", "socketFactory.fallback", "socketFactory.port",
+        "starttls.required", "auth", "auth.mechanisms", "auth.plain.disable", "auth.login.disable",
+        "sasl.enable", "sasl.mechanisms", "sasl.realm", "sasl.authorizationid",
+    };
+
+    // the number of idle connections kept for each server, by default.
+    protected static final int DEFAULT_POOL_SIZE = 4;
+    // 45 seconds, by default.
+    protected static final int DEFAULT_POOL_TIMEOUT = 45000;
+    // the number of messages we'll send over a connection before retiring it.
+    protected static final int DEFAULT_MAX_MESSAGES = 100;
+
+    // the shared pool instance
+    protected static final SMTPConnectionPool pool = new SMTPConnectionPool();
+
+    // the idle connections, keyed by server identity.  Each entry is a list of PooledConnection
+    // items with the most recently used connections at the front.
+    protected Map idleConnections = new HashMap();
+    // closes idle connections once they expire.  Only created while there are idle connections.
+    protected Timer evictionTimer;
+    // the salt mixed into the password digests
+    protected byte[] salt = new byte[16];
+
+    public SMTPConnectionPool() {
+        new SecureRandom().nextBytes(salt);
+    }
+
+    /**
+     * Get the shared connection pool.
+     *
+     * @return The pool instance used by all SMTP transports.
+     */
+    public static SMTPConnectionPool getInstance() {
+        return pool;
+    }
+
+    /**
+     * Test if pooling has been enabled for a protocol instance.
+     *
+     * @param props  The protocol properties.
+     *
+     * @return true if connections should be pooled.
+     */
+    public static boolean isPoolingEnabled(ProtocolProperties props) {
+        return props.getBooleanProperty(MAIL_POOL_ENABLE, false);
+    }
+
+    /**
+     * Build the key used to match pooled connections.
+     *
+     * @param props    The protocol properties.
+     * @param host     The target host.
+     * @param port     The target port (-1 for the configured default).
+     * @param username The connection user (can be null).
+     * @param startTLS true if the connection is switched to TLS with STARTTLS.
+     *
+     * @return The pool key for the connection.
+     */
+    public static String getPoolKey(ProtocolProperties props, String host, int port, String username, boolean startTLS) {
+        // resolve the port the same way the connection does
+        if (port == -1) {
+            port = props.getIntProperty(MAIL_PORT, props.getDefaultPort());
+            if (port == -1) {
+                port = props.getDefaultPort();
+            }
+        }
+        boolean ssl = props.getBooleanProperty(MAIL_SSL_ENABLE, props.getSSLConnection());
+
+        StringBuffer key = new StringBuffer();
+        key.append(props.getProtocol());
+        key.append("://");
+        if (username != null) {
+            key.append(username);
+            key.append('@');
+        }
+        key.append(host);
+        key.append(':');
+        key.append(port);
+        if (ssl) {
+            key.append(";ssl");
+        }
+        if (startTLS) {
+            key.append(";starttls");
+        }
+        for (int i = 0; i < KEY_PROPERTIES.length; i++) {
+            String value = props.getProperty(KEY_PROPERTIES[i]);
+            if (value != null) {
+                key.append(';');
+                key.append(KEY_PROPERTIES[i]);
+                key.append('=');
+                key.append(value);
+            }
+        }
+        // socket factory instances can only be told apart by identity
+        appendFactory(key, MAIL_SSL_FACTORY, props.getPropertyAsObject(MAIL_SSL_FACTORY));
+        appendFactory(key, MAIL_FACTORY, props.getPropertyAsObject(MAIL_FACTORY));
+        return key.toString();
+    }
+
+    /**
+     * Add a socket factory instance to a pool key.
+     *
+     * @param key     The key being built.
+     * @param name    The factory property name.
+     * @param factory The configured factory (can be null or a class name).
+     */
+    protected static void appendFactory(StringBuffer key, String name, Object factory) {
+        if (factory == null || factory instanceof String) {
+            return;
+        }
+        key.append(';');
+        key.append(name);
+        key.append('=');
+        key.append(factory.getClass().getName());
+        key.append('@');
+        key.append(Integer.toHexString(System.identityHashCode(factory)));
+    }
+
+    /**
+     * Turn a password into the credential used to match pooled
+     * connections, so the password itself doesn't stay in memory
+     * for as long as the connection is pooled.
+     *
+     * @param password The connection password (can be null).
+     *
+     * @return A salted digest of the password, or null for no password.
+     */
+    public byte[] getCredential(String password) {
+        if (password == null) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            return digest.digest(password.getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException e) {
+            // every platform is required to support SHA-256
+            throw new IllegalStateException(e.toString());
+        } catch (UnsupportedEncodingException e) {
+            // nor can UTF-8 be missing
+            throw new IllegalStateException(e.toString());
+        }
+    }
+
+    /**
+     * Retrieve a live connection from the pool.
+     *
+     * @param key        The pool key for the target server.
+     * @param credential The getCredential() value for the password the caller is
+     *                   connecting with.  Only connections authenticated with the
+     *                   same password are reused.
+     *
+     * @return A connected SMTPConnection, or null if there are no usable
+     *         pooled connections.
+     */
+    public SMTPConnection getConnection(String key, byte[] credential) {
+        while (true) {
+            PooledConnection pooled = null;
+            List expired = new ArrayList();
+
+            synchronized (this) {
+                collectExpired(expired);
+
+                List connections = (List)idleConnections.get(key);
+                if (connections != null) {
+                    Iterator it = connections.iterator();
+                    while (it.hasNext()) {
+                        PooledConnection candidate = (PooledConnection)it.next();
+                        if (candidate.matches(credential)) {
+                            it.remove();
+                            pooled = candidate;
+                            break;
+                        }
+                    }
+                    if (connections.isEmpty()) {
+                        idleConnections.remove(key);
+                    }
+                }
+            }
+
+            // shut down anything that's been sitting around too long.  This
+            // happens outside of the lock, since it talks to the server.
+            closeConnections(expired);
+
+            if (pooled == null) {
+                return null;
+            }
+            // verify this is still good before handing it out.  If the server
+            // has dropped it, just try the next one.
+            if (pooled.connection.isAlive()) {
+                return pooled.connection;
+            }
+            pooled.connection.closeServerConnection();
+        }
+    }
+
+    /**
+     * Return a connection to the pool.  The connection is closed
+     * instead if it's no longer connected, has reached the message
+     * limit, or the pool for this server is already full.
+     *
+     * @param props      The properties of the releasing transport.
+     * @param key        The pool key for the server.
+     * @param credential The getCredential() value for the password used to
+     *                   authenticate the connection.
+     * @param connection The connection being released.
+     */
+    public void releaseConnection(ProtocolProperties props, String key, byte[] credential, SMTPConnection connection) {
+        int poolSize = props.getIntProperty(MAIL_POOL_SIZE, DEFAULT_POOL_SIZE);
+        int maxMessages = props.getIntProperty(MAIL_POOL_MAX_MESSAGES, DEFAULT_MAX_MESSAGES);
+        long timeout = props.getIntProperty(MAIL_POOL_TIMEOUT, DEFAULT_POOL_TIMEOUT);
+
+        List expired = new ArrayList();
+        boolean pooled = false;
+
+        if (connection.isConnected() && (maxMessages <= 0 || connection.getMessageCount() < maxMessages)) {
+            synchronized (this) {
+                collectExpired(expired);
+
+                List connections = (List)idleConnections.get(key);
+                if (connections == null) {
+                    connections = new LinkedList();
+                    idleConnections.put(key, connections);
+                }
+                if (connections.size() < poolSize) {
+                    // most recently used goes to the front, so busy servers keep
+                    // reusing the same connections and the rest can age out.
+                    connections.add(0, new PooledConnection(connection, credential, System.currentTimeMillis() + timeout));
+                    pooled = true;
+                    scheduleEviction(timeout);
+                }
+                else if (connections.isEmpty()) {
+                    idleConnections.remove(key);
+                }
+            }
+        }
+
+        if (!pooled) {
+            expired.add(connection);
+        }
+        closeConnections(expired);
+    }
+
+    /**
+     * Close all of the idle connections in the pool.
+     */
+    public void close() {
+        List connections = new ArrayList();
+        synchronized (this) {
+            Iterator it = idleConnections.values().iterator();
+            while (it.hasNext()) {
+                Iterator entries = ((List)it.next()).iterator();
+                while (entries.hasNext()) {
+                    connections.add(((PooledConnection)entries.next()).connection);
+                }
+            }
+            idleConnections.clear();
+            if (evictionTimer != null) {
+                evictionTimer.cancel();
+                evictionTimer = null;
+            }
+        }
+        closeConnections(connections);
+    }
+
+    /**
+     * Arrange for the idle connections to be checked once a newly
+     * pooled connection expires.  Must be called with the pool lock held.
+     *
+     * @param timeout The idle time allowed for the connection.
+     */
+    protected void scheduleEviction(long timeout) {
+        if (evictionTimer == null) {
+            evictionTimer = new Timer("SMTP connection pool eviction", true);
+        }
+        evictionTimer.schedule(new TimerTask() {
+            public void run() {
+                evictExpired();
+            }
+        }, Math.max(timeout, 0));
+    }
+
+    /**
+     * Close any connections whose idle time has run out.  Once the
+     * pool is empty, the timer thread is stopped as well.
+     */
+    protected void evictExpired() {
+        List expired = new ArrayList();
+        synchronized (this) {
+            collectExpired(expired);
+            if (idleConnections.isEmpty() && evictionTimer != null) {
+                evictionTimer.cancel();
+                evictionTimer = null;
+            }
+        }
+        closeConnections(expired);
+    }
+
+    /**
+     * Get the number of idle connections held for a server.
+     *
+     * @param key    The pool key for the server.
+     *
+     * @return The count of idle connections.
+     */
+    public synchronized int getIdleCount(String key) {
+        List connections = (List)idleConnections.get(key);
+        return connections == null ? 0 : connections.size();
+    }
+
+    /**
+     * Remove any connections that have been idle longer than
+     * their timeout.  Must be called with the pool lock held.
+     *
+     * @param expired The list that receives the expired connections.
+     */
+    protected void collectExpired(List expired) {
+        long now = System.currentTimeMillis();
+
+        Iterator it = idleConnections.values().iterator();
+        while (it.hasNext()) {
+            List connections = (List)it.next();
+            Iterator entries = connections.iterator();
+            while (entries.hasNext()) {
+                PooledConnection pooled = (PooledConnection)entries.next();
+                if (pooled.expires <= now) {
+                    entries.remove();
+                    expired.add(pooled.connection);
+                }
+            }
+            if (connections.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Close a list of connections, ignoring any errors.
+     *
+     * @param connections The connections to close.
+     */
+    protected void closeConnections(List connections) {
+        for (int i = 0; i < connections.size(); i++) {
+            SMTPConnection connection = (SMTPConnection)connections.get(i);
+            try {
+                connection.close();
+            } catch (MessagingException e) {
+                // make sure the socket goes away, even if QUIT failed
+                connection.closeServerConnection();
+            }
+        }
+    }
+
+    /**
+     * An idle connection held in the pool.
+     */
+    protected static class PooledConnection {
+        // the pooled connection
+        protected SMTPConnection connection;
+        // the digest of the password used to authenticate the connection
+        protected byte[] credential;
+        // the time this connection is evicted from the pool
+        protected long expires;
+
+        PooledConnection(SMTPConnection connection, byte[] credential, long expires) {
+            this.connection = connection;
+            this.credential = credential;
+            this.expires = expires;
+        }
+
+        /**
+         * Test if this connection was authenticated with a given password.
+         *
+         * @param credential The digest of the password to check.
+         *
+         * @return true if the passwords match.
+         */
+        boolean matches(byte[] credential) {
+            return this.credential == null ? credential == null : credential != null && MessageDigest.isEqual(this.credential, credential);
+        }
+    }
+}
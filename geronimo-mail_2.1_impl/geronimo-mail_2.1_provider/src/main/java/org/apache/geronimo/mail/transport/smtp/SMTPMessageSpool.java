@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.transport.smtp;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream used to capture the encoded form of a message
+ * before it is sent.  When the server supports the SIZE extension,
+ * the message is written to the spool once; the spooled byte count
+ * gives the SIZE value for the MAIL FROM command and the spooled
+ * data is replayed for the DATA command without serializing the
+ * message a second time.
+ *
+ * Data is held in memory until the threshold is exceeded, at which
+ * point everything written so far is moved to a temporary file.
+ *
+ * @version $Rev$ $Date$
+ */
+public class SMTPMessageSpool extends OutputStream {
+    // size of the copy buffer used for file operations
+    protected static final int SPOOL_BUFFER_SIZE = 8192;
+
+    // the number of bytes we're willing to hold in memory.
+    protected int threshold;
+    // the in-memory buffer (null once we've switched to a file)
+    protected ByteArrayOutputStream buffer;
+    // the spool file, once the threshold has been exceeded
+    protected File file;
+    // the output stream for the spool file
+    protected OutputStream fileOut;
+    // the total number of bytes written to the spool
+    protected long size = 0;
+
+    /**
+     * Create a spool that holds up to threshold bytes in memory.
+     *
+     * @param threshold The in-memory limit.  A value less than zero
+     *                  keeps everything in memory.
+     */
+    public SMTPMessageSpool(int threshold) {
+        this.threshold = threshold;
+        buffer = new ByteArrayOutputStream();
+    }
+
+    public void write(int ch) throws IOException {
+        checkSpace(1);
+        if (fileOut != null) {
+            fileOut.write(ch);
+        }
+        else {
+            buffer.write(ch);
+        }
+        size++;
+    }
+
+    public void write(byte[] data, int offset, int length) throws IOException {
+        checkSpace(length);
+        if (fileOut != null) {
+            fileOut.write(data, offset, length);
+        }
+        else {
+            buffer.write(data, offset, length);
+        }
+        size += length;
+    }
+
+    /**
+     * Switch over to the spool file if the pending write
+     * would take us over the memory threshold.
+     *
+     * @param length The size of the pending write.
+     *
+     * @exception IOException
+     */
+    protected void checkSpace(int length) throws IOException {
+        if (fileOut != null || threshold < 0 || size + length <= threshold) {
+            return;
+        }
+        file = File.createTempFile("smtp", ".spool");
+        fileOut = new BufferedOutputStream(new FileOutputStream(file), SPOOL_BUFFER_SIZE);
+        // move everything accumulated so far out to the file.
+        buffer.writeTo(fileOut);
+        buffer = null;
+    }
+
+    public void flush() throws IOException {
+        if (fileOut != null) {
+            fileOut.flush();
+        }
+    }
+
+    /**
+     * Get the number of bytes written to the spool.
+     *
+     * @return The spooled data size.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Test if the spooled data has overflowed to a file.
+     *
+     * @return true if the data is held in a temporary file.
+     */
+    public boolean isSpooledToFile() {
+        return file != null;
+    }
+
+    /**
+     * Copy the spooled data to a target stream.
+     *
+     * @param out    The target output stream.
+     *
+     * @exception IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (file == null) {
+            buffer.writeTo(out);
+            return;
+        }
+
+        fileOut.flush();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[SPOOL_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(data)) != -1) {
+                out.write(data, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Release the spooled data, deleting any temporary file.
+     */
+    public void dispose() {
+        if (fileOut != null) {
+            try {
+                fileOut.close();
+            } catch (IOException e) {
+            }
+            fileOut = null;
+        }
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+        buffer = null;
+    }
+}
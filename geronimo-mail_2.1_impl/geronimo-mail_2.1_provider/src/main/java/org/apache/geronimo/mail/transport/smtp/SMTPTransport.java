@@ -80,6 +80,11 @@ public class SMTPTransport extends Transport {
     // the last response line received from the server.
     protected SMTPReply lastServerResponse = null;
 
+    // the connection pool key, if our connection is pooled
+    protected String poolKey;
+    // the digest of the password our pooled connection was authenticated with
+    protected byte[] poolCredential;
+
     /**
      * Normal constructor for an SMTPTransport() object. This constructor is
      * used to build a transport instance for the "smtp" protocol.
@@ -159,6 +164,21 @@ public class SMTPTransport extends Transport {
      */
     protected boolean protocolConnect(String host, int port, String username, String password)
             throws MessagingException {
+        // if connection pooling is enabled, see if we can pick up an
+        // already established connection to this server.
+        if (SMTPConnectionPool.isPoolingEnabled(props)) {
+            poolKey = SMTPConnectionPool.getPoolKey(props, host, port, username, connection.getStartTLS());
+            poolCredential = SMTPConnectionPool.getInstance().getCredential(password);
+
+            SMTPConnection pooled = SMTPConnectionPool.getInstance().getConnection(poolKey, poolCredential);
+            if (pooled != null) {
+                // the connection now sends on behalf of our session
+                pooled.setProtocolProperties(props);
+                pooled.setReportSuccess(connection.getReportSuccess());
+                connection = pooled;
+                return true;
+            }
+        }
         // the connection pool handles all of the details here. 
         return connection.protocolConnect(host, port, username, password);
     }
@@ -239,10 +259,28 @@ public class SMTPTransport extends Transport {
         Address[] invalid = null;
 
         try {
+            // get the additional notification status, if available 
+            String dsn = getDeliveryStatusNotification(message);
+
+            // if the server allows it, the whole envelope goes out as a single
+            // command group.  The DATA command is only included when partial sends
+            // are allowed, since otherwise we may need to abort after seeing the
+            // recipient replies.
+            boolean pipelined = connection.supportsPipelining();
+            boolean senderAccepted;
+            if (pipelined) {
+                InternetAddress[] targets = new InternetAddress[addresses.length];
+                System.arraycopy(addresses, 0, targets, 0, addresses.length);
+                senderAccepted = connection.sendPipelinedEnvelope(message, targets, dsn, stats, partialSends);
+            }
+            else {
+                senderAccepted = connection.sendMailFrom(message);
+            }
+
             // send sender first. If this failed, send a failure notice of the
             // event, using the full list of
             // addresses as the unsent, and nothing for the rest.
-            if (!connection.sendMailFrom(message)) {
+            if (!senderAccepted) {
                 unsent = addresses;
                 sent = new Address[0];
                 invalid = new Address[0];
@@ -256,9 +294,6 @@ public class SMTPTransport extends Transport {
                         invalid);
             }
 
-            // get the additional notification status, if available 
-            String dsn = getDeliveryStatusNotification(message);
-
             // we need to know about any failures once we've gone through the
             // complete list, so keep a
             // failure flag.
@@ -282,9 +317,12 @@ public class SMTPTransport extends Transport {
             for (int i = 0; i < addresses.length; i++) {
                 InternetAddress target = (InternetAddress) addresses[i];
 
-                // write out the record now.
-                SendStatus status = connection.sendRcptTo(target, dsn);
-                stats[i] = status;
+                // write out the record now, unless the reply was already
+                // collected as part of a pipelined envelope.
+                if (!pipelined) {
+                    stats[i] = connection.sendRcptTo(target, dsn);
+                }
+                SendStatus status = stats[i];
 
                 switch (status.getStatus()) {
                     // successfully sent
@@ -497,6 +535,22 @@ public class SMTPTransport extends Transport {
     public void close() throws MessagingException {
         // This is done to ensure proper event notification.
         super.close();
+
+        // a pooled connection goes back into the pool rather than being shut down.
+        if (poolKey != null && connection.isConnected()) {
+            SMTPConnection released = connection;
+            // another transport may pick up the released connection, so we
+            // need a fresh one in case we're asked to reconnect.
+            connection = new SMTPConnection(props);
+            connection.copySettings(released);
+
+            SMTPConnectionPool.getInstance().releaseConnection(props, poolKey, poolCredential, released);
+            poolKey = null;
+            poolCredential = null;
+            return;
+        }
+        poolKey = null;
+        poolCredential = null;
         // NB:  We reuse the connection if asked to reconnect 
         connection.close();
     }
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream for reading multi-line protocol data (such as a POP3
+ * RETR response).  This removes the "byte-stuffed" leading period from
+ * lines that begin with one, and ends the data at the terminating
+ * CRLF.CRLF marker.  This is the byte-oriented counterpart of
+ * MIMEInputReader, so the data is never decoded into characters.
+ *
+ * The source stream is read a byte at a time so nothing following the
+ * terminator is consumed, which means the source should be buffered.
+ *
+ * @version $Rev$ $Date$
+ */
+public class MIMEInputStream extends InputStream {
+
+    // the wrappered input stream.
+    protected InputStream source;
+
+    // a flag to indicate we've just processed a line break. This is used for
+    // byte stuffing purposes. This is initially true, because if the first
+    // character of the content is a period, it needs to be unstuffed immediately.
+    protected boolean atLineBreak = true;
+    // we've hit the terminating marker on the data
+    protected boolean endOfData = false;
+
+    /**
+     * Create an input stream that reads from the source input stream.
+     *
+     * @param source The wrapped (buffered) stream.
+     */
+    public MIMEInputStream(InputStream source) {
+        this.source = source;
+    }
+
+    /**
+     * Read a single byte of the data.
+     *
+     * @return The byte value, or -1 at the end of the data.
+     * @exception IOException
+     */
+    public int read() throws IOException {
+        // have we hit the end of data?  Return a -1 indicator
+        if (endOfData) {
+            return -1;
+        }
+        int ch = nextByte();
+        if (ch == -1) {
+            endOfData = true;
+        }
+        return ch;
+    }
+
+    /**
+     * Read a block of data, with the byte-stuffing removed.
+     *
+     * @param buffer The buffer to fill.
+     * @param off    The offset to start adding bytes.
+     * @param len    The number of requested bytes.
+     *
+     * @return The actual count of bytes read.  Returns -1
+     *         if we hit the end of the data without reading any bytes.
+     * @exception IOException
+     */
+    public int read(byte[] buffer, int off, int len) throws IOException {
+        // we've been asked for nothing, we'll return nothing.
+        if (len == 0) {
+            return 0;
+        }
+
+        // have we hit the end of data?  Return a -1 indicator
+        if (endOfData) {
+            return -1;
+        }
+
+        int bytesRead = 0;
+        int ch;
+
+        while (bytesRead < len && (ch = nextByte()) >= 0) {
+            buffer[off++] = (byte)ch;
+            bytesRead++;
+        }
+
+        // we must have had an EOF condition of some sort
+        if (bytesRead == 0) {
+            endOfData = true;
+            return -1;
+        }
+        return bytesRead;
+    }
+
+    /**
+     * Read the next data byte from the source, removing the
+     * byte-stuffing.
+     *
+     * @return The byte value, or -1 at the terminating marker or the
+     *         end of the source.
+     * @exception IOException
+     */
+    protected int nextByte() throws IOException {
+        int ch = source.read();
+        // check for the end of data marker (".CRLF") or a byte-stuffed
+        // period at the start of a line.
+        if (atLineBreak && ch == '.') {
+            ch = source.read();
+            // we have ".CR"...this is our end of stream
+            // marker.  Consume the LF and return
+            if (ch == '\r') {
+                source.read();
+                endOfData = true;
+                return -1;
+            }
+            // otherwise we've dropped the stuffed period, and this is the real data byte
+            // (or the premature end of the source).
+        }
+        if (ch < 0) {
+            return -1;
+        }
+        // remember if we just had a line break
+        atLineBreak = ch == '\n';
+        return ch;
+    }
+
+    /**
+     * Close the stream.  The source stream is left open, since it
+     * belongs to the connection.
+     *
+     * @exception IOException
+     */
+    public void close() throws IOException {
+        // does nothing
+    }
+}
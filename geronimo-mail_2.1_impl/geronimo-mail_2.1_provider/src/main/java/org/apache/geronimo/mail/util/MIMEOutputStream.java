@@ -44,6 +44,10 @@ public class MIMEOutputStream extends OutputStream {
     // immediately.
     protected boolean atLineBreak = true;
 
+    // are we performing byte-stuffing?  This is not required when the data is
+    // sent with a byte count rather than an end-of-data marker.
+    protected boolean byteStuff = true;
+
     /**
      * Create an output stream that writes to the target output stream.
      * 
@@ -54,6 +58,20 @@ public class MIMEOutputStream extends OutputStream {
         this.out = out;
     }
 
+    /**
+     * Create an output stream that writes to the target output stream,
+     * optionally disabling the byte-stuffing of leading periods.
+     * 
+     * @param out
+     *            The wrapped output stream.
+     * @param byteStuff
+     *            true if lines beginning with a "." should be byte-stuffed.
+     */
+    public MIMEOutputStream(OutputStream out, boolean byteStuff) {
+        this.out = out;
+        this.byteStuff = byteStuff;
+    }
+
     // in order for this to work, we only need override the single character
     // form, as the others
     // funnel through this one by default.
@@ -80,7 +98,7 @@ public class MIMEOutputStream extends OutputStream {
             atLineBreak = true;
         }
         // potential byte-stuffing situation?
-        else if (ch == '.') {
+        else if (ch == '.' && byteStuff) {
             // ok, this is a potential stuff situation. Did we just have a line
             // break? Double up the character.
             if (atLineBreak) {
@@ -96,6 +114,48 @@ public class MIMEOutputStream extends OutputStream {
         // remember this last one for CRLF tracking purposes.
         lastWrite = ch;
     }
+
+
+    /**
+     * Write a block of data.  Runs of characters that don't need any
+     * special handling are passed through to the wrapped stream in a
+     * single write, and only line breaks and byte-stuffing candidates
+     * are processed one character at a time.
+     */
+    public void write(byte[] data, int offset, int length) throws IOException {
+        int start = offset;
+        int end = offset + length;
+
+        for (int i = offset; i < end; i++) {
+            int ch = data[i] & 0xff;
+            // a period only needs attention if it is the first character of a line, which
+            // can only happen if there's nothing pending in the current run.
+            if (ch == '\r' || ch == '\n' || (ch == '.' && byteStuff && i == start && atLineBreak)) {
+                writeRun(data, start, i);
+                write(ch);
+                start = i + 1;
+            }
+        }
+        writeRun(data, start, end);
+    }
+
+
+    /**
+     * Write out a run of characters that require no conversion.
+     *
+     * @param data   The source data.
+     * @param start  The start of the run.
+     * @param end    The end of the run (exclusive).
+     *
+     * @exception IOException
+     */
+    protected void writeRun(byte[] data, int start, int end) throws IOException {
+        if (end > start) {
+            out.write(data, start, end - start);
+            atLineBreak = false;
+            lastWrite = data[end - 1] & 0xff;
+        }
+    }
     
     
     /**
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.InetAddress;
@@ -35,9 +36,11 @@ import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.WeakHashMap;
 
 import jakarta.mail.MessagingException;
 import jakarta.mail.Session;
@@ -106,6 +109,13 @@ public class MailConnection {
 
     protected static final String CAPABILITY_STARTTLS = "STARTTLS";
 
+    // SSL socket factories created from an SSLContext, keyed by the ssl.trust setting.  Sharing
+    // the context shares its session cache, so new connections can resume earlier TLS sessions.
+    private static final Map sslContextFactories = new HashMap();
+    // socket factories instantiated from a configured class name, keyed by class loader and class name.
+    // The entries are soft references so a cached factory doesn't pin its class loader.
+    private static final Map configuredFactories = new WeakHashMap();
+
     protected static final String AUTHENTICATION_PLAIN = "PLAIN";
     protected static final String AUTHENTICATION_LOGIN = "LOGIN";
     protected static final String AUTHENTICATION_CRAMMD5 = "CRAM-MD5";
@@ -349,31 +359,17 @@ public class MailConnection {
                 
                 // use the current context loader to resolve this.
                 ClassLoader loader = Thread.currentThread().getContextClassLoader();
-                Class factoryClass = loader.loadClass(socketFactoryClass);
+                // the factory instance and its createSocket() methods are only resolved once
+                // for a given class, so repeated connections skip the reflective lookups.
+                ConfiguredSocketFactory factory = getConfiguredSocketFactory(loader, socketFactoryClass);
+                Object defFactory = factory.getFactory();
 
-                // done indirectly, we need to invoke the method using reflection.
-                // This retrieves a factory instance.
-                //Method getDefault = factoryClass.getMethod("getDefault", new Class[0]); //TODO check instantiation of socket factory
-                // Object defFactory = factoryClass.newInstance();// getDefault.invoke(new Object(), new Object[0]);
                 // now that we have the factory, there are two different createSocket() calls we use,
                 // depending on whether we have a localAddress override.
-
-                Object defFactory;
-                try {
-                	defFactory = factoryClass.getConstructor().newInstance();
-                } catch (Throwable t) {
-                	Method getDefault = factoryClass.getMethod("getDefault", new Class[0]); //TODO check instantiation of socket factory
-                	defFactory = getDefault.invoke(new Object(), new Object[0]);                    	
-
-                	if (defFactory == null) {
-                    	throw new Exception("Can not create factory class '" + factoryClass.getName() + "' neither by creating a new instance or using getDefault()", t);
-                    }
-                }
-                                
                 if (localAddress != null && !layer) {
                     // retrieve the createSocket(String, int, InetAddress, int) method.
                     Class[] createSocketSig = new Class[] { String.class, Integer.TYPE, InetAddress.class, Integer.TYPE };
-                    Method createSocket = factoryClass.getMethod("createSocket", createSocketSig);
+                    Method createSocket = factory.getMethod("createSocket", createSocketSig);
 
                     Object[] createSocketArgs = new Object[] { serverHost, portArg, localAddress, Integer.valueOf(localPort) };
                     socket = (Socket)createSocket.invoke(defFactory, createSocketArgs);
@@ -383,7 +379,7 @@ public class MailConnection {
                     if(layer) {
                      // retrieve the createSocket(String, int) method.
                         Class[] createSocketSig = new Class[] { Socket.class, String.class, Integer.TYPE, Boolean.TYPE };
-                        Method createSocket = factoryClass.getMethod("createSocket", createSocketSig);
+                        Method createSocket = factory.getMethod("createSocket", createSocketSig);
 
                         Object[] createSocketArgs = new Object[] { socket, serverHost, Integer.valueOf(serverPort), Boolean.TRUE };
                         socket = (Socket)createSocket.invoke(defFactory, createSocketArgs);
@@ -391,7 +387,7 @@ public class MailConnection {
                     } else {
                      // retrieve the createSocket(String, int) method.
                         Class[] createSocketSig = new Class[] { String.class, Integer.TYPE };
-                        Method createSocket = factoryClass.getMethod("createSocket", createSocketSig);
+                        Method createSocket = factory.getMethod("createSocket", createSocketSig);
 
                         Object[] createSocketArgs = new Object[] { serverHost, portArg };
                         socket = (Socket)createSocket.invoke(defFactory, createSocketArgs);
@@ -428,6 +424,36 @@ public class MailConnection {
         
         return true;
     }
+
+
+    /**
+     * Get the cached instance of a socket factory class, creating
+     * and caching a new one on first use.
+     *
+     * @param loader    The class loader used to resolve the factory class.
+     * @param className The factory class name.
+     *
+     * @return The cached factory information.
+     * @exception Exception
+     */
+    static ConfiguredSocketFactory getConfiguredSocketFactory(ClassLoader loader, String className) throws Exception {
+        synchronized (configuredFactories) {
+            Map factories = (Map)configuredFactories.get(loader);
+            if (factories == null) {
+                factories = new HashMap();
+                configuredFactories.put(loader, factories);
+            }
+            SoftReference ref = (SoftReference)factories.get(className);
+            ConfiguredSocketFactory factory = ref == null ? null : (ConfiguredSocketFactory)ref.get();
+            if (factory == null) {
+                // we only cache successfully created factories, so a failure here
+                // will be retried on the next connection.
+                factory = new ConfiguredSocketFactory(loader.loadClass(className));
+                factories.put(className, new SoftReference(factory));
+            }
+            return factory;
+        }
+    }
     
     private void createSocketFromFactory(SocketFactory sf, boolean layer) throws IOException {
         
@@ -473,10 +499,45 @@ public class MailConnection {
 
         
         try {
-            SSLContext sslcontext = SSLContext.getInstance("TLS");
-            
             String sslTrust = props.getProperty(MAIL_SSL_TRUST);
             
+            if(sslTrust != null && !sslTrust.equals("*")) {
+                String[] trustedHosts = sslTrust.split("\\s+");
+                if(serverHost == null || serverHost.isEmpty() || !Arrays.asList(trustedHosts).contains(serverHost)) {
+                    throw new IOException("Server is not trusted: " + serverHost);
+                }
+            }
+            
+            createSocketFromFactory(getSSLContextSocketFactory(sslTrust), layer);
+        } catch (KeyManagementException e) {
+            //cannot happen
+            throw new IOException(e);
+        } catch (NoSuchAlgorithmException e) {
+            //cannot happen
+            throw new IOException(e);
+        }
+    }
+    
+    /**
+     * Get the socket factory for an SSLContext configured with the
+     * trust settings for a given ssl.trust value.  The contexts are
+     * shared by all connections, so later connections to a server can
+     * resume an earlier TLS session instead of doing a full handshake.
+     *
+     * @param sslTrust The ssl.trust property value (can be null).
+     *
+     * @return An SSLSocketFactory from the shared context.
+     */
+    static SSLSocketFactory getSSLContextSocketFactory(String sslTrust) throws IOException, NoSuchAlgorithmException, KeyManagementException {
+        String key = sslTrust == null ? "" : sslTrust;
+        synchronized (sslContextFactories) {
+            SSLSocketFactory factory = (SSLSocketFactory)sslContextFactories.get(key);
+            if (factory != null) {
+                return factory;
+            }
+
+            SSLContext sslcontext = SSLContext.getInstance("TLS");
+            
             TrustManager trustManager = null;
             
             if(sslTrust != null) {
@@ -486,11 +547,6 @@ public class MailConnection {
                 {
                    String[] trustedHosts = sslTrust.split("\\s+");
                    trustManager = new SSLTrustManager(trustedHosts, false); //trust some
-                   
-                   if(serverHost == null || serverHost.isEmpty() || !Arrays.asList(trustedHosts).contains(serverHost)) {
-                       throw new IOException("Server is not trusted: " + serverHost);
-                   }
-                   
                 }
             } else {
                 trustManager = new SSLTrustManager(null, false); //default
@@ -498,14 +554,10 @@ public class MailConnection {
             }
              
             sslcontext.init(null, new TrustManager[]{trustManager}, null);
-            
-            createSocketFromFactory(sslcontext.getSocketFactory(), layer);
-        } catch (KeyManagementException e) {
-            //cannot happen
-            throw new IOException(e);
-        } catch (NoSuchAlgorithmException e) {
-            //cannot happen
-            throw new IOException(e);
+
+            factory = sslcontext.getSocketFactory();
+            sslContextFactories.put(key, factory);
+            return factory;
         }
     }
     
@@ -938,7 +990,64 @@ public class MailConnection {
         this.localHost = localHost;
     }
     
-    private class SSLTrustManager implements X509TrustManager {
+    /**
+     * A socket factory created from a configured class name, along
+     * with the reflective createSocket() methods resolved for it.
+     */
+    private static class ConfiguredSocketFactory {
+        // the configured factory class
+        private final Class factoryClass;
+        // the factory instance
+        private final Object factory;
+        // the resolved methods, keyed by signature
+        private final Map methods = new HashMap();
+
+        ConfiguredSocketFactory(Class factoryClass) throws Exception {
+            this.factoryClass = factoryClass;
+            // done indirectly, we need to invoke the method using reflection.
+            // This retrieves a factory instance.
+            Object defFactory;
+            try {
+                defFactory = factoryClass.getConstructor().newInstance();
+            } catch (Throwable t) {
+                Method getDefault = factoryClass.getMethod("getDefault", new Class[0]);
+                defFactory = getDefault.invoke(new Object(), new Object[0]);
+
+                if (defFactory == null) {
+                    throw new Exception("Can not create factory class '" + factoryClass.getName() + "' neither by creating a new instance or using getDefault()", t);
+                }
+            }
+            factory = defFactory;
+        }
+
+        Object getFactory() {
+            return factory;
+        }
+
+        /**
+         * Retrieve a method of the factory, resolving it on first use.
+         *
+         * @param name      The method name.
+         * @param signature The method parameter types.
+         *
+         * @return The resolved Method.
+         * @exception NoSuchMethodException
+         */
+        synchronized Method getMethod(String name, Class[] signature) throws NoSuchMethodException {
+            String key = name + Arrays.asList(signature);
+            Method method = (Method)methods.get(key);
+            if (method == null) {
+                // resolve against the configured class, since the instance returned by
+                // getDefault() may be a non-public implementation class.
+                method = factoryClass.getMethod(name, signature);
+                methods.put(key, method);
+            }
+            return method;
+        }
+    }
+    
+    
+    private static class SSLTrustManager implements X509TrustManager {
         
         private final X509TrustManager defaultTrustManager;
         
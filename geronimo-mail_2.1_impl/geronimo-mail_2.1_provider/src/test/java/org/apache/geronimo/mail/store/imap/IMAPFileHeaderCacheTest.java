@@ -0,0 +1,158 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.store.imap;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import jakarta.mail.Session;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the file based header cache:  entries must survive a
+ * restart, be discarded on a UIDVALIDITY change, and a record torn by
+ * a crash must not poison the rest of the file.
+ */
+public class IMAPFileHeaderCacheTest {
+
+    private File directory;
+
+    @BeforeEach
+    public void createDirectory() throws Exception {
+        directory = Files.createTempDirectory("hcache").toFile();
+    }
+
+    @AfterEach
+    public void removeDirectory() {
+        remove(directory);
+    }
+
+    private void remove(final File file) {
+        final File[] files = file.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            remove(files[i]);
+        }
+        file.delete();
+    }
+
+    private byte[] bytes(final String data) throws Exception {
+        return data.getBytes("ISO8859-1");
+    }
+
+    @Test
+    public void testEntriesSurviveRestart() throws Exception {
+        IMAPFileHeaderCache cache = new IMAPFileHeaderCache(directory);
+        cache.put("INBOX", 3, 101, bytes("RFC822.SIZE 10"));
+        cache.put("Lists/geronimo", 9, 101, bytes("RFC822.SIZE 20"));
+        cache.put("INBOX", 3, 102, bytes("RFC822.SIZE 30"));
+        cache.close();
+
+        cache = new IMAPFileHeaderCache(directory);
+        assertArrayEquals(bytes("RFC822.SIZE 10"), cache.get("INBOX", 3, 101));
+        assertArrayEquals(bytes("RFC822.SIZE 30"), cache.get("INBOX", 3, 102));
+        assertArrayEquals(bytes("RFC822.SIZE 20"), cache.get("Lists/geronimo", 9, 101));
+        assertNull(cache.get("INBOX", 3, 103));
+        cache.close();
+    }
+
+    @Test
+    public void testUidValidityChangeDiscardsEntries() throws Exception {
+        IMAPFileHeaderCache cache = new IMAPFileHeaderCache(directory);
+        cache.put("INBOX", 3, 101, bytes("RFC822.SIZE 10"));
+        assertNull(cache.get("INBOX", 4, 101));
+        cache.put("INBOX", 4, 102, bytes("RFC822.SIZE 30"));
+        cache.close();
+
+        cache = new IMAPFileHeaderCache(directory);
+        assertNull(cache.get("INBOX", 4, 101));
+        assertArrayEquals(bytes("RFC822.SIZE 30"), cache.get("INBOX", 4, 102));
+        cache.close();
+    }
+
+    @Test
+    public void testReplacedEntriesAreCompacted() throws Exception {
+        IMAPFileHeaderCache cache = new IMAPFileHeaderCache(directory);
+        for (int i = 0; i < 50; i++) {
+            cache.put("INBOX", 3, 101, bytes("RFC822.SIZE " + i));
+        }
+        cache.put("INBOX", 3, 102, bytes("RFC822.SIZE 99"));
+        cache.close();
+        final File file = new File(directory, "INBOX.hcache");
+        final long before = file.length();
+
+        cache = new IMAPFileHeaderCache(directory);
+        assertArrayEquals(bytes("RFC822.SIZE 49"), cache.get("INBOX", 3, 101));
+        assertArrayEquals(bytes("RFC822.SIZE 99"), cache.get("INBOX", 3, 102));
+        cache.close();
+        assertTrue(file.length() < before, "replaced records must be dropped when the file is reopened");
+        assertEquals(1, directory.listFiles().length);
+    }
+
+    @Test
+    public void testTornRecordIsDropped() throws Exception {
+        IMAPFileHeaderCache cache = new IMAPFileHeaderCache(directory);
+        cache.put("INBOX", 3, 101, bytes("RFC822.SIZE 10"));
+        cache.put("INBOX", 3, 102, bytes("RFC822.SIZE 20"));
+        cache.close();
+
+        // lose the tail of the last record
+        final File file = new File(directory, "INBOX.hcache");
+        try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+            access.setLength(access.length() - 3);
+        }
+
+        cache = new IMAPFileHeaderCache(directory);
+        assertArrayEquals(bytes("RFC822.SIZE 10"), cache.get("INBOX", 3, 101));
+        assertNull(cache.get("INBOX", 3, 102));
+        cache.put("INBOX", 3, 103, bytes("RFC822.SIZE 30"));
+        cache.close();
+
+        cache = new IMAPFileHeaderCache(directory);
+        assertArrayEquals(bytes("RFC822.SIZE 30"), cache.get("INBOX", 3, 103));
+        assertEquals(2, ((IMAPFileHeaderCache.MailboxFile) cache.mailboxes.get("INBOX")).index.size());
+        cache.close();
+    }
+
+    @Test
+    public void testAccountsOnDifferentPortsAreKeptApart() throws Exception {
+        final Properties props = new Properties();
+        props.setProperty("mail.imap.headercache.dir", directory.getPath());
+        final IMAPStore store = new IMAPStore(Session.getInstance(props), null);
+        final IMAPHeaderCache plain = store.createHeaderCache("mail.example.com", 143, "user");
+        final IMAPHeaderCache secure = store.createHeaderCache("mail.example.com", 993, "user");
+        plain.put("INBOX", 3, 101, bytes("RFC822.SIZE 10"));
+        secure.put("INBOX", 3, 101, bytes("RFC822.SIZE 20"));
+        plain.close();
+        secure.close();
+
+        // a defaulted port is the configured one
+        final IMAPHeaderCache defaulted = store.createHeaderCache("mail.example.com", -1, "user");
+        assertArrayEquals(bytes("RFC822.SIZE 10"), defaulted.get("INBOX", 3, 101));
+        defaulted.close();
+        assertEquals(2, directory.listFiles().length);
+    }
+}
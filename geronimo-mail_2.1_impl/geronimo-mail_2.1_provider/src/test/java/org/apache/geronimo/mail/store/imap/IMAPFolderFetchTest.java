@@ -0,0 +1,102 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.store.imap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import jakarta.mail.FetchProfile;
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import jakarta.mail.Store;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+
+import org.apache.geronimo.mail.testserver.AbstractProtocolTest;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests for chunked IMAPFolder.fetch():  the messages are fetched a
+ * chunk at a time, each chunk is reported to the listener, and the
+ * fetched information is applied to every message.
+ */
+public class IMAPFolderFetchTest extends AbstractProtocolTest {
+
+    protected Store connect() throws Exception {
+        final Properties props = new Properties();
+        props.setProperty("mail.imap.port", String.valueOf(imapConf.getListenerPort()));
+        props.setProperty("mail.imap.fetchchunksize", "2");
+        final Session session = Session.getInstance(props);
+        final Store store = session.getStore("imap");
+        store.connect("127.0.0.1", "serveruser", "serverpass");
+        return store;
+    }
+
+    @Test
+    public void testChunkedFetch() throws Exception {
+        start();
+
+        final Store store = connect();
+        try {
+            final IMAPFolder inbox = (IMAPFolder) store.getFolder("INBOX");
+            inbox.open(Folder.READ_WRITE);
+            try {
+                final Message[] append = new Message[5];
+                for (int i = 0; i < append.length; i++) {
+                    final MimeMessage msg = new MimeMessage(Session.getInstance(new Properties()));
+                    msg.setFrom(new InternetAddress("serveruser@localhost"));
+                    msg.setRecipient(Message.RecipientType.TO, new InternetAddress("serveruser@localhost"));
+                    msg.setSubject("chunk " + i);
+                    msg.setText("chunked fetch body " + i);
+                    append[i] = msg;
+                }
+                inbox.appendMessages(append);
+                assertEquals(5, inbox.getMessageCount());
+
+                final Message[] messages = inbox.getMessages();
+                final FetchProfile profile = new FetchProfile();
+                profile.add(FetchProfile.Item.ENVELOPE);
+                profile.add(FetchProfile.Item.FLAGS);
+
+                final List<Message[]> chunks = new ArrayList<Message[]>();
+                inbox.fetch(messages, profile, new IMAPFetchListener() {
+                    public void messagesFetched(final Message[] fetched) {
+                        chunks.add(fetched);
+                    }
+                });
+
+                assertEquals(3, chunks.size());
+                assertEquals(2, chunks.get(0).length);
+                assertEquals(2, chunks.get(1).length);
+                assertEquals(1, chunks.get(2).length);
+                assertSame(messages[4], chunks.get(2)[0]);
+                for (int i = 0; i < messages.length; i++) {
+                    assertEquals("chunk " + i, messages[i].getSubject());
+                }
+            } finally {
+                inbox.close(false);
+            }
+        } finally {
+            store.close();
+        }
+    }
+}
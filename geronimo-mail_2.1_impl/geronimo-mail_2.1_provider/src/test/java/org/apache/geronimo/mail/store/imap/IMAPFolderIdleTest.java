@@ -0,0 +1,164 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.store.imap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jakarta.mail.Folder;
+import jakarta.mail.Session;
+import jakarta.mail.Store;
+import jakarta.mail.event.MessageCountAdapter;
+import jakarta.mail.event.MessageCountEvent;
+
+import org.apache.geronimo.mail.testserver.AbstractProtocolTest;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for IMAPFolder.idle():  new mail delivered while a folder is
+ * idling must be announced through MessageCountEvents, and using the
+ * folder from another thread must terminate the IDLE.
+ */
+public class IMAPFolderIdleTest extends AbstractProtocolTest {
+
+    protected Store connect() throws Exception {
+        final Properties props = new Properties();
+        props.setProperty("mail.imap.port", String.valueOf(imapConf.getListenerPort()));
+        final Session session = Session.getInstance(props);
+        final Store store = session.getStore("imap");
+        store.connect("127.0.0.1", "serveruser", "serverpass");
+        return store;
+    }
+
+    protected byte[] readMessageResource(final String name) throws Exception {
+        final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try (InputStream in = IMAPFolderIdleTest.class.getResourceAsStream(name)) {
+            final byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                bout.write(buf, 0, n);
+            }
+        }
+        return bout.toByteArray();
+    }
+
+    protected void awaitIdle(final IMAPFolder folder, final Thread idler) throws Exception {
+        // the connection is idling once the server has accepted the IDLE command
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (!folder.currentConnection.isIdling() && idler.isAlive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(folder.currentConnection.isIdling(), "the IDLE must have started");
+    }
+
+    @Test
+    public void testIdleAnnouncesNewMessages() throws Exception {
+        start();
+        server.createUserMailbox("idle1");
+        final byte[] message = readMessageResource("/messages/simple.msg");
+        server.appendToUserMailbox("idle1", message);
+
+        final Store store = connect();
+        try {
+            final IMAPFolder folder = (IMAPFolder) store.getDefaultFolder().getFolder("idle1");
+            folder.open(Folder.READ_WRITE);
+            try {
+                assertEquals(1, folder.getMessageCount());
+
+                final CountDownLatch added = new CountDownLatch(1);
+                folder.addMessageCountListener(new MessageCountAdapter() {
+                    @Override
+                    public void messagesAdded(final MessageCountEvent e) {
+                        added.countDown();
+                    }
+                });
+
+                final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+                final Thread idler = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            folder.idle(true);
+                        } catch (final Throwable t) {
+                            failure.set(t);
+                        }
+                    }
+                };
+                idler.start();
+                // the new mail must arrive while the IDLE is in progress
+                awaitIdle(folder, idler);
+                server.appendToUserMailbox("idle1", message);
+
+                idler.join(10000);
+                assertNull(failure.get());
+                assertTrue(added.await(10, TimeUnit.SECONDS), "new mail must be announced while idling");
+                assertEquals(2, folder.getMessageCount());
+            } finally {
+                folder.close(false);
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testFolderUseTerminatesIdle() throws Exception {
+        start();
+        server.createUserMailbox("idle2");
+        final byte[] message = readMessageResource("/messages/simple.msg");
+        server.appendToUserMailbox("idle2", message);
+
+        final Store store = connect();
+        try {
+            final IMAPFolder folder = (IMAPFolder) store.getDefaultFolder().getFolder("idle2");
+            folder.open(Folder.READ_WRITE);
+            try {
+                final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+                final Thread idler = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            folder.idle();
+                        } catch (final Throwable t) {
+                            failure.set(t);
+                        }
+                    }
+                };
+                idler.start();
+                awaitIdle(folder, idler);
+
+                // this must break the IDLE rather than hang behind it
+                assertEquals("Test Foo", folder.getMessage(1).getSubject());
+                idler.join(10000);
+                assertTrue(!idler.isAlive(), "idle() must return once the folder is used");
+                assertNull(failure.get());
+            } finally {
+                folder.close(false);
+            }
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.geronimo.mail.store.imap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import jakarta.mail.Folder;
+import jakarta.mail.Session;
+
+import org.apache.geronimo.mail.testserver.ScriptedServer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for opening folders on an exhausted connection pool:  a folder
+ * open waiting for a connection must not keep other folders from
+ * closing and handing their connection over.
+ */
+public class IMAPFolderOpenWaitTest {
+
+    private static class MailboxServer extends ScriptedServer {
+        MailboxServer() throws IOException {
+            super(true);
+        }
+
+        protected void converse(final InputStream in, final OutputStream out) throws Exception {
+            write(out, "* OK ready\r\n");
+            String line;
+            while ((line = readLine(in)) != null) {
+                final String[] parts = line.split(" ");
+                final String tag = parts[0];
+                final String command = parts[1].toUpperCase();
+                if (command.equals("CAPABILITY")) {
+                    write(out, "* CAPABILITY IMAP4rev1\r\n" + tag + " OK done\r\n");
+                } else if (command.equals("LIST")) {
+                    write(out, "* LIST () \"/\" " + parts[parts.length - 1] + "\r\n" + tag + " OK done\r\n");
+                } else if (command.equals("SELECT") || command.equals("EXAMINE")) {
+                    write(out, "* 0 EXISTS\r\n* 0 RECENT\r\n* OK [UIDVALIDITY 1]\r\n" + tag + " OK [READ-WRITE] done\r\n");
+                } else if (command.equals("LOGOUT")) {
+                    write(out, "* BYE\r\n" + tag + " OK done\r\n");
+                    return;
+                } else {
+                    write(out, tag + " OK done\r\n");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testClosedFolderHandsConnectionToWaitingOpen() throws Exception {
+        final MailboxServer server = new MailboxServer();
+        server.start();
+        final Properties properties = new Properties();
+        properties.setProperty("mail.imap.connectionpoolsize", "1");
+        properties.setProperty("mail.imap.connectionpool.waittimeout", "5000");
+        final IMAPStore store = new IMAPStore(Session.getInstance(properties), null);
+        store.connect("127.0.0.1", server.getPort(), "user", "pass");
+
+        final Folder inbox = store.getFolder("INBOX");
+        inbox.open(Folder.READ_WRITE);
+
+        final Folder sent = store.getFolder("Sent");
+        final Throwable[] failure = new Throwable[1];
+        final Thread opener = new Thread() {
+            public void run() {
+                try {
+                    sent.open(Folder.READ_WRITE);
+                } catch (final Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        };
+        opener.setDaemon(true);
+        opener.start();
+        while (store.connectionPool.getWaitingCount() == 0 && opener.isAlive()) {
+            Thread.sleep(10);
+        }
+
+        // the waiting open must not stop this close from returning the connection
+        final long start = System.currentTimeMillis();
+        inbox.close(false);
+        opener.join(10000);
+        assertFalse(opener.isAlive());
+        assertNull(failure[0]);
+        assertTrue(sent.isOpen());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        // the connection was handed over rather than a second one created
+        assertEquals(1, store.connectionPool.getCreatedCount());
+
+        sent.close(false);
+        store.close();
+        server.shutdown();
+        assertNull(server.getFailure());
+    }
+}
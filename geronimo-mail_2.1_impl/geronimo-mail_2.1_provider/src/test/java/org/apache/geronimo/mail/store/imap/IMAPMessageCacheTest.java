@@ -0,0 +1,159 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.store.imap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import jakarta.mail.Session;
+import jakarta.mail.URLName;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Unit tests for the sequence number index used by IMAPFolder.  The
+ * cache is checked against a plain list that is renumbered the way
+ * the server renumbers its messages.
+ */
+public class IMAPMessageCacheTest {
+
+    private final IMAPStore store = new IMAPStore(Session.getInstance(new Properties()), new URLName("imap://localhost"));
+    private final IMAPFolder folder = new IMAPFolder(store, "INBOX", '/');
+
+    private IMAPMessage message(final int number) {
+        return new IMAPMessage(folder, store, number, number);
+    }
+
+    @Test
+    public void testExpungeShiftsFollowingMessages() throws Exception {
+        final IMAPMessageCache cache = new IMAPMessageCache();
+        cache.extend(5);
+        final IMAPMessage[] messages = new IMAPMessage[6];
+        for (int i = 1; i <= 5; i++) {
+            messages[i] = message(i);
+            cache.put(i, messages[i]);
+        }
+
+        // the server reports 2, 2, 2 for an expunge of 2, 3 and 4
+        assertSame(messages[2], cache.expunge(2));
+        assertSame(messages[3], cache.expunge(2));
+        assertSame(messages[4], cache.expunge(2));
+        cache.trim();
+
+        assertEquals(2, cache.size());
+        assertSame(messages[1], cache.get(1));
+        assertSame(messages[5], cache.get(2));
+        assertEquals(2, cache.getSequenceNumber(messages[5].cacheSlot));
+        assertEquals(-1, messages[3].cacheSlot);
+
+        // new mail lands after the survivors
+        cache.extend(3);
+        assertNull(cache.get(3));
+    }
+
+    @Test
+    public void testDetachFreezesSequenceNumbers() throws Exception {
+        final IMAPMessageCache cache = new IMAPMessageCache();
+        cache.extend(3);
+        final IMAPMessage last = message(3);
+        cache.put(3, last);
+        cache.expunge(1);
+        cache.detach();
+        assertEquals(-1, last.cacheSlot);
+        assertEquals(2, last.sequenceNumber);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMatchesRenumberedList() throws Exception {
+        final Random random = new Random(42);
+        final IMAPMessageCache cache = new IMAPMessageCache();
+        final List<IMAPMessage> model = new ArrayList<IMAPMessage>();
+        int id = 1;
+
+        for (int round = 0; round < 20000; round++) {
+            final int op = random.nextInt(10);
+            if (op < 3) {
+                // new mail arrives
+                final int added = 1 + random.nextInt(20);
+                cache.extend(model.size() + added);
+                for (int i = 0; i < added; i++) {
+                    model.add(null);
+                }
+            }
+            else if (op < 6 && !model.isEmpty()) {
+                // a message gets requested
+                final int sequence = 1 + random.nextInt(model.size());
+                if (model.get(sequence - 1) == null) {
+                    final IMAPMessage message = message(id++);
+                    cache.put(sequence, message);
+                    model.set(sequence - 1, message);
+                }
+            }
+            else if (!model.isEmpty()) {
+                // a run of expunges
+                final int run = 1 + random.nextInt(Math.min(10, model.size()));
+                for (int i = 0; i < run && !model.isEmpty(); i++) {
+                    final int sequence = 1 + random.nextInt(model.size());
+                    assertSame(model.remove(sequence - 1), cache.expunge(sequence));
+                }
+                cache.trim();
+            }
+
+            assertEquals(model.size(), cache.size());
+            if (!model.isEmpty()) {
+                final int sequence = 1 + random.nextInt(model.size());
+                final IMAPMessage message = model.get(sequence - 1);
+                assertSame(message, cache.get(sequence));
+                if (message != null) {
+                    assertEquals(sequence, cache.getSequenceNumber(message.cacheSlot));
+                }
+            }
+        }
+
+        // a full check of every cached message's position
+        for (int i = 0; i < model.size(); i++) {
+            final IMAPMessage message = model.get(i);
+            assertSame(message, cache.get(i + 1));
+            if (message != null) {
+                assertEquals(i + 1, cache.getSequenceNumber(message.cacheSlot));
+            }
+        }
+    }
+
+    @Test
+    public void testLargeExpungeRun() throws Exception {
+        final IMAPMessageCache cache = new IMAPMessageCache();
+        cache.extend(200000);
+        final IMAPMessage last = message(200000);
+        cache.put(200000, last);
+        // expunge the first 10000 messages, reported as a run of "1 EXPUNGE" responses
+        for (int i = 0; i < 10000; i++) {
+            cache.expunge(i + 1);
+        }
+        cache.trim();
+        assertEquals(190000, cache.size());
+        assertSame(last, cache.get(190000));
+        assertEquals(190000, cache.getSequenceNumber(last.cacheSlot));
+    }
+}
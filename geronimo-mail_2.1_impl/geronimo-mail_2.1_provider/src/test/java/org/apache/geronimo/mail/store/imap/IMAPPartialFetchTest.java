@@ -0,0 +1,117 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.store.imap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Properties;
+
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import jakarta.mail.Store;
+import jakarta.mail.internet.MimeMultipart;
+
+import org.apache.geronimo.mail.testserver.AbstractProtocolTest;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for mail.imap.partialfetch:  content read through a series of
+ * small partial FETCH commands must match the content retrieved with
+ * a single FETCH.
+ */
+public class IMAPPartialFetchTest extends AbstractProtocolTest {
+
+    protected Store connect(final boolean partial) throws Exception {
+        final Properties props = new Properties();
+        props.setProperty("mail.imap.port", String.valueOf(imapConf.getListenerPort()));
+        props.setProperty("mail.imap.partialfetch", String.valueOf(partial));
+        // small enough that every part needs several fetches
+        props.setProperty("mail.imap.fetchsize", "7");
+        final Session session = Session.getInstance(props);
+        final Store store = session.getStore("imap");
+        store.connect("127.0.0.1", "serveruser", "serverpass");
+        return store;
+    }
+
+    protected byte[] readAll(final InputStream in) throws Exception {
+        final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try {
+            final byte[] buf = new byte[5];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                bout.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return bout.toByteArray();
+    }
+
+    protected byte[] readMessageResource(final String name) throws Exception {
+        return readAll(IMAPPartialFetchTest.class.getResourceAsStream(name));
+    }
+
+    protected byte[][] readContent(final boolean partial, final String mailbox) throws Exception {
+        final Store store = connect(partial);
+        try {
+            final Folder folder = store.getDefaultFolder().getFolder(mailbox);
+            folder.open(Folder.READ_ONLY);
+            try {
+                final Message message = folder.getMessage(1);
+                final MimeMultipart multipart = (MimeMultipart) message.getContent();
+                assertEquals(2, multipart.getCount());
+
+                final IMAPMessage imapMessage = (IMAPMessage) message;
+                final InputStream stream = imapMessage.getRawInputStream();
+                if (partial) {
+                    assertTrue(stream instanceof IMAPPartialInputStream);
+                }
+                return new byte[][] {
+                    readAll(stream),
+                    readAll(multipart.getBodyPart(0).getInputStream()),
+                    readAll(multipart.getBodyPart(1).getInputStream()),
+                };
+            } finally {
+                folder.close(false);
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testPartialFetchMatchesFullFetch() throws Exception {
+        start();
+        server.createUserMailbox("partial1");
+        server.appendToUserMailbox("partial1", readMessageResource("/messages/multipart.msg"));
+
+        final byte[][] full = readContent(false, "partial1");
+        final byte[][] chunked = readContent(true, "partial1");
+
+        assertTrue(full[0].length > 7);
+        for (int i = 0; i < full.length; i++) {
+            assertArrayEquals(full[i], chunked[i]);
+        }
+        assertEquals("First part", new String(chunked[1], "US-ASCII").trim());
+        assertEquals("Second part", new String(chunked[2], "US-ASCII").trim());
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.geronimo.mail.store.imap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+
+import org.apache.geronimo.mail.testserver.ScriptedServer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for applying VANISHED responses (RFC 7162) to an open folder.
+ * The folder starts with UIDs 11 to 15, none of which the client has
+ * seen, and the server reports UID 13 as gone while the flags of
+ * message 2 are being fetched.
+ */
+public class IMAPVanishedTest {
+
+    private static class QResyncServer extends ScriptedServer {
+        // the UIDs the server reports after the expunge
+        private final long[] remaining;
+
+        QResyncServer(final long[] remaining) throws IOException {
+            this.remaining = remaining;
+        }
+
+        protected void converse(final InputStream in, final OutputStream out) throws Exception {
+            write(out, "* OK ready\r\n");
+            String line;
+            while ((line = readLine(in)) != null) {
+                final String[] parts = line.split(" ");
+                final String tag = parts[0];
+                final String command = parts[1].toUpperCase();
+                if (command.equals("CAPABILITY")) {
+                    write(out, "* CAPABILITY IMAP4rev1 ENABLE CONDSTORE QRESYNC\r\n" + tag + " OK done\r\n");
+                } else if (command.equals("LIST")) {
+                    write(out, "* LIST () \"/\" INBOX\r\n" + tag + " OK done\r\n");
+                } else if (command.equals("SELECT")) {
+                    // includes an update for a message beyond the reported count
+                    write(out, "* 5 EXISTS\r\n* OK [UIDVALIDITY 1]\r\n* OK [HIGHESTMODSEQ 20]\r\n"
+                            + "* 9 FETCH (UID 19 FLAGS () MODSEQ (20))\r\n" + tag + " OK [READ-WRITE] done\r\n");
+                } else if (command.equals("FETCH")) {
+                    write(out, "* 2 FETCH (FLAGS (\\Seen))\r\n* VANISHED 13\r\n" + tag + " OK done\r\n");
+                } else if (command.equals("UID")) {
+                    final StringBuilder reply = new StringBuilder();
+                    for (int i = 0; i < remaining.length; i++) {
+                        reply.append("* ").append(i + 1).append(" FETCH (UID ").append(remaining[i]).append(")\r\n");
+                    }
+                    write(out, reply + tag + " OK done\r\n");
+                } else if (command.equals("LOGOUT")) {
+                    write(out, "* BYE\r\n" + tag + " OK done\r\n");
+                    return;
+                } else {
+                    write(out, tag + " OK done\r\n");
+                }
+            }
+        }
+    }
+
+    private IMAPStore connect(final QResyncServer server) throws Exception {
+        server.start();
+        final IMAPStore store = new IMAPStore(Session.getInstance(new Properties()), null);
+        store.connect("127.0.0.1", server.getPort(), "user", "pass");
+        return store;
+    }
+
+    @Test
+    public void testVanishedMessageIsLocatedByUid() throws Exception {
+        final QResyncServer server = new QResyncServer(new long[] { 11, 12, 14, 15 });
+        final IMAPStore store = connect(server);
+        final IMAPFolder folder = (IMAPFolder) store.getFolder("INBOX");
+        final IMAPResyncResult result = folder.open(Folder.READ_WRITE, new IMAPResyncData(1, 10));
+        // the update for message 9 can't be applied yet
+        assertEquals(0, result.getChangedMessages().length);
+
+        final Message second = folder.getMessage(2);
+        final Message third = folder.getMessage(3);
+        second.getFlags();
+
+        // the retrieved message 3 is the one that went, not some other message in the gap
+        assertTrue(third.isExpunged());
+        assertFalse(second.isExpunged());
+        assertEquals(12, folder.getUID(second));
+        assertEquals(4, folder.getMessageCount());
+        assertEquals(3, folder.getMessageByUID(14).getMessageNumber());
+
+        folder.close(false);
+        store.close();
+        server.join(10000);
+        assertNull(server.getFailure());
+    }
+
+    @Test
+    public void testUnplaceableVanishedMessageResynchronizes() throws Exception {
+        // UID 14 has gone as well, but that VANISHED hasn't been seen yet
+        final QResyncServer server = new QResyncServer(new long[] { 11, 12, 15 });
+        final IMAPStore store = connect(server);
+        final IMAPFolder folder = (IMAPFolder) store.getFolder("INBOX");
+        folder.open(Folder.READ_WRITE, new IMAPResyncData(1, 10));
+
+        final Message second = folder.getMessage(2);
+        final Message third = folder.getMessage(3);
+        second.getFlags();
+
+        // the view is rebuilt from the server.  Neither message has a known UID,
+        // so neither can be matched up again.
+        assertTrue(second.isExpunged());
+        assertTrue(third.isExpunged());
+        assertEquals(3, folder.getMessageCount());
+
+        folder.close(false);
+        store.close();
+        server.join(10000);
+        assertNull(server.getFailure());
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.store.imap.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import jakarta.mail.Session;
+
+import org.apache.geronimo.mail.testserver.ScriptedServer;
+import org.apache.geronimo.mail.util.ProtocolProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for retrieving the status of several mailboxes at once, either
+ * through LIST-STATUS (RFC 5819) or with pipelined STATUS commands.
+ */
+public class IMAPBulkStatusTest {
+
+    private static class StatusServer extends ScriptedServer {
+        private final boolean listStatus;
+        final List commands = new ArrayList();
+
+        StatusServer(final boolean listStatus) throws IOException {
+            this.listStatus = listStatus;
+        }
+
+        protected void converse(final InputStream in, final OutputStream out) throws Exception {
+            write(out, "* OK ready\r\n");
+            String line;
+            while ((line = readLine(in)) != null) {
+                final String tag = line.substring(0, line.indexOf(' '));
+                final String command = line.substring(tag.length() + 1);
+                if (command.startsWith("CAPABILITY")) {
+                    write(out, "* CAPABILITY IMAP4rev1" + (listStatus ? " LIST-STATUS" : "") + "\r\n" + tag + " OK done\r\n");
+                    continue;
+                }
+                commands.add(command);
+                if (command.startsWith("LIST ")) {
+                    write(out, "* LIST () \"/\" INBOX\r\n"
+                            + "* STATUS INBOX (MESSAGES 10 RECENT 1 UIDNEXT 11 UIDVALIDITY 7 UNSEEN 2)\r\n"
+                            + "* LIST () \"/\" Sent\r\n"
+                            + "* STATUS Sent (MESSAGES 20 RECENT 0 UIDNEXT 21 UIDVALIDITY 8 UNSEEN 0)\r\n"
+                            + tag + " OK done\r\n");
+                } else if (command.startsWith("STATUS INBOX ")) {
+                    write(out, "* STATUS INBOX (MESSAGES 10 RECENT 1 UIDNEXT 11 UIDVALIDITY 7 UNSEEN 2)\r\n" + tag + " OK done\r\n");
+                } else if (command.startsWith("STATUS Sent ")) {
+                    write(out, "* STATUS Sent (MESSAGES 20 RECENT 0 UIDNEXT 21 UIDVALIDITY 8 UNSEEN 0)\r\n" + tag + " OK done\r\n");
+                } else if (command.startsWith("STATUS ")) {
+                    write(out, tag + " NO no such mailbox\r\n");
+                } else if (command.startsWith("LOGOUT")) {
+                    write(out, "* BYE\r\n" + tag + " OK done\r\n");
+                    return;
+                } else {
+                    write(out, tag + " OK done\r\n");
+                }
+            }
+        }
+    }
+
+    private IMAPConnection connect(final StatusServer server) throws Exception {
+        final ProtocolProperties props = new ProtocolProperties(Session.getInstance(new Properties()), "imap", false, 143);
+        final IMAPConnection connection = new IMAPConnection(props, null);
+        assertTrue(connection.protocolConnect("127.0.0.1", server.getPort(), null, null, "user", "pass"));
+        return connection;
+    }
+
+    private void checkStatus(final Map statuses) {
+        assertEquals(2, statuses.size());
+        final IMAPMailboxStatus inbox = (IMAPMailboxStatus) statuses.get("INBOX");
+        assertEquals(10, inbox.messages);
+        assertEquals(1, inbox.recentMessages);
+        assertEquals(2, inbox.unseenMessages);
+        assertEquals(7, inbox.uidValidity);
+        final IMAPMailboxStatus sent = (IMAPMailboxStatus) statuses.get("Sent");
+        assertEquals(20, sent.messages);
+        assertEquals(21, sent.uidNext);
+        assertFalse(statuses.containsKey("Missing"));
+    }
+
+    @Test
+    public void testListStatus() throws Exception {
+        final StatusServer server = new StatusServer(true);
+        server.start();
+        final IMAPConnection connection = connect(server);
+
+        checkStatus(connection.getMailboxStatus(Arrays.asList(new String[] { "INBOX", "Sent", "Missing" })));
+        // a single LIST command covers every mailbox
+        assertEquals("LIST \"\" (INBOX Sent Missing) RETURN (STATUS (MESSAGES RECENT UIDNEXT UIDVALIDITY UNSEEN))", server.commands.get(1));
+        // the LIST responses aren't left behind
+        assertTrue(connection.extractResponses("LIST").isEmpty());
+
+        connection.close();
+        server.join(10000);
+        assertNull(server.getFailure());
+        assertEquals(3, server.commands.size());
+    }
+
+    @Test
+    public void testPipelinedStatus() throws Exception {
+        final StatusServer server = new StatusServer(false);
+        server.start();
+        final IMAPConnection connection = connect(server);
+
+        checkStatus(connection.getMailboxStatus(Arrays.asList(new String[] { "INBOX", "Sent", "Missing" })));
+        assertEquals("STATUS INBOX (MESSAGES RECENT UIDNEXT UIDVALIDITY UNSEEN)", server.commands.get(1));
+        assertTrue(((String) server.commands.get(3)).startsWith("STATUS Missing "));
+
+        connection.close();
+        server.join(10000);
+        assertNull(server.getFailure());
+        assertEquals(5, server.commands.size());
+    }
+}
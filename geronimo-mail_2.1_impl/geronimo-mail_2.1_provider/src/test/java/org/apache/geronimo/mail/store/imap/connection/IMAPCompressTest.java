@@ -0,0 +1,148 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.store.imap.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import jakarta.mail.Session;
+
+import org.apache.geronimo.mail.testserver.ScriptedServer;
+import org.apache.geronimo.mail.util.ProtocolProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for COMPRESS=DEFLATE (RFC 4978) negotiation.  A minimal scripted
+ * server switches to raw deflate streams after accepting the COMPRESS
+ * command, so every command written after that point must arrive as a
+ * complete (sync-flushed) deflate block.
+ */
+public class IMAPCompressTest {
+
+    /**
+     * A single-connection IMAP server that understands just enough of the
+     * protocol to log in, compress and answer NOOP.
+     */
+    private static class CompressServer extends ScriptedServer {
+        private final String capabilities;
+        // the commands received (without their tags), decompressed where necessary
+        final List commands = Collections.synchronizedList(new ArrayList());
+
+        CompressServer(final String capabilities) throws IOException {
+            this.capabilities = capabilities;
+        }
+
+        protected void converse(final InputStream input, final OutputStream output) throws Exception {
+            InputStream in = input;
+            OutputStream out = output;
+            write(out, "* OK ready\r\n");
+            String line;
+            while ((line = readLine(in)) != null) {
+                final String[] parts = line.split(" ");
+                commands.add(line.substring(parts[0].length() + 1));
+                final String tag = parts[0];
+                final String command = parts[1];
+                if (command.equals("CAPABILITY")) {
+                    write(out, "* CAPABILITY " + capabilities + "\r\n" + tag + " OK done\r\n");
+                } else if (command.equals("COMPRESS")) {
+                    write(out, tag + " OK DEFLATE active\r\n");
+                    in = new InflaterInputStream(in, new Inflater(true));
+                    out = new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, true), true);
+                } else if (command.equals("LOGOUT")) {
+                    write(out, "* BYE\r\n" + tag + " OK done\r\n");
+                    return;
+                } else {
+                    write(out, tag + " OK done\r\n");
+                }
+            }
+        }
+    }
+
+    private IMAPConnection connect(final CompressServer server, final boolean compress) throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty("mail.imap.compress.enable", String.valueOf(compress));
+        final ProtocolProperties props = new ProtocolProperties(Session.getInstance(properties), "imap", false, 143);
+        final IMAPConnection connection = new IMAPConnection(props, null);
+        assertTrue(connection.protocolConnect("127.0.0.1", server.getPort(), null, null, "user", "pass"));
+        return connection;
+    }
+
+    @Test
+    public void testCommandsAreCompressedAfterNegotiation() throws Exception {
+        final CompressServer server = new CompressServer("IMAP4rev1 COMPRESS=DEFLATE");
+        server.start();
+        final IMAPConnection connection = connect(server, true);
+        assertTrue(connection.isCompressed());
+
+        // each of these only gets a reply if the command was flushed through the deflater
+        connection.sendSimpleCommand("NOOP");
+        connection.sendSimpleCommand("NOOP");
+        connection.close();
+        server.join(10000);
+
+        assertEquals(null, server.getFailure());
+        assertEquals("COMPRESS DEFLATE", server.commands.get(2));
+        assertEquals("NOOP", server.commands.get(3));
+        assertEquals("NOOP", server.commands.get(4));
+        assertEquals("LOGOUT", server.commands.get(5));
+        assertFalse(connection.isCompressed(), "closing must release the compression state");
+    }
+
+    @Test
+    public void testCompressionIsOptIn() throws Exception {
+        final CompressServer server = new CompressServer("IMAP4rev1 COMPRESS=DEFLATE");
+        server.start();
+        final IMAPConnection connection = connect(server, false);
+        assertFalse(connection.isCompressed());
+        connection.close();
+        server.join(10000);
+
+        assertEquals(null, server.getFailure());
+        for (int i = 0; i < server.commands.size(); i++) {
+            assertFalse(((String)server.commands.get(i)).contains("COMPRESS"));
+        }
+    }
+
+    @Test
+    public void testUnsupportedServerStaysUncompressed() throws Exception {
+        final CompressServer server = new CompressServer("IMAP4rev1");
+        server.start();
+        final IMAPConnection connection = connect(server, true);
+        assertFalse(connection.isCompressed());
+        connection.sendSimpleCommand("NOOP");
+        connection.close();
+        server.join(10000);
+
+        assertEquals(null, server.getFailure());
+        // the capabilities are refreshed once after login before giving up
+        assertEquals("CAPABILITY", server.commands.get(2));
+        assertEquals("NOOP", server.commands.get(3));
+    }
+}
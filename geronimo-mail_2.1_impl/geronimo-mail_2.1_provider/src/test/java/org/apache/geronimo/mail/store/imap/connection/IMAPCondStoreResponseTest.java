@@ -0,0 +1,88 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.store.imap.connection;
+
+import java.io.ByteArrayInputStream;
+
+import jakarta.mail.Flags;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Parsing tests for the CONDSTORE/QRESYNC (RFC 7162) responses.
+ */
+public class IMAPCondStoreResponseTest {
+
+    private IMAPResponse parse(final String line) throws Exception {
+        final IMAPResponseStream stream =
+                new IMAPResponseStream(new ByteArrayInputStream(line.getBytes("ISO8859-1")));
+        return stream.readResponse();
+    }
+
+    @Test
+    public void testFetchModSeq() throws Exception {
+        final IMAPFetchResponse fetch = (IMAPFetchResponse) parse("* 4 FETCH (UID 34 MODSEQ (12121231000) FLAGS (\\Seen))\r\n");
+        final IMAPModSeq modSeq = (IMAPModSeq) fetch.getDataItem(IMAPFetchDataItem.MODSEQ);
+        assertEquals(12121231000L, modSeq.modSeq);
+        // the items following the MODSEQ are still parsed
+        final IMAPFlags flags = (IMAPFlags) fetch.getDataItem(IMAPFetchDataItem.FLAGS);
+        assertTrue(flags.flags.contains(Flags.Flag.SEEN));
+    }
+
+    @Test
+    public void testVanishedEarlier() throws Exception {
+        final IMAPVanishedResponse vanished = (IMAPVanishedResponse) parse("* VANISHED (EARLIER) 41,43:45,50\r\n");
+        assertTrue(vanished.earlier);
+        assertEquals(5, vanished.getCount());
+        assertArrayEquals(new long[] { 41, 43, 44, 45, 50 }, vanished.getUids());
+    }
+
+    @Test
+    public void testVanished() throws Exception {
+        final IMAPVanishedResponse vanished = (IMAPVanishedResponse) parse("* VANISHED 9:7\r\n");
+        assertFalse(vanished.earlier);
+        assertArrayEquals(new long[] { 7, 8, 9 }, vanished.getUids());
+    }
+
+    @Test
+    public void testHighestModSeq() throws Exception {
+        final IMAPMailboxStatus status = new IMAPMailboxStatus();
+        status.mergeStatus((IMAPOkResponse) parse("* OK [HIGHESTMODSEQ 715194045007] Highest\r\n"));
+        assertEquals(715194045007L, status.highestModSeq);
+
+        status.mergeStatus((IMAPOkResponse) parse("* OK [NOMODSEQ] Sorry, this mailbox format doesn't support modsequences\r\n"));
+        assertEquals(0, status.highestModSeq);
+    }
+
+    @Test
+    public void testStatusHighestModSeq() throws Exception {
+        final IMAPStatusResponse response = (IMAPStatusResponse) parse("* STATUS blurdybloop (MESSAGES 231 UIDNEXT 7500 HIGHESTMODSEQ 7011231777)\r\n");
+        assertEquals(231, response.messages);
+        assertEquals(7011231777L, response.highestModSeq);
+    }
+
+    @Test
+    public void testEnabled() throws Exception {
+        final IMAPUntaggedResponse response = (IMAPUntaggedResponse) parse("* ENABLED QRESYNC\r\n");
+        assertTrue(response.isKeyword("ENABLED"));
+    }
+}
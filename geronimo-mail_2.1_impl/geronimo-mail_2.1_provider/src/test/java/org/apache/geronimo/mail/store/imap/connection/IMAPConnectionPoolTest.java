@@ -0,0 +1,207 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.store.imap.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+
+import org.apache.geronimo.mail.store.imap.IMAPStore;
+import org.apache.geronimo.mail.testserver.ScriptedServer;
+import org.apache.geronimo.mail.util.ProtocolProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the IMAPConnectionPool:  waiting threads are served in order
+ * by handing returned connections over, a wait timeout is honoured, folders
+ * get back the connection that last had their mailbox selected, and dead
+ * idle connections are weeded out in the background.
+ */
+public class IMAPConnectionPoolTest {
+
+    private static class PoolServer extends ScriptedServer {
+        // answer NOOP with a NO, making every connection look dead
+        volatile boolean dead;
+
+        PoolServer() throws IOException {
+            super(true);
+        }
+
+        protected void converse(final InputStream in, final OutputStream out) throws Exception {
+            write(out, "* OK ready\r\n");
+            String line;
+            while ((line = readLine(in)) != null) {
+                final String[] parts = line.split(" ");
+                final String tag = parts[0];
+                final String command = parts[1];
+                if (command.equals("CAPABILITY")) {
+                    write(out, "* CAPABILITY IMAP4rev1\r\n" + tag + " OK done\r\n");
+                } else if (command.equals("SELECT") || command.equals("EXAMINE")) {
+                    write(out, "* 0 EXISTS\r\n* 0 RECENT\r\n" + tag + " OK [READ-WRITE] done\r\n");
+                } else if (command.equals("NOOP") && dead) {
+                    write(out, tag + " NO gone\r\n");
+                } else if (command.equals("LOGOUT")) {
+                    write(out, "* BYE\r\n" + tag + " OK done\r\n");
+                    return;
+                } else {
+                    write(out, tag + " OK done\r\n");
+                }
+            }
+        }
+    }
+
+    private IMAPConnectionPool connect(final PoolServer server, final Properties properties) throws Exception {
+        final Session session = Session.getInstance(properties);
+        final IMAPConnectionPool pool = new IMAPConnectionPool(new IMAPStore(session, null),
+                new ProtocolProperties(session, "imap", false, 143));
+        assertTrue(pool.protocolConnect("127.0.0.1", server.getPort(), "user", "pass"));
+        return pool;
+    }
+
+    @Test
+    public void testReturnedConnectionIsHandedToWaiter() throws Exception {
+        final PoolServer server = new PoolServer();
+        server.start();
+        final Properties properties = new Properties();
+        properties.setProperty("mail.imap.connectionpool.waittimeout", "10000");
+        final IMAPConnectionPool pool = connect(server, properties);
+
+        final IMAPConnection first = pool.getFolderConnection();
+        assertEquals(1, pool.getBorrowedCount());
+        assertEquals(0, pool.getIdleCount());
+
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        final Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    result.set(pool.getFolderConnection());
+                } catch (final Throwable t) {
+                    result.set(t);
+                }
+            }
+        };
+        waiter.start();
+        while (pool.getWaitingCount() == 0) {
+            Thread.sleep(10);
+        }
+        pool.releaseFolderConnection(first);
+        waiter.join(10000);
+
+        // the connection went straight to the waiting thread rather than back into the pool
+        assertSame(first, result.get());
+        assertEquals(1, pool.getBorrowedCount());
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(1, pool.getWaitCount());
+        assertTrue(pool.getTotalWaitTime() >= pool.getMaxWaitTime());
+
+        pool.releaseFolderConnection(first);
+        assertEquals(1, pool.getIdleCount());
+        pool.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void testWaitTimeout() throws Exception {
+        final PoolServer server = new PoolServer();
+        server.start();
+        final Properties properties = new Properties();
+        properties.setProperty("mail.imap.connectionpool.waittimeout", "200");
+        final IMAPConnectionPool pool = connect(server, properties);
+
+        final IMAPConnection connection = pool.getFolderConnection();
+        assertThrows(MessagingException.class, pool::getFolderConnection);
+        assertEquals(0, pool.getWaitingCount());
+        assertEquals(1, pool.getWaitCount());
+        assertTrue(pool.getMaxWaitTime() >= 200);
+        // nobody else got a connection over the limit
+        assertEquals(1, pool.getCreatedCount());
+
+        pool.releaseFolderConnection(connection);
+        pool.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void testFolderAffinity() throws Exception {
+        final PoolServer server = new PoolServer();
+        server.start();
+        final Properties properties = new Properties();
+        properties.setProperty("mail.imap.connectionpoolsize", "2");
+        final IMAPConnectionPool pool = connect(server, properties);
+
+        final IMAPConnection inbox = pool.getFolderConnection("INBOX");
+        final IMAPConnection sent = pool.getFolderConnection("Sent");
+        assertNotSame(inbox, sent);
+        inbox.openMailbox("INBOX", false);
+        inbox.closeMailbox();
+        sent.openMailbox("Sent", false);
+        sent.closeMailbox();
+        pool.releaseFolderConnection(inbox);
+        pool.releaseFolderConnection(sent);
+        assertEquals(2, pool.getIdleCount());
+
+        // the most recently returned connection is not the one with INBOX
+        final IMAPConnection reopened = pool.getFolderConnection("INBOX");
+        assertSame(inbox, reopened);
+        pool.releaseFolderConnection(reopened);
+
+        pool.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void testBackgroundValidationEvictsDeadConnections() throws Exception {
+        final PoolServer server = new PoolServer();
+        server.start();
+        final Properties properties = new Properties();
+        properties.setProperty("mail.imap.connectionpooltimeout", "10");
+        properties.setProperty("mail.imap.connectionpool.validationinterval", "50");
+        final IMAPConnectionPool pool = connect(server, properties);
+        assertEquals(1, pool.getIdleCount());
+
+        server.dead = true;
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (pool.getEvictedCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, pool.getEvictedCount());
+        assertEquals(0, pool.getIdleCount());
+
+        // the next request just creates a replacement
+        server.dead = false;
+        final IMAPConnection connection = pool.getFolderConnection();
+        assertEquals(2, pool.getCreatedCount());
+        assertNull(connection.getLastMailbox());
+        pool.releaseFolderConnection(connection);
+
+        pool.close();
+        server.shutdown();
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.geronimo.mail.store.imap.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import jakarta.mail.Session;
+
+import org.apache.geronimo.mail.testserver.ScriptedServer;
+import org.apache.geronimo.mail.util.ProtocolProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the connection side of IDLE.  A thread waiting for IDLE
+ * updates must not keep other threads away from the connection:  a
+ * command sent from another thread terminates the IDLE and goes through.
+ */
+public class IMAPIdleTest {
+
+    private static class IdleServer extends ScriptedServer {
+        IdleServer() throws IOException {
+        }
+
+        protected void converse(final InputStream in, final OutputStream out) throws Exception {
+            write(out, "* OK ready\r\n");
+            String idleTag = null;
+            String line;
+            while ((line = readLine(in)) != null) {
+                if (line.equals("DONE")) {
+                    write(out, idleTag + " OK IDLE terminated\r\n");
+                    continue;
+                }
+                final String[] parts = line.split(" ");
+                final String tag = parts[0];
+                final String command = parts[1];
+                if (command.equals("CAPABILITY")) {
+                    write(out, "* CAPABILITY IMAP4rev1 IDLE\r\n" + tag + " OK done\r\n");
+                } else if (command.equals("IDLE")) {
+                    idleTag = tag;
+                    write(out, "+ idling\r\n* 2 EXISTS\r\n");
+                } else if (command.equals("LOGOUT")) {
+                    write(out, "* BYE\r\n" + tag + " OK done\r\n");
+                    return;
+                } else {
+                    write(out, tag + " OK done\r\n");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCommandFromAnotherThreadTerminatesIdle() throws Exception {
+        final IdleServer server = new IdleServer();
+        server.start();
+        final ProtocolProperties props = new ProtocolProperties(Session.getInstance(new Properties()), "imap", false, 143);
+        final IMAPConnection connection = new IMAPConnection(props, null);
+        assertTrue(connection.protocolConnect("127.0.0.1", server.getPort(), null, null, "user", "pass"));
+
+        connection.startIdle();
+        final Throwable[] idleFailure = new Throwable[1];
+        final Thread idler = new Thread() {
+            public void run() {
+                try {
+                    while (connection.readIdleResponse()) {
+                    }
+                } catch (final Throwable t) {
+                    idleFailure[0] = t;
+                }
+            }
+        };
+        idler.setDaemon(true);
+        idler.start();
+
+        // wait for the idling thread to pick up the update and block in the next read
+        for (int i = 0; i < 100 && connection.idleResponses.isEmpty(); i++) {
+            Thread.sleep(50);
+        }
+        Thread.sleep(100);
+
+        // this would wait forever if the idling thread held the connection lock
+        final Throwable[] noopFailure = new Throwable[1];
+        final Thread sender = new Thread() {
+            public void run() {
+                try {
+                    connection.sendSimpleCommand("NOOP");
+                } catch (final Throwable t) {
+                    noopFailure[0] = t;
+                }
+            }
+        };
+        sender.setDaemon(true);
+        sender.start();
+        sender.join(10000);
+        assertFalse(sender.isAlive());
+        assertNull(noopFailure[0]);
+
+        idler.join(10000);
+        assertFalse(idler.isAlive());
+        assertNull(idleFailure[0]);
+        assertFalse(connection.isIdling());
+        // the update read during the IDLE is queued for the response handlers
+        assertEquals(1, connection.extractResponses("EXISTS").size());
+
+        connection.close();
+        server.join(10000);
+        assertNull(server.getFailure());
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.store.imap.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+
+import org.apache.geronimo.mail.testserver.ScriptedServer;
+import org.apache.geronimo.mail.util.CommandFailedException;
+import org.apache.geronimo.mail.util.ProtocolProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for pipelined command execution.  The scripted server only
+ * answers the STATUS commands once it has received all of them, so the
+ * test would hang if the client waited for each completion before
+ * sending the next command.  The responses come back in reverse order.
+ */
+public class IMAPPipelineTest {
+
+    private static final String[] MAILBOXES = { "INBOX", "Sent", "Missing" };
+
+    private static class PipelineServer extends ScriptedServer {
+
+        PipelineServer() throws IOException {
+        }
+
+        protected void converse(final InputStream in, final OutputStream out) throws Exception {
+            write(out, "* OK ready\r\n");
+            final List statusTags = new ArrayList();
+            String line;
+            while ((line = readLine(in)) != null) {
+                final String[] parts = line.split(" ");
+                final String tag = parts[0];
+                final String command = parts[1];
+                if (command.equals("STATUS")) {
+                    statusTags.add(tag);
+                    if (statusTags.size() < MAILBOXES.length) {
+                        continue;
+                    }
+                    // everything has arrived, answer from the back
+                    final StringBuilder reply = new StringBuilder();
+                    for (int i = MAILBOXES.length - 1; i >= 0; i--) {
+                        if (i == 2) {
+                            reply.append(statusTags.get(i)).append(" NO no such mailbox\r\n");
+                            continue;
+                        }
+                        reply.append("* STATUS ").append(MAILBOXES[i]).append(" (MESSAGES ").append(10 + i).append(")\r\n");
+                        reply.append("* 4 EXISTS\r\n");
+                        reply.append(statusTags.get(i)).append(" OK done\r\n");
+                    }
+                    write(out, reply.toString());
+                } else if (command.equals("CAPABILITY")) {
+                    write(out, "* CAPABILITY IMAP4rev1\r\n" + tag + " OK done\r\n");
+                } else if (command.equals("LOGOUT")) {
+                    write(out, "* BYE\r\n" + tag + " OK done\r\n");
+                    return;
+                } else {
+                    write(out, tag + " OK done\r\n");
+                }
+            }
+        }
+    }
+
+    private IMAPConnection connect(final PipelineServer server) throws Exception {
+        final ProtocolProperties props = new ProtocolProperties(Session.getInstance(new Properties()), "imap", false, 143);
+        final IMAPConnection connection = new IMAPConnection(props, null);
+        assertTrue(connection.protocolConnect("127.0.0.1", server.getPort(), null, null, "user", "pass"));
+        return connection;
+    }
+
+    private List statusCommands() throws Exception {
+        final List commands = new ArrayList();
+        for (int i = 0; i < MAILBOXES.length; i++) {
+            final String mailbox = MAILBOXES[i];
+            final IMAPCommand command = new IMAPCommand("STATUS");
+            command.appendEncodedString(mailbox);
+            command.startList();
+            command.appendAtom("MESSAGES");
+            command.endList();
+            // each command claims the STATUS response for its own mailbox
+            commands.add(new IMAPPipelinedCommand(command, new IMAPUntaggedResponseHandler() {
+                public boolean handleResponse(final IMAPUntaggedResponse response) {
+                    return response instanceof IMAPStatusResponse && ((IMAPStatusResponse) response).mailbox.equals(mailbox);
+                }
+            }));
+        }
+        return commands;
+    }
+
+    @Test
+    public void testCommandsCompleteAsResponsesArrive() throws Exception {
+        final PipelineServer server = new PipelineServer();
+        server.start();
+        final IMAPConnection connection = connect(server);
+
+        final List commands = statusCommands();
+        connection.sendPipelined(commands);
+
+        final IMAPPipelinedCommand first = (IMAPPipelinedCommand) commands.get(0);
+        final IMAPPipelinedCommand second = (IMAPPipelinedCommand) commands.get(1);
+        final IMAPPipelinedCommand third = (IMAPPipelinedCommand) commands.get(2);
+        assertFalse(first.isDone());
+
+        // the first command is answered last, so waiting on it completes everything
+        assertTrue(first.getResponse().isOK());
+        assertTrue(second.isDone());
+        assertTrue(third.isDone());
+
+        final List responses = first.getUntaggedResponses();
+        assertEquals(1, responses.size());
+        assertEquals(10, ((IMAPStatusResponse) responses.get(0)).messages);
+        assertEquals(11, ((IMAPStatusResponse) ((IMAPPipelinedCommand) commands.get(1)).getUntaggedResponses().get(0)).messages);
+        // the server's reason is passed along
+        assertTrue(assertThrows(CommandFailedException.class, third::getResponse).getMessage().contains("no such mailbox"));
+
+        // nobody claims the EXISTS responses, so they're queued as normal
+        assertEquals(2, connection.extractResponses("EXISTS").size());
+
+        connection.close();
+        server.join(10000);
+        assertNull(server.getFailure());
+    }
+
+    @Test
+    public void testOrdinaryCommandFinishesPipeline() throws Exception {
+        final PipelineServer server = new PipelineServer();
+        server.start();
+        final IMAPConnection connection = connect(server);
+
+        final List commands = statusCommands();
+        connection.sendPipelined(commands);
+        // a normal command must first read everything the pipelined commands have coming
+        connection.sendSimpleCommand("NOOP");
+        for (int i = 0; i < commands.size(); i++) {
+            assertTrue(((IMAPPipelinedCommand) commands.get(i)).isDone());
+        }
+        assertEquals(10, ((IMAPStatusResponse) ((IMAPPipelinedCommand) commands.get(0)).getUntaggedResponses().get(0)).messages);
+
+        connection.close();
+        server.join(10000);
+        assertNull(server.getFailure());
+    }
+
+    @Test
+    public void testCloseFailsOutstandingCommands() throws Exception {
+        final PipelineServer server = new PipelineServer();
+        server.start();
+        final IMAPConnection connection = connect(server);
+
+        // only one of the three arrives, so the server never answers
+        final IMAPPipelinedCommand pending = connection.sendPipelined(
+                ((IMAPPipelinedCommand) statusCommands().get(0)).getCommand(), null);
+        connection.closeServerConnection();
+        assertTrue(pending.isDone());
+        assertThrows(MessagingException.class, pending::getResponse);
+    }
+
+    @Test
+    public void testFailedSendFailsWholeBatch() throws Exception {
+        final PipelineServer server = new PipelineServer();
+        server.start();
+        final IMAPConnection connection = connect(server);
+        connection.closeServerConnection();
+
+        // none of these get written, but all of them must report the failure
+        final List commands = statusCommands();
+        assertThrows(MessagingException.class, () -> connection.sendPipelined(commands));
+        for (int i = 0; i < commands.size(); i++) {
+            final IMAPPipelinedCommand pipelined = (IMAPPipelinedCommand) commands.get(i);
+            assertTrue(pipelined.isDone());
+            assertThrows(MessagingException.class, pipelined::getResponse);
+        }
+    }
+}
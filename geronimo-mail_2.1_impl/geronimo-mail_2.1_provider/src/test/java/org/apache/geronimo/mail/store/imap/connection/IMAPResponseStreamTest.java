@@ -17,11 +17,18 @@
 package org.apache.geronimo.mail.store.imap.connection;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.List;
 
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -91,4 +98,124 @@ public class IMAPResponseStreamTest {
         final IMAPTaggedResponse tagged = (IMAPTaggedResponse) response;
         assertTrue(tagged.isOK());
     }
+
+    @Test
+    public void testLargeLiteralIsSpooled() throws Exception {
+        final IMAPResponseStream stream = new IMAPResponseStream(
+                new ByteArrayInputStream(bytes("* 1 FETCH (BODY[] {10}\r\n0123456789 UID 7)\r\na1 OK done\r\n")), 4);
+        final IMAPFetchResponse fetch = (IMAPFetchResponse) stream.readResponse();
+        final IMAPBody body = (IMAPBody) fetch.getDataItem(IMAPFetchDataItem.BODY);
+        assertTrue(body.isSpooled());
+        // the items following the spooled literal are still parsed
+        final IMAPUid uid = (IMAPUid) fetch.getDataItem(IMAPFetchDataItem.UID);
+        assertEquals(7L, uid.uid);
+
+        final InputStream in = body.getInputStream();
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        int ch;
+        while ((ch = in.read()) != -1) {
+            content.write(ch);
+        }
+        in.close();
+        assertArrayEquals(bytes("0123456789"), content.toByteArray());
+
+        // the stream stays in sync for the next response
+        assertTrue(((IMAPTaggedResponse) stream.readResponse()).isOK());
+    }
+
+    @Test
+    public void testSmallLiteralIsNotSpooled() throws Exception {
+        final IMAPResponseStream stream = new IMAPResponseStream(
+                new ByteArrayInputStream(bytes("* 1 FETCH (BODY[] {3}\r\nabc)\r\n")), 4);
+        final IMAPFetchResponse fetch = (IMAPFetchResponse) stream.readResponse();
+        final IMAPBody body = (IMAPBody) fetch.getDataItem(IMAPFetchDataItem.BODY);
+        assertFalse(body.isSpooled());
+        assertArrayEquals(bytes("abc"), body.getContent());
+    }
+
+    @Test
+    public void testSpooledLiteralReadAsByteArray() throws Exception {
+        // header literals are always parsed in memory, even when spooled
+        final IMAPResponseStream stream = new IMAPResponseStream(
+                new ByteArrayInputStream(bytes("* 1 FETCH (RFC822.HEADER {14}\r\nSubject: x\r\n\r\n)\r\n")), 4);
+        final IMAPFetchResponse fetch = (IMAPFetchResponse) stream.readResponse();
+        final IMAPInternetHeader header = (IMAPInternetHeader) fetch.getDataItem(IMAPFetchDataItem.HEADER);
+        assertEquals("x", header.headers.getHeader("Subject", null));
+    }
+
+    @Test
+    public void testPartialFetchResponseCarriesOriginOnly() throws Exception {
+        // a reply to BODY.PEEK[TEXT]<4.3> only echoes the origin, "<4>"
+        final IMAPResponseStream stream = streamFor("* 1 FETCH (BODY[TEXT]<4> {3}\r\nefg UID 7)\r\n");
+        final IMAPFetchResponse fetch = (IMAPFetchResponse) stream.readResponse();
+        final IMAPMessageText text = (IMAPMessageText) fetch.getDataItem(IMAPFetchDataItem.TEXT);
+        assertEquals(4, text.section.start);
+        assertArrayEquals(bytes("efg"), text.getContent());
+        final IMAPUid uid = (IMAPUid) fetch.getDataItem(IMAPFetchDataItem.UID);
+        assertEquals(7L, uid.uid);
+    }
+
+    @Test
+    public void testImmutableItemsRetainRawData() throws Exception {
+        final IMAPResponseStream stream = streamFor("* 1 FETCH (UID 7 FLAGS (\\Seen) INTERNALDATE \"01-Jan-2024 00:00:00 +0000\""
+                + " RFC822.SIZE 42 BODY[HEADER] {14}\r\nSubject: x\r\n\r\n BODY[1.HEADER] {14}\r\nSubject: y\r\n\r\n)\r\n");
+        final IMAPFetchResponse fetch = (IMAPFetchResponse) stream.readResponse();
+        final List items = fetch.getDataItems();
+        // the mutable items are never cached
+        assertNull(((IMAPFetchDataItem) items.get(0)).getRawData());
+        assertNull(((IMAPFetchDataItem) items.get(1)).getRawData());
+        assertArrayEquals(bytes("INTERNALDATE \"01-Jan-2024 00:00:00 +0000\""), ((IMAPFetchDataItem) items.get(2)).getRawData());
+        assertArrayEquals(bytes("RFC822.SIZE 42"), ((IMAPFetchDataItem) items.get(3)).getRawData());
+        assertArrayEquals(bytes("BODY[HEADER] {14}\r\nSubject: x\r\n\r\n"), ((IMAPFetchDataItem) items.get(4)).getRawData());
+        // nor are the headers of nested parts
+        assertNull(((IMAPFetchDataItem) items.get(5)).getRawData());
+
+        // the raw data parses back into the same items
+        final byte[] cached = bytes("(" + new String(((IMAPFetchDataItem) items.get(3)).getRawData(), "ISO8859-1") + " "
+                + new String(((IMAPFetchDataItem) items.get(4)).getRawData(), "ISO8859-1") + ")");
+        final IMAPFetchResponse reparsed = new IMAPFetchResponse(1, cached, new IMAPResponseTokenizer(cached));
+        assertEquals(42, ((IMAPMessageSize) reparsed.getDataItem(IMAPFetchDataItem.SIZE)).size);
+        assertEquals("x", ((IMAPInternetHeader) reparsed.getDataItem(IMAPFetchDataItem.HEADER)).headers.getHeader("Subject", null));
+    }
+
+    @Test
+    public void testSpooledResponseRetainsNoRawData() throws Exception {
+        final IMAPResponseStream stream = new IMAPResponseStream(
+                new ByteArrayInputStream(bytes("* 1 FETCH (RFC822.SIZE 10 BODY[] {10}\r\n0123456789)\r\n")), 4);
+        final IMAPFetchResponse fetch = (IMAPFetchResponse) stream.readResponse();
+        assertNull(fetch.getDataItem(IMAPFetchDataItem.SIZE).getRawData());
+        ((IMAPBody) fetch.getDataItem(IMAPFetchDataItem.BODY)).getInputStream().close();
+    }
+
+    @Test
+    public void testDisposeDeletesSpoolFile() throws Exception {
+        final IMAPResponseStream stream = new IMAPResponseStream(
+                new ByteArrayInputStream(bytes("* 1 FETCH (BODY[] {10}\r\n0123456789)\r\n")), 4);
+        final IMAPFetchResponse fetch = (IMAPFetchResponse) stream.readResponse();
+        final File file = ((IMAPBody) fetch.getDataItem(IMAPFetchDataItem.BODY)).spooled.file;
+        assertTrue(file.exists());
+        fetch.dispose();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testUnclaimedSpooledLiteralIsDeleted() throws Exception {
+        final int before = spoolFileCount();
+        // the literal in a response code is never parsed as content
+        final IMAPResponseStream stream = new IMAPResponseStream(
+                new ByteArrayInputStream(bytes("a1 OK {10}\r\n0123456789\r\n")), 4);
+        assertTrue(((IMAPTaggedResponse) stream.readResponse()).isOK());
+        assertEquals(before, spoolFileCount());
+    }
+
+    private int spoolFileCount() {
+        final String[] names = new File(System.getProperty("java.io.tmpdir")).list();
+        int count = 0;
+        for (int i = 0; names != null && i < names.length; i++) {
+            if (names[i].startsWith("imap") && names[i].endsWith(".literal")) {
+                count++;
+            }
+        }
+        return count;
+    }
 }
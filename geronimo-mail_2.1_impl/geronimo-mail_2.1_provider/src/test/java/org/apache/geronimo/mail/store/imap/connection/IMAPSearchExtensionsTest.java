@@ -0,0 +1,189 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.store.imap.connection;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import jakarta.mail.Session;
+import jakarta.mail.search.SubjectTerm;
+
+import org.apache.geronimo.mail.testserver.ScriptedServer;
+import org.apache.geronimo.mail.util.ProtocolProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the ESEARCH (RFC 4731), ESORT (RFC 5267), and SORT/THREAD
+ * (RFC 5256) support:  parsing of the responses, and the commands sent
+ * to a scripted server.
+ */
+public class IMAPSearchExtensionsTest {
+
+    private IMAPResponse parse(final String line) throws Exception {
+        final IMAPResponseStream stream =
+                new IMAPResponseStream(new ByteArrayInputStream(line.getBytes("ISO8859-1")));
+        return stream.readResponse();
+    }
+
+    @Test
+    public void testESearch() throws Exception {
+        final IMAPESearchResponse response = (IMAPESearchResponse) parse("* ESEARCH (TAG \"A282\") MIN 2 COUNT 7 ALL 2,10:15\r\n");
+        assertEquals("A282", response.correlator);
+        assertEquals(2, response.min);
+        assertEquals(-1, response.max);
+        assertEquals(7, response.count);
+        assertEquals("2,10:15", response.all.toString());
+        assertArrayEquals(new int[] { 2, 10, 11, 12, 13, 14, 15 }, response.getMessageNumbers());
+    }
+
+    @Test
+    public void testESearchNoMatches() throws Exception {
+        final IMAPESearchResponse response = (IMAPESearchResponse) parse("* ESEARCH (TAG \"A283\") UID COUNT 0\r\n");
+        assertTrue(response.uid);
+        assertEquals(0, response.count);
+        assertNull(response.all);
+        assertEquals(0, response.getMessageNumbers().length);
+    }
+
+    @Test
+    public void testESortPartial() throws Exception {
+        final IMAPESearchResponse response = (IMAPESearchResponse) parse("* ESEARCH (TAG \"A284\") PARTIAL (1:5 9,3:1,12)\r\n");
+        assertEquals("1:5", response.partialRange);
+        // in sort order, including the descending range
+        assertArrayEquals(new int[] { 9, 3, 2, 1, 12 }, response.getPartialMessageNumbers());
+
+        final IMAPESearchResponse empty = (IMAPESearchResponse) parse("* ESEARCH (TAG \"A285\") PARTIAL (100:150 NIL)\r\n");
+        assertEquals(0, empty.getPartialMessageNumbers().length);
+    }
+
+    @Test
+    public void testSequenceSetFromNumbers() throws Exception {
+        assertEquals("1:3,7,9:10,4", new IMAPSequenceSet(new int[] { 1, 2, 3, 7, 9, 10, 4 }).toString());
+        final IMAPESearchResponse response = new IMAPESearchResponse(new int[] { 5, 6, 7, 2 }, new String[] { "MIN", "MAX", "COUNT" });
+        assertEquals(2, response.min);
+        assertEquals(7, response.max);
+        assertEquals(4, response.count);
+        assertNull(response.all);
+    }
+
+    @Test
+    public void testSort() throws Exception {
+        final IMAPSearchResponse response = (IMAPSearchResponse) parse("* SORT 5 3 4 1 2\r\n");
+        assertEquals("SORT", response.getKeyword());
+        assertArrayEquals(new int[] { 5, 3, 4, 1, 2 }, response.messageNumbers);
+    }
+
+    @Test
+    public void testThread() throws Exception {
+        final IMAPThreadResponse response = (IMAPThreadResponse) parse("* THREAD (2)(3 6 (4 23)(44 7 96))((5)(8))\r\n");
+        assertEquals(3, response.threads.size());
+
+        final IMAPThreadResponse.IMAPThreadNode single = (IMAPThreadResponse.IMAPThreadNode) response.threads.get(0);
+        assertEquals(2, single.messageNumber);
+        assertTrue(single.children.isEmpty());
+
+        // 3 -> 6 -> (4 -> 23), (44 -> 7 -> 96)
+        final IMAPThreadResponse.IMAPThreadNode root = (IMAPThreadResponse.IMAPThreadNode) response.threads.get(1);
+        assertEquals(3, root.messageNumber);
+        final IMAPThreadResponse.IMAPThreadNode six = (IMAPThreadResponse.IMAPThreadNode) root.children.get(0);
+        assertEquals(6, six.messageNumber);
+        assertEquals(2, six.children.size());
+        assertEquals(23, ((IMAPThreadResponse.IMAPThreadNode) ((IMAPThreadResponse.IMAPThreadNode) six.children.get(0)).children.get(0)).messageNumber);
+        assertEquals(44, ((IMAPThreadResponse.IMAPThreadNode) six.children.get(1)).messageNumber);
+
+        // a thread with a missing root
+        final IMAPThreadResponse.IMAPThreadNode missing = (IMAPThreadResponse.IMAPThreadNode) response.threads.get(2);
+        assertEquals(0, missing.messageNumber);
+        assertEquals(2, missing.children.size());
+    }
+
+    private static class SearchServer extends ScriptedServer {
+        final List commands = new ArrayList();
+
+        SearchServer() throws IOException {
+        }
+
+        protected void converse(final InputStream in, final OutputStream out) throws Exception {
+            write(out, "* OK ready\r\n");
+            String line;
+            while ((line = readLine(in)) != null) {
+                final String tag = line.substring(0, line.indexOf(' '));
+                final String command = line.substring(tag.length() + 1);
+                if (command.startsWith("CAPABILITY")) {
+                    write(out, "* CAPABILITY IMAP4rev1 ESEARCH SORT ESORT CONTEXT=SORT THREAD=REFERENCES\r\n" + tag + " OK done\r\n");
+                    continue;
+                }
+                commands.add(command);
+                if (command.startsWith("SEARCH ")) {
+                    write(out, "* ESEARCH (TAG \"" + tag + "\") COUNT 3 MAX 9\r\n" + tag + " OK done\r\n");
+                } else if (command.startsWith("SORT RETURN")) {
+                    write(out, "* ESEARCH (TAG \"" + tag + "\") PARTIAL (1:2 9,4)\r\n" + tag + " OK done\r\n");
+                } else if (command.startsWith("SORT ")) {
+                    write(out, "* SORT 9 4 1\r\n" + tag + " OK done\r\n");
+                } else if (command.startsWith("THREAD ")) {
+                    write(out, "* THREAD (1 (4)(9))\r\n" + tag + " OK done\r\n");
+                } else if (command.startsWith("LOGOUT")) {
+                    write(out, "* BYE\r\n" + tag + " OK done\r\n");
+                    return;
+                } else {
+                    write(out, tag + " OK done\r\n");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCommands() throws Exception {
+        final SearchServer server = new SearchServer();
+        server.start();
+        final ProtocolProperties props = new ProtocolProperties(Session.getInstance(new Properties()), "imap", false, 143);
+        final IMAPConnection connection = new IMAPConnection(props, null);
+        assertTrue(connection.protocolConnect("127.0.0.1", server.getPort(), null, null, "user", "pass"));
+
+        final IMAPESearchResponse search = connection.extendedSearchMailbox(new SubjectTerm("report"), new String[] { "COUNT", "MAX" });
+        assertEquals(3, search.count);
+        assertEquals(9, search.max);
+        assertEquals("SEARCH RETURN (COUNT MAX) SUBJECT report", server.commands.get(1));
+
+        final String[] criteria = new String[] { "REVERSE DATE", "SUBJECT" };
+        assertArrayEquals(new int[] { 9, 4, 1 }, connection.sortMailbox(criteria, null));
+        assertEquals("SORT (REVERSE DATE SUBJECT) US-ASCII ALL", server.commands.get(2));
+
+        final IMAPESearchResponse page = connection.sortMailbox(criteria, null, new String[] { "PARTIAL 1:2" });
+        assertArrayEquals(new int[] { 9, 4 }, page.getPartialMessageNumbers());
+        assertEquals("SORT RETURN (PARTIAL 1:2) (REVERSE DATE SUBJECT) US-ASCII ALL", server.commands.get(3));
+
+        final List threads = connection.threadMailbox("REFERENCES", null);
+        assertEquals(1, threads.size());
+        assertEquals(2, ((IMAPThreadResponse.IMAPThreadNode) threads.get(0)).children.size());
+        assertEquals("THREAD REFERENCES US-ASCII ALL", server.commands.get(4));
+
+        connection.close();
+        server.join(10000);
+        assertNull(server.getFailure());
+    }
+}
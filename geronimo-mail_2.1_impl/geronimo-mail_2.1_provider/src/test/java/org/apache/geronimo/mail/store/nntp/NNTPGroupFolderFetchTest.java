@@ -0,0 +1,193 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.store.nntp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import jakarta.mail.FetchProfile;
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import jakarta.mail.Store;
+
+import org.apache.geronimo.mail.testserver.ScriptedServer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests for fetching article envelopes from the overview database,
+ * and the pipelined HEAD fallback for servers without one.
+ */
+public class NNTPGroupFolderFetchTest {
+
+    private static final int ARTICLES = 3;
+
+    private static class NewsServer extends ScriptedServer {
+        private final boolean overview;
+        final List commands = Collections.synchronizedList(new ArrayList());
+
+        NewsServer(final boolean overview) throws IOException {
+            this.overview = overview;
+        }
+
+        protected void converse(final InputStream in, final OutputStream out) throws Exception {
+            write(out, "200 news server ready\r\n");
+            String line;
+            while ((line = readLine(in)) != null) {
+                commands.add(line);
+                if (line.equals("LIST EXTENSIONS")) {
+                    write(out, overview ? "202 extensions\r\nOVER\r\n.\r\n" : "500 unknown command\r\n");
+                } else if (line.startsWith("GROUP ")) {
+                    write(out, "211 " + ARTICLES + " 1 " + ARTICLES + " " + line.substring(6) + "\r\n");
+                } else if (line.startsWith("XHDR Message-ID ")) {
+                    write(out, "221 headers follow\r\n1 <a1@test>\r\n2 <a2@test>\r\n3 <a3@test>\r\n.\r\n");
+                } else if (line.startsWith("OVER ") && overview) {
+                    final StringBuilder data = new StringBuilder("224 overview follows\r\n");
+                    for (int i = 1; i <= ARTICLES; i++) {
+                        data.append(i).append("\tSubject ").append(i).append("\tposter").append(i).append("@test\t")
+                            .append("Mon, 1 Jun 2026 10:00:00 +0000\t<a").append(i).append("@test>\t\t")
+                            .append(100 * i).append('\t').append(i).append("\r\n");
+                    }
+                    write(out, data.append(".\r\n").toString());
+                } else if (line.startsWith("OVER ") || line.startsWith("XOVER ")) {
+                    write(out, "500 unknown command\r\n");
+                } else if (line.startsWith("HEAD ")) {
+                    final List batch = new ArrayList();
+                    batch.add(line);
+                    // without an overview, the HEAD commands are all sent before waiting for a reply
+                    if (!overview) {
+                        for (int i = 1; i < ARTICLES; i++) {
+                            final String next = readLine(in);
+                            commands.add(next);
+                            batch.add(next);
+                        }
+                    }
+                    for (int i = 0; i < batch.size(); i++) {
+                        final String id = ((String) batch.get(i)).substring(5);
+                        final String article = id.substring(2, 3);
+                        write(out, "221 0 " + id + "\r\nSubject: Header " + article + "\r\nFrom: poster" + article
+                                + "@test\r\nNewsgroups: test.group\r\n.\r\n");
+                    }
+                } else if (line.equals("QUIT")) {
+                    write(out, "205 bye\r\n");
+                    return;
+                } else {
+                    write(out, "500 unknown command\r\n");
+                }
+            }
+        }
+    }
+
+    private Store connect(final NewsServer server, final File newsrc) throws Exception {
+        final Properties props = new Properties();
+        props.setProperty("mail.nntp.port", String.valueOf(server.getPort()));
+        props.setProperty("mail.nntp.newsrc", newsrc.getPath());
+        final Store store = new NNTPStore(Session.getInstance(props), null);
+        store.connect("127.0.0.1", null, null);
+        return store;
+    }
+
+    private int count(final List commands, final String prefix) {
+        int count = 0;
+        synchronized (commands) {
+            for (int i = 0; i < commands.size(); i++) {
+                if (((String) commands.get(i)).startsWith(prefix)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testOverviewFetch() throws Exception {
+        final File newsrc = Files.createTempFile("newsrc", null).toFile();
+        final NewsServer server = new NewsServer(true);
+        server.start();
+        try {
+            final Store store = connect(server, newsrc);
+            final Folder folder = store.getFolder("test.group");
+            folder.open(Folder.READ_ONLY);
+            final Message[] messages = folder.getMessages();
+            assertEquals(ARTICLES, messages.length);
+
+            final FetchProfile fp = new FetchProfile();
+            fp.add(FetchProfile.Item.ENVELOPE);
+            folder.fetch(messages, fp);
+
+            for (int i = 0; i < messages.length; i++) {
+                final NNTPMessage message = (NNTPMessage) messages[i];
+                assertEquals("Subject " + (i + 1), message.getSubject());
+                assertEquals("poster" + (i + 1) + "@test", message.getFrom()[0].toString());
+                assertEquals("<a" + (i + 1) + "@test>", message.getMessageID());
+                assertEquals(100 * (i + 1), message.getArticleSize());
+                assertEquals(i + 1, message.getLineCount());
+                assertEquals(null, message.getHeader("References"));
+            }
+            assertEquals(1, count(server.commands, "OVER 1-3"));
+            assertEquals(0, count(server.commands, "HEAD "));
+
+            // anything outside of the overview needs the full headers
+            assertEquals("test.group", messages[0].getHeader("Newsgroups")[0]);
+            assertEquals("Header 1", messages[0].getSubject());
+            assertEquals(1, count(server.commands, "HEAD "));
+            store.close();
+        } finally {
+            newsrc.delete();
+        }
+        server.join(10000);
+        assertNull(server.getFailure());
+    }
+
+    @Test
+    public void testPipelinedHeadFallback() throws Exception {
+        final File newsrc = Files.createTempFile("newsrc", null).toFile();
+        final NewsServer server = new NewsServer(false);
+        server.start();
+        try {
+            final Store store = connect(server, newsrc);
+            final Folder folder = store.getFolder("test.group");
+            folder.open(Folder.READ_ONLY);
+            final Message[] messages = folder.getMessages();
+
+            final FetchProfile fp = new FetchProfile();
+            fp.add(FetchProfile.Item.ENVELOPE);
+            folder.fetch(messages, fp);
+
+            for (int i = 0; i < messages.length; i++) {
+                assertEquals("Header " + (i + 1), messages[i].getSubject());
+            }
+            assertEquals(1, count(server.commands, "XOVER 1-3"));
+            assertEquals(ARTICLES, count(server.commands, "HEAD "));
+            store.close();
+        } finally {
+            newsrc.delete();
+        }
+        server.join(10000);
+        assertNull(server.getFailure());
+    }
+}
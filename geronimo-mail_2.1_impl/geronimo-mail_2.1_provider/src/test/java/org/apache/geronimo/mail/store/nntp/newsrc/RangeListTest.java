@@ -0,0 +1,108 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.store.nntp.newsrc;
+
+import java.io.StringWriter;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RangeListTest {
+
+    private String save(final RangeList list) throws Exception {
+        final StringWriter out = new StringWriter();
+        list.save(out);
+        return out.toString();
+    }
+
+    @Test
+    public void testParseAndSave() throws Exception {
+        final RangeList list = new RangeList("10-20, 1-5,6,30 ,bad,25-22,40-40");
+        // 1-5 and 6 abutt, so they're merged
+        assertEquals("1-6,10-20,30,40", save(list));
+        assertFalse(list.isDirty());
+        assertTrue(list.isMarked(1));
+        assertTrue(list.isMarked(6));
+        assertFalse(list.isMarked(7));
+        assertTrue(list.isMarked(15));
+        assertFalse(list.isMarked(21));
+        assertTrue(list.isMarked(30));
+        assertFalse(list.isMarked(0));
+        assertFalse(list.isMarked(41));
+    }
+
+    @Test
+    public void testMarking() throws Exception {
+        final RangeList list = new RangeList(null);
+        list.setMarked(5);
+        list.setMarked(7);
+        assertEquals("5,7", save(list));
+        assertTrue(list.isDirty());
+        // filling the gap joins everything up
+        list.setMarked(6);
+        assertEquals("5-7", save(list));
+        assertEquals(1, list.getRangeCount());
+
+        // a span covering several ranges
+        list.setMarked(20, 25);
+        list.setMarked(30);
+        list.setMarked(1, 40);
+        assertEquals("1-40", save(list));
+
+        list.setUnmarked(10);
+        assertEquals("1-9,11-40", save(list));
+        list.setUnmarked(1);
+        list.setUnmarked(40);
+        assertEquals("2-9,11-39", save(list));
+        list.setUnmarked(5, 20);
+        assertEquals("2-4,21-39", save(list));
+        list.setUnmarked(0, 100);
+        assertEquals("", save(list));
+        assertEquals(0, list.getRangeCount());
+    }
+
+    @Test
+    public void testMatchesBitSet() throws Exception {
+        final Random random = new Random(42);
+        final RangeList list = new RangeList(null);
+        final BitSet expected = new BitSet();
+        for (int i = 0; i < 5000; i++) {
+            final int start = random.nextInt(1000);
+            final int end = start + random.nextInt(i % 10 == 0 ? 50 : 3);
+            if (random.nextInt(3) == 0) {
+                list.setUnmarked(start, end);
+                expected.clear(start, end + 1);
+            } else {
+                list.setMarked(start, end);
+                expected.set(start, end + 1);
+            }
+        }
+        for (int article = 0; article < 1100; article++) {
+            assertEquals(expected.get(article), list.isMarked(article), "article " + article);
+        }
+
+        // the saved form reloads to the same marks
+        final RangeList reloaded = new RangeList(save(list));
+        assertEquals(save(list), save(reloaded));
+        assertEquals(list.getRangeCount(), reloaded.getRangeCount());
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.store.pop3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import jakarta.mail.FetchProfile;
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import jakarta.mail.UIDFolder;
+import jakarta.mail.util.SharedFileInputStream;
+
+import org.apache.geronimo.mail.testserver.ScriptedServer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for retrieving message sizes, UIDs and headers for a whole
+ * folder with bulk LIST/UIDL commands and pipelined TOP commands.
+ */
+public class POP3FolderPrefetchTest {
+
+    private static final int MESSAGES = 3;
+
+    private static class MaildropServer extends ScriptedServer {
+        private final boolean extended;
+        final List commands = new ArrayList();
+
+        MaildropServer(final boolean extended) throws IOException {
+            this.extended = extended;
+        }
+
+        protected void converse(final InputStream in, final OutputStream out) throws Exception {
+            write(out, "+OK ready\r\n");
+            String line;
+            while ((line = readLine(in)) != null) {
+                commands.add(line);
+                if (line.equals("CAPA")) {
+                    write(out, extended ? "+OK\r\nTOP\r\nUIDL\r\nPIPELINING\r\n.\r\n" : "-ERR unknown command\r\n");
+                } else if (line.equals("STAT")) {
+                    write(out, "+OK " + MESSAGES + " 300\r\n");
+                } else if (line.equals("LIST")) {
+                    write(out, "+OK\r\n1 100\r\n2 110\r\n3 120\r\n.\r\n");
+                } else if (line.startsWith("LIST ")) {
+                    final int msgnum = Integer.parseInt(line.substring(5));
+                    write(out, "+OK " + msgnum + " " + (90 + msgnum * 10) + "\r\n");
+                } else if (line.equals("UIDL")) {
+                    write(out, extended ? "+OK\r\n1 uid-1\r\n2 uid-2\r\n3 uid-3\r\n.\r\n" : "-ERR unknown command\r\n");
+                } else if (line.startsWith("UIDL ")) {
+                    final int msgnum = Integer.parseInt(line.substring(5));
+                    write(out, "+OK " + msgnum + " uid-" + msgnum + "\r\n");
+                } else if (line.startsWith("TOP ")) {
+                    final List batch = new ArrayList();
+                    batch.add(line);
+                    // a pipelining client has sent all of its commands before waiting for a response
+                    if (extended) {
+                        for (int i = 1; i < MESSAGES; i++) {
+                            final String next = readLine(in);
+                            commands.add(next);
+                            batch.add(next);
+                        }
+                    }
+                    for (int i = 0; i < batch.size(); i++) {
+                        final String msgnum = ((String) batch.get(i)).split(" ")[1];
+                        write(out, "+OK\r\nSubject: message " + msgnum + "\r\n\r\n.\r\n");
+                    }
+                } else if (line.startsWith("RETR ")) {
+                    final String msgnum = line.substring(5);
+                    write(out, "+OK\r\nSubject: message " + msgnum + "\r\n\r\nthe body of message " + msgnum + "\r\n.\r\n");
+                } else if (line.equals("QUIT")) {
+                    write(out, "+OK bye\r\n");
+                    return;
+                } else {
+                    write(out, "+OK\r\n");
+                }
+            }
+        }
+    }
+
+    private POP3Folder open(final MaildropServer server) throws Exception {
+        return open(server, new Properties());
+    }
+
+    private POP3Folder open(final MaildropServer server, final Properties props) throws Exception {
+        props.setProperty("mail.pop3.port", String.valueOf(server.getPort()));
+        final POP3Store store = new POP3Store(Session.getInstance(props), null);
+        store.connect("127.0.0.1", "user", "pass");
+        final POP3Folder folder = (POP3Folder) store.getFolder("INBOX");
+        folder.open(Folder.READ_ONLY);
+        return folder;
+    }
+
+    private int count(final List commands, final String prefix) {
+        int count = 0;
+        for (int i = 0; i < commands.size(); i++) {
+            if (((String) commands.get(i)).startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testBulkFetch() throws Exception {
+        final MaildropServer server = new MaildropServer(true);
+        server.start();
+        final POP3Folder folder = open(server);
+        try {
+            final Message[] messages = folder.getMessages();
+            final FetchProfile fp = new FetchProfile();
+            fp.add(FetchProfile.Item.ENVELOPE);
+            fp.add(UIDFolder.FetchProfileItem.UID);
+            folder.fetch(messages, fp);
+
+            for (int i = 0; i < messages.length; i++) {
+                assertEquals("message " + (i + 1), messages[i].getSubject());
+                assertEquals("uid-" + (i + 1), folder.getUID(messages[i]));
+                // the raw size less the headers
+                assertEquals(100 + i * 10 - ("Subject: message " + (i + 1) + "\r\n\r\n").length(), messages[i].getSize());
+            }
+        } finally {
+            folder.getStore().close();
+        }
+        server.join(10000);
+        assertNull(server.getFailure());
+
+        assertEquals(1, count(server.commands, "LIST"));
+        assertEquals(1, count(server.commands, "UIDL"));
+        assertEquals(MESSAGES, count(server.commands, "TOP "));
+        assertFalse(server.commands.contains("LIST 1"));
+    }
+
+    @Test
+    public void testFallbackWithoutExtensions() throws Exception {
+        final MaildropServer server = new MaildropServer(false);
+        server.start();
+        final POP3Folder folder = open(server);
+        try {
+            final Message[] messages = folder.getMessages();
+            final FetchProfile fp = new FetchProfile();
+            fp.add(FetchProfile.Item.ENVELOPE);
+            folder.fetch(messages, fp);
+
+            for (int i = 0; i < messages.length; i++) {
+                assertEquals("message " + (i + 1), messages[i].getSubject());
+                assertEquals("uid-" + (i + 1), folder.getUID(messages[i]));
+            }
+        } finally {
+            folder.getStore().close();
+        }
+        server.join(10000);
+        assertNull(server.getFailure());
+
+        // a single failed UIDL, then one per message
+        assertEquals(Arrays.asList(new String[] { "UIDL", "UIDL 1", "UIDL 2", "UIDL 3" }), uidlCommands(server.commands));
+        assertEquals(MESSAGES, count(server.commands, "TOP "));
+    }
+
+    @Test
+    public void testCloseReleasesSpoolFile() throws Exception {
+        final MaildropServer server = new MaildropServer(true);
+        server.start();
+        final Properties props = new Properties();
+        props.setProperty("mail.pop3.spoolthreshold", "10");
+        final POP3Folder folder = open(server, props);
+        final POP3Message message = (POP3Message) folder.getMessage(1);
+        final SharedFileInputStream data;
+        try {
+            final InputStream in = message.getInputStream();
+            in.close();
+            data = (SharedFileInputStream) message.messageData;
+
+            folder.close(false);
+        } finally {
+            folder.getStore().close();
+        }
+        server.join(10000);
+        assertNull(server.getFailure());
+
+        // the folder's hold on the spool file is gone
+        assertNull(message.messageData);
+        assertThrows(IOException.class, data::read);
+    }
+
+    private List uidlCommands(final List commands) {
+        final List uidl = new ArrayList();
+        for (int i = 0; i < commands.size(); i++) {
+            if (((String) commands.get(i)).startsWith("UIDL")) {
+                uidl.add(commands.get(i));
+            }
+        }
+        return uidl;
+    }
+}
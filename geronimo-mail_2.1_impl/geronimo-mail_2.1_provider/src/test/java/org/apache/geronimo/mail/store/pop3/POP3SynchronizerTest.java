@@ -0,0 +1,241 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.store.pop3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+
+import org.apache.geronimo.mail.testserver.ScriptedServer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the incremental mail drop download with POP3Synchronizer.
+ */
+public class POP3SynchronizerTest {
+
+    private static class MaildropServer extends ScriptedServer {
+        // the mail drop contents, which can change between connections
+        volatile String[] uids;
+        final List commands = Collections.synchronizedList(new ArrayList());
+
+        MaildropServer(final String[] uids) throws IOException {
+            this(uids, false);
+        }
+
+        MaildropServer(final String[] uids, final boolean multipleConnections) throws IOException {
+            super(multipleConnections);
+            this.uids = uids;
+        }
+
+        protected void converse(final InputStream in, final OutputStream out) throws Exception {
+            final String[] uids = this.uids;
+            write(out, "+OK ready\r\n");
+            String line;
+            while ((line = readLine(in)) != null) {
+                commands.add(line);
+                if (line.equals("STAT")) {
+                    write(out, "+OK " + uids.length + " 100\r\n");
+                } else if (line.equals("UIDL")) {
+                    final StringBuilder listing = new StringBuilder("+OK\r\n");
+                    for (int i = 0; i < uids.length; i++) {
+                        listing.append(i + 1).append(' ').append(uids[i]).append("\r\n");
+                    }
+                    write(out, listing.append(".\r\n").toString());
+                } else if (line.startsWith("TOP ") || line.startsWith("RETR ")) {
+                    final int msgnum = Integer.parseInt(line.split(" ")[1]);
+                    write(out, "+OK\r\nSubject: " + uids[msgnum - 1] + "\r\n\r\nbody\r\n.\r\n");
+                } else if (line.equals("CAPA")) {
+                    write(out, "-ERR unknown command\r\n");
+                } else if (line.equals("QUIT")) {
+                    write(out, "+OK bye\r\n");
+                    return;
+                } else {
+                    write(out, "+OK\r\n");
+                }
+            }
+        }
+    }
+
+    private static class RecordingHandler implements POP3MessageHandler {
+        final List subjects = Collections.synchronizedList(new ArrayList());
+
+        public void messageRetrieved(final Message message, final String uid) throws MessagingException {
+            assertEquals(uid, message.getSubject());
+            subjects.add(message.getSubject());
+        }
+    }
+
+    private POP3Store connect(final MaildropServer server, final String user) throws Exception {
+        final Properties props = new Properties();
+        props.setProperty("mail.pop3.port", String.valueOf(server.getPort()));
+        final POP3Store store = new POP3Store(Session.getInstance(props), null);
+        store.connect("127.0.0.1", user, "pass");
+        return store;
+    }
+
+    private File createDirectory() throws IOException {
+        return Files.createTempDirectory("ledgers").toFile();
+    }
+
+    private void delete(final File directory) {
+        final File[] files = directory.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testOnlyNewMessagesRetrieved() throws Exception {
+        final File directory = createDirectory();
+        try {
+            final POP3Synchronizer synchronizer = new POP3Synchronizer(directory, 2, false);
+            try {
+                final MaildropServer server = new MaildropServer(new String[] { "a", "b" }, true);
+                server.start();
+                RecordingHandler handler = new RecordingHandler();
+                POP3Store store = connect(server, "user");
+                assertEquals(2, synchronizer.synchronizeMailbox(store, handler));
+                store.close();
+                assertEquals(2, handler.subjects.size());
+
+                // "a" has since been removed, and "c" has arrived
+                server.uids = new String[] { "b", "c" };
+                handler = new RecordingHandler();
+                store = connect(server, "user");
+                assertEquals(1, synchronizer.synchronizeMailbox(store, handler));
+                store.close();
+                server.shutdown();
+                assertNull(server.getFailure());
+                assertEquals(Collections.singletonList("c"), handler.subjects);
+                // nothing was deleted from the server
+                assertEquals(0, count(server.commands, "DELE"));
+
+                // the same user on another port of the host is a different account
+                final MaildropServer other = new MaildropServer(new String[] { "b", "c" });
+                other.start();
+                handler = new RecordingHandler();
+                store = connect(other, "user");
+                assertEquals(2, synchronizer.synchronizeMailbox(store, handler));
+                store.close();
+                other.join(10000);
+                assertNull(other.getFailure());
+                assertEquals(2, directory.listFiles().length);
+            } finally {
+                synchronizer.shutdown();
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testParallelDownloadAndDelete() throws Exception {
+        final File directory = createDirectory();
+        try {
+            final POP3Synchronizer synchronizer = new POP3Synchronizer(directory, 2, true);
+            try {
+                final MaildropServer[] servers = new MaildropServer[3];
+                final Future[] results = new Future[servers.length];
+                final RecordingHandler handler = new RecordingHandler();
+                for (int i = 0; i < servers.length; i++) {
+                    servers[i] = new MaildropServer(new String[] { "m" + i + "-1", "m" + i + "-2" });
+                    servers[i].start();
+                    results[i] = synchronizer.synchronize(connect(servers[i], "user" + i), handler);
+                }
+                for (int i = 0; i < servers.length; i++) {
+                    assertEquals(Integer.valueOf(2), results[i].get(10, TimeUnit.SECONDS));
+                    // the store was connected by the caller, so it's left open
+                    assertEquals(2, count(servers[i].commands, "DELE "));
+                }
+                assertEquals(6, handler.subjects.size());
+                assertEquals(3, directory.listFiles().length);
+            } finally {
+                synchronizer.shutdown();
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testSameAccountWaitsForLedger() throws Exception {
+        final File directory = createDirectory();
+        try {
+            final POP3Synchronizer synchronizer = new POP3Synchronizer(directory, 1, false);
+            try {
+                final File ledgerFile = POP3UidLedger.getLedgerFile(directory, "localhost", 110, "user");
+                synchronizer.acquireLedger(ledgerFile);
+                final Throwable[] failure = new Throwable[1];
+                final Thread second = new Thread() {
+                    public void run() {
+                        try {
+                            synchronizer.acquireLedger(ledgerFile);
+                            synchronizer.releaseLedger(ledgerFile);
+                        } catch (final Throwable t) {
+                            failure[0] = t;
+                        }
+                    }
+                };
+                second.setDaemon(true);
+                second.start();
+                // the second sync of the account waits rather than failing
+                second.join(200);
+                assertTrue(second.isAlive());
+
+                synchronizer.releaseLedger(ledgerFile);
+                second.join(10000);
+                assertFalse(second.isAlive());
+                assertNull(failure[0]);
+            } finally {
+                synchronizer.shutdown();
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private int count(final List commands, final String prefix) {
+        int count = 0;
+        synchronized (commands) {
+            for (int i = 0; i < commands.size(); i++) {
+                if (((String) commands.get(i)).startsWith(prefix)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
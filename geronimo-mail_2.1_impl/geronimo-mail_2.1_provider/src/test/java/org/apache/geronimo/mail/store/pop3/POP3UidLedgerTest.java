@@ -0,0 +1,133 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.store.pop3;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import jakarta.mail.MessagingException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class POP3UidLedgerTest {
+
+    @Test
+    public void testPersistence() throws Exception {
+        final File file = Files.createTempFile("ledger", ".uidl").toFile();
+        try {
+            POP3UidLedger ledger = new POP3UidLedger(file);
+            assertEquals(0, ledger.size());
+            ledger.add("uid-1");
+            ledger.add("uid-2");
+            ledger.add("uid-1");
+            ledger.close();
+
+            ledger = new POP3UidLedger(file);
+            assertEquals(2, ledger.size());
+            assertTrue(ledger.contains("uid-1"));
+            assertTrue(ledger.contains("uid-2"));
+            assertFalse(ledger.contains("uid-3"));
+
+            // uid-1 is gone from the server
+            ledger.retain(Arrays.asList(new String[] { "uid-2", "uid-3" }));
+            ledger.add("uid-3");
+            ledger.close();
+
+            ledger = new POP3UidLedger(file);
+            assertEquals(2, ledger.size());
+            assertFalse(ledger.contains("uid-1"));
+            assertTrue(ledger.contains("uid-2"));
+            assertTrue(ledger.contains("uid-3"));
+            ledger.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testTruncatedRecord() throws Exception {
+        final File file = Files.createTempFile("ledger", ".uidl").toFile();
+        try {
+            POP3UidLedger ledger = new POP3UidLedger(file);
+            ledger.add("uid-1");
+            ledger.add("uid-2");
+            ledger.close();
+
+            // lose part of the last record
+            final RandomAccessFile access = new RandomAccessFile(file, "rw");
+            access.setLength(access.length() - 2);
+            access.close();
+
+            ledger = new POP3UidLedger(file);
+            assertEquals(1, ledger.size());
+            assertTrue(ledger.contains("uid-1"));
+            ledger.add("uid-4");
+            ledger.close();
+
+            ledger = new POP3UidLedger(file);
+            assertEquals(2, ledger.size());
+            assertTrue(ledger.contains("uid-4"));
+            ledger.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testNullUidIgnored() throws Exception {
+        final File file = Files.createTempFile("ledger", ".uidl").toFile();
+        try {
+            final POP3UidLedger ledger = new POP3UidLedger(file);
+            ledger.add(null);
+            assertEquals(0, ledger.size());
+            ledger.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFailedRetainKeepsLedger() throws Exception {
+        final File file = Files.createTempFile("ledger", ".uidl").toFile();
+        // nothing can be written where the replacement file goes
+        final File blocker = new File(file.getPath() + ".tmp");
+        try {
+            POP3UidLedger ledger = new POP3UidLedger(file);
+            ledger.add("uid-1");
+            ledger.add("uid-2");
+            assertTrue(blocker.mkdir());
+            assertThrows(MessagingException.class, () -> ledger.retain(Arrays.asList(new String[] { "uid-2" })));
+
+            // the old file is still in use
+            ledger.add("uid-3");
+            ledger.close();
+            final POP3UidLedger reopened = new POP3UidLedger(file);
+            assertEquals(3, reopened.size());
+            reopened.close();
+        } finally {
+            blocker.delete();
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.store.pop3.connection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import jakarta.mail.Session;
+import jakarta.mail.internet.SharedInputStream;
+import jakarta.mail.util.SharedByteArrayInputStream;
+import jakarta.mail.util.SharedFileInputStream;
+
+import org.apache.geronimo.mail.testserver.ScriptedServer;
+import org.apache.geronimo.mail.util.ProtocolProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for reading RETR data as bytes, either into a shared
+ * buffer or into a spool file above the spool threshold.
+ */
+public class POP3MessageStreamTest {
+
+    private static final String MESSAGE = "Subject: test\r\n\r\n.leading period\r\nbinary éÿ\r\n";
+
+    private static class RetrServer extends ScriptedServer {
+        final List commands = new ArrayList();
+
+        RetrServer() throws IOException {
+        }
+
+        protected void converse(final InputStream in, final OutputStream out) throws Exception {
+            write(out, "+OK ready\r\n");
+            String line;
+            while ((line = readLine(in)) != null) {
+                commands.add(line);
+                if (line.startsWith("RETR ")) {
+                    write(out, "+OK message follows\r\nSubject: test\r\n\r\n..leading period\r\nbinary éÿ\r\n.\r\n");
+                } else if (line.startsWith("STAT")) {
+                    write(out, "+OK 1 " + MESSAGE.length() + "\r\n");
+                } else if (line.startsWith("QUIT")) {
+                    write(out, "+OK bye\r\n");
+                    return;
+                } else {
+                    write(out, "+OK\r\n");
+                }
+            }
+        }
+    }
+
+    private POP3Connection connect(final RetrServer server, final Properties properties) throws Exception {
+        final ProtocolProperties props = new ProtocolProperties(Session.getInstance(properties), "pop3", false, 110);
+        final POP3Connection connection = new POP3Connection(props);
+        assertTrue(connection.protocolConnect("127.0.0.1", server.getPort(), null, null, "user", "pass"));
+        return connection;
+    }
+
+    private byte[] readAll(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[16];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRetrieveIntoSharedBuffer() throws Exception {
+        final RetrServer server = new RetrServer();
+        server.start();
+        final POP3Connection connection = connect(server, new Properties());
+        try {
+            final InputStream in = connection.retrieveMessageStream(1);
+            assertTrue(in instanceof SharedByteArrayInputStream);
+            assertArrayEquals(MESSAGE.getBytes("ISO8859-1"), readAll(in));
+            // substreams share the same data
+            final InputStream body = ((SharedInputStream) in).newStream(17, -1);
+            assertEquals(".leading period\r\nbinary éÿ\r\n", new String(readAll(body), "ISO8859-1"));
+
+            // the connection is still in step with the server
+            assertArrayEquals(MESSAGE.getBytes("ISO8859-1"), connection.retrieveMessageData(1));
+            assertEquals(1, connection.retrieveMailboxStatus().getNumMessages());
+        } finally {
+            connection.close();
+        }
+        server.join(10000);
+        assertNull(server.getFailure());
+    }
+
+    @Test
+    public void testRetrieveIntoSpoolFile() throws Exception {
+        final RetrServer server = new RetrServer();
+        server.start();
+        final Properties properties = new Properties();
+        properties.setProperty("mail.pop3.spoolthreshold", "10");
+        final POP3Connection connection = connect(server, properties);
+        try {
+            final InputStream in = connection.retrieveMessageStream(1);
+            assertTrue(in instanceof SharedFileInputStream);
+            assertArrayEquals(MESSAGE.getBytes("ISO8859-1"), readAll(in));
+            in.close();
+            assertEquals(1, connection.retrieveMailboxStatus().getNumMessages());
+        } finally {
+            connection.close();
+        }
+        server.join(10000);
+        assertNull(server.getFailure());
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.testserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * A bare socket server for tests that need exact control over the
+ * protocol exchange, such as pipelining, out of order responses or
+ * extensions the James server doesn't offer.  Subclasses script the
+ * server side of the conversation in converse().  By default a single
+ * connection is accepted; servers created for multiple connections
+ * handle each one on its own thread until shutdown() is called.
+ */
+public abstract class ScriptedServer extends Thread {
+    private final ServerSocket server;
+    private final boolean multipleConnections;
+    private volatile Throwable failure;
+
+    protected ScriptedServer() throws IOException {
+        this(false);
+    }
+
+    protected ScriptedServer(final boolean multipleConnections) throws IOException {
+        this.multipleConnections = multipleConnections;
+        server = new ServerSocket(0);
+        setDaemon(true);
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * @return the first error raised by a conversation, or null.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public void shutdown() throws IOException {
+        server.close();
+    }
+
+    public void run() {
+        if (!multipleConnections) {
+            try {
+                handle(server.accept());
+            } catch (final IOException e) {
+                failure = e;
+            } finally {
+                try {
+                    server.close();
+                } catch (final IOException e) {
+                }
+            }
+            return;
+        }
+        try {
+            while (true) {
+                final Socket socket = server.accept();
+                final Thread handler = new Thread() {
+                    public void run() {
+                        handle(socket);
+                    }
+                };
+                handler.setDaemon(true);
+                handler.start();
+            }
+        } catch (final IOException e) {
+            // shut down
+        }
+    }
+
+    private void handle(final Socket socket) {
+        try {
+            socket.setSoTimeout(10000);
+            converse(socket.getInputStream(), socket.getOutputStream());
+        } catch (final Throwable t) {
+            if (failure == null) {
+                failure = t;
+            }
+        } finally {
+            try {
+                socket.close();
+            } catch (final IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Play the server side of a conversation.  The connection is
+     * closed on return.
+     *
+     * @param in  The stream of client data.
+     * @param out The stream to the client.
+     */
+    protected abstract void converse(InputStream in, OutputStream out) throws Exception;
+
+    protected static void write(final OutputStream out, final String data) throws IOException {
+        out.write(data.getBytes("ISO8859-1"));
+        out.flush();
+    }
+
+    /**
+     * Read a CRLF or LF terminated line, without the terminator.
+     *
+     * @return the line, or null at the end of the stream.
+     */
+    protected static String readLine(final InputStream in) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int ch;
+        while ((ch = in.read()) != '\n') {
+            if (ch == -1) {
+                return null;
+            }
+            if (ch != '\r') {
+                line.write(ch);
+            }
+        }
+        return line.toString("ISO8859-1");
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.geronimo.mail.transport.smtp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import jakarta.activation.DataHandler;
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.util.ByteArrayDataSource;
+
+import org.apache.geronimo.mail.testserver.ScriptedServer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for BODY=BINARYMIME:  content is only sent without line break
+ * canonicalization when everything outside of the binary parts is
+ * already canonical.
+ */
+public class SMTPBinaryMimeTest {
+
+    private static class ChunkingServer extends ScriptedServer {
+        volatile String mailFrom;
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        ChunkingServer() throws IOException {
+        }
+
+        protected void converse(final InputStream in, final OutputStream out) throws Exception {
+            write(out, "220 ready\r\n");
+            String line;
+            while ((line = readLine(in)) != null) {
+                if (line.startsWith("EHLO")) {
+                    write(out, "250-localhost\r\n250-CHUNKING\r\n250 BINARYMIME\r\n");
+                } else if (line.startsWith("MAIL FROM")) {
+                    mailFrom = line;
+                    write(out, "250 ok\r\n");
+                } else if (line.startsWith("BDAT ")) {
+                    int remaining = Integer.parseInt(line.split(" ")[1]);
+                    while (remaining-- > 0) {
+                        data.write(in.read());
+                    }
+                    write(out, "250 ok\r\n");
+                } else if (line.equals("QUIT")) {
+                    write(out, "221 bye\r\n");
+                    return;
+                } else {
+                    write(out, "250 ok\r\n");
+                }
+            }
+        }
+    }
+
+    private ChunkingServer send(final MimeMessage message) throws Exception {
+        final ChunkingServer server = new ChunkingServer();
+        server.start();
+        message.setFrom(new InternetAddress("from@localhost"));
+        message.setRecipient(Message.RecipientType.TO, new InternetAddress("to@localhost"));
+        message.saveChanges();
+        final Transport transport = new SMTPTransport(message.getSession(), null);
+        transport.connect("127.0.0.1", server.getPort(), null, null);
+        transport.sendMessage(message, message.getAllRecipients());
+        transport.close();
+        server.join(10000);
+        assertNull(server.getFailure());
+        return server;
+    }
+
+    private MimeMessage message(final String text) throws Exception {
+        final Properties props = new Properties();
+        props.setProperty("mail.smtp.allowbinarymime", "true");
+        final MimeMessage message = new MimeMessage(Session.getInstance(props));
+        final MimeMultipart multipart = new MimeMultipart();
+        final MimeBodyPart body = new MimeBodyPart();
+        body.setText(text);
+        body.setHeader("Content-Transfer-Encoding", "7bit");
+        multipart.addBodyPart(body);
+        final MimeBodyPart attachment = new MimeBodyPart();
+        attachment.setDataHandler(new DataHandler(new ByteArrayDataSource(new byte[] { 0, '\n', (byte) 0xff, '\r' }, "application/octet-stream")));
+        attachment.setHeader("Content-Transfer-Encoding", "base64");
+        multipart.addBodyPart(attachment);
+        message.setContent(multipart);
+        return message;
+    }
+
+    private boolean contains(final byte[] data, final byte[] part) {
+        for (int i = 0; i + part.length <= data.length; i++) {
+            boolean match = true;
+            for (int j = 0; j < part.length && match; j++) {
+                match = data[i + j] == part[j];
+            }
+            if (match) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testCanonicalMessageIsSentBinary() throws Exception {
+        final ChunkingServer server = send(message("line one\r\nline two\r\n"));
+        assertTrue(server.mailFrom.endsWith("BODY=BINARYMIME"));
+        // the attachment goes out decoded, bare line breaks and all
+        assertTrue(contains(server.data.toByteArray(), new byte[] { 0, '\n', (byte) 0xff, '\r' }));
+    }
+
+    @Test
+    public void testBareLineBreaksAreStillCanonicalized() throws Exception {
+        final ChunkingServer server = send(message("line one\nline two\n"));
+        assertFalse(server.mailFrom.contains("BINARYMIME"));
+        final byte[] data = server.data.toByteArray();
+        assertTrue(contains(data, "line one\r\nline two\r\n".getBytes("ISO8859-1")));
+        // the attachment is still sent encoded
+        assertFalse(contains(data, new byte[] { 0, '\n', (byte) 0xff }));
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.geronimo.mail.transport.smtp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+import javax.net.SocketFactory;
+
+import jakarta.mail.Session;
+
+import org.apache.geronimo.mail.testserver.ScriptedServer;
+import org.apache.geronimo.mail.util.ProtocolProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for matching and evicting pooled SMTP connections.
+ */
+public class SMTPConnectionPoolTest {
+
+    private static class QuitServer extends ScriptedServer {
+        volatile boolean quit;
+
+        QuitServer() throws IOException {
+        }
+
+        protected void converse(final InputStream in, final OutputStream out) throws Exception {
+            write(out, "220 ready\r\n");
+            String line;
+            while ((line = readLine(in)) != null) {
+                if (line.startsWith("EHLO")) {
+                    write(out, "250 localhost\r\n");
+                } else if (line.equals("QUIT")) {
+                    quit = true;
+                    write(out, "221 bye\r\n");
+                    return;
+                } else {
+                    write(out, "250 ok\r\n");
+                }
+            }
+        }
+    }
+
+    private String key(final Properties properties) {
+        final ProtocolProperties props = new ProtocolProperties(Session.getInstance(properties), "smtp", false, 25);
+        return SMTPConnectionPool.getPoolKey(props, "mail.example.com", -1, "user", false);
+    }
+
+    @Test
+    public void testKeyCoversConnectionSettings() throws Exception {
+        final String base = key(new Properties());
+
+        final Properties localhost = new Properties();
+        localhost.setProperty("mail.smtp.localhost", "client.example.com");
+        assertNotEquals(base, key(localhost));
+
+        final Properties mechanisms = new Properties();
+        mechanisms.setProperty("mail.smtp.sasl.mechanisms", "CRAM-MD5");
+        assertNotEquals(base, key(mechanisms));
+
+        final Properties trust = new Properties();
+        trust.setProperty("mail.smtp.ssl.trust", "*");
+        assertNotEquals(base, key(trust));
+
+        final Properties factory = new Properties();
+        factory.put("mail.smtp.socketFactory", SocketFactory.getDefault());
+        assertNotEquals(base, key(factory));
+        assertEquals(key(factory), key(factory));
+    }
+
+    @Test
+    public void testCredentialIsNotThePassword() throws Exception {
+        final SMTPConnectionPool pool = new SMTPConnectionPool();
+        final byte[] credential = pool.getCredential("secret");
+        assertFalse(new String(credential, "ISO8859-1").contains("secret"));
+        assertTrue(Arrays.equals(credential, pool.getCredential("secret")));
+        assertFalse(Arrays.equals(credential, pool.getCredential("other")));
+        assertNull(pool.getCredential(null));
+    }
+
+    @Test
+    public void testIdleConnectionIsEvicted() throws Exception {
+        final QuitServer server = new QuitServer();
+        server.start();
+        final Properties properties = new Properties();
+        properties.setProperty("mail.smtp.connectionpool", "true");
+        properties.setProperty("mail.smtp.connectionpooltimeout", "200");
+        final Session session = Session.getInstance(properties);
+
+        final SMTPConnectionPool pool = SMTPConnectionPool.getInstance();
+        pool.close();
+        final SMTPTransport transport = new SMTPTransport(session, null);
+        transport.connect("127.0.0.1", server.getPort(), null, null);
+        final String key = transport.poolKey;
+        transport.close();
+        assertEquals(1, pool.getIdleCount(key));
+
+        // nobody asks for it again, so the timer shuts it down
+        server.join(10000);
+        assertTrue(server.quit);
+        assertEquals(0, pool.getIdleCount(key));
+        assertNull(server.getFailure());
+    }
+}
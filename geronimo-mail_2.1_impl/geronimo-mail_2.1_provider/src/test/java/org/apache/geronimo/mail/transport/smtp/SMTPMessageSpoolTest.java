@@ -0,0 +1,71 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.transport.smtp;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SMTPMessageSpoolTest {
+
+    private byte[] data(final int size) {
+        final byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + (i % 26));
+        }
+        return data;
+    }
+
+    @Test
+    public void testSmallMessageStaysInMemory() throws Exception {
+        final SMTPMessageSpool spool = new SMTPMessageSpool(1024);
+        final byte[] data = data(100);
+        spool.write(data, 0, data.length);
+        assertFalse(spool.isSpooledToFile());
+        assertEquals(100, spool.getSize());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        spool.writeTo(out);
+        assertArrayEquals(data, out.toByteArray());
+        spool.dispose();
+    }
+
+    @Test
+    public void testLargeMessageOverflowsToFile() throws Exception {
+        final SMTPMessageSpool spool = new SMTPMessageSpool(1024);
+        final byte[] data = data(5000);
+        // mix single byte and bulk writes across the threshold
+        spool.write(data, 0, 1000);
+        spool.write(data[1000]);
+        spool.write(data, 1001, data.length - 1001);
+        assertTrue(spool.isSpooledToFile());
+        assertEquals(5000, spool.getSize());
+
+        // the spool can be replayed more than once
+        for (int i = 0; i < 2; i++) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            spool.writeTo(out);
+            assertArrayEquals(data, out.toByteArray());
+        }
+        spool.dispose();
+    }
+}
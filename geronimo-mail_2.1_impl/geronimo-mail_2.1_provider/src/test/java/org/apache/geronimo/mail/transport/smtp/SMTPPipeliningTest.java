@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.geronimo.mail.transport.smtp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+
+import org.apache.geronimo.mail.testserver.ScriptedServer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for pipelining the SMTP envelope (RFC 2920) with DATA included.
+ */
+public class SMTPPipeliningTest {
+
+    private static class RejectingServer extends ScriptedServer {
+        final List commands = new ArrayList();
+
+        RejectingServer() throws IOException {
+        }
+
+        protected void converse(final InputStream in, final OutputStream out) throws Exception {
+            write(out, "220 ready\r\n");
+            String line;
+            while ((line = readLine(in)) != null) {
+                commands.add(line);
+                if (line.startsWith("EHLO")) {
+                    write(out, "250-localhost\r\n250 PIPELINING\r\n");
+                } else if (line.equals("DATA")) {
+                    write(out, "554 no valid recipients today\r\n");
+                } else if (line.equals("QUIT")) {
+                    write(out, "221 bye\r\n");
+                    return;
+                } else {
+                    write(out, "250 ok\r\n");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRejectedPipelinedDataIsReported() throws Exception {
+        final RejectingServer server = new RejectingServer();
+        server.start();
+        final Properties props = new Properties();
+        props.setProperty("mail.smtp.sendpartial", "true");
+        final Session session = Session.getInstance(props);
+        final MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress("from@localhost"));
+        message.setRecipient(Message.RecipientType.TO, new InternetAddress("to@localhost"));
+        message.setText("hello");
+        message.saveChanges();
+
+        final Transport transport = new SMTPTransport(session, null);
+        transport.connect("127.0.0.1", server.getPort(), null, null);
+        final MessagingException e = assertThrows(MessagingException.class,
+                () -> transport.sendMessage(message, message.getAllRecipients()));
+        transport.close();
+        server.join(10000);
+        assertNull(server.getFailure());
+
+        // the failure is the server's answer to the pipelined DATA, which isn't sent again
+        assertTrue(e.getMessage().contains("554"), e.getMessage());
+        int data = 0;
+        for (int i = 0; i < server.commands.size(); i++) {
+            if (server.commands.get(i).equals("DATA")) {
+                data++;
+            }
+        }
+        assertEquals(1, data);
+    }
+}
@@ -26,6 +26,9 @@ import jakarta.mail.internet.MimeMessage;
 
 import org.apache.geronimo.mail.testserver.AbstractProtocolTest;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
 public class SMTPTransportTest extends AbstractProtocolTest {
 
     @Test
@@ -55,5 +58,46 @@ public class SMTPTransportTest extends AbstractProtocolTest {
 
     }
 
+    @Test
+    public void testConnectionPoolReusesConnection() throws Exception {
+        start();
+
+        Properties props = new Properties();
+        props.setProperty("mail.transport.protocol", "smtp");
+        props.setProperty("mail.smtp.host", "127.0.0.1");
+        props.setProperty("mail.smtp.port", String.valueOf(smtpConf.getListenerPort()));
+        props.setProperty("mail.smtp.connectionpool", "true");
+
+        Session jmsession = Session.getInstance(props);
+        SMTPConnectionPool pool = SMTPConnectionPool.getInstance();
+        pool.close();
+
+        SMTPTransport t = (SMTPTransport) jmsession.getTransport();
+        t.connect();
+        SMTPConnection first = t.connection;
+        sendTestMessage(jmsession, t);
+        t.close();
 
+        String key = SMTPConnectionPool.getPoolKey(t.props, "127.0.0.1", -1, null, false);
+        assertEquals(1, pool.getIdleCount(key));
+
+        // a second transport picks up the pooled connection
+        SMTPTransport t2 = (SMTPTransport) jmsession.getTransport();
+        t2.connect();
+        assertSame(first, t2.connection);
+        assertEquals(0, pool.getIdleCount(key));
+        sendTestMessage(jmsession, t2);
+        t2.close();
+
+        pool.close();
+        assertEquals(0, pool.getIdleCount(key));
+    }
+
+    private void sendTestMessage(Session jmsession, Transport t) throws Exception {
+        MimeMessage msg = new MimeMessage(jmsession);
+        msg.setFrom(new InternetAddress("test@apache.org"));
+        msg.setSubject("Hi!");
+        msg.setText("All your base are belong to us");
+        t.sendMessage(msg, new InternetAddress[]{new InternetAddress("testto@apache.org")});
+    }
 }
@@ -0,0 +1,76 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MIMEInputStreamTest {
+
+    private String read(final MIMEInputStream in, final boolean bulk) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (bulk) {
+            final byte[] buffer = new byte[3];
+            int count;
+            while ((count = in.read(buffer, 0, buffer.length)) != -1) {
+                out.write(buffer, 0, count);
+            }
+        } else {
+            int ch;
+            while ((ch = in.read()) != -1) {
+                out.write(ch);
+            }
+        }
+        return out.toString("ISO8859-1");
+    }
+
+    @Test
+    public void testByteUnstuffing() throws Exception {
+        final String data = "..first\r\nsecond.\r\n...third\r\n..\r\n.\r\n";
+        final String expected = ".first\r\nsecond.\r\n..third\r\n.\r\n";
+        assertEquals(expected, read(new MIMEInputStream(new ByteArrayInputStream(data.getBytes("ISO8859-1"))), false));
+        assertEquals(expected, read(new MIMEInputStream(new ByteArrayInputStream(data.getBytes("ISO8859-1"))), true));
+    }
+
+    @Test
+    public void testTerminatorLeavesFollowingData() throws Exception {
+        final ByteArrayInputStream source = new ByteArrayInputStream("body\r\n.\r\n+OK next\r\n".getBytes("ISO8859-1"));
+        final MIMEInputStream in = new MIMEInputStream(source);
+        assertEquals("body\r\n", read(in, true));
+        assertEquals(-1, in.read());
+        // the next response is still available on the source stream
+        final byte[] rest = new byte[source.available()];
+        source.read(rest);
+        assertEquals("+OK next\r\n", new String(rest, "ISO8859-1"));
+    }
+
+    @Test
+    public void testBinaryData() throws Exception {
+        final byte[] data = new byte[] { (byte) 0xff, (byte) 0x80, 0, '\r', '\n', '.', '\r', '\n' };
+        final MIMEInputStream in = new MIMEInputStream(new ByteArrayInputStream(data));
+        assertEquals(0xff, in.read());
+        assertEquals(0x80, in.read());
+        assertEquals(0, in.read());
+        assertEquals('\r', in.read());
+        assertEquals('\n', in.read());
+        assertEquals(-1, in.read());
+    }
+}
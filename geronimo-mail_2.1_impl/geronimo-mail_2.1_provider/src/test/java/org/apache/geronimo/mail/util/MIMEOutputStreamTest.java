@@ -0,0 +1,57 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.mail.util;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MIMEOutputStreamTest {
+
+    private String filter(final String data, final boolean byteStuff, final boolean bulk) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final MIMEOutputStream mimeOut = new MIMEOutputStream(out, byteStuff);
+        final byte[] bytes = data.getBytes("ISO8859-1");
+        if (bulk) {
+            mimeOut.write(bytes, 0, bytes.length);
+        } else {
+            for (int i = 0; i < bytes.length; i++) {
+                mimeOut.write(bytes[i]);
+            }
+        }
+        mimeOut.forceTerminatingLineBreak();
+        return out.toString("ISO8859-1");
+    }
+
+    @Test
+    public void testLineBreaksAndByteStuffing() throws Exception {
+        final String data = ".first\nsecond.\r\n.third\r.fourth\r\n\n..fifth";
+        final String expected = "..first\r\nsecond.\r\n..third\r\n..fourth\r\n\r\n...fifth\r\n";
+        assertEquals(expected, filter(data, true, false));
+        assertEquals(expected, filter(data, true, true));
+    }
+
+    @Test
+    public void testNoByteStuffing() throws Exception {
+        final String data = ".first\n.second";
+        final String expected = ".first\r\n.second\r\n";
+        assertEquals(expected, filter(data, false, false));
+        assertEquals(expected, filter(data, false, true));
+    }
+}
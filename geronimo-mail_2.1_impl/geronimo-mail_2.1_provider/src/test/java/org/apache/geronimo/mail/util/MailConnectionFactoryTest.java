@@ -0,0 +1,50 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.geronimo.mail.util;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests for the socket factories MailConnection shares between connections.
+ */
+public class MailConnectionFactoryTest {
+
+    @Test
+    public void testSSLContextFactoryIsSharedPerTrustSetting() throws Exception {
+        final SSLSocketFactory trusted = MailConnection.getSSLContextSocketFactory("mail.example.com");
+        // a second connection with the same setting gets the same context, and with it the session cache
+        assertSame(trusted, MailConnection.getSSLContextSocketFactory("mail.example.com"));
+        assertNotSame(trusted, MailConnection.getSSLContextSocketFactory("*"));
+        assertNotSame(trusted, MailConnection.getSSLContextSocketFactory("other.example.com"));
+        assertNotSame(trusted, MailConnection.getSSLContextSocketFactory(null));
+        assertSame(MailConnection.getSSLContextSocketFactory(null), MailConnection.getSSLContextSocketFactory(null));
+    }
+
+    @Test
+    public void testConfiguredFactoryIsShared() throws Exception {
+        final ClassLoader loader = MailConnectionFactoryTest.class.getClassLoader();
+        final Object factory = MailConnection.getConfiguredSocketFactory(loader, SSLSocketFactory.class.getName());
+        assertSame(factory, MailConnection.getConfiguredSocketFactory(loader, SSLSocketFactory.class.getName()));
+        assertNotSame(factory, MailConnection.getConfiguredSocketFactory(loader, SocketFactory.class.getName()));
+    }
+}
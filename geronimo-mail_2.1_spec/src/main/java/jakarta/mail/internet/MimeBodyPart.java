@@ -95,6 +95,12 @@ public class MimeBodyPart extends BodyPart implements MimePart {
 
     public MimeBodyPart(final InputStream in) throws MessagingException {
         headers = new InternetHeaders(in);
+        // shared streams allow the content to be referenced in place rather than copied.
+        if (in instanceof SharedInputStream) {
+            final SharedInputStream sin = (SharedInputStream) in;
+            contentStream = sin.newStream(sin.getPosition(), -1);
+            return;
+        }
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
         final byte[] buffer = new byte[1024];
         int count;
@@ -423,6 +429,11 @@ public class MimeBodyPart extends BodyPart implements MimePart {
 
     protected InputStream getContentStream() throws MessagingException {
         if (contentStream != null) {
+            // shared content hands out an independent stream each time, so the
+            // content can be read more than once.
+            if (contentStream instanceof SharedInputStream) {
+                return ((SharedInputStream) contentStream).newStream(0, -1);
+            }
             return contentStream;
         }
 
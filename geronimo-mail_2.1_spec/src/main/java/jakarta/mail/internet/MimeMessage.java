@@ -280,6 +280,17 @@ public class MimeMessage extends Message implements MimePart {
      * @throws MessagingException if there was a problem parsing the stream
      */
     protected void parse(InputStream in) throws MessagingException {
+        // a SharedInputStream lets us reference the message content in place rather than
+        // copying it into memory.  These streams are already positionable, so no buffering is
+        // added; the headers are read directly and the content becomes a substream starting
+        // at the current position.
+        if (in instanceof SharedInputStream) {
+            final SharedInputStream sin = (SharedInputStream) in;
+            headers = createInternetHeaders(in);
+            contentStream = sin.newStream(sin.getPosition(), -1);
+            return;
+        }
+
         in = new BufferedInputStream(in);
         // create the headers first from the stream.  Note:  We need to do this 
         // by calling createInternetHeaders because subclasses might wish to add 
@@ -973,6 +984,11 @@ public class MimeMessage extends Message implements MimePart {
 
     protected InputStream getContentStream() throws MessagingException {
         if (contentStream != null) {
+            // shared content hands out an independent stream each time, so the
+            // content can be read more than once.
+            if (contentStream instanceof SharedInputStream) {
+                return ((SharedInputStream) contentStream).newStream(0, -1);
+            }
             return contentStream;
         }
 
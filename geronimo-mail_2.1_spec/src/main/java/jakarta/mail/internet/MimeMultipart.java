@@ -21,6 +21,7 @@ package jakarta.mail.internet;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -236,6 +237,10 @@ public class MimeMultipart extends Multipart {
     private static byte[] dash = { '-', '-' };
     private static byte[] crlf = { 13, 10 };
 
+    // the size of the blocks scanned for line ends when parsing.  A boundary
+    // can only start at a line end, so everything up to the next CR or LF is data.
+    private static final int SCAN_BLOCK_SIZE = 4096;
+
     @Override
     public void writeTo(final OutputStream out) throws IOException, MessagingException {
         parse();
@@ -283,20 +288,28 @@ public class MimeMultipart extends Multipart {
                 throw new MessagingException("Missing boundary parameter in content-type");
             }           
                         
-            final InputStream is = new BufferedInputStream(ds.getInputStream());
-            BufferedInputStream pushbackInStream = null;
+            final InputStream source = ds.getInputStream();
+            // if the data source gives us a SharedInputStream, the parts can reference
+            // their content in place rather than copying it.  The shared stream supports
+            // mark/reset and tracks its position, so it is used without buffering.
+            SharedInputStream shared = null;
+            if (source instanceof SharedInputStream && source.markSupported()) {
+                shared = (SharedInputStream) source;
+            }
+            final InputStream is = shared != null ? source : new BufferedInputStream(source);
+            InputStream pushbackInStream = null;
             boolean boundaryFound = false;
             
             byte[] boundary = null;
             if (boundaryString == null || ignoreExistingBoundaryParameter) {
-                pushbackInStream = new BufferedInputStream(is, 1200);
+                pushbackInStream = shared != null ? is : new BufferedInputStream(is, 1200);
                 // read until we find something that looks like a boundary string
                 boundary = readTillFirstBoundary(pushbackInStream);
                 boundaryFound = boundary != null;
             }
             else {
                 boundary = ("--" + boundaryString).getBytes("ISO8859-1");
-                pushbackInStream = new BufferedInputStream(is, boundary.length + 1000);
+                pushbackInStream = shared != null ? is : new BufferedInputStream(is, boundary.length + 1000);
                 boundaryFound = readTillFirstBoundary(pushbackInStream, boundary);
             }
             
@@ -314,8 +327,13 @@ public class MimeMultipart extends Multipart {
 
             while (true) {
                 MimeBodyPartInputStream partStream;
-                partStream = new MimeBodyPartInputStream(pushbackInStream, boundary);
-                addBodyPart(new MimeBodyPart(partStream));
+                partStream = new MimeBodyPartInputStream(pushbackInStream, boundary, shared);
+                if (shared != null) {
+                    addBodyPart(createSharedMimeBodyPart(partStream, shared));
+                }
+                else {
+                    addBodyPart(new MimeBodyPart(partStream));
+                }
 
                 // terminated by an EOF rather than a proper boundary?
                 if (!partStream.boundaryFound) {
@@ -349,17 +367,18 @@ public class MimeMultipart extends Multipart {
      * @param boundary
      * @throws MessagingException
      */
-    private byte[] readTillFirstBoundary(final BufferedInputStream pushbackInStream) throws MessagingException {
+    private byte[] readTillFirstBoundary(final InputStream pushbackInStream) throws MessagingException {
         final ByteArrayOutputStream preambleStream = new ByteArrayOutputStream();
         final ByteArrayOutputStream lineTerminator = new ByteArrayOutputStream();
+        final byte[] scanBuffer = new byte[SCAN_BLOCK_SIZE];
 
         try {
             while (true) {
                 // read the next line, capturing the terminator bytes that ended it
                 lineTerminator.reset();
-                final byte[] line = readLine(pushbackInStream, lineTerminator);
-                // hit an EOF?
-                if (line == null || line.length==0) {
+                final byte[] line = readLine(pushbackInStream, scanBuffer, lineTerminator);
+                // hit an EOF?  An empty line that had a terminator is just a blank preamble line.
+                if (line == null || (line.length == 0 && lineTerminator.size() == 0)) {
                     return null;//throw new MessagingException("Unexpected End of Stream while searching for first Mime Boundary");
                 }
                 // if this looks like a boundary, then make it so
@@ -422,17 +441,18 @@ public class MimeMultipart extends Multipart {
      * @param boundary
      * @throws MessagingException
      */
-    private boolean readTillFirstBoundary(final BufferedInputStream pushbackInStream, final byte[] boundary) throws MessagingException {
+    private boolean readTillFirstBoundary(final InputStream pushbackInStream, final byte[] boundary) throws MessagingException {
         final ByteArrayOutputStream preambleStream = new ByteArrayOutputStream();
         final ByteArrayOutputStream lineTerminator = new ByteArrayOutputStream();
+        final byte[] scanBuffer = new byte[SCAN_BLOCK_SIZE];
 
         try {
             while (true) {
                 // read the next line, capturing the terminator bytes that ended it
                 lineTerminator.reset();
-                final byte[] line = readLine(pushbackInStream, lineTerminator);
-                // hit an EOF?
-                if (line == null || line.length==0) {
+                final byte[] line = readLine(pushbackInStream, scanBuffer, lineTerminator);
+                // hit an EOF?  An empty line that had a terminator is just a blank preamble line.
+                if (line == null || (line.length == 0 && lineTerminator.size() == 0)) {
                 	return false;//throw new MessagingException("Unexpected End of Stream while searching for first Mime Boundary");
                 }
 
@@ -500,9 +520,12 @@ public class MimeMultipart extends Multipart {
      * returning it as an array of bytes.  The bytes that
      * terminated the line (CR, LF, or CRLF) are recorded in
      * the supplied terminator stream so callers can reproduce
-     * the source data exactly.
+     * the source data exactly.  The line data is located a
+     * block at a time; the stream is then repositioned
+     * to the line end.
      *
-     * @param in         The source input stream.
+     * @param in         The source input stream.  This must support mark/reset.
+     * @param scanBuffer A work buffer used for reading blocks of data.
      * @param terminator Receives the line terminator bytes consumed for
      *                   this line (empty at EOF or when the data ends
      *                   without a terminator).
@@ -511,20 +534,35 @@ public class MimeMultipart extends Multipart {
      *         null if there's nothing left in the stream.
      * @exception MessagingException
      */
-    private byte[] readLine(final BufferedInputStream in, final ByteArrayOutputStream terminator) throws IOException
+    private byte[] readLine(final InputStream in, final byte[] scanBuffer, final ByteArrayOutputStream terminator) throws IOException
     {
         final ByteArrayOutputStream line = new ByteArrayOutputStream();
 
-        while (in.available() > 0) {
-            int value = in.read();
-            if (value == -1) {
+        int available;
+        while ((available = in.available()) > 0) {
+            final int length = Math.min(available, scanBuffer.length);
+            in.mark(length);
+            final int count = in.read(scanBuffer, 0, length);
+            if (count == -1) {
                 // if we have nothing in the accumulator, signal an EOF back
                 if (line.size() == 0) {
                     return null;
                 }
                 break;
             }
-            else if (value == '\r') {
+            final int lineEnd = findLineEnd(scanBuffer, 0, count);
+            // no line end in this block, so it's all line data
+            if (lineEnd == -1) {
+                line.write(scanBuffer, 0, count);
+                continue;
+            }
+            // keep the data up to the line end, then rewind to the terminator
+            line.write(scanBuffer, 0, lineEnd);
+            in.reset();
+            skipFully(in, lineEnd);
+
+            int value = in.read();
+            if (value == '\r') {
                 terminator.write('\r');
                 in.mark(10);
                 value = in.read();
@@ -536,22 +574,63 @@ public class MimeMultipart extends Multipart {
                 else {
                     terminator.write('\n');
                 }
-                break;
             }
-            else if (value == '\n') {
+            else {
                 // naked linefeed, allow that
                 terminator.write('\n');
-                break;
-            }
-            else {
-                // write this to the line
-                line.write((byte)value);
             }
+            break;
         }
         // return this as an array of bytes
         return line.toByteArray();
     }
 
+    /**
+     * Locate the first CR or LF character within a block of data.
+     *
+     * @param buffer The data buffer.
+     * @param offset The starting offset of the data.
+     * @param length The length of the data.
+     *
+     * @return The buffer index of the line end character, or -1 if the
+     *         block does not contain one.
+     */
+    private static int findLineEnd(final byte[] buffer, final int offset, final int length) {
+        final int limit = offset + length;
+        for (int i = offset; i < limit; i++) {
+            final byte b = buffer[i];
+            if (b == '\r' || b == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Skip over data that has already been examined after a stream
+     * has been reset to a mark point.
+     *
+     * @param in     The source stream.
+     * @param count  The number of bytes to skip.
+     *
+     * @exception IOException
+     */
+    private static void skipFully(final InputStream in, int count) throws IOException {
+        while (count > 0) {
+            final long skipped = in.skip(count);
+            if (skipped > 0) {
+                count -= skipped;
+            }
+            else {
+                // skip() is allowed to do nothing, so fall back on reading
+                if (in.read() == -1) {
+                    throw new EOFException("Unexpected end of multipart data");
+                }
+                count--;
+            }
+        }
+    }
+
 
     protected InternetHeaders createInternetHeaders(final InputStream in) throws MessagingException {
         return new InternetHeaders(in);
@@ -565,6 +644,37 @@ public class MimeMultipart extends Multipart {
         return new MimeBodyPart(in);
     }
 
+    /**
+     * Create a body part whose content is a substream of a shared
+     * source stream.  The part headers are read from the part stream,
+     * then the remainder of the part is skipped to locate the boundary.
+     * Only the headers are held in memory; the content is read
+     * from the shared source on demand.
+     *
+     * @param partStream The stream positioned at the start of the part.
+     * @param shared     The shared source stream the part is read from.
+     *
+     * @return A MimeBodyPart referencing the part content in place.
+     * @exception MessagingException
+     */
+    private MimeBodyPart createSharedMimeBodyPart(final MimeBodyPartInputStream partStream, final SharedInputStream shared) throws MessagingException {
+        final InternetHeaders headers = createInternetHeaders(partStream);
+        final long start = shared.getPosition();
+        try {
+            // skip the content, which leaves the part stream positioned after the boundary
+            final byte[] buffer = new byte[SCAN_BLOCK_SIZE];
+            while (partStream.read(buffer, 0, buffer.length) != -1) {
+            }
+        } catch (final IOException e) {
+            throw new MessagingException(e.toString(), e);
+        }
+        final long end = partStream.contentEnd;
+        final MimeBodyPart part = createMimeBodyPart(headers, null);
+        // a part consisting of just headers ends before the content would have started
+        part.contentStream = shared.newStream(Math.min(start, end), end);
+        return part;
+    }
+
     // static used to track boundary value allocations to help ensure uniqueness.
     private static int part;
 
@@ -579,15 +689,24 @@ public class MimeMultipart extends Multipart {
     }
 
     private class MimeBodyPartInputStream extends InputStream {
-        BufferedInputStream inStream;
+        InputStream inStream;
         public boolean boundaryFound = false;
         byte[] boundary;
         public boolean finalBoundaryFound = false;
+        // the shared source stream (if any), used to track where the part content ends
+        SharedInputStream shared;
+        // the shared stream position of the end of the part content
+        public long contentEnd = -1;
+
+        public MimeBodyPartInputStream(final InputStream inStream, final byte[] boundary) {
+            this(inStream, boundary, null);
+        }
 
-        public MimeBodyPartInputStream(final BufferedInputStream inStream, final byte[] boundary) {
+        public MimeBodyPartInputStream(final InputStream inStream, final byte[] boundary, final SharedInputStream shared) {
             super();
             this.inStream = inStream;
             this.boundary = boundary;
+            this.shared = shared;
         }
 
         /**
@@ -608,6 +727,9 @@ public class MimeMultipart extends Multipart {
             // premature end?  Handle it like a boundary located
             if (firstChar == -1) {
             	//DO NOT treat this a a boundary because if we do so we have no chance to detect missing end boundaries
+                if (shared != null) {
+                    contentEnd = shared.getPosition();
+                }
                 return -1;
             }
 
@@ -622,6 +744,8 @@ public class MimeMultipart extends Multipart {
                 // not a \r, just return the byte as is
                 return firstChar;
             }
+            // if this turns out to be a boundary, the part content ends before this line end
+            final long lineEnd = shared != null ? shared.getPosition() - 1 : -1;
             // we might need to rewind to this point.  The padding is to allow for
             // line terminators and linear whitespace on the boundary lines
             inStream.mark(boundary.length + 1000);
@@ -698,6 +822,7 @@ public class MimeMultipart extends Multipart {
                     finalBoundaryFound = true;
                     // we have a boundary, so return this as an EOF condition
                     boundaryFound = true;
+                    contentEnd = lineEnd;
                     return -1;
                 }
 
@@ -753,8 +878,69 @@ public class MimeMultipart extends Multipart {
             }
             // we have a boundary, so return this as an EOF condition
             boundaryFound = true;
+            contentEnd = lineEnd;
             return -1;
         }
+
+        /**
+         * Read a block of part data.  Data is read from the source
+         * a block at a time and scanned for line ends.  Everything before
+         * a line end is returned as is; at a line end the stream is
+         * repositioned and the single character read() performs
+         * the boundary checks.
+         *
+         * @param buffer The target buffer.
+         * @param offset The starting offset in the buffer.
+         * @param length The maximum number of bytes to read.
+         *
+         * @return The number of bytes read, or -1 if the end of the part was reached.
+         * @exception IOException
+         */
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (boundaryFound) {
+                return -1;
+            }
+
+            int count = 0;
+            while (count < length) {
+                final int blockSize = Math.min(length - count, SCAN_BLOCK_SIZE);
+                inStream.mark(blockSize);
+                final int read = inStream.read(buffer, offset + count, blockSize);
+                if (read <= 0) {
+                    // let the single character read handle the end of the data
+                    inStream.reset();
+                    break;
+                }
+                final int lineEnd = findLineEnd(buffer, offset + count, read);
+                // no line end, so this entire block is part data.  Return what we have rather
+                // than blocking for more.
+                if (lineEnd == -1) {
+                    return count + read;
+                }
+                // keep the data before the line end and rewind the stream to the line end
+                final int data = lineEnd - (offset + count);
+                inStream.reset();
+                skipFully(inStream, data);
+                count += data;
+
+                // the line end might start a boundary
+                final int value = read();
+                if (value == -1) {
+                    break;
+                }
+                buffer[offset + count] = (byte) value;
+                count++;
+            }
+            // a boundary or EOF with nothing read is the end of this part
+            if (count == 0) {
+                return read();
+            }
+            return count;
+        }
     }
 
 
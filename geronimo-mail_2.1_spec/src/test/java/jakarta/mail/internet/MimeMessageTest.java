@@ -39,6 +39,7 @@ import jakarta.mail.MessagingException;
 import jakarta.mail.Session;
 
 import jakarta.mail.*;
+import jakarta.mail.util.SharedByteArrayInputStream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -654,4 +655,51 @@ public class MimeMessageTest {
         msg.setHeader("Content-Disposition", "");
         assertNull(msg.getFileName());
     }
+
+    @Test
+    public void testParseSharedInputStream() throws Exception {
+        final String data = "Subject: shared\r\n"
+                + "Content-Type: multipart/mixed; boundary=\"xyz\"\r\n"
+                + "\r\n"
+                + "preamble\r\n"
+                + "--xyz\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "\r\n"
+                + "first part\r\n"
+                + "second line\r\n"
+                + "--xyz\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "\r\n"
+                + "last part\r\n"
+                + "--xyz--\r\n";
+        final MimeMessage msg = new MimeMessage(session, new SharedByteArrayInputStream(data.getBytes("ISO8859-1")));
+        assertEquals("shared", msg.getSubject());
+
+        // the content is referenced in place, and can be read more than once
+        final InputStream raw = msg.getRawInputStream();
+        assertTrue(raw instanceof SharedInputStream);
+        assertEquals(data.substring(data.indexOf("preamble")), readStream(raw));
+        assertEquals(data.substring(data.indexOf("preamble")), readStream(msg.getRawInputStream()));
+
+        final MimeMultipart mp = new MimeMultipart(new MimePartDataSource(msg));
+        assertEquals(2, mp.getCount());
+        assertEquals("preamble\r\n", mp.getPreamble());
+        final MimeBodyPart first = (MimeBodyPart) mp.getBodyPart(0);
+        assertEquals("text/plain", first.getContentType());
+        assertTrue(first.getRawInputStream() instanceof SharedInputStream);
+        assertEquals("first part\r\nsecond line", readStream(first.getRawInputStream()));
+        final MimeBodyPart last = (MimeBodyPart) mp.getBodyPart(1);
+        assertEquals("last part", readStream(last.getRawInputStream()));
+        assertTrue(mp.isComplete());
+    }
+
+    private String readStream(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int ch;
+        while ((ch = in.read()) != -1) {
+            out.write(ch);
+        }
+        in.close();
+        return new String(out.toByteArray(), "ISO8859-1");
+    }
 }
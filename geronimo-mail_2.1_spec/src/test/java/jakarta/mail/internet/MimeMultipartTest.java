@@ -312,6 +312,68 @@ public class MimeMultipartTest {
         assertEquals("line one\r\nline two\r\n", crlfPart.getPreamble());
     }
 
+    @Test
+    public void testBlankLineInPreamble() throws Exception {
+        // a blank line in the preamble is not the end of the data
+        final String blankMessage = "This is a multi-part message in MIME format.\r\n\r\n--abc\r\n\r\nbody\r\n--abc--\r\n";
+        final MimeMultipart blankPart = new MimeMultipart(new jakarta.mail.util.ByteArrayDataSource(
+                blankMessage.getBytes("ISO8859-1"), "multipart/mixed; boundary=abc"));
+        assertEquals(1, blankPart.getCount());
+        assertEquals("This is a multi-part message in MIME format.\r\n\r\n", blankPart.getPreamble());
+
+        // the same goes when the boundary has to be found without a boundary parameter
+        final String lfMessage = "Preamble\n\n\n--abc\n\nbody\n--abc--\n";
+        try {
+            setMultipartSystemPropsToDefault();
+            final MimeMultipart noParameter = new MimeMultipart(new jakarta.mail.util.ByteArrayDataSource(
+                    lfMessage.getBytes("ISO8859-1"), "multipart/mixed"));
+            assertEquals(1, noParameter.getCount());
+            assertEquals("Preamble\n\n\n", noParameter.getPreamble());
+        } finally {
+            setMultipartSystemPropsToDefault();
+        }
+
+        // but running out of data before any boundary still finds no parts
+        try {
+            setMultipartSystemProps(true, true, false, true);
+            final MimeMultipart noBoundary = new MimeMultipart(new jakarta.mail.util.ByteArrayDataSource(
+                    "Preamble\r\n\r\n".getBytes("ISO8859-1"), "multipart/mixed; boundary=abc"));
+            assertEquals(0, noBoundary.getCount());
+        } finally {
+            setMultipartSystemPropsToDefault();
+        }
+    }
+
+    @Test
+    public void testPartBoundaryScanning() throws Exception {
+        // lines longer than a scan block, near-miss boundaries and a bare CR
+        // must all come back as part data
+        final StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            longLine.append((char) ('a' + (i % 26)));
+        }
+        final String body = longLine + "\r\n--abcd\r\n--abc-x\r\n-- abc\rtext\n\r\n" + longLine;
+        final String message = "--abc\r\nContent-Type: text/plain\r\n\r\n" + body
+                + "\r\n--abc \t\r\n\r\nsecond\n--abc--";
+        final MimeMultipart mp = new MimeMultipart(new jakarta.mail.util.ByteArrayDataSource(
+                message.getBytes("ISO8859-1"), "multipart/mixed; boundary=abc"));
+        assertEquals(2, mp.getCount());
+        assertTrue(mp.isComplete());
+        assertEquals(body, readRaw((MimeBodyPart) mp.getBodyPart(0)));
+        assertEquals("second", readRaw((MimeBodyPart) mp.getBodyPart(1)));
+    }
+
+    private String readRaw(final MimeBodyPart part) throws Exception {
+        final InputStream in = part.getRawInputStream();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1000];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toString("ISO8859-1");
+    }
+
     @Test
     public void testMultipartDataSourceContentType() throws Exception {
         writeToSetUp();